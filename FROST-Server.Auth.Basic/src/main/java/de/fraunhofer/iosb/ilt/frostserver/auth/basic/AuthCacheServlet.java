@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.basic;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admin servlet for the credential and role cache of the DatabaseHandler. GET
+ * shows the cache statistics, POST flushes the cache, or only the entries of
+ * the user given in the parameter {@value #PARAM_USER}.
+ *
+ * @author scf
+ */
+public class AuthCacheServlet extends HttpServlet {
+
+    public static final String SERVLET_NAME = "AuthCache";
+    public static final String PATH = "/AuthCache";
+    public static final String PARAM_USER = "user";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthCacheServlet.class);
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain;charset=UTF-8");
+        try (PrintWriter out = response.getWriter()) {
+            out.print(getDatabaseHandler().getCacheStatus());
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        DatabaseHandler databaseHandler = getDatabaseHandler();
+        String userName = request.getParameter(PARAM_USER);
+        response.setContentType("text/plain;charset=UTF-8");
+        try (PrintWriter out = response.getWriter()) {
+            if (userName == null || userName.isEmpty()) {
+                databaseHandler.flushCache();
+                out.println("Flushed the credential and role cache.");
+            } else {
+                databaseHandler.flushCache(userName);
+                out.println("Flushed the credential and role cache for user " + userName + ".");
+            }
+        } catch (IOException exc) {
+            LOGGER.error("Error writing output to client", exc);
+        }
+    }
+
+    /**
+     * The DatabaseHandler whose cache this servlet manages.
+     *
+     * @return The DatabaseHandler.
+     */
+    protected DatabaseHandler getDatabaseHandler() {
+        return DatabaseHandler.getInstance();
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Credential and role cache servlet.";
+    }
+
+}
@@ -43,6 +43,7 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -129,15 +130,13 @@ public class BasicAuthFilter implements Filter {
             return false;
         }
 
-        String userPassBase64 = authHeader.substring(BASIC_PREFIX.length());
-        String userPassDecoded = new String(Base64.getDecoder().decode(userPassBase64), StringHelper.UTF8);
-        if (!userPassDecoded.contains(":")) {
+        String[] split = decodeCredentials(authHeader);
+        if (split == null) {
             LOGGER.debug("Rejecting request: no username:password in basic auth header.");
             throwAuthRequired(response);
             return false;
         }
 
-        String[] split = userPassDecoded.split(":", 2);
         String userName = split[0];
         String userPass = split[1];
         if (!databaseHandler.userHasRole(userName, userPass, roleName)) {
@@ -172,7 +171,48 @@ public class BasicAuthFilter implements Filter {
         }
 
         if (checker.isAllowed(request, response)) {
-            chain.doFilter(request, response);
+            chain.doFilter(new RoleCheckingRequest(request, databaseHandler), response);
+        }
+    }
+
+    /**
+     * Decodes the user name and password from a basic auth header.
+     *
+     * @param authHeader The header value, starting with "Basic ".
+     * @return The user name and password, or null if the header does not hold
+     * a username:password pair.
+     */
+    private static String[] decodeCredentials(String authHeader) {
+        String userPassBase64 = authHeader.substring(BASIC_PREFIX.length());
+        String userPassDecoded = new String(Base64.getDecoder().decode(userPassBase64), StringHelper.UTF8);
+        if (!userPassDecoded.contains(":")) {
+            return null;
+        }
+        return userPassDecoded.split(":", 2);
+    }
+
+    /**
+     * Makes the roles of the user from the basic auth header available through
+     * {@link HttpServletRequest#isUserInRole(String)}, so servlets can check
+     * for additional roles.
+     */
+    private static class RoleCheckingRequest extends HttpServletRequestWrapper {
+
+        private final DatabaseHandler databaseHandler;
+
+        public RoleCheckingRequest(HttpServletRequest request, DatabaseHandler databaseHandler) {
+            super(request);
+            this.databaseHandler = databaseHandler;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            String authHeader = getHeader(AUTHORIZATION_HEADER);
+            if (authHeader == null || !authHeader.startsWith(BASIC_PREFIX)) {
+                return false;
+            }
+            String[] split = decodeCredentials(authHeader);
+            return split != null && databaseHandler.userHasRole(split[0], split[1], role);
         }
     }
 
@@ -32,6 +32,7 @@ import java.util.Map;
 import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletRegistration;
 
 /**
  *
@@ -60,6 +61,7 @@ public class BasicAuthFilterHelper {
         authFilterSta.setInitParameter(TAG_ROLE_POST, roleMapping.get(Role.CREATE));
         authFilterSta.setInitParameter(TAG_ROLE_PUT, roleMapping.get(Role.UPDATE));
         authFilterSta.setInitParameter(TAG_ROLE_DELETE, roleMapping.get(Role.DELETE));
+        authFilterSta.setAsyncSupported(true);
         authFilterSta.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/v1.0", "/v1.0/*");
 
         filterName = "AuthFilterAdmin";
@@ -71,6 +73,12 @@ public class BasicAuthFilterHelper {
         authFilterAdmin.setInitParameter(TAG_ROLE_POST, adminRoleString);
         authFilterAdmin.setInitParameter(TAG_ROLE_PUT, adminRoleString);
         authFilterAdmin.setInitParameter(TAG_ROLE_DELETE, adminRoleString);
-        authFilterAdmin.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/DatabaseStatus");
+        authFilterAdmin.setAsyncSupported(true);
+        authFilterAdmin.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/DatabaseStatus", "/metrics", AuthCacheServlet.PATH);
+
+        ServletRegistration.Dynamic authCache = servletContext.addServlet(AuthCacheServlet.SERVLET_NAME, AuthCacheServlet.class.getName());
+        if (authCache != null) {
+            authCache.addMapping(AuthCacheServlet.PATH);
+        }
     }
 }
@@ -21,11 +21,13 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 import de.fraunhofer.iosb.ilt.frostserver.util.AuthProvider;
 import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUser;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UpgradeFailedException;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.function.Consumer;
 
 /**
  *
@@ -41,6 +43,11 @@ public class BasicAuthProvider implements AuthProvider, LiquibaseUser, ConfigDef
     @DefaultValue("FROST-Server")
     public static final String TAG_AUTH_REALM_NAME = "realmName";
 
+    @DefaultValueInt(300)
+    public static final String TAG_CACHE_TTL = "cacheTtl";
+    @DefaultValueInt(10000)
+    public static final String TAG_CACHE_MAX_SIZE = "cacheMaxSize";
+
     @DefaultValue("read")
     public static final String TAG_ROLE_GET = "roleGet";
     @DefaultValue("update")
@@ -72,6 +79,11 @@ public class BasicAuthProvider implements AuthProvider, LiquibaseUser, ConfigDef
         return DatabaseHandler.getInstance().userHasRole(userName, roleName);
     }
 
+    @Override
+    public void addCacheFlushListener(Consumer<String> listener) {
+        DatabaseHandler.getInstance().addCacheFlushListener(listener);
+    }
+
     @Override
     public String checkForUpgrades() {
         return DatabaseHandler.getInstance().checkForUpgrades();
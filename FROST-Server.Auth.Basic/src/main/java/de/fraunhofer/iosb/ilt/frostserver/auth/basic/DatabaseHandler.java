@@ -19,6 +19,12 @@ package de.fraunhofer.iosb.ilt.frostserver.auth.basic;
 
 import static de.fraunhofer.iosb.ilt.frostserver.auth.basic.BasicAuthProvider.LIQUIBASE_CHANGELOG_FILENAME;
 import static de.fraunhofer.iosb.ilt.frostserver.auth.basic.BasicAuthProvider.TAG_AUTO_UPDATE_DATABASE;
+import static de.fraunhofer.iosb.ilt.frostserver.auth.basic.BasicAuthProvider.TAG_CACHE_MAX_SIZE;
+import static de.fraunhofer.iosb.ilt.frostserver.auth.basic.BasicAuthProvider.TAG_CACHE_TTL;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.ConnectionUtils;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.LiquibaseHelper;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
@@ -27,8 +33,16 @@ import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUtils;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UpgradeFailedException;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.jooq.DSLContext;
 import org.jooq.Record1;
 import org.jooq.SQLDialect;
@@ -38,6 +52,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Checks user credentials and roles against the user database. Valid
+ * credentials and the role sets of users are cached for a configurable time,
+ * so only cache misses hit the database, each using a connection from the
+ * pool. Credentials are cached by a hash of the password, never the password
+ * itself, and failed logins are not cached.
  *
  * @author scf
  */
@@ -47,6 +66,8 @@ public class DatabaseHandler {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseHandler.class);
+    private static final String CONNECTION_NAME = "FROST-BasicAuth";
+    private static final char KEY_SEPARATOR = '\n';
     private static DatabaseHandler instance;
 
     public static void init(CoreSettings coreSettings) {
@@ -58,7 +79,7 @@ public class DatabaseHandler {
     private static synchronized void createInstance(CoreSettings coreSettings) {
         if (instance == null) {
             LOGGER.error("Initialising DatabaseHandler.");
-            instance = new DatabaseHandler(coreSettings);
+            instance = new DatabaseHandler(coreSettings, Ticker.systemTicker());
         }
     }
 
@@ -70,46 +91,85 @@ public class DatabaseHandler {
     }
 
     private final CoreSettings coreSettings;
-    private final ConnectionUtils.ConnectionWrapper connectionProvider;
-    private DSLContext dslContext;
+    private final Settings authSettings;
     private boolean maybeUpdateDatabase;
 
-    private DatabaseHandler(CoreSettings coreSettings) {
+    /**
+     * The valid credentials, by user name and password hash.
+     */
+    private final Cache<String, Boolean> credentialCache;
+    /**
+     * The roles of each user, by user name.
+     */
+    private final Cache<String, Set<String>> roleCache;
+    /**
+     * Called with the user name, or null for all users, when the cache is
+     * flushed.
+     */
+    private final List<Consumer<String>> flushListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param coreSettings The settings to use.
+     * @param ticker The time source for the cache expiry.
+     */
+    DatabaseHandler(CoreSettings coreSettings, Ticker ticker) {
         this.coreSettings = coreSettings;
-        Settings authSettings = coreSettings.getAuthSettings();
+        authSettings = coreSettings.getAuthSettings();
 
         maybeUpdateDatabase = authSettings.getBoolean(TAG_AUTO_UPDATE_DATABASE, BasicAuthProvider.class);
-        connectionProvider = new ConnectionUtils.ConnectionWrapper(authSettings);
+        long cacheTtl = authSettings.getInt(TAG_CACHE_TTL, BasicAuthProvider.class);
+        long cacheMaxSize = cacheTtl > 0 ? authSettings.getInt(TAG_CACHE_MAX_SIZE, BasicAuthProvider.class) : 0;
+        credentialCache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(cacheTtl, TimeUnit.SECONDS)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
+        roleCache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(cacheTtl, TimeUnit.SECONDS)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
     }
 
-    private synchronized DSLContext createDslContext() {
-        if (dslContext == null) {
-            dslContext = DSL.using(connectionProvider.get(), SQLDialect.POSTGRES);
+    public boolean isValidUser(String userName, String password) {
+        String key = credentialKey(userName, password);
+        if (credentialCache.getIfPresent(key) != null) {
+            return true;
         }
-        return dslContext;
-    }
-
-    public DSLContext getDslContext() {
-        if (dslContext == null) {
-            createDslContext();
+        maybeUpdateDatabase();
+        try {
+            if (!queryValidUser(userName, password)) {
+                return false;
+            }
+            credentialCache.put(key, Boolean.TRUE);
+            return true;
+        } catch (SQLException | DataAccessException exc) {
+            LOGGER.error("Failed to check user credentials.", exc);
+            return false;
         }
-        return dslContext;
     }
 
-    public boolean isValidUser(String userName, String password) {
-        maybeUpdateDatabase();
-        try {
-            Record1<Integer> one = getDslContext()
+    /**
+     * Checks the credentials in the database, bypassing the cache.
+     *
+     * @param userName The name of the user.
+     * @param password The password of the user.
+     * @return true if a user with the given name and password exists.
+     * @throws SQLException If the database can not be reached.
+     */
+    boolean queryValidUser(String userName, String password) throws SQLException {
+        try (Connection connection = ConnectionUtils.getConnection(CONNECTION_NAME, authSettings)) {
+            Record1<Integer> one = DSL.using(connection, SQLDialect.POSTGRES)
                     .selectOne()
                     .from(TableUsers.USERS)
                     .where(
                             TableUsers.USERS.userName.eq(userName)
                                     .and(TableUsers.USERS.userPass.eq(password))
                     ).fetchOne();
+            connection.rollback();
             return one != null;
-        } catch (DataAccessException exc) {
-            LOGGER.error("Failed to check user credentials.", exc);
-            return false;
         }
     }
 
@@ -123,44 +183,105 @@ public class DatabaseHandler {
      * given role.
      */
     public boolean userHasRole(String userName, String userPass, String roleName) {
-        maybeUpdateDatabase();
+        return isValidUser(userName, userPass) && userHasRole(userName, roleName);
+    }
+
+    public boolean userHasRole(String userName, String roleName) {
+        Set<String> roles = roleCache.getIfPresent(userName);
+        if (roles == null) {
+            roles = loadRoles(userName);
+        }
+        return roles.contains(roleName);
+    }
+
+    private Set<String> loadRoles(String userName) {
         try {
-            Record1<Integer> one = getDslContext()
-                    .selectOne()
-                    .from(TableUsers.USERS)
-                    .leftJoin(TableUsersRoles.USER_ROLES)
-                    .on(TableUsers.USERS.userName.eq(TableUsersRoles.USER_ROLES.userName))
-                    .where(
-                            TableUsers.USERS.userName.eq(userName)
-                                    .and(TableUsers.USERS.userPass.eq(userPass))
-                                    .and(TableUsersRoles.USER_ROLES.roleName.eq(roleName))
-                    ).fetchOne();
-            return one != null;
-        } catch (DataAccessException exc) {
+            Set<String> roles = Collections.unmodifiableSet(queryRoles(userName));
+            roleCache.put(userName, roles);
+            return roles;
+        } catch (SQLException | RuntimeException exc) {
             LOGGER.error("Failed to check user rights.", exc);
-            return false;
-        } finally {
-            connectionProvider.doRollback();
+            return Collections.emptySet();
         }
     }
 
-    public boolean userHasRole(String userName, String roleName) {
-        try {
-            Record1<Integer> one = createDslContext()
-                    .selectOne()
+    /**
+     * Loads the roles of the given user from the database, bypassing the
+     * cache.
+     *
+     * @param userName The name of the user.
+     * @return The roles of the user, empty if the user does not exist.
+     * @throws SQLException If the database can not be reached.
+     */
+    Set<String> queryRoles(String userName) throws SQLException {
+        try (Connection connection = ConnectionUtils.getConnection(CONNECTION_NAME, authSettings)) {
+            DSLContext dslContext = DSL.using(connection, SQLDialect.POSTGRES);
+            Set<String> roles = new HashSet<>(dslContext
+                    .select(TableUsersRoles.USER_ROLES.roleName)
                     .from(TableUsersRoles.USER_ROLES)
-                    .where(
-                            TableUsersRoles.USER_ROLES.userName.eq(userName)
-                                    .and(TableUsersRoles.USER_ROLES.roleName.eq(roleName))
-                    ).fetchOne();
-            return one != null;
-        } catch (RuntimeException exc) {
-            LOGGER.error("Failed to check user rights.", exc);
-            return false;
+                    .where(TableUsersRoles.USER_ROLES.userName.eq(userName))
+                    .fetch(TableUsersRoles.USER_ROLES.roleName));
+            connection.rollback();
+            return roles;
         }
     }
 
-    private void maybeUpdateDatabase() {
+    /**
+     * Registers a listener that is called when (part of) the cache is flushed.
+     * The listener is given the name of the flushed user, or null if the
+     * entire cache was flushed.
+     *
+     * @param listener The listener to call.
+     */
+    public void addCacheFlushListener(Consumer<String> listener) {
+        flushListeners.add(listener);
+    }
+
+    /**
+     * Removes all cached credentials and roles, so that changes in the user
+     * database take effect immediately. Listeners, like the MQTT session
+     * cache, are told to flush as well. Only listeners in this JVM are
+     * reached.
+     */
+    public void flushCache() {
+        LOGGER.info("Flushing credential and role cache.");
+        credentialCache.invalidateAll();
+        roleCache.invalidateAll();
+        flushListeners.forEach(listener -> listener.accept(null));
+    }
+
+    /**
+     * Removes the cached credentials and roles of the given user.
+     *
+     * @param userName The user to remove from the cache.
+     */
+    public void flushCache(String userName) {
+        LOGGER.info("Flushing credential and role cache for user {}.", userName);
+        String prefix = userName + KEY_SEPARATOR;
+        credentialCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        roleCache.invalidate(userName);
+        flushListeners.forEach(listener -> listener.accept(userName));
+    }
+
+    /**
+     * Describes the state of the caches, for the admin endpoint.
+     *
+     * @return A human readable overview of the cache sizes and statistics.
+     */
+    public String getCacheStatus() {
+        return "credentials: " + credentialCache.size() + " entries, " + credentialCache.stats() + "\n"
+                + "roles: " + roleCache.size() + " entries, " + roleCache.stats() + "\n";
+    }
+
+    private static String credentialKey(String userName, String password) {
+        return userName + KEY_SEPARATOR + Hashing.sha256().hashString(password, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Updates the database tables, if auto-updating is enabled and the update
+     * did not run yet.
+     */
+    void maybeUpdateDatabase() {
         if (maybeUpdateDatabase) {
             BasicAuthProvider basicAuthProvider = new BasicAuthProvider();
             basicAuthProvider.init(coreSettings);
@@ -169,8 +290,7 @@ public class DatabaseHandler {
     }
 
     public String checkForUpgrades() {
-        Settings customSettings = coreSettings.getAuthSettings();
-        try (Connection connection = ConnectionUtils.getConnection("FROST-BasicAuth", customSettings)) {
+        try (Connection connection = ConnectionUtils.getConnection(CONNECTION_NAME, authSettings)) {
             return LiquibaseHelper.checkForUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME);
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
@@ -181,8 +301,7 @@ public class DatabaseHandler {
     }
 
     public boolean doUpgrades(Writer out) throws UpgradeFailedException, IOException {
-        Settings customSettings = coreSettings.getAuthSettings();
-        try (Connection connection = ConnectionUtils.getConnection("FROST-BasicAuth", customSettings)) {
+        try (Connection connection = ConnectionUtils.getConnection(CONNECTION_NAME, authSettings)) {
             return LiquibaseHelper.doUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME, out);
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
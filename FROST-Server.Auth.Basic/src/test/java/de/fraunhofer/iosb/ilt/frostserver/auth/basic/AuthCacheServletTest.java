@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.basic;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class AuthCacheServletTest {
+
+    private StubDatabaseHandler handler;
+    private AuthCacheServlet servlet;
+
+    @Before
+    public void setUp() {
+        handler = StubDatabaseHandler.create()
+                .addUser("read", "readPass", "read")
+                .addUser("admin", "adminPass", "admin");
+        servlet = new AuthCacheServlet() {
+            @Override
+            protected DatabaseHandler getDatabaseHandler() {
+                return handler;
+            }
+        };
+    }
+
+    private static HttpServletRequest request(Map<String, String> parameters) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                AuthCacheServletTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    if ("getParameter".equals(method.getName())) {
+                        return parameters.get((String) args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static HttpServletResponse response(StringWriter output) {
+        PrintWriter writer = new PrintWriter(output);
+        return (HttpServletResponse) Proxy.newProxyInstance(
+                AuthCacheServletTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getWriter":
+                            return writer;
+                        case "setContentType":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private void fillCache() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.isValidUser("admin", "adminPass"));
+        Assert.assertTrue(handler.userHasRole("read", "read"));
+        Assert.assertTrue(handler.userHasRole("admin", "admin"));
+    }
+
+    @Test
+    public void testGetShowsStatus() throws IOException {
+        fillCache();
+        StringWriter output = new StringWriter();
+        servlet.doGet(request(Collections.emptyMap()), response(output));
+        String status = output.toString();
+        Assert.assertTrue(status, status.startsWith("credentials: 2 entries"));
+        Assert.assertTrue(status, status.contains("roles: 2 entries"));
+    }
+
+    @Test
+    public void testPostFlushesAll() throws IOException {
+        fillCache();
+        StringWriter output = new StringWriter();
+        servlet.doPost(request(Collections.emptyMap()), response(output));
+        Assert.assertEquals("Flushed the credential and role cache.", output.toString().trim());
+        fillCache();
+        Assert.assertEquals(4, handler.credentialQueries.get());
+        Assert.assertEquals(4, handler.roleQueries.get());
+    }
+
+    @Test
+    public void testPostFlushesUser() throws IOException {
+        fillCache();
+        StringWriter output = new StringWriter();
+        servlet.doPost(request(Collections.singletonMap(AuthCacheServlet.PARAM_USER, "read")), response(output));
+        Assert.assertEquals("Flushed the credential and role cache for user read.", output.toString().trim());
+        fillCache();
+        Assert.assertEquals(3, handler.credentialQueries.get());
+        Assert.assertEquals(3, handler.roleQueries.get());
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.basic;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class DatabaseHandlerTest {
+
+    private StubDatabaseHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = StubDatabaseHandler.create()
+                .addUser("read", "readPass", "read")
+                .addUser("admin", "adminPass", "read", "create", "admin");
+    }
+
+    @Test
+    public void testCredentialCacheHit() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertEquals(1, handler.credentialQueries.get());
+    }
+
+    @Test
+    public void testCacheHitSkipsUpdateCheck() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertEquals(1, handler.updateChecks.get());
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertEquals(1, handler.updateChecks.get());
+    }
+
+    @Test
+    public void testFailedLoginNotCached() {
+        Assert.assertFalse(handler.isValidUser("read", "wrong"));
+        Assert.assertFalse(handler.isValidUser("read", "wrong"));
+        Assert.assertEquals(2, handler.credentialQueries.get());
+    }
+
+    @Test
+    public void testOtherPasswordIsCacheMiss() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        handler.passwords.put("read", "newPass");
+        // The cached entry is for the old password only.
+        Assert.assertTrue(handler.isValidUser("read", "newPass"));
+        Assert.assertEquals(2, handler.credentialQueries.get());
+    }
+
+    @Test
+    public void testRoleCache() {
+        Assert.assertTrue(handler.userHasRole("admin", "create"));
+        Assert.assertTrue(handler.userHasRole("admin", "admin"));
+        Assert.assertFalse(handler.userHasRole("admin", "delete"));
+        Assert.assertEquals(1, handler.roleQueries.get());
+        Assert.assertFalse(handler.userHasRole("read", "create"));
+        Assert.assertEquals(2, handler.roleQueries.get());
+    }
+
+    @Test
+    public void testUserHasRoleWithPassword() {
+        Assert.assertTrue(handler.userHasRole("admin", "adminPass", "admin"));
+        Assert.assertFalse(handler.userHasRole("admin", "wrong", "admin"));
+        Assert.assertFalse(handler.userHasRole("read", "readPass", "admin"));
+    }
+
+    @Test
+    public void testExpiry() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.userHasRole("read", "read"));
+        handler.roles.get("read").clear();
+
+        handler.advance(StubDatabaseHandler.CACHE_TTL_SECONDS - 1L, TimeUnit.SECONDS);
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.userHasRole("read", "read"));
+        Assert.assertEquals(1, handler.credentialQueries.get());
+        Assert.assertEquals(1, handler.roleQueries.get());
+
+        handler.advance(2, TimeUnit.SECONDS);
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertFalse(handler.userHasRole("read", "read"));
+        Assert.assertEquals(2, handler.credentialQueries.get());
+        Assert.assertEquals(2, handler.roleQueries.get());
+    }
+
+    @Test
+    public void testFlushAll() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.userHasRole("admin", "admin"));
+        handler.passwords.put("read", "newPass");
+        handler.roles.get("admin").remove("admin");
+
+        handler.flushCache();
+        Assert.assertFalse(handler.isValidUser("read", "readPass"));
+        Assert.assertFalse(handler.userHasRole("admin", "admin"));
+    }
+
+    @Test
+    public void testFlushUser() {
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.isValidUser("admin", "adminPass"));
+        Assert.assertTrue(handler.userHasRole("read", "read"));
+        Assert.assertTrue(handler.userHasRole("admin", "admin"));
+
+        handler.flushCache("read");
+        Assert.assertTrue(handler.isValidUser("read", "readPass"));
+        Assert.assertTrue(handler.isValidUser("admin", "adminPass"));
+        Assert.assertTrue(handler.userHasRole("read", "read"));
+        Assert.assertTrue(handler.userHasRole("admin", "admin"));
+        Assert.assertEquals(3, handler.credentialQueries.get());
+        Assert.assertEquals(3, handler.roleQueries.get());
+    }
+
+    @Test
+    public void testFlushListeners() {
+        StringBuilder flushed = new StringBuilder();
+        handler.addCacheFlushListener(userName -> flushed.append(userName).append(';'));
+        handler.flushCache("read");
+        handler.flushCache();
+        Assert.assertEquals("read;null;", flushed.toString());
+    }
+
+}
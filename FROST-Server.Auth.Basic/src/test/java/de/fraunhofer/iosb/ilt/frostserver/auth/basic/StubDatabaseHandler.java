@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.basic;
+
+import com.google.common.base.Ticker;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DatabaseHandler that answers queries from maps instead of the database,
+ * and counts them, with a clock that can be moved by hand.
+ *
+ * @author scf
+ */
+class StubDatabaseHandler extends DatabaseHandler {
+
+    static final int CACHE_TTL_SECONDS = 300;
+
+    final Map<String, String> passwords = new HashMap<>();
+    final Map<String, Set<String>> roles = new HashMap<>();
+    final AtomicInteger credentialQueries = new AtomicInteger();
+    final AtomicInteger roleQueries = new AtomicInteger();
+    final AtomicInteger updateChecks = new AtomicInteger();
+    private final FakeTicker ticker;
+
+    private StubDatabaseHandler(CoreSettings settings, FakeTicker ticker) {
+        super(settings, ticker);
+        this.ticker = ticker;
+    }
+
+    static StubDatabaseHandler create() {
+        Properties properties = new Properties();
+        properties.setProperty(CoreSettings.TAG_SERVICE_ROOT_URL, "http://example.org");
+        properties.setProperty(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.setProperty(CoreSettings.PREFIX_AUTH + BasicAuthProvider.TAG_CACHE_TTL, Integer.toString(CACHE_TTL_SECONDS));
+        return new StubDatabaseHandler(new CoreSettings(properties), new FakeTicker());
+    }
+
+    StubDatabaseHandler addUser(String userName, String password, String... userRoles) {
+        passwords.put(userName, password);
+        roles.put(userName, new HashSet<>(Arrays.asList(userRoles)));
+        return this;
+    }
+
+    void advance(long time, TimeUnit unit) {
+        ticker.nanos.addAndGet(unit.toNanos(time));
+    }
+
+    @Override
+    boolean queryValidUser(String userName, String password) throws SQLException {
+        credentialQueries.incrementAndGet();
+        return password.equals(passwords.get(userName));
+    }
+
+    @Override
+    Set<String> queryRoles(String userName) throws SQLException {
+        roleQueries.incrementAndGet();
+        return new HashSet<>(roles.getOrDefault(userName, new HashSet<>()));
+    }
+
+    @Override
+    void maybeUpdateDatabase() {
+        updateChecks.incrementAndGet();
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+}
@@ -22,20 +22,31 @@ import org.keycloak.adapters.KeycloakDeployment;
 import org.keycloak.adapters.jaas.BearerTokenLoginModule;
 
 /**
- * Creates its KeycloakDeployment from the CoreSettings instead of a file.
+ * Creates its KeycloakDeployment from the CoreSettings instead of a file, or
+ * uses a KeycloakDeployment that was already created.
  *
  * @author scf
  */
 public class BearerTokenLoginModuleFrost extends BearerTokenLoginModule {
 
     private final CoreSettings coreSettings;
+    private final KeycloakDeployment deployment;
 
     public BearerTokenLoginModuleFrost(CoreSettings coreSettings) {
         this.coreSettings = coreSettings;
+        this.deployment = null;
+    }
+
+    public BearerTokenLoginModuleFrost(KeycloakDeployment deployment) {
+        this.coreSettings = null;
+        this.deployment = deployment;
     }
 
     @Override
     protected KeycloakDeployment resolveDeployment(String keycloakConfigFile) {
+        if (deployment != null) {
+            return deployment;
+        }
         return Utils.resolveDeployment(coreSettings);
     }
 
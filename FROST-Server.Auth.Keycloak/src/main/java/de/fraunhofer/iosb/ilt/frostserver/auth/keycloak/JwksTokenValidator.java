@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.keycloak;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.methods.HttpGet;
+import org.keycloak.TokenVerifier;
+import org.keycloak.adapters.HttpAdapterUtils;
+import org.keycloak.adapters.HttpClientAdapterException;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.common.VerificationException;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JWKSUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies bearer tokens locally, against the signing keys published by the
+ * Keycloak server. The key set is fetched once, and refreshed in the
+ * background. Tokens signed with an unknown key trigger an immediate refresh,
+ * limited by the min-time-between-jwks-requests of the deployment.
+ *
+ * @author scf
+ */
+public class JwksTokenValidator {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwksTokenValidator.class);
+
+    private final KeycloakDeployment deployment;
+    private final long refreshInterval;
+    private ScheduledExecutorService refresher;
+
+    private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+    private long lastFetch;
+
+    /**
+     * @param deployment The deployment to take the JWKS url, realm and
+     * resource from.
+     * @param refreshInterval The interval, in seconds, to re-fetch the keys
+     * in. 0 to only fetch keys on demand.
+     */
+    public JwksTokenValidator(KeycloakDeployment deployment, long refreshInterval) {
+        this.deployment = deployment;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Fetches the keys and starts the background refresh.
+     */
+    public synchronized void start() {
+        refreshKeys();
+        if (refreshInterval > 0 && refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Keycloak-JWKS");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshKeys, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Verifies the signature, issuer, expiry and type of the given token, and
+     * the audience if the deployment requires it.
+     *
+     * @param tokenString The encoded token.
+     * @return The verified token.
+     * @throws VerificationException If the token is not valid.
+     */
+    public AccessToken verify(String tokenString) throws VerificationException {
+        TokenVerifier<AccessToken> verifier = TokenVerifier.create(tokenString, AccessToken.class)
+                .withDefaultChecks()
+                .realmUrl(deployment.getRealmInfoUrl());
+        if (deployment.isVerifyTokenAudience()) {
+            verifier.audience(deployment.getResourceName());
+        }
+        String kid = verifier.getHeader().getKeyId();
+        PublicKey publicKey = findKey(kid);
+        if (publicKey == null) {
+            throw new VerificationException("No public key found for kid " + kid);
+        }
+        return verifier.publicKey(publicKey).verify().getToken();
+    }
+
+    /**
+     * Finds the roles in the given token, in the same way the Keycloak
+     * adapters do: the roles of the resource if use-resource-role-mappings is
+     * set, otherwise the realm roles.
+     *
+     * @param token The token to get the roles from.
+     * @return The roles, in lower case.
+     */
+    public Set<String> getRoles(AccessToken token) {
+        AccessToken.Access access;
+        if (deployment.isUseResourceRoleMappings()) {
+            access = token.getResourceAccess(deployment.getResourceName());
+        } else {
+            access = token.getRealmAccess();
+        }
+        if (access == null || access.getRoles() == null) {
+            return Collections.emptySet();
+        }
+        Set<String> roles = new HashSet<>();
+        for (String role : access.getRoles()) {
+            roles.add(role.toLowerCase(Locale.ROOT));
+        }
+        return roles;
+    }
+
+    private PublicKey findKey(String kid) {
+        Map<String, PublicKey> current = keys;
+        PublicKey key = lookup(current, kid);
+        if (key == null) {
+            synchronized (this) {
+                long minTime = TimeUnit.SECONDS.toMillis(deployment.getMinTimeBetweenJwksRequests());
+                if (keys == current && System.currentTimeMillis() - lastFetch >= minTime) {
+                    LOGGER.debug("Unknown key id {}, refreshing keys.", kid);
+                    refreshKeys();
+                }
+                key = lookup(keys, kid);
+            }
+        }
+        return key;
+    }
+
+    private static PublicKey lookup(Map<String, PublicKey> keys, String kid) {
+        if (kid == null) {
+            // Tokens without kid are only valid when there is exactly one key.
+            return keys.size() == 1 ? keys.values().iterator().next() : null;
+        }
+        return keys.get(kid);
+    }
+
+    private synchronized void refreshKeys() {
+        lastFetch = System.currentTimeMillis();
+        try {
+            HttpGet request = new HttpGet(deployment.getJwksUrl());
+            JSONWebKeySet jwks = HttpAdapterUtils.sendJsonHttpRequest(deployment, request, JSONWebKeySet.class);
+            keys = JWKSUtils.getKeysForUse(jwks, JWK.Use.SIG);
+            LOGGER.debug("Fetched {} public keys from {}", keys.size(), deployment.getJwksUrl());
+        } catch (HttpClientAdapterException | RuntimeException exc) {
+            LOGGER.error("Failed to fetch public keys from {}: {}", deployment.getJwksUrl(), exc.getMessage());
+            LOGGER.debug("Exception:", exc);
+        }
+    }
+
+}
@@ -17,26 +17,36 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.auth.keycloak;
 
+import com.google.common.hash.Hashing;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 import de.fraunhofer.iosb.ilt.frostserver.util.AuthProvider;
 import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUser;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UpgradeFailedException;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.security.auth.Subject;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.PasswordCallback;
 import javax.security.auth.login.LoginException;
-import org.keycloak.adapters.jaas.AbstractKeycloakLoginModule;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.common.VerificationException;
+import org.keycloak.representations.AccessToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +75,12 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
      */
     @DefaultValue("")
     public static final String TAG_KEYCLOAK_CONFIG_SECRET = "keycloakConfigSecret";
+    /**
+     * The interval, in seconds, in which the public keys of the Keycloak
+     * server are re-fetched, for verifying bearer tokens.
+     */
+    @DefaultValueInt(600)
+    public static final String TAG_JWKS_REFRESH_INTERVAL = "jwksRefreshInterval";
 
     /**
      * The logger for this class.
@@ -78,15 +94,29 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
     private static final int CUTOFF_HOURS = 24;
 
     private CoreSettings coreSettings;
+    private KeycloakDeployment deployment;
+    private JwksTokenValidator tokenValidator;
 
     private class Client {
 
         public final String userName;
+        /**
+         * The hash of the password or token the client logged in with.
+         */
+        private final String credentialHash;
+        private final Set<String> roles;
+        /**
+         * Until when the credentials can be accepted without checking them
+         * again. Null if they must always be checked.
+         */
+        private final Instant validUntil;
         private Instant lastSeen;
-        private Subject subject;
 
-        public Client(String userName) {
+        public Client(String userName, String credentialHash, Set<String> roles, Instant validUntil) {
             this.userName = userName;
+            this.credentialHash = credentialHash;
+            this.roles = roles;
+            this.validUntil = validUntil;
         }
 
         /**
@@ -104,17 +134,17 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
         }
 
         /**
-         * @return the subject
+         * @return the roles, in lower case.
          */
-        public Subject getSubject() {
-            return subject;
+        public Set<String> getRoles() {
+            return roles;
         }
 
-        /**
-         * @param subject the subject to set
-         */
-        public void setSubject(Subject subject) {
-            this.subject = subject;
+        public boolean acceptsCredentials(String userName, String credentialHash, Instant now) {
+            return validUntil != null
+                    && now.isBefore(validUntil)
+                    && this.userName.equals(userName)
+                    && this.credentialHash.equals(credentialHash);
         }
 
     }
@@ -137,23 +167,59 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
         KeycloakFilterHelper.createFilters(context);
     }
 
+    private synchronized KeycloakDeployment getDeployment() {
+        if (deployment == null) {
+            deployment = Utils.resolveDeployment(coreSettings);
+        }
+        return deployment;
+    }
+
+    private synchronized JwksTokenValidator getTokenValidator() {
+        if (tokenValidator == null) {
+            int refreshInterval = coreSettings.getAuthSettings().getInt(TAG_JWKS_REFRESH_INTERVAL, getClass());
+            tokenValidator = new JwksTokenValidator(getDeployment(), refreshInterval);
+            tokenValidator.start();
+        }
+        return tokenValidator;
+    }
+
     @Override
     public boolean isValidUser(String clientId, String username, String password) {
-        AbstractKeycloakLoginModule loginModule;
-        if (password.length() > 50) {
-            LOGGER.debug("Using BearerTokenLoginModule...");
-            loginModule = new BearerTokenLoginModuleFrost(coreSettings);
-        } else {
-            LOGGER.debug("Using DirectAccessGrantsLoginModule...");
-            loginModule = new DirectAccessGrantsLoginModuleFrost(coreSettings);
+        clientMapCleanup();
+
+        Instant now = Instant.now();
+        String credentialHash = Hashing.sha256().hashString(password, StandardCharsets.UTF_8).toString();
+        Client known = CLIENTMAP.get(clientId);
+        if (known != null && known.acceptsCredentials(username, credentialHash, now)) {
+            LOGGER.debug("Login for user {} ({}) from cache", username, clientId);
+            known.setLastSeen(now);
+            return true;
         }
 
-        clientMapCleanup();
+        if (password.length() > 50) {
+            LOGGER.debug("Verifying bearer token...");
+            return checkToken(username, password, credentialHash, clientId);
+        }
+        LOGGER.debug("Using DirectAccessGrantsLoginModule...");
+        return checkLogin(new DirectAccessGrantsLoginModuleFrost(getDeployment()), username, password, credentialHash, clientId);
+    }
 
-        return checkLogin(loginModule, username, password, clientId);
+    private boolean checkToken(String username, String tokenString, String credentialHash, String clientId) {
+        try {
+            JwksTokenValidator validator = getTokenValidator();
+            AccessToken token = validator.verify(tokenString);
+            Client client = new Client(username, credentialHash, validator.getRoles(token), expiryOf(token));
+            client.setLastSeen(Instant.now());
+            CLIENTMAP.put(clientId, client);
+            return true;
+        } catch (VerificationException ex) {
+            LOGGER.error("Login failed with exception: {}", ex.getMessage());
+            LOGGER.debug("Exception:", ex);
+            return false;
+        }
     }
 
-    private boolean checkLogin(AbstractKeycloakLoginModule loginModule, String username, String password, String clientId) {
+    private boolean checkLogin(DirectAccessGrantsLoginModuleFrost loginModule, String username, String password, String credentialHash, String clientId) {
         try {
             LOGGER.debug("Login for user {} ({})", username, clientId);
             Subject subject = new Subject();
@@ -168,9 +234,17 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
             boolean login = loginModule.login();
             if (login) {
                 loginModule.commit();
-                Client client = new Client(username);
+                Set<String> roles = new HashSet<>();
+                Instant validUntil = null;
+                for (Principal principal : subject.getPrincipals()) {
+                    roles.add(principal.getName().toLowerCase(Locale.ROOT));
+                    if (principal instanceof KeycloakPrincipal) {
+                        AccessToken token = ((KeycloakPrincipal<?>) principal).getKeycloakSecurityContext().getToken();
+                        validUntil = expiryOf(token);
+                    }
+                }
+                Client client = new Client(username, credentialHash, roles, validUntil);
                 client.setLastSeen(Instant.now());
-                client.setSubject(subject);
                 CLIENTMAP.put(clientId, client);
             }
             return login;
@@ -181,6 +255,13 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
         }
     }
 
+    private static Instant expiryOf(AccessToken token) {
+        if (token == null || token.getExpiration() == 0) {
+            return null;
+        }
+        return Instant.ofEpochSecond(token.getExpiration());
+    }
+
     @Override
     public boolean userHasRole(String clientId, String userName, String roleName) {
         Client client = CLIENTMAP.get(clientId);
@@ -188,7 +269,7 @@ public class KeycloakAuthProvider implements AuthProvider, LiquibaseUser, Config
             return false;
         }
         client.setLastSeen(Instant.now());
-        boolean hasRole = client.getSubject().getPrincipals().stream().anyMatch(p -> p.getName().equalsIgnoreCase(roleName));
+        boolean hasRole = client.getRoles().contains(roleName.toLowerCase(Locale.ROOT));
         LOGGER.trace("User {} has role {}: {}", userName, roleName, hasRole);
         return hasRole;
     }
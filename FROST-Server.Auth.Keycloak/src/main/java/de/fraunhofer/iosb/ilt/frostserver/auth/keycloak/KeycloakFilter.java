@@ -88,6 +88,7 @@ public class KeycloakFilter implements Filter {
         final boolean anonRead = authSettings.getBoolean(TAG_AUTH_ALLOW_ANON_READ, CoreSettings.class);
         roleMappersByPath.put("/Data", method -> Role.ADMIN);
         roleMappersByPath.put("/keyc", method -> Role.ADMIN);
+        roleMappersByPath.put("/metr", method -> Role.ADMIN);
         roleMappersByPath.put("/v1.0",
                 (HttpMethod method) -> {
                     switch (method) {
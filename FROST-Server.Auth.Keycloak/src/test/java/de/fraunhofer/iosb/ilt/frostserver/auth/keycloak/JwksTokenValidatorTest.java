@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.auth.keycloak;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.common.VerificationException;
+import org.keycloak.jose.jwk.JSONWebKeySet;
+import org.keycloak.jose.jwk.JWK;
+import org.keycloak.jose.jwk.JWKBuilder;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Tests the JwksTokenValidator against a minimal in-process stand-in for the
+ * Keycloak server, that only serves the JWKS endpoint.
+ *
+ * @author scf
+ */
+public class JwksTokenValidatorTest {
+
+    private static final String REALM = "test";
+    private static final String RESOURCE = "frost";
+
+    private HttpServer server;
+    private final AtomicInteger jwksRequests = new AtomicInteger();
+    private volatile byte[] jwks;
+    private String realmUrl;
+    private KeyPair key1;
+    private KeyPair key2;
+    private JwksTokenValidator validator;
+
+    @Before
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        key1 = generator.generateKeyPair();
+        key2 = generator.generateKeyPair();
+        jwks = createJwks("k1", key1);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/realms/" + REALM + "/protocol/openid-connect/certs", exchange -> {
+            jwksRequests.incrementAndGet();
+            byte[] body = jwks;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        String authServerUrl = "http://localhost:" + server.getAddress().getPort() + "/auth";
+        realmUrl = authServerUrl + "/realms/" + REALM;
+        String config = "{"
+                + "\"realm\": \"" + REALM + "\","
+                + "\"auth-server-url\": \"" + authServerUrl + "\","
+                + "\"resource\": \"" + RESOURCE + "\","
+                + "\"public-client\": true,"
+                + "\"use-resource-role-mappings\": true,"
+                + "\"verify-token-audience\": true,"
+                + "\"min-time-between-jwks-requests\": 0"
+                + "}";
+        KeycloakDeployment deployment = KeycloakDeploymentBuilder.build(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+        validator = new JwksTokenValidator(deployment, 0);
+        validator.start();
+    }
+
+    @After
+    public void tearDown() {
+        validator.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testValidTokenNoExtraRequests() throws VerificationException {
+        String tokenString = sign(createToken(60, RESOURCE), "k1", key1);
+        AccessToken token = validator.verify(tokenString);
+        validator.verify(tokenString);
+        Assert.assertEquals("user", token.getSubject());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("read", "create")), validator.getRoles(token));
+        Assert.assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        assertRejected(sign(createToken(-60, RESOURCE), "k1", key1));
+        assertRejected(sign(createToken(60, "other"), "k1", key1));
+        assertRejected(sign(createToken(60, RESOURCE), "k1", key2));
+        AccessToken wrongIssuer = createToken(60, RESOURCE);
+        wrongIssuer.issuer("http://example.org/auth/realms/" + REALM);
+        assertRejected(sign(wrongIssuer, "k1", key1));
+    }
+
+    @Test
+    public void testKeyRotation() throws IOException, VerificationException {
+        jwks = createJwks("k2", key2);
+        String tokenString = sign(createToken(60, RESOURCE), "k2", key2);
+        validator.verify(tokenString);
+        Assert.assertEquals(2, jwksRequests.get());
+        validator.verify(tokenString);
+        Assert.assertEquals(2, jwksRequests.get());
+    }
+
+    private void assertRejected(String tokenString) {
+        try {
+            validator.verify(tokenString);
+            Assert.fail("Token should have been rejected.");
+        } catch (VerificationException expected) {
+            // Expected
+        }
+    }
+
+    private AccessToken createToken(int expiresIn, String audience) {
+        int now = (int) (System.currentTimeMillis() / 1000);
+        AccessToken token = new AccessToken()
+                .id("id")
+                .issuer(realmUrl)
+                .subject("user")
+                .type("Bearer")
+                .issuedAt(now)
+                .expiration(now + expiresIn);
+        token.audience(audience);
+        token.addAccess(RESOURCE).addRole("read").addRole("Create");
+        return token;
+    }
+
+    private static String sign(AccessToken token, String kid, KeyPair key) {
+        return new JWSBuilder().kid(kid).type("JWT").jsonContent(token).rsa256(key.getPrivate());
+    }
+
+    private static byte[] createJwks(String kid, KeyPair key) throws IOException {
+        JSONWebKeySet keySet = new JSONWebKeySet();
+        keySet.setKeys(new JWK[]{JWKBuilder.create().kid(kid).rs256(key.getPublic())});
+        return JsonSerialization.writeValueAsBytes(keySet);
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.UnitOfMeasurement;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Shared test data for the benchmarks: settings, realistic request URLs and
+ * payloads, and pages of entities.
+ *
+ * @author scf
+ */
+public class BenchmarkData {
+
+    public static final String SERVICE_ROOT = "http://localhost:8080/FROST-Server/v1.0";
+
+    /**
+     * Paths as they are commonly requested by clients.
+     */
+    public static final String[] PATHS = {
+        "/Things",
+        "/Things(1)/Datastreams",
+        "/Datastreams(17)/Observations",
+        "/Observations(123456)",
+        "/Things(5)/Locations(3)/HistoricalLocations",
+        "/Datastreams(17)/Observations(123456)/FeatureOfInterest/feature"
+    };
+
+    /**
+     * Queries as they are commonly sent by dashboards and exports.
+     */
+    public static final String[] QUERIES = {
+        "$top=100&$orderby=phenomenonTime desc&$count=true",
+        "$filter=phenomenonTime ge 2019-01-01T00:00:00Z and phenomenonTime lt 2019-02-01T00:00:00Z&$orderby=phenomenonTime asc&$top=1000&$select=result,phenomenonTime",
+        "$expand=Datastreams($select=name,unitOfMeasurement;$expand=Observations($top=1;$orderby=phenomenonTime desc)),Locations&$filter=properties/type eq 'weather'",
+        "$filter=st_within(location, geography'POLYGON((8 49, 9 49, 9 50, 8 50, 8 49))')&$select=name,location",
+        "$filter=(result gt 10 or result lt -10) and year(phenomenonTime) eq 2019 and substringof('temp', Datastream/name)&$orderby=Datastream/id,phenomenonTime"
+    };
+
+    public static final String OBSERVATION_JSON = "{"
+            + "\"phenomenonTime\": \"2019-03-01T12:00:00.000Z\","
+            + "\"resultTime\": \"2019-03-01T12:00:01.000Z\","
+            + "\"result\": 21.5,"
+            + "\"parameters\": {\"quality\": \"good\", \"source\": \"benchmark\"},"
+            + "\"Datastream\": {\"@iot.id\": 17}"
+            + "}";
+
+    public static final String THING_JSON = "{"
+            + "\"name\": \"Weather station 42\","
+            + "\"description\": \"A weather station on the roof.\","
+            + "\"properties\": {\"type\": \"weather\", \"owner\": \"IOSB\", \"floors\": [1, 2, 3]},"
+            + "\"Locations\": [{"
+            + "  \"name\": \"Roof\","
+            + "  \"description\": \"The roof of building A.\","
+            + "  \"encodingType\": \"application/vnd.geo+json\","
+            + "  \"location\": {\"type\": \"Point\", \"coordinates\": [8.4259, 49.0141]}"
+            + "}],"
+            + "\"Datastreams\": [{"
+            + "  \"name\": \"Air temperature\","
+            + "  \"description\": \"The air temperature, measured every minute.\","
+            + "  \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\","
+            + "  \"unitOfMeasurement\": {\"name\": \"degree Celsius\", \"symbol\": \"\u00B0C\", \"definition\": \"http://unitsofmeasure.org/ucum.html#para-30\"},"
+            + "  \"Sensor\": {\"name\": \"PT100\", \"description\": \"Resistance thermometer\", \"encodingType\": \"application/pdf\", \"metadata\": \"https://example.org/pt100.pdf\"},"
+            + "  \"ObservedProperty\": {\"name\": \"Temperature\", \"description\": \"The air temperature.\", \"definition\": \"http://dbpedia.org/page/Temperature\"}"
+            + "}]"
+            + "}";
+
+    private BenchmarkData() {
+        // Utility class, not to be instantiated.
+    }
+
+    /**
+     * Creates settings that do not touch a database.
+     *
+     * @param extra Additional properties, as key-value pairs.
+     * @return The settings.
+     */
+    public static CoreSettings createSettings(String... extra) {
+        Properties properties = new Properties();
+        properties.setProperty(CoreSettings.TAG_SERVICE_ROOT_URL, SERVICE_ROOT.substring(0, SERVICE_ROOT.length() - "/v1.0".length()));
+        properties.setProperty(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.setProperty(CoreSettings.TAG_MAX_TOP, "10000");
+        for (int i = 0; i + 1 < extra.length; i += 2) {
+            properties.setProperty(extra[i], extra[i + 1]);
+        }
+        return new CoreSettings(properties);
+    }
+
+    /**
+     * Creates a DataArray payload for CreateObservations, with the given
+     * number of rows.
+     *
+     * @param rows The number of observations in the payload.
+     * @return The json payload.
+     */
+    public static String createDataArrayJson(int rows) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[{\"Datastream\": {\"@iot.id\": 17},")
+                .append("\"components\": [\"phenomenonTime\", \"result\", \"resultTime\", \"FeatureOfInterest/id\"],")
+                .append("\"dataArray@iot.count\": ").append(rows).append(',')
+                .append("\"dataArray\": [");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String time = TimeInstant.create(1551441600000L + i * 60_000L).toString();
+            sb.append("[\"").append(time).append("\", ").append(20 + (i % 100) / 10.0)
+                    .append(", \"").append(time).append("\", 1]");
+        }
+        sb.append("]}]");
+        return sb.toString();
+    }
+
+    /**
+     * Creates a page of Observations, spread over a few Datastreams, like a
+     * query on /Observations would return.
+     *
+     * @param size The number of Observations in the page.
+     * @return The page of Observations.
+     */
+    public static EntitySet<Observation> createObservationPage(int size) {
+        Datastream[] datastreams = new Datastream[4];
+        for (int i = 0; i < datastreams.length; i++) {
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("interval", "PT1M");
+            datastreams[i] = new DatastreamBuilder()
+                    .setId(new IdLong(i + 1L))
+                    .setName("Datastream " + i)
+                    .setDescription("Benchmark Datastream " + i)
+                    .setObservationType("http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement")
+                    .setUnitOfMeasurement(new UnitOfMeasurement("degree Celsius", "\u00B0C", "http://unitsofmeasure.org/ucum.html#para-30"))
+                    .setProperties(properties)
+                    .build();
+        }
+        EntitySet<Observation> page = new EntitySetImpl<>(EntityType.OBSERVATION);
+        for (int i = 0; i < size; i++) {
+            TimeInstant time = TimeInstant.create(1551441600000L + i * 60_000L);
+            page.add(new ObservationBuilder()
+                    .setId(new IdLong(1000L + i))
+                    .setDatastream(datastreams[i % datastreams.length])
+                    .setPhenomenonTime(time)
+                    .setResultTime(time)
+                    .setResult(20 + (i % 100) / 10.0)
+                    .build());
+        }
+        page.setCount(size * 10L);
+        page.setNextLink(SERVICE_ROOT + "/Observations?$top=" + size + "&$skip=" + size);
+        return page;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files, written with {@code -rf json}, for instance
+ * from runs on two different commits. For each benchmark that is in both
+ * files the relative change is printed, with positive values meaning the
+ * second run is faster.
+ *
+ * Usage: {@code CompareResults <base.json> <new.json> [maxRegressionPercent]}.
+ * When a maximum regression is given, the exit code is 1 if any benchmark is
+ * slower by more than that percentage.
+ *
+ * @author scf
+ */
+public class CompareResults {
+
+    private static final String MODE_THROUGHPUT = "thrpt";
+
+    private CompareResults() {
+        // Not to be instantiated.
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <base.json> <new.json> [maxRegressionPercent]");
+            System.exit(2);
+        }
+        double maxRegression = Double.POSITIVE_INFINITY;
+        if (args.length > 2) {
+            maxRegression = Double.parseDouble(args[2]);
+        }
+        Map<String, Result> base = readResults(new File(args[0]));
+        Map<String, Result> current = readResults(new File(args[1]));
+
+        int regressions = 0;
+        System.out.println(String.format(Locale.ROOT, "%-100s %14s %14s %8s %9s", "Benchmark", "Base", "New", "Unit", "Change"));
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result newResult = entry.getValue();
+            Result baseResult = base.get(entry.getKey());
+            if (baseResult == null) {
+                System.out.println(String.format(Locale.ROOT, "%-100s %14s %14.3f %8s %9s", entry.getKey(), "-", newResult.score, newResult.unit, "new"));
+                continue;
+            }
+            double change = baseResult.improvementTo(newResult);
+            String marker = "";
+            if (-change > maxRegression) {
+                regressions++;
+                marker = " REGRESSION";
+            } else if (!baseResult.differsSignificantly(newResult)) {
+                marker = " (within error)";
+            }
+            System.out.println(String.format(Locale.ROOT, "%-100s %14.3f %14.3f %8s %+8.1f%%%s",
+                    entry.getKey(), baseResult.score, newResult.score, newResult.unit, change, marker));
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmarks regressed by more than " + maxRegression + "%.");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        JsonNode root = new ObjectMapper().readTree(file);
+        for (JsonNode run : root) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            JsonNode params = run.path("params");
+            Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> param = fields.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            JsonNode metric = run.path("primaryMetric");
+            Result result = new Result(
+                    run.path("mode").asText(),
+                    metric.path("score").asDouble(),
+                    metric.path("scoreError").asDouble(),
+                    metric.path("scoreUnit").asText());
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    private static class Result {
+
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            // JMH writes NaN as the error when there are too few iterations.
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.unit = unit;
+        }
+
+        /**
+         * The improvement of the other result over this one, in percent.
+         * Throughput is better when higher, all other modes measure time and
+         * are better when lower.
+         */
+        double improvementTo(Result other) {
+            if (MODE_THROUGHPUT.equals(mode)) {
+                return (other.score - score) / score * 100;
+            }
+            return (score - other.score) / score * 100;
+        }
+
+        boolean differsSignificantly(Result other) {
+            return Math.abs(other.score - score) > error + other.error;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.Thing;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the parsing of request bodies: single Observations, deep-insert
+ * Things and CreateObservations DataArray payloads.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityParserBenchmark {
+
+    private static final int DATA_ARRAY_ROWS = 100;
+
+    private EntityParser entityParser;
+    private String dataArrayJson;
+
+    @Setup
+    public void setup() {
+        entityParser = new EntityParser(IdLong.class);
+        dataArrayJson = BenchmarkData.createDataArrayJson(DATA_ARRAY_ROWS);
+    }
+
+    @Benchmark
+    public Observation parseObservation() throws IOException {
+        return entityParser.parseEntity(Observation.class, BenchmarkData.OBSERVATION_JSON);
+    }
+
+    @Benchmark
+    public Thing parseThingDeepInsert() throws IOException {
+        return entityParser.parseEntity(Thing.class, BenchmarkData.THING_JSON);
+    }
+
+    @Benchmark
+    public List<DataArrayValue> parseDataArray() throws IOException {
+        return entityParser.parseObservationDataArray(dataArrayJson);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DefaultResultFormater;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.VisibilityHelper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the serialisation of pages of Observations, both as plain JSON
+ * and in the dataArray format.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int pageSize;
+
+    private ResourcePath path;
+    private Query query;
+    private Query dataArrayQuery;
+    private EntitySet<Observation> page;
+    private DefaultResultFormater resultFormatter;
+
+    @Setup
+    public void setup() {
+        CoreSettings settings = BenchmarkData.createSettings();
+        path = PathParser.parsePath(new IdManagerLong(), BenchmarkData.SERVICE_ROOT, "/Observations");
+        query = QueryParser.parseQuery("$top=" + pageSize + "&$count=true", settings);
+        query.validate(path);
+        dataArrayQuery = QueryParser.parseQuery("$top=" + pageSize + "&$resultFormat=dataArray&$select=id,phenomenonTime,result", settings);
+        dataArrayQuery.validate(path);
+        page = BenchmarkData.createObservationPage(pageSize);
+        resultFormatter = new DefaultResultFormater(settings);
+        // writeEntityCollection expects the visibility to be set already.
+        new VisibilityHelper(settings).applyVisibility(page, path, query, true);
+    }
+
+    @Benchmark
+    public String writeEntityCollection() throws IOException {
+        return EntityFormatter.writeEntityCollection(page);
+    }
+
+    @Benchmark
+    public String formatResult() {
+        return resultFormatter.format(path, query, page, true);
+    }
+
+    @Benchmark
+    public String formatDataArray() throws IOException {
+        return resultFormatter.formatDataArray(path, dataArrayQuery, page);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.InternalMessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.RingBufferMessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the in-process message bus implementations, from
+ * sending a message until it is delivered to all listeners.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBusBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"InternalMessageBus", "RingBufferMessageBus"})
+    public String busClass;
+
+    @Param({"1", "4"})
+    public int listenerCount;
+
+    private final AtomicLong received = new AtomicLong();
+    private final List<EntityChangedMessage> messages = new ArrayList<>();
+    private MessageBus bus;
+    private long expected;
+
+    @Setup
+    public void setup() {
+        CoreSettings settings = BenchmarkData.createSettings(
+                CoreSettings.PREFIX_BUS + InternalMessageBus.TAG_OVERFLOW_POLICY, "BLOCK",
+                CoreSettings.PREFIX_BUS + InternalMessageBus.TAG_QUEUE_SIZE, Integer.toString(4 * BATCH_SIZE),
+                CoreSettings.PREFIX_BUS + RingBufferMessageBus.TAG_RING_SIZE, Integer.toString(4 * BATCH_SIZE));
+        // The InternalMessageBus needs the id class, the database is not used.
+        PersistenceManagerFactory.init(settings);
+        if (InternalMessageBus.class.getSimpleName().equals(busClass)) {
+            bus = new InternalMessageBus();
+        } else {
+            bus = new RingBufferMessageBus();
+        }
+        bus.init(settings);
+        for (int i = 0; i < listenerCount; i++) {
+            bus.addMessageListener(new CountingListener(received));
+        }
+        for (Observation observation : BenchmarkData.createObservationPage(BATCH_SIZE)) {
+            messages.add(new EntityChangedMessage()
+                    .setEventType(EntityChangedMessage.Type.CREATE)
+                    .setEntity(observation));
+        }
+        received.set(0);
+        expected = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        bus.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long sendAndDeliver() {
+        for (EntityChangedMessage message : messages) {
+            bus.sendMessage(message);
+        }
+        expected += (long) BATCH_SIZE * listenerCount;
+        while (received.get() < expected) {
+            LockSupport.parkNanos(1_000);
+        }
+        return expected;
+    }
+
+    private static class CountingListener implements MessageListener {
+
+        private final AtomicLong counter;
+
+        public CountingListener(AtomicLong counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void messageReceived(EntityChangedMessage message) {
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void messagesReceived(List<EntityChangedMessage> messages) {
+            counter.addAndGet(messages.size());
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.moquette.MoquetteMqttServer;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.MqttSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import io.moquette.BrokerConstants;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the number of MQTT notifications per second that reach a
+ * subscriber, when FROST publishes them with Moquette internalPublish, and
+ * when it publishes them with a paho client that connects back to the broker
+ * over TCP, as it did before.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttPublishBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String TOPIC = "v1.0/Datastreams(1)/Observations";
+    /**
+     * The maxInFlight the loopback client used to be configured with.
+     */
+    private static final int LOOPBACK_MAX_IN_FLIGHT = 50;
+
+    @Param({"internal", "loopback"})
+    public String publisher;
+
+    @Param({"0", "1"})
+    public int qos;
+
+    private final AtomicLong received = new AtomicLong();
+    private final byte[] payload = BenchmarkData.OBSERVATION_JSON.getBytes(StringHelper.UTF8);
+    private File storeDir;
+    private MoquetteMqttServer server;
+    private MqttClient subscriber;
+    private MqttClient loopbackClient;
+    private long expected;
+
+    @Setup
+    public void setup() throws IOException, MqttException {
+        storeDir = Files.createTempDirectory("frost-bench-mqtt").toFile();
+        int port = findFreePort();
+        CoreSettings settings = BenchmarkData.createSettings(
+                CoreSettings.PREFIX_MQTT + MqttSettings.TAG_PORT, Integer.toString(port),
+                CoreSettings.PREFIX_MQTT + MoquetteMqttServer.TAG_WEBSOCKET_PORT, Integer.toString(findFreePort()),
+                CoreSettings.PREFIX_MQTT + BrokerConstants.PERSISTENT_STORE_PROPERTY_NAME, new File(storeDir, "moquette.mapdb").getPath());
+        server = new MoquetteMqttServer();
+        server.init(settings);
+        server.start();
+
+        String broker = "tcp://127.0.0.1:" + port;
+        subscriber = new MqttClient(broker, "bench-sub-" + UUID.randomUUID(), new MemoryPersistence());
+        subscriber.connect(createOptions(Math.max(LOOPBACK_MAX_IN_FLIGHT, BATCH_SIZE)));
+        subscriber.subscribe(TOPIC, qos, (topic, message) -> received.incrementAndGet());
+
+        if ("loopback".equals(publisher)) {
+            loopbackClient = new MqttClient(broker, "bench-pub-" + UUID.randomUUID(), new MemoryPersistence());
+            loopbackClient.connect(createOptions(LOOPBACK_MAX_IN_FLIGHT));
+        }
+        received.set(0);
+        expected = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws MqttException, IOException {
+        if (loopbackClient != null) {
+            loopbackClient.disconnect();
+            loopbackClient.close();
+        }
+        subscriber.disconnect();
+        subscriber.close();
+        server.stop();
+        for (File file : storeDir.listFiles()) {
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(storeDir.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long publishAndDeliver() throws MqttException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            if (loopbackClient == null) {
+                server.publish(TOPIC, payload, qos, false);
+            } else {
+                publishLoopback();
+            }
+        }
+        expected += BATCH_SIZE;
+        while (received.get() < expected) {
+            LockSupport.parkNanos(1_000);
+        }
+        return expected;
+    }
+
+    private void publishLoopback() throws MqttException {
+        while (true) {
+            try {
+                loopbackClient.publish(TOPIC, payload, qos, false);
+                return;
+            } catch (MqttException ex) {
+                if (ex.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT) {
+                    throw ex;
+                }
+                // The client has too many messages in flight, wait for acks.
+                LockSupport.parkNanos(10_000);
+            }
+        }
+    }
+
+    private static MqttConnectOptions createOptions(int maxInFlight) {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(maxInFlight);
+        return options;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.QueryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.imp.PostgresPersistenceManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.concurrent.TimeUnit;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the translation of a parsed request into SQL, by the QueryBuilder
+ * and the PgExpressionHandler. The SQL is only rendered, not executed, so no
+ * database is needed.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlGenerationBenchmark {
+
+    /**
+     * The requests to translate, as path and query, separated by a question
+     * mark. They are selected by index, since JMH does not write parameter
+     * values that contain commas correctly in its json results.
+     */
+    private static final String[] REQUESTS = {
+        "/Datastreams(17)/Observations?$orderby=phenomenonTime desc&$top=100",
+        "/Observations?$filter=phenomenonTime ge 2019-01-01T00:00:00Z and phenomenonTime lt 2019-02-01T00:00:00Z and result gt 20",
+        "/Things?$filter=Datastreams/ObservedProperty/name eq 'Temperature'&$expand=Datastreams",
+        "/Locations?$filter=st_within(location, geography'POLYGON((8 49, 9 49, 9 50, 8 50, 8 49))')",
+        "/Observations?$filter=(result gt 10 or result lt -10) and year(phenomenonTime) eq 2019 and substringof('temp', Datastream/name)&$orderby=Datastream/id,phenomenonTime"
+    };
+
+    @Param({"0", "1", "2", "3", "4"})
+    public int requestIndex;
+
+    private PostgresPersistenceManagerLong pm;
+    private CoreSettings settings;
+    private ResourcePath path;
+    private Query query;
+
+    @Setup
+    public void setup() {
+        settings = BenchmarkData.createSettings();
+        pm = new RenderOnlyPersistenceManager();
+        pm.init(settings);
+        String request = REQUESTS[requestIndex];
+        int split = request.indexOf('?');
+        path = PathParser.parsePath(pm.getIdManager(), BenchmarkData.SERVICE_ROOT, request.substring(0, split));
+        query = QueryParser.parseQuery(request.substring(split + 1), settings);
+        query.validate(path);
+    }
+
+    @Benchmark
+    public String buildSelect() {
+        return new QueryBuilder<>(pm, settings.getPersistenceSettings(), pm.getPropertyResolver())
+                .forPath(path)
+                .usingQuery(query)
+                .buildSelect()
+                .getSQL(ParamType.INLINED);
+    }
+
+    @Benchmark
+    public String buildCount() {
+        return new QueryBuilder<>(pm, settings.getPersistenceSettings(), pm.getPropertyResolver())
+                .forPath(path)
+                .usingQuery(query)
+                .buildCount()
+                .getSQL(ParamType.INLINED);
+    }
+
+    /**
+     * A PersistenceManager that uses a DSLContext without a connection. The
+     * queries it builds can be rendered, but not executed.
+     */
+    private static class RenderOnlyPersistenceManager extends PostgresPersistenceManagerLong {
+
+        private final DSLContext dslContext = DSL.using(SQLDialect.POSTGRES);
+
+        @Override
+        public DSLContext getDslContext() {
+            return dslContext;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.VisibilityHelper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the application of $select and $expand to a page of
+ * Observations with expanded Datastreams.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VisibilityBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int pageSize;
+
+    /**
+     * The queries to apply. They are selected by index, since JMH does not
+     * write parameter values that contain commas correctly in its json
+     * results.
+     */
+    private static final String[] QUERIES = {
+        "$top=10000",
+        "$top=10000&$select=id,result,phenomenonTime",
+        "$top=10000&$select=result,phenomenonTime&$expand=Datastream($select=name,unitOfMeasurement)"
+    };
+
+    @Param({"0", "1", "2"})
+    public int queryIndex;
+
+    private VisibilityHelper visibilityHelper;
+    private ResourcePath path;
+    private Query query;
+    private EntitySet<Observation> page;
+
+    @Setup
+    public void setup() {
+        CoreSettings settings = BenchmarkData.createSettings();
+        visibilityHelper = new VisibilityHelper(settings);
+        path = PathParser.parsePath(new IdManagerLong(), BenchmarkData.SERVICE_ROOT, "/Observations");
+        query = QueryParser.parseQuery(QUERIES[queryIndex], settings);
+        query.validate(path);
+        page = BenchmarkData.createObservationPage(pageSize);
+    }
+
+    @Benchmark
+    public EntitySet<Observation> applyVisibility() {
+        visibilityHelper.applyVisibility(page, path, query, true);
+        return page;
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.Property;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Formats entities as comma or tab separated values, one entity per row.
+ *
+ * The columns are taken from the $select of the query, or all properties of
+ * the entity type if there is no $select. Entities expanded over a
+ * navigationProperty that points to a single entity (like the Datastream or
+ * FeatureOfInterest of an Observation) add their own columns, prefixed with
+ * the name of the navigationProperty. Expanded entity sets can not be
+ * represented in a row and are ignored.
+ *
+ * Rows can be written one by one using {@link #startWriting(ResourcePath, Query, Writer)},
+ * so large results do not have to be collected in memory first. This is only
+ * done for users with the export role. Other results are paged like JSON
+ * results, with the nextLink in a Link header.
+ *
+ * @author scf
+ */
+public class CsvResultFormatter implements ResultFormatter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvResultFormatter.class);
+
+    public static final String FORMAT_NAME_CSV = "csv";
+    public static final String FORMAT_NAME_TSV = "tsv";
+    public static final String CONTENT_TYPE_CSV = "text/csv";
+    public static final String CONTENT_TYPE_TSV = "text/tab-separated-values";
+
+    private static final String LINE_END = "\r\n";
+    private static final char QUOTE = '"';
+
+    /**
+     * Complex values, like geometries and unitOfMeasurement, are written as
+     * JSON, on a single line.
+     */
+    private static final ObjectWriter JSON_WRITER = EntityFormatter.getObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+
+    private final char separator;
+    private final String contentType;
+
+    public CsvResultFormatter(char separator, String contentType) {
+        this.separator = separator;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Creates a formatter for the given $resultFormat value.
+     *
+     * @param formatName The value of $resultFormat.
+     * @return A formatter for CSV or TSV, or null if the format name is
+     * neither.
+     */
+    public static CsvResultFormatter fromFormatName(String formatName) {
+        if (FORMAT_NAME_CSV.equalsIgnoreCase(formatName)) {
+            return new CsvResultFormatter(',', CONTENT_TYPE_CSV);
+        }
+        if (FORMAT_NAME_TSV.equalsIgnoreCase(formatName)) {
+            return new CsvResultFormatter('\t', CONTENT_TYPE_TSV);
+        }
+        return null;
+    }
+
+    @Override
+    public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
+        StringWriter writer = new StringWriter();
+        try {
+            Consumer<Entity> rowWriter = startWriting(path, query, writer);
+            if (result instanceof EntitySet) {
+                for (Object entity : (EntitySet<?>) result) {
+                    rowWriter.accept((Entity) entity);
+                }
+            } else if (result instanceof Entity) {
+                rowWriter.accept((Entity) result);
+            } else {
+                throw new IllegalArgumentException("Only Entities and EntitySets can be formatted as " + contentType + ".");
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to format response.", ex);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Writes the header row to the given writer, and returns a consumer that
+     * writes each entity it is given as a row to the writer. The consumer
+     * throws an UncheckedIOException when writing fails.
+     *
+     * @param path The path of the request, used to determine the entity type.
+     * @param query The query of the request, used to determine the columns.
+     * @param writer The writer to write to.
+     * @return A consumer that writes the entities it receives as rows.
+     * @throws IOException If writing the header fails.
+     */
+    public Consumer<Entity> startWriting(ResourcePath path, Query query, Writer writer) throws IOException {
+        List<Column> columns = createColumns(path.getMainElementType(), query);
+        writeHeader(columns, writer);
+        return entity -> {
+            try {
+                writeRow(columns, entity, writer);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    /**
+     * Removes the expands from the query that do not add columns: expanded
+     * entity sets, expands with a longer path and expands nested in other
+     * expands. This saves the work of loading entities that are not written.
+     *
+     * @param query The query to remove the unused expands from.
+     */
+    public static void removeUnusedExpands(Query query) {
+        query.getExpand().removeIf(expand -> !hasColumns(expand));
+        for (Expand expand : query.getExpand()) {
+            if (expand.getSubQuery() != null) {
+                expand.getSubQuery().getExpand().clear();
+            }
+        }
+    }
+
+    private static boolean hasColumns(Expand expand) {
+        return expand.getPath().size() == 1 && !expand.getPath().get(0).isSet;
+    }
+
+    private static List<Column> createColumns(EntityType type, Query query) {
+        List<Column> columns = new ArrayList<>();
+        for (Property property : getColumnProperties(type, query)) {
+            columns.add(new Column(null, property));
+        }
+        if (query == null) {
+            return columns;
+        }
+        for (Expand expand : query.getExpand()) {
+            if (!hasColumns(expand)) {
+                continue;
+            }
+            NavigationProperty navProperty = expand.getPath().get(0);
+            for (Property property : getColumnProperties(navProperty.type, expand.getSubQuery())) {
+                columns.add(new Column(navProperty, property));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the (non-navigation) properties to write for the given type. If
+     * there is no $select, these are the id, followed by the other properties
+     * of the type, in a fixed order.
+     */
+    private static List<Property> getColumnProperties(EntityType type, Query query) {
+        List<Property> properties = new ArrayList<>();
+        if (query != null && !query.getSelect().isEmpty()) {
+            for (Property property : query.getSelect()) {
+                if (property instanceof EntityProperty) {
+                    properties.add(property);
+                }
+            }
+            return properties;
+        }
+        Set<Property> typeProperties = type.getPropertySet();
+        properties.add(EntityProperty.ID);
+        for (EntityProperty property : EntityProperty.values()) {
+            if (property != EntityProperty.ID && property != EntityProperty.SELFLINK && typeProperties.contains(property)) {
+                properties.add(property);
+            }
+        }
+        return properties;
+    }
+
+    private void writeHeader(List<Column> columns, Writer writer) throws IOException {
+        boolean first = true;
+        for (Column column : columns) {
+            if (!first) {
+                writer.write(separator);
+            }
+            first = false;
+            writeEscaped(column.header, writer);
+        }
+        writer.write(LINE_END);
+    }
+
+    private void writeRow(List<Column> columns, Entity entity, Writer writer) throws IOException {
+        boolean first = true;
+        for (Column column : columns) {
+            if (!first) {
+                writer.write(separator);
+            }
+            first = false;
+            writeValue(column.getValue(entity), writer);
+        }
+        writer.write(LINE_END);
+    }
+
+    private void writeValue(Object value, Writer writer) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof String) {
+            writeEscaped((String) value, writer);
+        } else if (value instanceof Id) {
+            writeEscaped(((Id) value).getValue().toString(), writer);
+        } else if (value instanceof TimeValue) {
+            writeEscaped(((TimeValue) value).asISO8601(), writer);
+        } else {
+            writeEscaped(JSON_WRITER.writeValueAsString(value), writer);
+        }
+    }
+
+    /**
+     * Writes the given text, quoting it if it contains the separator, quotes
+     * or line breaks. Quotes in quoted text are doubled.
+     */
+    private void writeEscaped(String text, Writer writer) throws IOException {
+        if (!needsQuotes(text)) {
+            writer.write(text);
+            return;
+        }
+        writer.write(QUOTE);
+        int start = 0;
+        int quote = text.indexOf(QUOTE);
+        while (quote >= 0) {
+            writer.write(text, start, quote + 1 - start);
+            writer.write(QUOTE);
+            start = quote + 1;
+            quote = text.indexOf(QUOTE, start);
+        }
+        writer.write(text, start, text.length() - start);
+        writer.write(QUOTE);
+    }
+
+    private boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == separator || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A column in the output, holding a property of the entity, or of an
+     * entity expanded over a navigationProperty.
+     */
+    private static class Column {
+
+        private final NavigationProperty navProperty;
+        private final Property property;
+        private final String header;
+
+        public Column(NavigationProperty navProperty, Property property) {
+            this.navProperty = navProperty;
+            this.property = property;
+            if (navProperty == null) {
+                header = property.getJsonName();
+            } else {
+                header = navProperty.getName() + "/" + property.getJsonName();
+            }
+        }
+
+        public Object getValue(Entity entity) {
+            if (navProperty == null) {
+                return entity.getProperty(property);
+            }
+            Object expanded = entity.getProperty(navProperty);
+            if (expanded instanceof Entity) {
+                return ((Entity) expanded).getProperty(property);
+            }
+            return null;
+        }
+    }
+}
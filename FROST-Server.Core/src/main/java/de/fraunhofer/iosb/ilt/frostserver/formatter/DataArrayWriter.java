@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DefaultResultFormater.VisibleComponents;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.util.UrlHelper;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Builds a dataArray result directly from raw Observation values, without
+ * creating Observation entities. The rows of each Datastream and
+ * MultiDatastream are written as JSON into a buffer as they come in. Once all
+ * rows are added, {@link #finish()} combines the buffers into the final
+ * result, in the same structure as {@link DataArrayResult}.
+ *
+ * Usage: for each Observation call
+ * {@link #startRow(boolean, Object, Function)}, write the values of the
+ * visible components, in order, to the returned generator, and call
+ * {@link #endRow()}.
+ *
+ * @author scf
+ */
+public class DataArrayWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final ResourcePath path;
+    private final VisibleComponents visibleComponents;
+    private final List<String> components;
+
+    private final Map<Object, Group> datastreamGroups = new HashMap<>();
+    private final Map<Object, Group> multiDatastreamGroups = new HashMap<>();
+    private final List<Group> groups = new ArrayList<>();
+    private Group currentGroup;
+
+    private long count = -1;
+    private String nextLink;
+
+    public DataArrayWriter(ResourcePath path, Query query) {
+        this.path = path;
+        if (query == null || query.getSelect().isEmpty()) {
+            visibleComponents = new VisibleComponents(true);
+        } else {
+            visibleComponents = new VisibleComponents(query.getSelect());
+        }
+        components = visibleComponents.getComponents();
+    }
+
+    /**
+     * The components that must be written for each row, in the order of
+     * {@link VisibleComponents#getComponents()}.
+     *
+     * @return The components that must be written for each row.
+     */
+    public VisibleComponents getVisibleComponents() {
+        return visibleComponents;
+    }
+
+    /**
+     * Start a new row, for an Observation of the given Datastream or
+     * MultiDatastream.
+     *
+     * @param <K> The type of the key of the parent.
+     * @param multiDatastream Flag indicating the parent is a MultiDatastream.
+     * @param parentKey The key (usually the raw id) of the parent, used to
+     * group rows.
+     * @param parentFactory Creates the parent entity from the key. Only called
+     * for the first row of each parent.
+     * @return The generator to write the values of the visible components to.
+     * @throws IOException If writing fails.
+     */
+    public <K> JsonGenerator startRow(boolean multiDatastream, K parentKey, Function<K, ? extends Entity> parentFactory) throws IOException {
+        Map<Object, Group> groupMap = multiDatastream ? multiDatastreamGroups : datastreamGroups;
+        currentGroup = groupMap.get(parentKey);
+        if (currentGroup == null) {
+            Entity parent = parentFactory.apply(parentKey);
+            currentGroup = new Group(multiDatastream, UrlHelper.generateSelfLink(path, parent));
+            groupMap.put(parentKey, currentGroup);
+            groups.add(currentGroup);
+        }
+        currentGroup.rowCount++;
+        currentGroup.generator.writeStartArray();
+        return currentGroup.generator;
+    }
+
+    /**
+     * Ends the current row.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void endRow() throws IOException {
+        currentGroup.generator.writeEndArray();
+        currentGroup = null;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public void setNextLink(String nextLink) {
+        this.nextLink = nextLink;
+    }
+
+    /**
+     * Combines all rows into the final dataArray result.
+     *
+     * @return The dataArray result as JSON.
+     * @throws IOException If writing fails.
+     */
+    public String finish() throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+            gen.writeStartObject();
+            if (count >= 0) {
+                gen.writeNumberField("@iot.count", count);
+            }
+            if (nextLink != null) {
+                gen.writeStringField("@iot.nextLink", nextLink);
+            }
+            gen.writeArrayFieldStart("value");
+            for (Group group : groups) {
+                group.generator.writeEndArray();
+                group.generator.close();
+                gen.writeStartObject();
+                if (group.multiDatastream) {
+                    gen.writeStringField("MultiDatastream@iot.navigationLink", group.navigationLink);
+                } else {
+                    gen.writeStringField("Datastream@iot.navigationLink", group.navigationLink);
+                }
+                gen.writeArrayFieldStart("components");
+                for (String component : components) {
+                    gen.writeString(component);
+                }
+                gen.writeEndArray();
+                gen.writeNumberField("dataArray@iot.count", group.rowCount);
+                gen.writeFieldName("dataArray");
+                gen.writeRawValue(group.buffer.toString());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return out.toString();
+    }
+
+    /**
+     * The rows of one Datastream or MultiDatastream.
+     */
+    private static class Group {
+
+        private final boolean multiDatastream;
+        private final String navigationLink;
+        private final StringWriter buffer = new StringWriter();
+        private final JsonGenerator generator;
+        private int rowCount;
+
+        public Group(boolean multiDatastream, String navigationLink) throws IOException {
+            this.multiDatastream = multiDatastream;
+            this.navigationLink = navigationLink;
+            generator = JSON_FACTORY.createGenerator(buffer);
+            generator.writeStartArray();
+        }
+    }
+}
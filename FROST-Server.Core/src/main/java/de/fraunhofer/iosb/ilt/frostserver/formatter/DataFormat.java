@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+
+/**
+ * The data formats that entities can be read from and written to. JSON is the
+ * default, CBOR and Smile are binary encodings of the same data model.
+ *
+ * @author scf
+ */
+public enum DataFormat {
+
+    JSON("json", "application/json", false),
+    CBOR("cbor", "application/cbor", true),
+    SMILE("smile", "application/x-jackson-smile", true);
+
+    /**
+     * The name of the format, as used in $resultFormat.
+     */
+    public final String formatName;
+    /**
+     * The mime type of the format, as used in the Accept and Content-Type
+     * headers.
+     */
+    public final String mimeType;
+    /**
+     * Flag indicating the format is binary, and can not be represented as a
+     * String.
+     */
+    public final boolean binary;
+
+    private DataFormat(String formatName, String mimeType, boolean binary) {
+        this.formatName = formatName;
+        this.mimeType = mimeType;
+        this.binary = binary;
+    }
+
+    /**
+     * Creates a new JsonFactory for this format.
+     *
+     * @return a new JsonFactory for this format.
+     */
+    public JsonFactory createFactory() {
+        switch (this) {
+            case CBOR:
+                return new CBORFactory();
+
+            case SMILE:
+                return new SmileFactory();
+
+            default:
+                return new JsonFactory();
+        }
+    }
+
+    /**
+     * Find the format with the given name, as used in $resultFormat.
+     *
+     * @param formatName The name to search for, case insensitive.
+     * @return The format with the given name, or null if there is no such
+     * format.
+     */
+    public static DataFormat fromFormatName(String formatName) {
+        if (formatName == null) {
+            return null;
+        }
+        for (DataFormat format : values()) {
+            if (format.formatName.equalsIgnoreCase(formatName)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the format for the given Content-Type header value. Any parameters
+     * (like the charset) are ignored.
+     *
+     * @param contentType The Content-Type header value.
+     * @return The format for the given content type, or JSON if the content
+     * type is empty or not a known binary format.
+     */
+    public static DataFormat fromContentType(String contentType) {
+        if (StringHelper.isNullOrEmpty(contentType)) {
+            return JSON;
+        }
+        DataFormat format = findByMimeType(contentType.split(";", 2)[0].trim());
+        if (format == null) {
+            return JSON;
+        }
+        return format;
+    }
+
+    /**
+     * Find the best format for the given Accept header value. The quality
+     * values of the listed media types are taken into account, media types
+     * with a quality of 0 are not acceptable. If there is no match, JSON is
+     * returned.
+     *
+     * @param accept The Accept header value.
+     * @return The best matching format.
+     */
+    public static DataFormat fromAcceptHeader(String accept) {
+        if (StringHelper.isNullOrEmpty(accept)) {
+            return JSON;
+        }
+        DataFormat best = JSON;
+        double bestQuality = 0;
+        for (String mediaRange : accept.split(",")) {
+            String[] parts = mediaRange.split(";");
+            DataFormat format = findByMimeType(parts[0].trim());
+            if (format == null) {
+                continue;
+            }
+            double quality = parseQuality(parts);
+            if (quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static DataFormat findByMimeType(String mimeType) {
+        for (DataFormat format : values()) {
+            if (format.mimeType.equalsIgnoreCase(mimeType)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static double parseQuality(String[] mediaRangeParts) {
+        for (int i = 1; i < mediaRangeParts.length; i++) {
+            String param = mediaRangeParts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
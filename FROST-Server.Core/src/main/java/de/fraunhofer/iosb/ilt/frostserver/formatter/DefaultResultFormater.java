@@ -22,12 +22,14 @@ import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.EntitySetResult;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.Property;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.VisibilityHelper;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -47,44 +49,100 @@ public class DefaultResultFormater implements ResultFormatter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultResultFormater.class);
 
-    private VisibilityHelper visibilityHelper;
+    private final VisibilityHelper visibilityHelper;
+    private final DataFormat dataFormat;
 
     public DefaultResultFormater(CoreSettings settings) {
+        this(settings, DataFormat.JSON);
+    }
+
+    public DefaultResultFormater(CoreSettings settings, DataFormat dataFormat) {
         this.visibilityHelper = new VisibilityHelper(settings);
-        LOGGER.debug("Creating a new resultFormatter.");
+        this.dataFormat = dataFormat;
+        LOGGER.debug("Creating a new resultFormatter for {}.", dataFormat);
     }
 
     @Override
     public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
-        String entityJsonString = "";
+        if (dataFormat.binary) {
+            throw new UnsupportedOperationException("Binary format " + dataFormat + " can not be formatted as a String.");
+        }
+        try {
+            if (isRawValue(path, result)) {
+                return formatRawValue(result);
+            }
+            return EntityFormatter.getObjectMapper().writeValueAsString(prepareResult(path, query, result, useAbsoluteNavigationLinks));
+        } catch (IOException ex) {
+            LOGGER.error("Failed to format response.", ex);
+        }
+        return "";
+    }
+
+    @Override
+    public byte[] formatBytes(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
+        if (!dataFormat.binary) {
+            return ResultFormatter.super.formatBytes(path, query, result, useAbsoluteNavigationLinks);
+        }
         try {
-            if (Entity.class.isAssignableFrom(result.getClass())) {
-                Entity entity = (Entity) result;
-                visibilityHelper.applyVisibility(entity, path, query, useAbsoluteNavigationLinks);
-                entityJsonString = EntityFormatter.writeEntity(entity);
-
-            } else if (EntitySet.class.isAssignableFrom(result.getClass())) {
-                EntitySet entitySet = (EntitySet) result;
-                if (query.getFormat() != null && query.getFormat().equalsIgnoreCase("dataarray") && entitySet.getEntityType() == EntityType.OBSERVATION) {
-                    return formatDataArray(path, query, entitySet);
-                }
-                visibilityHelper.applyVisibility(entitySet, path, query, useAbsoluteNavigationLinks);
-                entityJsonString = EntityFormatter.writeEntityCollection(entitySet);
-            } else if (path != null && path.isValue()) {
-                if (result instanceof Map || result instanceof GeoJsonObject) {
-                    entityJsonString = EntityFormatter.writeObject(result);
-                } else if (result instanceof Id) {
-                    entityJsonString = ((Id) result).getValue().toString();
-                } else {
-                    entityJsonString = result.toString();
-                }
-            } else {
-                entityJsonString = EntityFormatter.writeObject(result);
+            if (isRawValue(path, result)) {
+                return formatRawValue(result).getBytes(StringHelper.UTF8);
             }
+            return EntityFormatter.writeObject(dataFormat, prepareResult(path, query, result, useAbsoluteNavigationLinks));
         } catch (IOException ex) {
             LOGGER.error("Failed to format response.", ex);
         }
-        return entityJsonString;
+        return new byte[0];
+    }
+
+    @Override
+    public boolean isBinary() {
+        return dataFormat.binary;
+    }
+
+    @Override
+    public String getContentType() {
+        return dataFormat.mimeType;
+    }
+
+    /**
+     * Checks if the result is a $value result that is not serialised, but
+     * returned as plain text.
+     */
+    private static boolean isRawValue(ResourcePath path, Object result) {
+        return path != null
+                && path.isValue()
+                && !(result instanceof Entity)
+                && !(result instanceof EntitySet)
+                && !(result instanceof Map)
+                && !(result instanceof GeoJsonObject);
+    }
+
+    private static String formatRawValue(Object result) {
+        if (result instanceof Id) {
+            return ((Id) result).getValue().toString();
+        }
+        return result.toString();
+    }
+
+    /**
+     * Applies the visibility rules to the result and wraps it in the object
+     * that is to be serialised.
+     */
+    private Object prepareResult(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
+        if (result instanceof Entity) {
+            Entity entity = (Entity) result;
+            visibilityHelper.applyVisibility(entity, path, query, useAbsoluteNavigationLinks);
+            return entity;
+        }
+        if (result instanceof EntitySet) {
+            EntitySet entitySet = (EntitySet) result;
+            if (query != null && "dataarray".equalsIgnoreCase(query.getFormat()) && entitySet.getEntityType() == EntityType.OBSERVATION) {
+                return createDataArrayResult(path, query, entitySet);
+            }
+            visibilityHelper.applyVisibility(entitySet, path, query, useAbsoluteNavigationLinks);
+            return new EntitySetResult(entitySet);
+        }
+        return result;
     }
 
     public static class VisibleComponents {
@@ -175,6 +233,10 @@ public class DefaultResultFormater implements ResultFormatter {
     }
 
     public String formatDataArray(ResourcePath path, Query query, EntitySet<Observation> entitySet) throws IOException {
+        return EntityFormatter.writeObject(createDataArrayResult(path, query, entitySet));
+    }
+
+    private DataArrayResult createDataArrayResult(ResourcePath path, Query query, EntitySet<Observation> entitySet) {
         VisibleComponents visComps;
         if (query == null || query.getSelect().isEmpty()) {
             visComps = new VisibleComponents(true);
@@ -201,8 +263,7 @@ public class DefaultResultFormater implements ResultFormatter {
 
         result.setCount(entitySet.getCount());
         result.setNextLink(entitySet.getNextLink());
-
-        return EntityFormatter.writeObject(result);
+        return result;
     }
 
 }
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.formatter;
 
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 
 /**
  *
@@ -27,4 +28,40 @@ import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 public interface ResultFormatter {
 
     public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks);
+
+    /**
+     * Format the result as bytes. For text based formats this is the UTF-8
+     * encoded result of
+     * {@link #format(ResourcePath, Query, Object, boolean)}.
+     *
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @param result The result to format.
+     * @param useAbsoluteNavigationLinks Flag indicating navigationLinks should
+     * be absolute.
+     * @return The formatted result.
+     */
+    public default byte[] formatBytes(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
+        return format(path, query, result, useAbsoluteNavigationLinks).getBytes(StringHelper.UTF8);
+    }
+
+    /**
+     * Flag indicating the output of this formatter is binary, and
+     * {@link #formatBytes(ResourcePath, Query, Object, boolean)} must be used
+     * instead of {@link #format(ResourcePath, Query, Object, boolean)}.
+     *
+     * @return true if the output of this formatter is binary.
+     */
+    public default boolean isBinary() {
+        return false;
+    }
+
+    /**
+     * The content type of the output of this formatter.
+     *
+     * @return The content type of the output of this formatter.
+     */
+    public default String getContentType() {
+        return DataFormat.JSON.mimeType;
+    }
 }
@@ -20,9 +20,11 @@ package de.fraunhofer.iosb.ilt.frostserver.json.deserialize;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.custom.CustomDeserializationManager;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.custom.CustomEntityChangedMessageDeserializer;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.custom.CustomEntityDeserializer;
@@ -48,12 +50,14 @@ import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
 import de.fraunhofer.iosb.ilt.frostserver.json.mixin.MixinUtils;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Allows parsing of STA entities from JSON. Fails on unknown properties in the
- * JSON input!
+ * Allows parsing of STA entities from JSON, or one of the binary
+ * {@link DataFormat}s. Fails on unknown properties in the input!
  *
  * @author jab
  */
@@ -71,37 +75,37 @@ public class EntityParser {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(EntityParser.class);
 
-    private static ObjectMapper mainMapper;
+    private static final Map<DataFormat, ObjectMapper> MAIN_MAPPERS = new ConcurrentHashMap<>();
     private static Class<? extends Id> mainIdClass;
 
     /**
-     * Get an object mapper for the given id Class. If the id class is the same
-     * as for the first call, the cached mapper is returned.
+     * Get an object mapper for the given id Class and data format. If the id
+     * class is the same as for the first call, a cached mapper is returned.
      *
      * @param idClass The id class to use for this mapper.
+     * @param format The data format the mapper should read.
      * @return The cached or created object mapper.
      */
-    private static ObjectMapper getObjectMapper(Class<? extends Id> idClass) {
-        if (mainMapper == null) {
-            initMainObjectMapper(idClass);
+    private static ObjectMapper getObjectMapper(Class<? extends Id> idClass, DataFormat format) {
+        if (mainIdClass == null) {
+            initMainIdClass(idClass);
         }
         if (mainIdClass != idClass) {
             LOGGER.warn("Object Mapper requested with different id class. {} instead of {}", idClass, mainIdClass);
-            return createObjectMapper(idClass);
+            return createObjectMapper(idClass, format);
         }
-        return mainMapper;
+        return MAIN_MAPPERS.computeIfAbsent(format, f -> createObjectMapper(mainIdClass, f));
     }
 
     /**
-     * Initialise the main object mapper.
+     * Initialise the id class used for the main object mappers.
      *
-     * @param idClass The id class to use for the main object mapper.
+     * @param idClass The id class to use for the main object mappers.
      */
-    private static synchronized void initMainObjectMapper(Class<? extends Id> idClass) {
-        if (mainMapper != null) {
+    private static synchronized void initMainIdClass(Class<? extends Id> idClass) {
+        if (mainIdClass != null) {
             return;
         }
-        mainMapper = createObjectMapper(idClass);
         mainIdClass = idClass;
     }
 
@@ -109,14 +113,15 @@ public class EntityParser {
      * Create a new object mapper for the given id Class.
      *
      * @param idClass The id class to use for this mapper.
+     * @param format The data format the mapper should read.
      * @return The created object mapper.
      */
-    private static ObjectMapper createObjectMapper(Class<? extends Id> idClass) {
+    private static ObjectMapper createObjectMapper(Class<? extends Id> idClass, DataFormat format) {
         GeoJsonDeserializier geoJsonDeserializier = new GeoJsonDeserializier();
         for (String encodingType : GeoJsonDeserializier.ENCODINGS) {
             CustomDeserializationManager.getInstance().registerDeserializer(encodingType, geoJsonDeserializier);
         }
-        ObjectMapper mapper = new ObjectMapper()
+        ObjectMapper mapper = new ObjectMapper(format.createFactory())
                 .enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
                 .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
 
@@ -130,6 +135,7 @@ public class EntityParser {
         module.addDeserializer(Location.class, new CustomEntityDeserializer(Location.class));
         module.addDeserializer(FeatureOfInterest.class, new CustomEntityDeserializer(FeatureOfInterest.class));
         module.addDeserializer(Sensor.class, new CustomEntityDeserializer(Sensor.class));
+        module.addDeserializer(Observation.class, new ObservationDeserializer());
         module.addDeserializer(EntityChangedMessage.class, new CustomEntityChangedMessageDeserializer());
         module.addDeserializer(TimeInstant.class, new TimeInstantDeserializer());
         module.addDeserializer(TimeInterval.class, new TimeIntervalDeserializer());
@@ -145,7 +151,17 @@ public class EntityParser {
     private final ObjectMapper mapper;
 
     public EntityParser(Class<? extends Id> idClass) {
-        mapper = getObjectMapper(idClass);
+        this(idClass, DataFormat.JSON);
+    }
+
+    /**
+     * Create a parser for the given data format.
+     *
+     * @param idClass The id class to use.
+     * @param format The data format of the input.
+     */
+    public EntityParser(Class<? extends Id> idClass, DataFormat format) {
+        mapper = getObjectMapper(idClass, format);
     }
 
     public Datastream parseDatastream(String value) throws IOException {
@@ -176,6 +192,10 @@ public class EntityParser {
         return mapper.readValue(value, LIST_OF_DATAARRAYVALUE);
     }
 
+    public List<DataArrayValue> parseObservationDataArray(byte[] value) throws IOException {
+        return mapper.readValue(value, LIST_OF_DATAARRAYVALUE);
+    }
+
     public ObservedProperty parseObservedProperty(String value) throws IOException {
         return mapper.readValue(value, ObservedProperty.class);
     }
@@ -192,6 +212,10 @@ public class EntityParser {
         return mapper.readValue(value, clazz);
     }
 
+    public <T extends Entity> T parseEntity(Class<T> clazz, byte[] value) throws IOException {
+        return mapper.readValue(value, clazz);
+    }
+
     public <T extends Entity> T parseEntity(Class<T> clazz, JsonNode value) throws IOException {
         return mapper.treeToValue(value, clazz);
     }
@@ -200,4 +224,20 @@ public class EntityParser {
         return mapper.readValue(value, clazz);
     }
 
+    /**
+     * Parses a sequence of root-level values, all of the given class, like
+     * the frames of a message bus.
+     *
+     * @param <T> The type of the values.
+     * @param clazz The class of the values.
+     * @param value The encoded values.
+     * @return The parsed values.
+     * @throws IOException If the input could not be parsed.
+     */
+    public <T> List<T> parseObjects(Class<T> clazz, byte[] value) throws IOException {
+        try (MappingIterator<T> iterator = mapper.readerFor(clazz).readValues(value)) {
+            return iterator.readAll();
+        }
+    }
+
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.json.deserialize;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.FeatureOfInterest;
+import de.fraunhofer.iosb.ilt.frostserver.model.MultiDatastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInterval;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streaming deserializer for Observations. Observations are by far the most
+ * frequently posted entities, so instead of going through the generic bean
+ * deserializer, and the tree-based time deserializers, the properties are read
+ * directly from the token stream.
+ *
+ * Errors are reported the same way the bean deserializer reports them: unknown
+ * properties result in an UnrecognizedPropertyException, invalid values in a
+ * JsonMappingException that wraps the original cause.
+ *
+ * @author scf
+ */
+public class ObservationDeserializer extends StdDeserializer<Observation> implements ResolvableDeserializer {
+
+    private static final String FIELD_ID = "@iot.id";
+    private static final String FIELD_SELF_LINK = "@iot.selfLink";
+    private static final String FIELD_PHENOMENON_TIME = "phenomenonTime";
+    private static final String FIELD_RESULT_TIME = "resultTime";
+    private static final String FIELD_RESULT = "result";
+    private static final String FIELD_RESULT_QUALITY = "resultQuality";
+    private static final String FIELD_VALID_TIME = "validTime";
+    private static final String FIELD_PARAMETERS = "parameters";
+    private static final String FIELD_DATASTREAM = "Datastream";
+    private static final String FIELD_MULTI_DATASTREAM = "MultiDatastream";
+    private static final String FIELD_FEATURE_OF_INTEREST = "FeatureOfInterest";
+    private static final List<Object> KNOWN_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            FIELD_ID, FIELD_SELF_LINK, FIELD_PHENOMENON_TIME, FIELD_RESULT_TIME, FIELD_RESULT,
+            FIELD_RESULT_QUALITY, FIELD_VALID_TIME, FIELD_PARAMETERS, FIELD_DATASTREAM,
+            FIELD_MULTI_DATASTREAM, FIELD_FEATURE_OF_INTEREST));
+
+    /**
+     * The names of the properties that are ignored by the bean deserializer
+     * (through the JsonIgnore annotations on the MixIns). These are silently
+     * skipped, like the bean deserializer would.
+     */
+    private Set<String> ignoredNames = Collections.emptySet();
+
+    public ObservationDeserializer() {
+        super(Observation.class);
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        BeanDescription beanDescription = ctxt.getConfig().introspect(ctxt.constructType(Observation.class));
+        // The ignored names are only known after the properties are collected.
+        beanDescription.findProperties();
+        ignoredNames = beanDescription.getIgnoredPropertyNames();
+    }
+
+    @Override
+    public Collection<Object> getKnownPropertyNames() {
+        return KNOWN_FIELDS;
+    }
+
+    @Override
+    public Observation deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+            return (Observation) ctxt.handleUnexpectedToken(Observation.class, jp);
+        }
+        Observation result = new Observation();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String fieldName = jp.getCurrentName();
+            jp.nextToken();
+            try {
+                deserializeField(fieldName, result, jp, ctxt);
+            } catch (IOException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                throw JsonMappingException.wrapWithPath(ex, result, fieldName);
+            }
+        }
+        return result;
+    }
+
+    private void deserializeField(String fieldName, Observation result, JsonParser jp, DeserializationContext ctxt) throws IOException {
+        final boolean isNull = jp.getCurrentToken() == JsonToken.VALUE_NULL;
+        switch (fieldName) {
+            case FIELD_ID:
+                result.setId(isNull ? null : ctxt.readValue(jp, Id.class));
+                break;
+
+            case FIELD_SELF_LINK:
+                result.setSelfLink(isNull ? null : jp.getValueAsString());
+                break;
+
+            case FIELD_PHENOMENON_TIME:
+                result.setPhenomenonTime(isNull ? null : parseTimeValue(readTimeString(jp, ctxt, TimeValue.class)));
+                break;
+
+            case FIELD_RESULT_TIME:
+                result.setResultTime(isNull ? null : TimeInstant.parse(readTimeString(jp, ctxt, TimeInstant.class)));
+                break;
+
+            case FIELD_VALID_TIME:
+                result.setValidTime(isNull ? null : TimeInterval.parse(readTimeString(jp, ctxt, TimeInterval.class)));
+                break;
+
+            case FIELD_RESULT:
+                result.setResult(readUntyped(jp, ctxt));
+                break;
+
+            case FIELD_RESULT_QUALITY:
+                result.setResultQuality(readUntyped(jp, ctxt));
+                break;
+
+            case FIELD_PARAMETERS:
+                result.setParameters(isNull ? null : ctxt.readValue(jp, Map.class));
+                break;
+
+            case FIELD_DATASTREAM:
+                result.setDatastream(isNull ? null : ctxt.readValue(jp, Datastream.class));
+                break;
+
+            case FIELD_MULTI_DATASTREAM:
+                result.setMultiDatastream(isNull ? null : ctxt.readValue(jp, MultiDatastream.class));
+                break;
+
+            case FIELD_FEATURE_OF_INTEREST:
+                result.setFeatureOfInterest(isNull ? null : ctxt.readValue(jp, FeatureOfInterest.class));
+                break;
+
+            default:
+                if (ignoredNames.contains(fieldName)) {
+                    jp.skipChildren();
+                } else {
+                    ctxt.handleUnknownProperty(jp, this, result, fieldName);
+                }
+        }
+    }
+
+    /**
+     * Reads the textual representation of a time value. Like the tree-based
+     * time deserializers, any scalar value is accepted and handed to the
+     * parser as text.
+     */
+    private static String readTimeString(JsonParser jp, DeserializationContext ctxt, Class<?> type) throws IOException {
+        if (jp.getCurrentToken().isScalarValue()) {
+            return jp.getValueAsString();
+        }
+        return (String) ctxt.handleUnexpectedToken(type, jp);
+    }
+
+    /**
+     * Parses a time value that can be either an instant or an interval.
+     * Intervals always contain a slash, instants never do, so the (expensive)
+     * failed instant parse is only done for input that is invalid anyway.
+     */
+    private static TimeValue parseTimeValue(String value) {
+        if (value.indexOf('/') < 0) {
+            try {
+                return TimeInstant.parse(value);
+            } catch (IllegalArgumentException e) {
+                // Fall through to the interval parser, for the same error as before.
+            }
+        }
+        return TimeInterval.parse(value);
+    }
+
+    /**
+     * Reads a value of unknown type. Scalars are handled directly, honouring
+     * USE_BIG_DECIMAL_FOR_FLOATS, structured values are delegated to the
+     * untyped deserializer.
+     */
+    private Object readUntyped(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        switch (jp.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+
+            case VALUE_STRING:
+                return jp.getText();
+
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+
+            case VALUE_NUMBER_INT:
+                if (ctxt.hasSomeOfFeatures(F_MASK_INT_COERCIONS)) {
+                    return _coerceIntegral(jp, ctxt);
+                }
+                return jp.getNumberValue();
+
+            case VALUE_NUMBER_FLOAT:
+                if (ctxt.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)) {
+                    return jp.getDecimalValue();
+                }
+                return jp.getNumberValue();
+
+            default:
+                return ctxt.readValue(jp, Object.class);
+        }
+    }
+
+}
@@ -28,6 +28,7 @@ import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.custom.CustomSerialization;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.util.SimpleJsonMapper;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
@@ -106,7 +107,7 @@ public class CustomEntityDeserializer<T extends Entity> extends JsonDeserializer
                 }
                 Object customDeserializedValue = CustomDeserializationManager.getInstance()
                         .getDeserializer(customEncoding)
-                        .deserialize(mapper.writeValueAsString(obj.get(classProperty.getName())));
+                        .deserialize(SimpleJsonMapper.getSimpleObjectMapper().writeValueAsString(obj.get(classProperty.getName())));
                 classProperty.getMutator().setValue(result, customDeserializedValue);
             }
         }
@@ -23,6 +23,7 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayResult;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.custom.GeoJsonDeserializier;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.custom.CustomSerializationManager;
 import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
@@ -39,15 +40,19 @@ import de.fraunhofer.iosb.ilt.frostserver.model.ext.EntitySetResult;
 import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
 import de.fraunhofer.iosb.ilt.frostserver.json.mixin.MixinUtils;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Enables serialization of entities as JSON.
+ * Enables serialization of entities as JSON, or one of the binary
+ * {@link DataFormat}s.
  *
  * @author jab
  */
 public class EntityFormatter {
 
     private static ObjectMapper objectMapperInstance;
+    private static final Map<DataFormat, ObjectMapper> BINARY_MAPPERS = new ConcurrentHashMap<>();
 
     public static ObjectMapper getObjectMapper() {
         if (objectMapperInstance == null) {
@@ -56,15 +61,30 @@ public class EntityFormatter {
         return objectMapperInstance;
     }
 
+    /**
+     * Get the ObjectMapper for the given data format.
+     *
+     * @param format The format to get the ObjectMapper for.
+     * @return The (cached) ObjectMapper for the given format.
+     */
+    public static ObjectMapper getObjectMapper(DataFormat format) {
+        if (format == DataFormat.JSON) {
+            return getObjectMapper();
+        }
+        return BINARY_MAPPERS.computeIfAbsent(format, EntityFormatter::createObjectMapper);
+    }
+
     private static synchronized void initObjectMapper() {
         if (objectMapperInstance == null) {
-            objectMapperInstance = createObjectMapper();
+            objectMapperInstance = createObjectMapper(DataFormat.JSON);
         }
     }
 
-    private static ObjectMapper createObjectMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+    private static ObjectMapper createObjectMapper(DataFormat format) {
+        ObjectMapper mapper = new ObjectMapper(format.createFactory());
+        if (!format.binary) {
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+        }
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
         mapper.setPropertyNamingStrategy(new EntitySetCamelCaseNamingStrategy());
@@ -132,4 +152,8 @@ public class EntityFormatter {
     public static String writeObject(Object object) throws IOException {
         return getObjectMapper().writeValueAsString(object);
     }
+
+    public static byte[] writeObject(DataFormat format, Object object) throws IOException {
+        return getObjectMapper(format).writeValueAsBytes(object);
+    }
 }
@@ -18,8 +18,10 @@
 package de.fraunhofer.iosb.ilt.frostserver.json.serialize;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
@@ -56,6 +58,7 @@ public class EntitySerializer extends JsonSerializer<Entity> {
      * The logger for this class.
      */
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(EntitySerializer.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
     @Override
     public void serialize(Entity entity, JsonGenerator gen, SerializerProvider serializers) throws IOException {
@@ -174,7 +177,15 @@ public class EntitySerializer extends JsonSerializer<Entity> {
                 .serialize(property.getAccessor().getValue(entity));
         if (customJson != null && !customJson.isEmpty()) {
             gen.writeFieldName(property.getName());
-            gen.writeRawValue(customJson);
+            if (gen.canWriteBinaryNatively()) {
+                // Binary formats can not take raw JSON, copy it token by token.
+                try (JsonParser parser = JSON_FACTORY.createParser(customJson)) {
+                    parser.nextToken();
+                    gen.copyCurrentStructure(parser);
+                }
+            } else {
+                gen.writeRawValue(customJson);
+            }
         }
     }
 
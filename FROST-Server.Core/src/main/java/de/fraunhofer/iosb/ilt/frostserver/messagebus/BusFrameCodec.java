@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Packs EntityChangedMessages into frames, and unpacks them again.
+ *
+ * A frame starts with a zero byte, which can not start a JSON document, so
+ * frames can be told apart from single messages in plain JSON. The second
+ * byte holds the format code of the body in the lower four bits, and
+ * {@link #FLAG_DEFLATED} if the body is compressed. The format codes are part
+ * of the wire format, and must not change when {@link DataFormat} changes. The
+ * body is a sequence of root-level EntityChangedMessages.
+ *
+ * @author scf
+ */
+class BusFrameCodec {
+
+    private static final byte FRAME_MARKER = 0;
+    private static final int FLAG_DEFLATED = 0x10;
+    private static final int FORMAT_MASK = 0x0F;
+    private static final int HEADER_SIZE = 2;
+    private static final int CODE_JSON = 0;
+    private static final int CODE_CBOR = 1;
+    private static final int CODE_SMILE = 2;
+    /**
+     * How many times the maximum frame size a frame may inflate to. A frame
+     * can grow beyond the maximum by its last message, and the sender may be
+     * configured with a larger maximum, so some slack is needed.
+     */
+    private static final int INFLATE_LIMIT_FACTOR = 16;
+
+    private final DataFormat format;
+    private final boolean deflate;
+    private final int maxFrameBytes;
+    private final int maxInflatedBytes;
+    private final ObjectWriter writer;
+    private final Map<DataFormat, EntityParser> parsers = new EnumMap<>(DataFormat.class);
+
+    /**
+     * @param format The format to encode the messages in.
+     * @param deflate Flag indicating frames should be compressed.
+     * @param maxFrameBytes The size, before compression, after which a frame
+     * is closed and a new frame started.
+     * @param idClass The id class to use when parsing messages.
+     */
+    BusFrameCodec(DataFormat format, boolean deflate, int maxFrameBytes, Class<? extends Id> idClass) {
+        this.format = format;
+        this.deflate = deflate;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxInflatedBytes = (int) Math.min(Integer.MAX_VALUE - 8L, (long) maxFrameBytes * INFLATE_LIMIT_FACTOR);
+        ObjectMapper mapper = EntityFormatter.getObjectMapper(format);
+        this.writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        for (DataFormat parserFormat : DataFormat.values()) {
+            parsers.put(parserFormat, new EntityParser(idClass, parserFormat));
+        }
+    }
+
+    /**
+     * Check if the given payload is a frame, or a single message in JSON.
+     *
+     * @param payload The payload to check.
+     * @return true if the payload is a frame.
+     */
+    static boolean isFrame(byte[] payload) {
+        return payload.length >= HEADER_SIZE && payload[0] == FRAME_MARKER;
+    }
+
+    /**
+     * Encodes the given messages into one or more frames. A new frame is
+     * started when the current one grows beyond the maximum frame size.
+     *
+     * @param messages The messages to encode.
+     * @return The frames.
+     * @throws IOException If encoding fails.
+     */
+    List<byte[]> encode(List<EntityChangedMessage> messages) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        JsonGenerator generator = writer.getFactory().createGenerator(body);
+        for (EntityChangedMessage message : messages) {
+            writer.writeValue(generator, message);
+            generator.flush();
+            if (body.size() >= maxFrameBytes) {
+                generator.close();
+                frames.add(toFrame(body.toByteArray()));
+                body = new ByteArrayOutputStream();
+                generator = writer.getFactory().createGenerator(body);
+            }
+        }
+        generator.close();
+        if (body.size() > 0) {
+            frames.add(toFrame(body.toByteArray()));
+        }
+        return frames;
+    }
+
+    private byte[] toFrame(byte[] body) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + HEADER_SIZE);
+        frame.write(FRAME_MARKER);
+        frame.write(formatCode(format) | (deflate ? FLAG_DEFLATED : 0));
+        if (deflate) {
+            try (DeflaterOutputStream out = new DeflaterOutputStream(frame)) {
+                out.write(body);
+            }
+        } else {
+            frame.write(body);
+        }
+        return frame.toByteArray();
+    }
+
+    /**
+     * Decodes the messages in the given frame. Frames in any format can be
+     * decoded, independent of the format this codec encodes in.
+     *
+     * @param frame The frame to decode.
+     * @return The messages in the frame.
+     * @throws IOException If the frame can not be decoded.
+     */
+    List<EntityChangedMessage> decode(byte[] frame) throws IOException {
+        if (!isFrame(frame)) {
+            throw new IOException("Not a message bus frame.");
+        }
+        int flags = frame[1];
+        DataFormat bodyFormat = formatForCode(flags & FORMAT_MASK);
+        byte[] body = Arrays.copyOfRange(frame, HEADER_SIZE, frame.length);
+        if ((flags & FLAG_DEFLATED) != 0) {
+            body = inflate(body, maxInflatedBytes);
+        }
+        return parsers.get(bodyFormat).parseObjects(EntityChangedMessage.class, body);
+    }
+
+    private static int formatCode(DataFormat format) {
+        switch (format) {
+            case JSON:
+                return CODE_JSON;
+            case CBOR:
+                return CODE_CBOR;
+            case SMILE:
+                return CODE_SMILE;
+            default:
+                throw new IllegalArgumentException("No frame format code for " + format);
+        }
+    }
+
+    private static DataFormat formatForCode(int code) throws IOException {
+        switch (code) {
+            case CODE_JSON:
+                return DataFormat.JSON;
+            case CODE_CBOR:
+                return DataFormat.CBOR;
+            case CODE_SMILE:
+                return DataFormat.SMILE;
+            default:
+                throw new IOException("Unknown frame format: " + code);
+        }
+    }
+
+    /**
+     * Inflates the given data, failing if the result would grow beyond the
+     * given limit, so a corrupt or malicious frame can not exhaust the heap.
+     */
+    private static byte[] inflate(byte[] data, int limit) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream((int) Math.min(limit, data.length * 4L));
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (result.size() + read > limit) {
+                    throw new IOException("Frame inflates to more than " + limit + " bytes.");
+                }
+                result.write(buffer, 0, read);
+            }
+        }
+        return result.toByteArray();
+    }
+
+}
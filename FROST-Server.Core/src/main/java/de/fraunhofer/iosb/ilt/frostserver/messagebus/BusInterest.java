@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import java.util.Objects;
+
+/**
+ * Describes a set of entity changes that the listeners on a node are
+ * interested in: either all changes of an entity type, or only the changes of
+ * the entities of a type that have a given parent, like the Observations of
+ * Datastream 1.
+ *
+ * @author scf
+ */
+public final class BusInterest {
+
+    private final EntityType entityType;
+    private final NavigationProperty parentProperty;
+    private final Id parentId;
+    private final int hash;
+
+    private BusInterest(EntityType entityType, NavigationProperty parentProperty, Id parentId) {
+        if (entityType == null) {
+            throw new IllegalArgumentException("entityType must be non-null");
+        }
+        this.entityType = entityType;
+        this.parentProperty = parentProperty;
+        this.parentId = parentId;
+        this.hash = Objects.hash(entityType, parentProperty, parentId);
+    }
+
+    /**
+     * An interest in all changes of the given type.
+     *
+     * @param entityType The type of the entities.
+     * @return The interest.
+     */
+    public static BusInterest forType(EntityType entityType) {
+        return new BusInterest(entityType, null, null);
+    }
+
+    /**
+     * An interest in the changes of the entities of the given type that have
+     * the given parent.
+     *
+     * @param entityType The type of the entities.
+     * @param parentProperty The navigation property pointing to the parent.
+     * @param parentId The id of the parent.
+     * @return The interest.
+     */
+    public static BusInterest forParent(EntityType entityType, NavigationProperty parentProperty, Id parentId) {
+        if (parentProperty == null || parentId == null) {
+            return forType(entityType);
+        }
+        return new BusInterest(entityType, parentProperty, parentId);
+    }
+
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * @return The navigation property pointing to the parent, or null if this
+     * is an interest in all changes of the type.
+     */
+    public NavigationProperty getParentProperty() {
+        return parentProperty;
+    }
+
+    /**
+     * @return The id of the parent, or null if this is an interest in all
+     * changes of the type.
+     */
+    public Id getParentId() {
+        return parentId;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final BusInterest other = (BusInterest) obj;
+        return entityType == other.entityType
+                && parentProperty == other.parentProperty
+                && Objects.equals(parentId, other.parentId);
+    }
+
+    @Override
+    public String toString() {
+        if (parentProperty == null) {
+            return entityType.entityName;
+        }
+        return entityType.entityName + "[" + parentProperty.propertyName + "=" + parentId.getUrl() + "]";
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps entity changes to the topics they are published on, and interests to
+ * the topic filters a node subscribes to.
+ *
+ * Without partitioning, all messages go to the base topic. When partitioned
+ * by type, messages go to base/EntityType. When also partitioned by parent,
+ * messages of the types listed in {@link #PARTITION_PROPERTIES} go to
+ * base/EntityType/n, where n is derived from the hash of the id of the
+ * parent.
+ *
+ * @author scf
+ */
+class BusTopics {
+
+    /**
+     * The navigation properties used to partition the messages of an entity
+     * type by parent. The first property that is set on an entity is used.
+     */
+    private static final Map<EntityType, List<NavigationProperty>> PARTITION_PROPERTIES = new EnumMap<>(EntityType.class);
+
+    static {
+        PARTITION_PROPERTIES.put(EntityType.OBSERVATION, Arrays.asList(NavigationProperty.DATASTREAM, NavigationProperty.MULTIDATASTREAM));
+        PARTITION_PROPERTIES.put(EntityType.DATASTREAM, Arrays.asList(NavigationProperty.THING));
+        PARTITION_PROPERTIES.put(EntityType.MULTIDATASTREAM, Arrays.asList(NavigationProperty.THING));
+        PARTITION_PROPERTIES.put(EntityType.HISTORICALLOCATION, Arrays.asList(NavigationProperty.THING));
+    }
+
+    private final String baseTopic;
+    private final boolean partitionByType;
+    private final int parentPartitions;
+
+    /**
+     * @param baseTopic The base topic.
+     * @param partitionByType Flag indicating messages are published on a
+     * topic per entity type.
+     * @param parentPartitions The number of partitions per entity type, based
+     * on the parent of the entity. 0 or 1 to not partition by parent. Only
+     * used when partitioning by type.
+     */
+    BusTopics(String baseTopic, boolean partitionByType, int parentPartitions) {
+        this.baseTopic = baseTopic;
+        this.partitionByType = partitionByType;
+        this.parentPartitions = partitionByType && parentPartitions > 1 ? parentPartitions : 0;
+    }
+
+    /**
+     * Get the topic to publish the given message on.
+     *
+     * @param message The message to publish.
+     * @return The topic to publish the message on.
+     */
+    String topicFor(EntityChangedMessage message) {
+        if (!partitionByType) {
+            return baseTopic;
+        }
+        Entity entity = message.getEntity();
+        EntityType type = message.getEntityType();
+        if (type == null && entity != null) {
+            type = entity.getEntityType();
+        }
+        if (type == null) {
+            return baseTopic;
+        }
+        String typeTopic = baseTopic + "/" + type.entityName;
+        if (parentPartitions == 0 || entity == null) {
+            return typeTopic;
+        }
+        for (NavigationProperty property : PARTITION_PROPERTIES.getOrDefault(type, Collections.emptyList())) {
+            Object parent = entity.getProperty(property);
+            if (parent instanceof Entity && ((Entity) parent).getId() != null) {
+                return typeTopic + "/" + partitionOf(((Entity) parent).getId());
+            }
+        }
+        // Without a parent, only nodes interested in the entire type can match.
+        return typeTopic;
+    }
+
+    /**
+     * Get the topic filters to subscribe to, to receive all messages that
+     * match the given interests.
+     *
+     * @param interests The interests, or null for all messages.
+     * @return The topic filters to subscribe to.
+     */
+    Set<String> filtersFor(Set<BusInterest> interests) {
+        if (!partitionByType) {
+            return Collections.singleton(baseTopic);
+        }
+        if (interests == null) {
+            return Collections.singleton(baseTopic + "/#");
+        }
+        Set<EntityType> fullTypes = EnumSet.noneOf(EntityType.class);
+        for (BusInterest interest : interests) {
+            if (!isPartitioned(interest)) {
+                fullTypes.add(interest.getEntityType());
+            }
+        }
+        Set<String> result = new HashSet<>();
+        for (EntityType type : fullTypes) {
+            result.add(baseTopic + "/" + type.entityName + "/#");
+        }
+        for (BusInterest interest : interests) {
+            if (isPartitioned(interest) && !fullTypes.contains(interest.getEntityType())) {
+                result.add(baseTopic + "/" + interest.getEntityType().entityName + "/" + partitionOf(interest.getParentId()));
+            }
+        }
+        return result;
+    }
+
+    private boolean isPartitioned(BusInterest interest) {
+        return parentPartitions > 0
+                && interest.getParentProperty() != null
+                && PARTITION_PROPERTIES.getOrDefault(interest.getEntityType(), Collections.emptyList()).contains(interest.getParentProperty());
+    }
+
+    private int partitionOf(Id parentId) {
+        return Math.floorMod(parentId.getValue().hashCode(), parentPartitions);
+    }
+
+}
@@ -19,13 +19,18 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowPolicy;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowQueue;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
 
 import java.util.List;
@@ -48,6 +53,14 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
     public static final String TAG_WORKER_COUNT = "workerPoolSize";
     @DefaultValueInt(100)
     public static final String TAG_QUEUE_SIZE = "queueSize";
+    @DefaultValue("DROP_NEWEST")
+    public static final String TAG_OVERFLOW_POLICY = "overflowPolicy";
+    @DefaultValueInt(1000)
+    public static final String TAG_OVERFLOW_TIMEOUT = "overflowTimeout";
+    @DefaultValue("")
+    public static final String TAG_SPILL_DIRECTORY = "spillDirectory";
+    @DefaultValueInt(1024)
+    public static final String TAG_SPILL_MAX_SIZE = "spillMaxSize";
 
     /**
      * The logger for this class.
@@ -56,6 +69,7 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
 
     private BlockingQueue<EntityChangedMessage> entityChangedMessageQueue;
     private ExecutorService entityChangedExecutorService;
+    private OverflowQueue<EntityChangedMessage> overflowQueue;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
     @Override
@@ -71,10 +85,19 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
                 entityChangedMessageQueue,
                 this::handleMessage,
                 "IntBusPrc");
+        OverflowPolicy policy = OverflowPolicy.parse(customSettings.get(TAG_OVERFLOW_POLICY, defaultValue(TAG_OVERFLOW_POLICY)), OverflowPolicy.DROP_NEWEST);
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().getIdManager().getIdClass();
+        overflowQueue = new OverflowQueue<>("IntBus", policy, customSettings.getInt(TAG_OVERFLOW_TIMEOUT, defaultValueInt(TAG_OVERFLOW_TIMEOUT)), entityChangedMessageQueue)
+                .enableSpill(
+                        customSettings.get(TAG_SPILL_DIRECTORY, defaultValue(TAG_SPILL_DIRECTORY)),
+                        customSettings.getInt(TAG_SPILL_MAX_SIZE, defaultValueInt(TAG_SPILL_MAX_SIZE)) * 1024L * 1024L,
+                        new MessageSpillCodec(idClass, false))
+                .registerMetrics();
     }
 
     @Override
     public void stop() {
+        overflowQueue.shutdown();
         entityChangedExecutorService.shutdown();
         try {
             if (entityChangedExecutorService.awaitTermination(2, TimeUnit.SECONDS)) {
@@ -90,10 +113,22 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
 
     @Override
     public void sendMessage(EntityChangedMessage message) {
+        unexportParents(message);
+        if (!overflowQueue.offer(message)) {
+            LOGGER.error("Message dropped, queue full. Increase the queue size to allow a bigger buffer, or increase the worker pool size to empty the buffer quicker.");
+        }
+    }
+
+    /**
+     * Prepares a message for handing on without serialization step. The
+     * receivers expect the navigation entities to not be exportable, like
+     * they are after deserialization.
+     *
+     * @param message The message to prepare.
+     */
+    static void unexportParents(EntityChangedMessage message) {
         Entity entity = message.getEntity();
         EntityType entityType = entity.getEntityType();
-        // We directly hand the entity on without serialization step.
-        // The receivers expect the navigation entities to not be exportable.
         for (NavigationProperty property : entityType.getNavigationEntities()) {
             Object parentObject = entity.getProperty(property);
             if (parentObject instanceof Entity) {
@@ -101,9 +136,6 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
                 parentEntity.setExportObject(false);
             }
         }
-        if (!entityChangedMessageQueue.offer(message)) {
-            LOGGER.error("Failed to add message to queue. Increase the queue size to allow a bigger buffer, or increase the worker pool size to empty the buffer quicker.");
-        }
     }
 
     @Override
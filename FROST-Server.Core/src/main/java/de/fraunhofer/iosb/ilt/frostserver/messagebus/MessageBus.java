@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Set;
 
 /**
  *
@@ -44,4 +45,16 @@ public interface MessageBus {
     public void addMessageListener(MessageListener listener);
 
     public void removeMessageListener(MessageListener listener);
+
+    /**
+     * Tell the bus which messages the listeners on this node are interested
+     * in. Buses that partition their messages can use this to only receive
+     * the partitions that matter. Other buses deliver all messages.
+     *
+     * @param interests The interests of the listeners, or null for all
+     * messages.
+     */
+    public default void setInterests(Set<BusInterest> interests) {
+        // Not partitioned, all messages are delivered.
+    }
 }
@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import java.util.List;
 
 /**
  *
@@ -32,4 +33,18 @@ public interface MessageListener {
      * @param message The message that was received.
      */
     public void messageReceived(EntityChangedMessage message);
+
+    /**
+     * Informs the listener that a batch of messages was received, in order.
+     * Buses that deliver messages in batches call this method, listeners that
+     * can handle a batch more efficiently than single messages can override
+     * it.
+     *
+     * @param messages The messages that were received.
+     */
+    public default void messagesReceived(List<EntityChangedMessage> messages) {
+        for (EntityChangedMessage message : messages) {
+            messageReceived(message);
+        }
+    }
 }
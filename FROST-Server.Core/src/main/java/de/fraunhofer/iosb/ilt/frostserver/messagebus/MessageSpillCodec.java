@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.util.SpillCodec;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes EntityChangedMessages to bytes for spilling to disk, and reads them
+ * back.
+ *
+ * The parent entities of a message are only written with their id if they are
+ * marked for export, so they are marked while the message is written, and
+ * restored after. Messages read back get their parents marked as configured:
+ * messages that are to be sent over a bus need them exported, messages that
+ * are to be handed to listeners do not.
+ *
+ * @author scf
+ */
+public class MessageSpillCodec implements SpillCodec<EntityChangedMessage> {
+
+    private final ObjectWriter writer = EntityFormatter.getObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+    private final EntityParser parser;
+    private final boolean exportParents;
+
+    /**
+     * @param idClass The class of the entity ids.
+     * @param exportParents The export flag to set on the parents of messages
+     * that are read back.
+     */
+    public MessageSpillCodec(Class<? extends Id> idClass, boolean exportParents) {
+        this.parser = new EntityParser(idClass);
+        this.exportParents = exportParents;
+    }
+
+    @Override
+    public byte[] encode(EntityChangedMessage message) throws IOException {
+        List<Entity> changed = new ArrayList<>();
+        for (Entity parent : getParents(message.getEntity())) {
+            if (!parent.isExportObject()) {
+                parent.setExportObject(true);
+                changed.add(parent);
+            }
+        }
+        try {
+            return writer.writeValueAsBytes(message);
+        } finally {
+            for (Entity parent : changed) {
+                parent.setExportObject(false);
+            }
+        }
+    }
+
+    @Override
+    public EntityChangedMessage decode(byte[] data) throws IOException {
+        EntityChangedMessage message = parser.parseObject(EntityChangedMessage.class, new String(data, StringHelper.UTF8));
+        for (Entity parent : getParents(message.getEntity())) {
+            parent.setExportObject(exportParents);
+        }
+        return message;
+    }
+
+    private static List<Entity> getParents(Entity entity) {
+        List<Entity> parents = new ArrayList<>();
+        if (entity == null) {
+            return parents;
+        }
+        for (NavigationProperty property : entity.getEntityType().getNavigationEntities()) {
+            Object parentObject = entity.getProperty(property);
+            if (parentObject instanceof Entity) {
+                parents.add((Entity) parentObject);
+            }
+        }
+        return parents;
+    }
+}
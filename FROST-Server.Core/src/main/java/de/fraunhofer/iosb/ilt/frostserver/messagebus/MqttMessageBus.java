@@ -19,19 +19,32 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowPolicy;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowQueue;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -71,6 +84,30 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     public static final String TAG_QOS_LEVEL = "qosLevel";
     @DefaultValueInt(50)
     public static final String TAG_MAX_IN_FLIGHT = "maxInFlight";
+    @DefaultValueBoolean(false)
+    public static final String TAG_PARTITION_BY_TYPE = "partitionByType";
+    @DefaultValueInt(0)
+    public static final String TAG_PARENT_PARTITIONS = "parentPartitions";
+    @DefaultValueBoolean(false)
+    public static final String TAG_FRAMING = "framing";
+    @DefaultValue("smile")
+    public static final String TAG_FRAME_FORMAT = "frameFormat";
+    @DefaultValueBoolean(false)
+    public static final String TAG_FRAME_DEFLATE = "frameDeflate";
+    @DefaultValueInt(100)
+    public static final String TAG_FRAME_MAX_MESSAGES = "frameMaxMessages";
+    @DefaultValueInt(65536)
+    public static final String TAG_FRAME_MAX_BYTES = "frameMaxBytes";
+    @DefaultValueInt(5)
+    public static final String TAG_FRAME_LINGER = "frameLinger";
+    @DefaultValue("DROP_NEWEST")
+    public static final String TAG_SEND_OVERFLOW_POLICY = "sendOverflowPolicy";
+    @DefaultValueInt(1000)
+    public static final String TAG_SEND_OVERFLOW_TIMEOUT = "sendOverflowTimeout";
+    @DefaultValue("")
+    public static final String TAG_SPILL_DIRECTORY = "spillDirectory";
+    @DefaultValueInt(1024)
+    public static final String TAG_SPILL_MAX_SIZE = "spillMaxSize";
 
     /**
      * The logger for this class.
@@ -83,6 +120,7 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     private int recvQueueSize;
     private BlockingQueue<EntityChangedMessage> sendQueue;
     private ExecutorService sendService;
+    private OverflowQueue<EntityChangedMessage> sendOverflowQueue;
     private BlockingQueue<EntityChangedMessage> recvQueue;
     private ExecutorService recvService;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
@@ -94,9 +132,23 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     private int qosLevel;
     private int maxInFlight;
     private boolean listening = false;
+    private BusTopics topics;
+    /**
+     * The topic filters the listeners are interested in.
+     */
+    private Set<String> wantedFilters;
+    /**
+     * The topic filters that are currently subscribed to.
+     */
+    private final Set<String> subscribedFilters = new HashSet<>();
 
-    private ObjectMapper formatter;
+    private ObjectWriter formatter;
     private EntityParser parser;
+    /**
+     * The codec for frames, used for receiving, and for sending if framing
+     * is enabled.
+     */
+    private BusFrameCodec frameCodec;
 
     @Override
     public void init(CoreSettings settings) {
@@ -107,12 +159,44 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         recvPoolSize = customSettings.getInt(TAG_RECV_WORKER_COUNT, getClass());
         recvQueueSize = customSettings.getInt(TAG_RECV_QUEUE_SIZE, getClass());
 
+        formatter = EntityFormatter.getObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().getIdManager().getIdClass();
+        parser = new EntityParser(idClass);
+        String formatName = customSettings.get(TAG_FRAME_FORMAT, getClass());
+        DataFormat frameFormat = DataFormat.fromFormatName(formatName);
+        if (frameFormat == null) {
+            LOGGER.error("Unknown value for {}: {}, using {}.", TAG_FRAME_FORMAT, formatName, DataFormat.SMILE.formatName);
+            frameFormat = DataFormat.SMILE;
+        }
+        frameCodec = new BusFrameCodec(
+                frameFormat,
+                customSettings.getBoolean(TAG_FRAME_DEFLATE, getClass()),
+                customSettings.getInt(TAG_FRAME_MAX_BYTES, getClass()),
+                idClass);
+
         sendQueue = new ArrayBlockingQueue<>(sendQueueSize);
-        sendService = ProcessorHelper.createProcessors(
-                sendPoolSize,
-                sendQueue,
-                this::handleMessageSent,
-                "mqtt-BusS");
+        if (customSettings.getBoolean(TAG_FRAMING, getClass())) {
+            sendService = ProcessorHelper.createBatchProcessors(
+                    sendPoolSize,
+                    sendQueue,
+                    this::handleMessagesSent,
+                    Math.max(1, customSettings.getInt(TAG_FRAME_MAX_MESSAGES, getClass())),
+                    customSettings.getInt(TAG_FRAME_LINGER, getClass()),
+                    "mqtt-BusS");
+        } else {
+            sendService = ProcessorHelper.createProcessors(
+                    sendPoolSize,
+                    sendQueue,
+                    this::handleMessageSent,
+                    "mqtt-BusS");
+        }
+        OverflowPolicy sendPolicy = OverflowPolicy.parse(customSettings.get(TAG_SEND_OVERFLOW_POLICY, getClass()), OverflowPolicy.DROP_NEWEST);
+        sendOverflowQueue = new OverflowQueue<>("mqtt-BusS", sendPolicy, customSettings.getInt(TAG_SEND_OVERFLOW_TIMEOUT, getClass()), sendQueue)
+                .enableSpill(
+                        customSettings.get(TAG_SPILL_DIRECTORY, getClass()),
+                        customSettings.getInt(TAG_SPILL_MAX_SIZE, getClass()) * 1024L * 1024L,
+                        new MessageSpillCodec(idClass, true))
+                .registerMetrics();
 
         recvQueue = new ArrayBlockingQueue<>(recvQueueSize);
         recvService = ProcessorHelper.createProcessors(
@@ -125,10 +209,12 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         topicName = customSettings.get(TAG_TOPIC_NAME, getClass());
         qosLevel = customSettings.getInt(TAG_QOS_LEVEL, getClass());
         maxInFlight = customSettings.getInt(TAG_MAX_IN_FLIGHT, getClass());
+        topics = new BusTopics(
+                topicName,
+                customSettings.getBoolean(TAG_PARTITION_BY_TYPE, getClass()),
+                customSettings.getInt(TAG_PARENT_PARTITIONS, getClass()));
+        wantedFilters = topics.filtersFor(null);
         connect();
-
-        formatter = EntityFormatter.getObjectMapper();
-        parser = new EntityParser(PersistenceManagerFactory.getInstance().getIdManager().getIdClass());
     }
 
     private synchronized void connect() {
@@ -183,28 +269,66 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     }
 
     private synchronized void startListening() {
-        try {
-            LOGGER.info("paho-client subscribing to topic: {}", topicName);
-            if (!client.isConnected()) {
-                connect();
-            }
-            client.subscribe(topicName, qosLevel);
-            listening = true;
-        } catch (MqttException ex) {
-            LOGGER.error("Failed to start listening.", ex);
+        if (!client.isConnected()) {
+            connect();
         }
+        listening = true;
+        updateSubscriptions();
     }
 
     private synchronized void stopListening() {
         if (!listening) {
             return;
         }
-        try {
-            LOGGER.info("paho-client unsubscribing from topic: {}", topicName);
-            client.unsubscribe(topicName);
-            listening = false;
-        } catch (MqttException ex) {
-            LOGGER.error("Failed to stop listening.", ex);
+        listening = false;
+        updateSubscriptions();
+    }
+
+    /**
+     * Subscribes to the wanted topic filters that are not subscribed yet, and
+     * unsubscribes from the ones that are no longer wanted.
+     */
+    private synchronized void updateSubscriptions() {
+        Set<String> target = listening ? wantedFilters : Collections.emptySet();
+        for (String filter : new HashSet<>(subscribedFilters)) {
+            if (target.contains(filter)) {
+                continue;
+            }
+            try {
+                LOGGER.debug("paho-client unsubscribing from topic: {}", filter);
+                client.unsubscribe(filter);
+                subscribedFilters.remove(filter);
+            } catch (MqttException ex) {
+                LOGGER.error("Failed to unsubscribe from " + filter, ex);
+            }
+        }
+        for (String filter : target) {
+            if (subscribedFilters.contains(filter)) {
+                continue;
+            }
+            try {
+                LOGGER.debug("paho-client subscribing to topic: {}", filter);
+                client.subscribe(filter, qosLevel);
+                subscribedFilters.add(filter);
+            } catch (MqttException ex) {
+                LOGGER.error("Failed to subscribe to " + filter, ex);
+            }
+        }
+    }
+
+    /**
+     * Limits the subscriptions of this node on the bus to the partitions
+     * that match the given interests. Only has an effect when
+     * {@value #TAG_PARTITION_BY_TYPE} is enabled.
+     *
+     * @param interests The interests of the listeners, or null for all
+     * messages.
+     */
+    @Override
+    public synchronized void setInterests(Set<BusInterest> interests) {
+        wantedFilters = topics.filtersFor(interests);
+        if (listening) {
+            updateSubscriptions();
         }
     }
 
@@ -212,6 +336,7 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     public void stop() {
         LOGGER.info("Message bus shutting down.");
         stopListening();
+        sendOverflowQueue.shutdown();
         disconnect();
         ProcessorHelper.shutdownProcessors(sendService, sendQueue, 10, TimeUnit.SECONDS);
         ProcessorHelper.shutdownProcessors(recvService, recvQueue, 10, TimeUnit.SECONDS);
@@ -220,8 +345,8 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     @Override
     public void sendMessage(EntityChangedMessage message) {
-        if (!sendQueue.offer(message)) {
-            LOGGER.error("Failed to add message to send-queue. Increase {} (currently {}) to allow a bigger buffer, or increase {} (currently {}) to empty the buffer quicker.",
+        if (!sendOverflowQueue.offer(message)) {
+            LOGGER.error("Message dropped, send-queue full. Increase {} (currently {}) to allow a bigger buffer, or increase {} (currently {}) to empty the buffer quicker.",
                     TAG_SEND_QUEUE_SIZE, sendQueueSize, TAG_SEND_WORKER_COUNT, sendPoolSize);
         }
     }
@@ -244,17 +369,43 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     private void handleMessageSent(EntityChangedMessage message) {
         try {
-            String serialisedMessage = formatter.writeValueAsString(message);
-            byte[] bytes = serialisedMessage.getBytes(StringHelper.UTF8);
+            byte[] bytes = formatter.writeValueAsBytes(message);
             if (!client.isConnected()) {
                 connect();
             }
-            client.publish(topicName, bytes, qosLevel, false);
+            client.publish(topics.topicFor(message), bytes, qosLevel, false);
         } catch (MqttException | JsonProcessingException ex) {
             LOGGER.error("Failed to publish message to bus.", ex);
         }
     }
 
+    /**
+     * Publishes a batch of messages as frames. The messages are grouped by
+     * the bus topic they belong on, and each group is split into frames of
+     * at most {@value #TAG_FRAME_MAX_BYTES} bytes.
+     *
+     * @param messages The messages to publish.
+     */
+    private void handleMessagesSent(List<EntityChangedMessage> messages) {
+        Map<String, List<EntityChangedMessage>> byTopic = new LinkedHashMap<>();
+        for (EntityChangedMessage message : messages) {
+            byTopic.computeIfAbsent(topics.topicFor(message), t -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<String, List<EntityChangedMessage>> entry : byTopic.entrySet()) {
+            try {
+                List<byte[]> frames = frameCodec.encode(entry.getValue());
+                if (!client.isConnected()) {
+                    connect();
+                }
+                for (byte[] frame : frames) {
+                    client.publish(entry.getKey(), frame, qosLevel, false);
+                }
+            } catch (MqttException | IOException ex) {
+                LOGGER.error("Failed to publish " + entry.getValue().size() + " messages to bus.", ex);
+            }
+        }
+    }
+
     @Override
     public void connectionLost(Throwable cause) {
         LOGGER.warn("Connection to message bus lost.");
@@ -263,8 +414,18 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
-        String serialisedEcMessage = new String(mqttMessage.getPayload(), StringHelper.UTF8);
-        EntityChangedMessage ecMessage = parser.parseObject(EntityChangedMessage.class, serialisedEcMessage);
+        byte[] payload = mqttMessage.getPayload();
+        if (BusFrameCodec.isFrame(payload)) {
+            for (EntityChangedMessage ecMessage : frameCodec.decode(payload)) {
+                queueReceived(ecMessage);
+            }
+            return;
+        }
+        String serialisedEcMessage = new String(payload, StringHelper.UTF8);
+        queueReceived(parser.parseObject(EntityChangedMessage.class, serialisedEcMessage));
+    }
+
+    private void queueReceived(EntityChangedMessage ecMessage) {
         if (!recvQueue.offer(ecMessage)) {
             LOGGER.error("Failed to add message to receive-queue. Increase {} (currently {}) to allow a bigger buffer, or increase {} (currently {}) to empty the buffer quicker.",
                     TAG_RECV_QUEUE_SIZE, recvQueueSize, TAG_RECV_WORKER_COUNT, recvPoolSize);
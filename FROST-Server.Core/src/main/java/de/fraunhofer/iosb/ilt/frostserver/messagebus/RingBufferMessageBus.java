@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.RingBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message bus implementation for in-JVM use, like the
+ * {@link InternalMessageBus}, that passes messages through a lock-free ring
+ * buffer instead of a blocking queue. Each listener gets its own reader
+ * thread, that receives the messages in batches, in the order they were sent.
+ *
+ * @author scf
+ */
+public class RingBufferMessageBus implements MessageBus, ConfigDefaults {
+
+    @DefaultValueInt(1024)
+    public static final String TAG_RING_SIZE = "ringSize";
+    @DefaultValueInt(100)
+    public static final String TAG_MAX_BATCH_SIZE = "maxBatchSize";
+    @DefaultValueInt(1000)
+    public static final String TAG_OVERFLOW_TIMEOUT = "overflowTimeout";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferMessageBus.class);
+    private static final long READER_STOP_TIMEOUT = 2000;
+
+    private RingBuffer<EntityChangedMessage> ring;
+    private long overflowTimeout;
+    private final Map<MessageListener, RingBuffer<EntityChangedMessage>.Reader> readers = new HashMap<>();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    @Override
+    public void init(CoreSettings settings) {
+        BusSettings busSettings = settings.getBusSettings();
+        Settings customSettings = busSettings.getCustomSettings();
+        int ringSize = customSettings.getInt(TAG_RING_SIZE, getClass());
+        int maxBatchSize = customSettings.getInt(TAG_MAX_BATCH_SIZE, getClass());
+        overflowTimeout = customSettings.getInt(TAG_OVERFLOW_TIMEOUT, getClass());
+        ring = new RingBuffer<>("RingBus", ringSize, maxBatchSize);
+        LOGGER.info("Ring buffer message bus started with {} slots.", ring.getCapacity());
+    }
+
+    @Override
+    public synchronized void stop() {
+        ring.shutdown(READER_STOP_TIMEOUT);
+        readers.clear();
+        if (droppedCount.get() > 0) {
+            LOGGER.warn("Message bus dropped {} messages because the ring was full.", droppedCount.get());
+        }
+    }
+
+    @Override
+    public void sendMessage(EntityChangedMessage message) {
+        InternalMessageBus.unexportParents(message);
+        if (!ring.publish(message, overflowTimeout)) {
+            droppedCount.incrementAndGet();
+            LOGGER.error("Message dropped, ring full for {}ms. Increase {} (currently {}) to allow a bigger buffer.",
+                    overflowTimeout, TAG_RING_SIZE, ring.getCapacity());
+        }
+    }
+
+    @Override
+    public synchronized void addMessageListener(MessageListener listener) {
+        if (readers.containsKey(listener)) {
+            return;
+        }
+        readers.put(listener, ring.addReader(batch -> handleMessages(listener, batch)));
+    }
+
+    @Override
+    public synchronized void removeMessageListener(MessageListener listener) {
+        RingBuffer<EntityChangedMessage>.Reader reader = readers.remove(listener);
+        if (reader != null) {
+            ring.removeReader(reader, READER_STOP_TIMEOUT);
+        }
+    }
+
+    private static void handleMessages(MessageListener listener, List<EntityChangedMessage> messages) {
+        try {
+            listener.messagesReceived(messages);
+        } catch (Exception ex) {
+            LOGGER.error("Listener threw exception on message reception.", ex);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of byte records in memory-mapped segment files, that
+ * can be written and read by several processes on the same host.
+ *
+ * Each segment starts with a header holding the position up to which records
+ * are written. A record is its length, followed by its bytes. The bytes are
+ * written before the length, and the header is updated last, so readers
+ * never see partial records. Readers do not take the lock, so the header is
+ * written with release semantics and read with acquire semantics, see
+ * {@link Fences}. When a segment is full, the writer creates the next segment
+ * and closes the old one with a rollover marker. Writers serialise on a file
+ * lock, which also holds the number of the current segment. Only the newest
+ * segments are kept.
+ *
+ * Readers keep their own offset, optionally persisted in a file, so a
+ * restarted reader continues where it stopped.
+ *
+ * @author scf
+ */
+class SharedLog implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedLog.class);
+
+    static final int HEADER_SIZE = 64;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    private static final int ROLLOVER = -1;
+    private static final String CONTROL_FILE = "bus.ctl";
+    private static final String SEGMENT_PREFIX = "bus-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int retainSegments;
+    private final RandomAccessFile controlFile;
+    private final FileChannel controlChannel;
+    private final MappedByteBuffer control;
+
+    private long writeSegment = -1;
+    private MappedByteBuffer writeBuffer;
+
+    /**
+     * @param directory The directory holding the log.
+     * @param segmentSize The size of a segment file, in bytes.
+     * @param retainSegments The number of segments to keep.
+     * @throws IOException If the log can not be opened.
+     */
+    SharedLog(File directory, int segmentSize, int retainSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retainSegments = Math.max(1, retainSegments);
+        controlFile = new RandomAccessFile(new File(directory, CONTROL_FILE), "rw");
+        controlChannel = controlFile.getChannel();
+        control = controlChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        try (FileLock lock = controlChannel.lock()) {
+            if (!segmentFile(currentSegment()).exists()) {
+                createSegment(currentSegment());
+            }
+        }
+    }
+
+    private long currentSegment() {
+        long segment = control.getLong(0);
+        Fences.loadFence();
+        return segment;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%012d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private MappedByteBuffer mapSegment(long segment, FileChannel.MapMode mode) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw")) {
+            // The mapping stays valid after the file is closed.
+            return file.getChannel().map(mode, 0, segmentSize);
+        }
+    }
+
+    private MappedByteBuffer createSegment(long segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+            file.setLength(segmentSize);
+        }
+        MappedByteBuffer buffer = mapSegment(segment, FileChannel.MapMode.READ_WRITE);
+        publishPosition(buffer, HEADER_SIZE);
+        return buffer;
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param record The record to append.
+     * @throws IOException If the record does not fit in a segment, or writing
+     * fails.
+     */
+    synchronized void append(byte[] record) throws IOException {
+        int needed = LENGTH_SIZE + record.length;
+        if (HEADER_SIZE + needed + LENGTH_SIZE > segmentSize) {
+            throw new IOException("Record of " + record.length + " bytes does not fit in a segment of " + segmentSize + " bytes.");
+        }
+        try (FileLock lock = controlChannel.lock()) {
+            long segment = currentSegment();
+            if (segment != writeSegment) {
+                writeBuffer = mapSegment(segment, FileChannel.MapMode.READ_WRITE);
+                writeSegment = segment;
+            }
+            int position = writePosition(writeBuffer);
+            // Always keep room for the rollover marker.
+            if (position + needed + LENGTH_SIZE > segmentSize) {
+                MappedByteBuffer next = createSegment(segment + 1);
+                writeBuffer.putInt(position, ROLLOVER);
+                publishPosition(writeBuffer, (long) position + LENGTH_SIZE);
+                // The header of the next segment must be visible before the
+                // segment number.
+                Fences.storeFence();
+                control.putLong(0, segment + 1);
+                writeBuffer = next;
+                writeSegment = segment + 1;
+                position = HEADER_SIZE;
+                deleteOldSegments(writeSegment);
+            }
+            writeBuffer.position(position + LENGTH_SIZE);
+            writeBuffer.put(record);
+            writeBuffer.putInt(position, record.length);
+            publishPosition(writeBuffer, (long) position + needed);
+        }
+    }
+
+    /**
+     * Writes the position in the header of the segment, with release
+     * semantics: all writes before it are visible to a reader that sees the
+     * new position.
+     */
+    private static void publishPosition(MappedByteBuffer buffer, long position) {
+        Fences.storeFence();
+        buffer.putLong(0, position);
+    }
+
+    /**
+     * Reads the position from the header of the segment, with acquire
+     * semantics: the records up to the position are read after it.
+     */
+    private static int writePosition(MappedByteBuffer buffer) {
+        long position = buffer.getLong(0);
+        Fences.loadFence();
+        return (int) Math.max(HEADER_SIZE, position);
+    }
+
+    private void deleteOldSegments(long current) {
+        for (long segment = current - retainSegments; segment >= 0; segment--) {
+            File file = segmentFile(segment);
+            if (!file.exists()) {
+                return;
+            }
+            if (!file.delete()) {
+                LOGGER.debug("Failed to delete old segment {}", file);
+            }
+        }
+    }
+
+    /**
+     * Opens a reader on the log. If a reader id is given, the offset of the
+     * reader is stored in a file, and a reader opened with the same id
+     * continues where the previous one stopped. New readers start at the end
+     * of the log.
+     *
+     * @param readerId The id of the reader, or empty for a reader that does
+     * not store its offset.
+     * @return The reader.
+     * @throws IOException If the offset file can not be opened.
+     */
+    Reader openReader(String readerId) throws IOException {
+        return new Reader(readerId);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writeBuffer = null;
+        controlChannel.close();
+        controlFile.close();
+    }
+
+    /**
+     * Memory fences for the segments that are shared with other processes.
+     * The code targets Java 8, which has no VarHandles, so the fences of
+     * sun.misc.Unsafe are used, through method handles that the JIT can
+     * inline. If that is not available, a write and read of a volatile field
+     * are used instead, which HotSpot implements with a full fence.
+     */
+    static final class Fences {
+
+        private static final MethodHandle STORE_FENCE;
+        private static final MethodHandle LOAD_FENCE;
+        private static volatile int fallback;
+
+        static {
+            MethodHandle storeFence;
+            MethodHandle loadFence;
+            MethodType voidType = MethodType.methodType(void.class);
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                storeFence = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", voidType).bindTo(unsafe);
+                loadFence = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", voidType).bindTo(unsafe);
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                LOGGER.warn("sun.misc.Unsafe not available, using volatile fences for the shared log.", ex);
+                try {
+                    storeFence = MethodHandles.lookup().findStatic(Fences.class, "volatileFence", voidType);
+                } catch (ReflectiveOperationException exc) {
+                    throw new IllegalStateException(exc);
+                }
+                loadFence = storeFence;
+            }
+            STORE_FENCE = storeFence;
+            LOAD_FENCE = loadFence;
+        }
+
+        private Fences() {
+            // Utility class.
+        }
+
+        /**
+         * Writes before the fence are not reordered with writes after it.
+         */
+        static void storeFence() {
+            invoke(STORE_FENCE);
+        }
+
+        /**
+         * Reads before the fence are not reordered with reads and writes after
+         * it.
+         */
+        static void loadFence() {
+            invoke(LOAD_FENCE);
+        }
+
+        private static void invoke(MethodHandle fence) {
+            try {
+                fence.invokeExact();
+            } catch (Throwable ex) {
+                throw new IllegalStateException("Memory fence failed.", ex);
+            }
+        }
+
+        private static void volatileFence() {
+            fallback = fallback + 1;
+        }
+    }
+
+    /**
+     * Reads records from the log. Not thread-safe.
+     */
+    class Reader implements Closeable {
+
+        private final RandomAccessFile offsetFile;
+        private final MappedByteBuffer offset;
+        private long segment;
+        private int position;
+        private MappedByteBuffer buffer;
+
+        private Reader(String readerId) throws IOException {
+            if (readerId == null || readerId.isEmpty()) {
+                offsetFile = null;
+                offset = null;
+            } else {
+                File file = new File(directory, readerId + OFFSET_SUFFIX);
+                boolean exists = file.exists() && file.length() >= 2 * Long.BYTES;
+                offsetFile = new RandomAccessFile(file, "rw");
+                offset = offsetFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 2 * Long.BYTES);
+                if (exists) {
+                    segment = offset.getLong(0);
+                    position = (int) offset.getLong(Long.BYTES);
+                    LOGGER.info("Reader {} resumes at segment {}, position {}.", readerId, segment, position);
+                    return;
+                }
+            }
+            segment = currentSegment();
+            buffer = mapSegment(segment, FileChannel.MapMode.READ_ONLY);
+            position = writePosition(buffer);
+            commit();
+        }
+
+        /**
+         * Reads the records written since the last call, up to the given
+         * maximum. The offset is not stored until {@link #commit()} is called.
+         *
+         * @param max The maximum number of records to read.
+         * @return The records, empty if there are no new records.
+         * @throws IOException If reading fails.
+         */
+        List<byte[]> read(int max) throws IOException {
+            List<byte[]> records = new ArrayList<>();
+            if (buffer == null && !openSegment()) {
+                return records;
+            }
+            while (records.size() < max) {
+                int limit = writePosition(buffer);
+                if (position >= limit) {
+                    break;
+                }
+                int length = buffer.getInt(position);
+                if (length == ROLLOVER) {
+                    segment++;
+                    position = HEADER_SIZE;
+                    if (!openSegment()) {
+                        break;
+                    }
+                    continue;
+                }
+                byte[] record = new byte[length];
+                buffer.position(position + LENGTH_SIZE);
+                buffer.get(record);
+                records.add(record);
+                position += LENGTH_SIZE + length;
+            }
+            return records;
+        }
+
+        /**
+         * Maps the current segment. If it was already deleted, skips to the
+         * oldest segment that still exists.
+         */
+        private boolean openSegment() throws IOException {
+            buffer = null;
+            if (!segmentFile(segment).exists()) {
+                long oldest = oldestSegment();
+                if (oldest <= segment) {
+                    // Not created yet.
+                    return false;
+                }
+                LOGGER.warn("Reader fell behind, segments {} to {} were already deleted. Messages are lost.", segment, oldest - 1);
+                segment = oldest;
+                position = HEADER_SIZE;
+            }
+            buffer = mapSegment(segment, FileChannel.MapMode.READ_ONLY);
+            return true;
+        }
+
+        private long oldestSegment() {
+            long current = currentSegment();
+            long oldest = current;
+            while (oldest > 0 && segmentFile(oldest - 1).exists()) {
+                oldest--;
+            }
+            return oldest;
+        }
+
+        /**
+         * Stores the offset of the records read so far.
+         */
+        void commit() {
+            if (offset != null) {
+                offset.putLong(0, segment);
+                offset.putLong(Long.BYTES, position);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            commit();
+            if (offsetFile != null) {
+                offsetFile.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message bus implementation for processes on the same host, that exchange
+ * messages through a memory-mapped log in a shared directory. Senders append
+ * the messages to the log, listeners tail it. A reader with a readerId
+ * stores its offset, so after a restart it continues where it stopped.
+ *
+ * @author scf
+ */
+public class SharedLogMessageBus implements MessageBus, ConfigDefaults {
+
+    @DefaultValue("")
+    public static final String TAG_LOG_DIRECTORY = "logDirectory";
+    @DefaultValueInt(64 * 1024 * 1024)
+    public static final String TAG_SEGMENT_SIZE = "segmentSize";
+    @DefaultValueInt(4)
+    public static final String TAG_RETAIN_SEGMENTS = "retainSegments";
+    @DefaultValue("")
+    public static final String TAG_READER_ID = "readerId";
+    @DefaultValueInt(5)
+    public static final String TAG_POLL_INTERVAL = "pollInterval";
+    @DefaultValueInt(100)
+    public static final String TAG_MAX_BATCH_SIZE = "maxBatchSize";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedLogMessageBus.class);
+    private static final String READER_NAME = "SharedLogBus-reader";
+
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+    private SharedLog log;
+    private MessageSpillCodec codec;
+    private String readerId;
+    private long pollInterval;
+    private int maxBatchSize;
+    private Thread readerThread;
+    private volatile boolean running = false;
+
+    @Override
+    public void init(CoreSettings settings) {
+        BusSettings busSettings = settings.getBusSettings();
+        Settings customSettings = busSettings.getCustomSettings();
+        String directory = customSettings.get(TAG_LOG_DIRECTORY, getClass());
+        if (StringHelper.isNullOrEmpty(directory)) {
+            // The temporary directory is not shared between containers, so a
+            // default would silently disconnect the processes.
+            throw new IllegalArgumentException("The setting " + CoreSettings.PREFIX_BUS + TAG_LOG_DIRECTORY + " must be set to a directory shared by all processes.");
+        }
+        readerId = customSettings.get(TAG_READER_ID, getClass());
+        pollInterval = customSettings.getInt(TAG_POLL_INTERVAL, getClass());
+        maxBatchSize = customSettings.getInt(TAG_MAX_BATCH_SIZE, getClass());
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().getIdManager().getIdClass();
+        // Messages read back go to the listeners, that expect unexported parents.
+        codec = new MessageSpillCodec(idClass, false);
+        try {
+            log = new SharedLog(
+                    new File(directory),
+                    customSettings.getInt(TAG_SEGMENT_SIZE, getClass()),
+                    customSettings.getInt(TAG_RETAIN_SEGMENTS, getClass()));
+            LOGGER.info("Shared log message bus using directory {}", directory);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Failed to open shared log in " + directory, ex);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopReading();
+        try {
+            log.close();
+        } catch (IOException ex) {
+            LOGGER.error("Failed to close shared log.", ex);
+        }
+    }
+
+    @Override
+    public void sendMessage(EntityChangedMessage message) {
+        try {
+            log.append(codec.encode(message));
+        } catch (IOException ex) {
+            LOGGER.error("Failed to append message to shared log.", ex);
+        }
+    }
+
+    @Override
+    public synchronized void addMessageListener(MessageListener listener) {
+        listeners.add(listener);
+        if (!running) {
+            startReading();
+        }
+    }
+
+    @Override
+    public synchronized void removeMessageListener(MessageListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            stopReading();
+        }
+    }
+
+    private void startReading() {
+        final SharedLog.Reader reader;
+        try {
+            reader = log.openReader(readerId);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to open reader on shared log.", ex);
+            return;
+        }
+        running = true;
+        readerThread = new Thread(() -> readLoop(reader), READER_NAME);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private void stopReading() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            readerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        readerThread = null;
+    }
+
+    private void readLoop(SharedLog.Reader reader) {
+        try (SharedLog.Reader r = reader) {
+            while (running) {
+                List<byte[]> records = r.read(maxBatchSize);
+                if (records.isEmpty()) {
+                    Thread.sleep(pollInterval);
+                    continue;
+                }
+                handleRecords(records);
+                r.commit();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.error("Failed to read from shared log, stopped reading.", ex);
+        }
+    }
+
+    private void handleRecords(List<byte[]> records) {
+        List<EntityChangedMessage> messages = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            try {
+                messages.add(codec.decode(record));
+            } catch (IOException ex) {
+                LOGGER.error("Failed to parse message from shared log, skipping it.", ex);
+            }
+        }
+        ProcessorHelper.PROCESSED.labels(READER_NAME).inc(messages.size());
+        for (MessageListener listener : listeners) {
+            try {
+                listener.messagesReceived(messages);
+            } catch (Exception ex) {
+                LOGGER.error("Listener threw exception on message reception.", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations, like request durations, in buckets.
+ *
+ * @author scf
+ */
+public class Histogram extends Metric<Histogram.Child> {
+
+    /**
+     * Bucket bounds for durations, in seconds.
+     */
+    public static final double[] DURATION_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    /**
+     * Bucket bounds for counts, like the number of receivers of a message.
+     */
+    public static final double[] COUNT_BUCKETS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    public class Child {
+
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Child() {
+            counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            counts[bucket].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Observes a duration, given in nanoseconds, in seconds.
+         *
+         * @param nanos The duration in nanoseconds.
+         */
+        public void observeNanos(long nanos) {
+            observe(nanos / NANOS_PER_SECOND);
+        }
+
+        /**
+         * Observes the time since the given start, taken from
+         * System.nanoTime().
+         *
+         * @param startNanos The start time, from System.nanoTime().
+         */
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    private final double[] bounds;
+
+    public Histogram(String name, String help, double[] bounds, String... labelNames) {
+        super(name, help, labelNames);
+        this.bounds = bounds.clone();
+        Arrays.sort(this.bounds);
+    }
+
+    @Override
+    protected Child newChild() {
+        return new Child();
+    }
+
+    @Override
+    protected String getType() {
+        return "histogram";
+    }
+
+    @Override
+    protected void writeChild(Writer out, String labels, Child child) throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        String bucketName = getName() + "_bucket";
+        long total = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            total += child.counts[i].sum();
+            writeSample(out, bucketName, prefix + "le=\"" + formatValue(bounds[i]) + "\"", total);
+        }
+        total += child.counts[bounds.length].sum();
+        writeSample(out, bucketName, prefix + "le=\"+Inf\"", total);
+        writeSample(out, getName() + "_sum", labels, child.sum.sum());
+        writeSample(out, getName() + "_count", labels, total);
+    }
+
+}
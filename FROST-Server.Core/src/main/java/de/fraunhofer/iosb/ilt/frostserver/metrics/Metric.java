@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named metric, with a child for each combination of label values.
+ *
+ * @author scf
+ * @param <C> The type of the children.
+ */
+public abstract class Metric<C> {
+
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final Map<List<String>, C> children = new ConcurrentHashMap<>();
+
+    protected Metric(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = Collections.unmodifiableList(Arrays.asList(labelNames));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getLabelNames() {
+        return labelNames;
+    }
+
+    /**
+     * Get the child for the given label values, creating it if needed.
+     *
+     * @param labelValues The values for the labels, in the order of the label
+     * names.
+     * @return The child for the given label values.
+     */
+    public C labels(String... labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException("Metric " + name + " needs " + labelNames.size() + " label values, got " + labelValues.length);
+        }
+        return children.computeIfAbsent(Arrays.asList(labelValues), k -> newChild());
+    }
+
+    /**
+     * Removes the child for the given label values.
+     *
+     * @param labelValues The values for the labels.
+     */
+    public void remove(String... labelValues) {
+        children.remove(Arrays.asList(labelValues));
+    }
+
+    protected abstract C newChild();
+
+    protected abstract String getType();
+
+    protected abstract void writeChild(Writer out, String labels, C child) throws IOException;
+
+    /**
+     * Writes the metric in the Prometheus text format.
+     *
+     * @param out The writer to write to.
+     * @throws IOException If writing fails.
+     */
+    public void write(Writer out) throws IOException {
+        if (children.isEmpty()) {
+            return;
+        }
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(getType()).append('\n');
+        for (Map.Entry<List<String>, C> entry : children.entrySet()) {
+            writeChild(out, formatLabels(labelNames, entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * Formats the given labels as a comma separated list, without the
+     * braces.
+     *
+     * @param names The label names.
+     * @param values The label values.
+     * @return The formatted labels.
+     */
+    static String formatLabels(List<String> names, List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(names.get(i)).append("=\"");
+            String value = values.get(i);
+            if (value == null) {
+                value = "";
+            }
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    sb.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(ch);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    static void writeSample(Writer out, String name, String labels, double value) throws IOException {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
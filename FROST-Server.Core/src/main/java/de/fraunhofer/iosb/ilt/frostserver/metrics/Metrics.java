@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The registry of all metrics of the server, that can write them in the
+ * Prometheus text format.
+ *
+ * Besides the metrics registered here, the numeric attributes of all MBeans in
+ * the {@value ProcessorHelper#JMX_DOMAIN} JMX domain, like the processor
+ * pools and overflow queues, are written as gauges named
+ * frost_&lt;type&gt;_&lt;attribute&gt;, with the name of the MBean as label.
+ *
+ * @author scf
+ */
+public class Metrics {
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String PREFIX = "frost_";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+    private static final Map<String, Metric<?>> METRICS = new TreeMap<>();
+
+    private Metrics() {
+        // Utility class.
+    }
+
+    /**
+     * Get or create the counter with the given name.
+     *
+     * @param name The name of the counter, without the prefix.
+     * @param help The description of the counter.
+     * @param labelNames The names of the labels.
+     * @return The counter.
+     */
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(name, Counter.class, n -> new Counter(n, help, labelNames));
+    }
+
+    /**
+     * Get or create the gauge with the given name.
+     *
+     * @param name The name of the gauge, without the prefix.
+     * @param help The description of the gauge.
+     * @param labelNames The names of the labels.
+     * @return The gauge.
+     */
+    public static Gauge gauge(String name, String help, String... labelNames) {
+        return register(name, Gauge.class, n -> new Gauge(n, help, labelNames));
+    }
+
+    /**
+     * Get or create the histogram with the given name.
+     *
+     * @param name The name of the histogram, without the prefix.
+     * @param help The description of the histogram.
+     * @param bounds The upper bounds of the buckets.
+     * @param labelNames The names of the labels.
+     * @return The histogram.
+     */
+    public static Histogram histogram(String name, String help, double[] bounds, String... labelNames) {
+        return register(name, Histogram.class, n -> new Histogram(n, help, bounds, labelNames));
+    }
+
+    private static <M extends Metric<?>> M register(String name, Class<M> type, Function<String, M> creator) {
+        String fullName = PREFIX + name;
+        synchronized (METRICS) {
+            Metric<?> existing = METRICS.get(fullName);
+            if (existing == null) {
+                M metric = creator.apply(fullName);
+                METRICS.put(fullName, metric);
+                return metric;
+            }
+            if (!type.isInstance(existing)) {
+                throw new IllegalArgumentException("Metric " + fullName + " is already registered as " + existing.getClass().getSimpleName());
+            }
+            return type.cast(existing);
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param out The writer to write to.
+     * @throws IOException If writing fails.
+     */
+    public static void write(Writer out) throws IOException {
+        Metric<?>[] metrics;
+        synchronized (METRICS) {
+            metrics = METRICS.values().toArray(new Metric<?>[METRICS.size()]);
+        }
+        for (Metric<?> metric : metrics) {
+            metric.write(out);
+        }
+        writeJmx(out);
+    }
+
+    private static void writeJmx(Writer out) throws IOException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names;
+        try {
+            names = new TreeSet<>(server.queryNames(new ObjectName(ProcessorHelper.JMX_DOMAIN + ":*"), null));
+        } catch (JMException ex) {
+            LOGGER.debug("Failed to query MBeans.", ex);
+            return;
+        }
+        Map<String, StringBuilder> samples = new TreeMap<>();
+        for (ObjectName objectName : names) {
+            try {
+                collectJmx(server, objectName, samples);
+            } catch (JMException ex) {
+                LOGGER.debug("Failed to read MBean {}.", objectName, ex);
+            }
+        }
+        for (Map.Entry<String, StringBuilder> entry : samples.entrySet()) {
+            out.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+            out.append(entry.getValue());
+        }
+    }
+
+    private static void collectJmx(MBeanServer server, ObjectName objectName, Map<String, StringBuilder> samples) throws JMException {
+        String type = objectName.getKeyProperty("type");
+        String beanName = objectName.getKeyProperty("name");
+        if (type == null || beanName == null) {
+            return;
+        }
+        MBeanAttributeInfo[] infos = server.getMBeanInfo(objectName).getAttributes();
+        String[] attributeNames = new String[infos.length];
+        for (int i = 0; i < infos.length; i++) {
+            attributeNames[i] = infos[i].getName();
+        }
+        AttributeList attributes = server.getAttributes(objectName, attributeNames);
+        for (Attribute attribute : attributes.asList()) {
+            Object value = attribute.getValue();
+            String metricName = PREFIX + toSnakeCase(type) + "_" + toSnakeCase(attribute.getName());
+            String nameLabel = Metric.formatLabels(Collections.singletonList("name"), Collections.singletonList(beanName));
+            if (value instanceof Number) {
+                appendSample(samples, metricName, nameLabel, ((Number) value).doubleValue());
+            } else if (value instanceof int[]) {
+                int[] values = (int[]) value;
+                for (int i = 0; i < values.length; i++) {
+                    appendSample(samples, metricName, nameLabel + ",partition=\"" + i + "\"", values[i]);
+                }
+            }
+        }
+    }
+
+    private static void appendSample(Map<String, StringBuilder> samples, String name, String labels, double value) {
+        samples.computeIfAbsent(name, k -> new StringBuilder())
+                .append(name).append('{').append(labels).append("} ").append(Metric.formatValue(value)).append('\n');
+    }
+
+    /**
+     * Converts names like QueueOverflow or TotalQueueDepth to snake case:
+     * queue_overflow, total_queue_depth.
+     *
+     * @param name The name to convert.
+     * @return The converted name.
+     */
+    static String toSnakeCase(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (Character.isUpperCase(ch)) {
+                if (i > 0) {
+                    sb.append('_');
+                }
+                sb.append(Character.toLowerCase(ch));
+            } else if (Character.isLetterOrDigit(ch)) {
+                sb.append(ch);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the time spent in the phases of a single request, for the
+ * Server-Timing response header. The timing of a request is bound to the
+ * thread handling it, so code deep in the persistence layer can record its
+ * phases without having the timing passed down. Recording is a no-op when no
+ * timing is active on the current thread.
+ *
+ * Phases that run inside a nested phase, like the queries of an $expand, are
+ * counted as part of the nested phase, and not separately.
+ *
+ * @author scf
+ */
+public class ServerTiming {
+
+    public static final String HEADER = "Server-Timing";
+
+    public static final String PHASE_PATH = "path";
+    public static final String PHASE_QUERY = "query";
+    public static final String PHASE_VALIDATE = "validate";
+    public static final String PHASE_SELECT = "select";
+    public static final String PHASE_COUNT = "count";
+    public static final String PHASE_EXPAND = "expand";
+    public static final String PHASE_FORMAT = "format";
+    public static final String PHASE_TOTAL = "total";
+
+    private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+
+    private static class Phase {
+
+        private long nanos;
+        private int count;
+    }
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private int nesting;
+
+    /**
+     * Starts timing the request handled by the current thread.
+     *
+     * @return The new timing, that is now active on the current thread.
+     */
+    public static ServerTiming start() {
+        ServerTiming timing = new ServerTiming();
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    /**
+     * Stops timing on the current thread.
+     */
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Records the time since the given start time for the given phase, if
+     * timing is active on the current thread.
+     *
+     * @param phase The name of the phase.
+     * @param startNanos The start of the phase, from System.nanoTime().
+     */
+    public static void record(String phase, long startNanos) {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null && timing.nesting == 0) {
+            timing.add(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Marks the start of a nested phase. Phases recorded until the matching
+     * {@link #endNested(String, long)} are not recorded separately.
+     */
+    public static void beginNested() {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.nesting++;
+        }
+    }
+
+    /**
+     * Marks the end of a nested phase, and records it.
+     *
+     * @param phase The name of the nested phase.
+     * @param startNanos The start of the phase, from System.nanoTime().
+     */
+    public static void endNested(String phase, long startNanos) {
+        ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.nesting--;
+            record(phase, startNanos);
+        }
+    }
+
+    private void add(String phase, long nanos) {
+        Phase entry = phases.computeIfAbsent(phase, k -> new Phase());
+        entry.nanos += nanos;
+        entry.count++;
+    }
+
+    /**
+     * @return The total milliseconds per recorded phase, in the order the
+     * phases were first recorded.
+     */
+    public Map<String, Double> getDurations() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().nanos / 1e6);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Formats the recorded phases as the value of a Server-Timing header, with
+     * durations in milliseconds. Phases that were recorded more than once get
+     * the number of occurrences as description.
+     *
+     * @return The value for the Server-Timing header.
+     */
+    public String toHeaderValue() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            Phase phase = entry.getValue();
+            sb.append(entry.getKey())
+                    .append(";dur=")
+                    .append(String.format(Locale.ROOT, "%.3f", phase.nanos / 1e6));
+            if (phase.count > 1) {
+                sb.append(";desc=\"").append(phase.count).append("x\"");
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -18,16 +18,24 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBusFactory;
 import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageSpillCodec;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Gauge;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Histogram;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Metrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.create.EntityCreateListener;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.create.ObservationCreateEvent;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.create.ObservationCreateEventSpillCodec;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.PayloadKey;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.Subscription;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionEvent;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionFactory;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionIndex;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionListener;
-import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.Property;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
@@ -37,10 +45,13 @@ import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequestBuilder;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.MqttSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowQueue;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
-import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper.PartitionedProcessors;
 import java.io.IOException;
-import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -48,7 +59,6 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +70,17 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
 
     private static MqttManager instance;
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttManager.class);
+    private static final Gauge SUBSCRIPTIONS = Metrics.gauge(
+            "mqtt_subscriptions",
+            "The number of distinct MQTT subscriptions.");
+    private static final Histogram FAN_OUT = Metrics.histogram(
+            "mqtt_fanout",
+            "The number of subscriptions notified for each entity change.",
+            Histogram.COUNT_BUCKETS);
+    private static final Histogram PUBLISH_DURATION = Metrics.histogram(
+            "mqtt_publish_duration_seconds",
+            "The time taken to match, format and publish an entity change to all subscriptions.",
+            Histogram.DURATION_BUCKETS);
 
     public static synchronized void init(CoreSettings settings) {
         if (instance == null) {
@@ -80,13 +101,18 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         return instance;
     }
 
-    private final Map<EntityType, Map<Subscription, AtomicInteger>> subscriptions = new EnumMap<>(EntityType.class);
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    /**
+     * The topics that have a retained value, when retainLastValue is enabled.
+     */
+    private final Map<String, RetainedTopic> retainedTopics = new ConcurrentHashMap<>();
     private final CoreSettings settings;
     private MqttServer server;
-    private BlockingQueue<EntityChangedMessage> entityChangedEventQueue;
-    private ExecutorService entityChangedExecutorService;
+    private PartitionedProcessors<EntityChangedMessage> entityChangedProcessors;
+    private OverflowQueue<EntityChangedMessage> entityChangedOverflowQueue;
     private BlockingQueue<ObservationCreateEvent> observationCreateEventQueue;
     private ExecutorService observationCreateExecutorService;
+    private OverflowQueue<ObservationCreateEvent> observationCreateOverflowQueue;
     private boolean enabledMqtt = false;
     private boolean shutdown = false;
 
@@ -95,9 +121,6 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             throw new IllegalArgumentException("setting must be non-null");
         }
         this.settings = settings;
-        for (EntityType entityType : EntityType.values()) {
-            subscriptions.put(entityType, new ConcurrentHashMap<>());
-        }
         init();
     }
 
@@ -107,30 +130,50 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (mqttSettings.isEnableMqtt()) {
             enabledMqtt = true;
             shutdown = false;
-            entityChangedEventQueue = new ArrayBlockingQueue<>(mqttSettings.getSubscribeMessageQueueSize());
-            // start watching for EntityChangedEvents
-            entityChangedExecutorService = ProcessorHelper.createProcessors(
+            // start watching for EntityChangedEvents, keeping the events of one entity or Datastream in order.
+            entityChangedProcessors = ProcessorHelper.createPartitionedProcessors(
                     mqttSettings.getSubscribeThreadPoolSize(),
-                    entityChangedEventQueue,
+                    mqttSettings.getSubscribeMessageQueueSize(),
+                    MqttManager::getOrderingKey,
                     this::handleEntityChangedEvent,
                     "Mqtt-ECEP");
+            entityChangedProcessors.registerMetrics();
+            Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().getIdManager().getIdClass();
+            entityChangedOverflowQueue = new OverflowQueue<>(
+                    "Mqtt-ECEP",
+                    mqttSettings.getSubscribeOverflowPolicy(),
+                    mqttSettings.getOverflowTimeout(),
+                    entityChangedProcessors::queueOf)
+                    .enableSpill(mqttSettings.getSpillDirectory(), mqttSettings.getSpillMaxSize() * 1024L * 1024L, new MessageSpillCodec(idClass, false))
+                    .registerMetrics();
             // start watching for ObservationCreateEvents
             observationCreateEventQueue = new ArrayBlockingQueue<>(mqttSettings.getCreateMessageQueueSize());
-            observationCreateExecutorService = ProcessorHelper.createProcessors(
+            observationCreateExecutorService = ProcessorHelper.createBatchProcessors(
                     mqttSettings.getCreateThreadPoolSize(),
                     observationCreateEventQueue,
-                    this::handleObservationCreateEvent,
+                    this::handleObservationCreateEvents,
+                    mqttSettings.getCreateBatchSize(),
+                    mqttSettings.getCreateBatchDelay(),
                     "Mqtt-OCEP");
+            observationCreateOverflowQueue = new OverflowQueue<>(
+                    "Mqtt-OCEP",
+                    mqttSettings.getCreateOverflowPolicy(),
+                    mqttSettings.getOverflowTimeout(),
+                    observationCreateEventQueue)
+                    .enableSpill(mqttSettings.getSpillDirectory(), mqttSettings.getSpillMaxSize() * 1024L * 1024L, new ObservationCreateEventSpillCodec(this))
+                    .registerMetrics();
             // start MQTT server
             server = MqttServerFactory.getInstance().get(settings);
             server.addSubscriptionListener(this);
             server.addEntityCreateListener(this);
             server.start();
+            // No subscriptions yet, so a partitioned bus need not deliver anything.
+            updateBusInterests();
+            SUBSCRIPTIONS.labels().set(subscriptions::size);
 
         } else {
             enabledMqtt = false;
-            entityChangedExecutorService = null;
-            entityChangedEventQueue = new ArrayBlockingQueue<>(1);
+            entityChangedProcessors = null;
             observationCreateExecutorService = null;
             observationCreateEventQueue = new ArrayBlockingQueue<>(1);
             server = null;
@@ -139,77 +182,183 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
 
     private void doShutdown() {
         shutdown = true;
-        ProcessorHelper.shutdownProcessors(entityChangedExecutorService, entityChangedEventQueue, 10, TimeUnit.SECONDS);
+        if (entityChangedOverflowQueue != null) {
+            entityChangedOverflowQueue.shutdown();
+        }
+        if (observationCreateOverflowQueue != null) {
+            observationCreateOverflowQueue.shutdown();
+        }
+        if (entityChangedProcessors != null) {
+            entityChangedProcessors.shutdown(10, TimeUnit.SECONDS);
+        }
         ProcessorHelper.shutdownProcessors(observationCreateExecutorService, observationCreateEventQueue, 10, TimeUnit.SECONDS);
         if (server != null) {
             server.stop();
         }
+        SUBSCRIPTIONS.remove();
+    }
+
+    /**
+     * The key that determines which events must be handled in order. The
+     * Observations of one (Multi)Datastream are kept in order, so subscribers
+     * of the Datastream see them in the order they were created. All other
+     * events are ordered per entity.
+     *
+     * @param message The message to get the ordering key for.
+     * @return The ordering key of the message.
+     */
+    private static Object getOrderingKey(EntityChangedMessage message) {
+        Entity entity = message.getEntity();
+        if (entity instanceof Observation) {
+            Observation observation = (Observation) entity;
+            if (observation.getDatastream() != null) {
+                return idValue(observation.getDatastream());
+            }
+            if (observation.getMultiDatastream() != null) {
+                return idValue(observation.getMultiDatastream());
+            }
+        }
+        return idValue(entity);
+    }
+
+    private static Object idValue(Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+        Id id = entity.getId();
+        return id == null ? null : id.getValue();
     }
 
     private void handleEntityChangedEvent(EntityChangedMessage message) {
+        SubscriptionFactory.getInstance().getRelationIndex().entityChanged(message);
         if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
             // v1.0 does not do delete notification.
             return;
         }
+        // Send a complete entity through the bus, or just an entity-id?
+        Entity entity = message.getEntity();
         // check if there is any subscription, if not do not publish at all
-        EntityType entityType = message.getEntityType();
-        if (!subscriptions.containsKey(entityType)) {
+        List<Subscription> candidates = subscriptions.getCandidates(entity);
+        if (candidates.isEmpty()) {
             return;
         }
-        // Send a complete entity through the bus, or just an entity-id?
-        Entity entity = message.getEntity();
+        long start = System.nanoTime();
+        int notified = 0;
         Set<Property> fields = message.getFields();
+        // Payloads formatted for this event, shared between subscriptions with the same projection.
+        Map<PayloadKey, byte[]> payloads = new HashMap<>();
         try (PersistenceManager persistenceManager = PersistenceManagerFactory.getInstance().create()) {
-            // for each subscription on EntityType check match
-            for (Subscription subscription : subscriptions.get(entityType).keySet()) {
+            // for each subscription that may be interested, check match
+            for (Subscription subscription : candidates) {
                 if (subscription.matches(persistenceManager, entity, fields)) {
-                    notifySubscription(subscription, entity);
+                    notifySubscription(subscription, entity, payloads);
+                    notified++;
                 }
             }
         } catch (Exception ex) {
             LOGGER.error("error handling MQTT subscriptions", ex);
         }
+        PUBLISH_DURATION.labels().observeSince(start);
+        FAN_OUT.labels().observe(notified);
     }
 
-    private void notifySubscription(Subscription subscription, Entity entity) {
+    private void notifySubscription(Subscription subscription, Entity entity, Map<PayloadKey, byte[]> payloads) {
         try {
-            String payload = subscription.formatMessage(entity);
-            server.publish(subscription.getTopic(), payload.getBytes(StringHelper.UTF8), settings.getMqttSettings().getQosLevel());
+            PayloadKey key = subscription.getPayloadKey();
+            byte[] payload = key == null ? null : payloads.get(key);
+            if (payload == null) {
+                payload = subscription.formatMessage(entity);
+                if (key != null) {
+                    payloads.put(key, payload);
+                }
+            }
+            MqttSettings mqttSettings = settings.getMqttSettings();
+            if (mqttSettings.isRetainLastValue()) {
+                publishRetained(subscription.getTopic(), payload);
+            } else {
+                server.publish(subscription.getTopic(), payload, mqttSettings.getQosLevel(), false);
+            }
         } catch (IOException ex) {
             LOGGER.error("publishing to MQTT on topic '" + subscription.getTopic() + "' failed", ex);
         }
     }
 
-    private void handleObservationCreateEvent(ObservationCreateEvent e) {
-        // check path?
-        String topic = e.getTopic();
-        if (!topic.endsWith("Observations")) {
-            LOGGER.info("received message on topic '{}' which is no valid topic to create an observation.", topic);
+    /**
+     * Stores a batch of Observations in one transaction. If any of the
+     * Observations fails, the transaction is rolled back and the Observations
+     * are stored one by one, so that only the failing ones are lost.
+     *
+     * @param events The events to store the Observations of.
+     */
+    private void handleObservationCreateEvents(List<ObservationCreateEvent> events) {
+        List<ObservationCreateEvent> valid = new ArrayList<>(events.size());
+        for (ObservationCreateEvent e : events) {
+            if (e.getTopic().endsWith("Observations")) {
+                valid.add(e);
+            } else {
+                LOGGER.info("received message on topic '{}' which is no valid topic to create an observation.", e.getTopic());
+            }
+        }
+        if (valid.isEmpty()) {
+            return;
+        }
+        if (valid.size() == 1) {
+            handleObservationCreateEvent(valid.get(0));
             return;
         }
-        String url = topic.replaceFirst(settings.getApiVersion(), "");
+        boolean success = true;
+        try (Service service = new Service(settings)) {
+            service.startTransaction();
+            for (ObservationCreateEvent e : valid) {
+                if (!createObservation(service, e).isSuccessful()) {
+                    success = false;
+                    break;
+                }
+            }
+            if (success) {
+                service.commitTransaction();
+                LOGGER.debug("{} Observations created via MQTT", valid.size());
+            } else {
+                service.rollbackTransaction();
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.debug("Creating batch of observations via MQTT failed", ex);
+            success = false;
+        }
+        if (!success) {
+            LOGGER.debug("Batch of {} Observations failed, storing them one by one.", valid.size());
+            valid.forEach(this::handleObservationCreateEvent);
+        }
+    }
+
+    private void handleObservationCreateEvent(ObservationCreateEvent e) {
         try (Service service = new Service(settings)) {
-            ServiceResponse<Observation> response = service.execute(
-                    new ServiceRequestBuilder(settings.getFormatter())
-                            .withRequestType(RequestType.CREATE)
-                            .withContent(e.getPayload())
-                            .withUrlPath(url)
-                            .build());
+            ServiceResponse<Observation> response = createObservation(service, e);
             if (response.isSuccessful()) {
                 LOGGER.debug("Observation (ID {}) created via MQTT", response.getResult().getId().getValue());
             } else {
                 LOGGER.error("Creating observation via MQTT failed (topic: {}, payload: {}, code: {}, message: {})",
-                        topic, e.getPayload(), response.getCode(), response.getMessage());
+                        e.getTopic(), e.getPayload(), response.getCode(), response.getMessage());
             }
         }
     }
 
+    private ServiceResponse<Observation> createObservation(Service service, ObservationCreateEvent e) {
+        String url = e.getTopic().replaceFirst(settings.getApiVersion(), "");
+        return service.execute(
+                new ServiceRequestBuilder(settings.getFormatter())
+                        .withRequestType(RequestType.CREATE)
+                        .withContent(e.getPayload())
+                        .withUrlPath(url)
+                        .build());
+    }
+
     private void entityChanged(EntityChangedMessage e) {
         if (shutdown || !enabledMqtt) {
             return;
         }
-        if (!entityChangedEventQueue.offer(e)) {
-            LOGGER.warn("EntityChangedevent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize.", entityChangedEventQueue.size());
+        if (!entityChangedOverflowQueue.offer(e)) {
+            LOGGER.warn("EntityChangedevent dropped because message queue of partition {} is full! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize.", entityChangedProcessors.partitionOf(e));
         }
     }
 
@@ -221,17 +370,15 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             return;
         }
 
-        Map<Subscription, AtomicInteger> subscriptionsMap = subscriptions.get(subscription.getEntityType());
-        synchronized (subscriptionsMap) {
-            AtomicInteger clientCount = subscriptionsMap.get(subscription);
-            if (clientCount == null) {
-                clientCount = new AtomicInteger(1);
-                subscriptionsMap.put(subscription, clientCount);
-                LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
-            } else {
-                int newCount = clientCount.incrementAndGet();
-                LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
+        int newCount = subscriptions.addSubscription(subscription);
+        if (newCount == 1) {
+            LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
+            updateBusInterests();
+            if (settings.getMqttSettings().isRetainLastValue()) {
+                publishLatest(subscription);
             }
+        } else {
+            LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
         }
     }
 
@@ -242,20 +389,91 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             // Not a valid topic.
             return;
         }
-        final Map<Subscription, AtomicInteger> subscriptionsMap = subscriptions.get(subscription.getEntityType());
-        synchronized (subscriptionsMap) {
-            AtomicInteger clientCount = subscriptionsMap.get(subscription);
-            if (clientCount != null) {
-                int newCount = clientCount.decrementAndGet();
-                LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
-                if (newCount <= 0) {
-                    subscriptionsMap.remove(subscription);
-                    LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
+        int newCount = subscriptions.removeSubscription(subscription);
+        if (newCount == 0) {
+            LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
+            updateBusInterests();
+            if (settings.getMqttSettings().isRetainLastValue()) {
+                // An empty retained message clears the retained message of the topic.
+                RetainedTopic retained = retainedTopics.remove(subscription.getTopic());
+                if (retained != null) {
+                    synchronized (retained) {
+                        server.publish(subscription.getTopic(), new byte[0], getRetainQos(), true);
+                    }
+                }
+            }
+        } else if (newCount > 0) {
+            LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
+        }
+    }
+
+    /**
+     * Tells the message bus which changes the active subscriptions need, so a
+     * partitioned bus only delivers those.
+     */
+    private void updateBusInterests() {
+        MessageBusFactory.getMessageBus().setInterests(subscriptions.getInterests());
+    }
+
+    /**
+     * Publishes the current value of the topic of the given subscription as
+     * a retained message. The first subscriber of a topic receives it
+     * directly, later subscribers get it from the server, which also retains
+     * all notifications that follow.
+     *
+     * A notification for the topic can be published while the current value
+     * is fetched. That notification is at least as new, so the fetched value
+     * is only published if no notification was published in the meantime.
+     *
+     * @param subscription The subscription to publish the current value for.
+     */
+    private void publishLatest(Subscription subscription) {
+        String topic = subscription.getTopic();
+        RetainedTopic retained = retainedTopics.computeIfAbsent(topic, t -> new RetainedTopic());
+        long publishedBefore;
+        synchronized (retained) {
+            publishedBefore = retained.published;
+        }
+        try (PersistenceManager persistenceManager = PersistenceManagerFactory.getInstance().create()) {
+            Entity latest = subscription.fetchLatest(persistenceManager);
+            if (latest == null) {
+                return;
+            }
+            byte[] payload = subscription.formatMessage(latest);
+            synchronized (retained) {
+                if (retained.published == publishedBefore) {
+                    server.publish(topic, payload, getRetainQos(), true);
+                } else {
+                    LOGGER.debug("Not publishing the fetched value on {}, a newer notification was published.", topic);
                 }
             }
+        } catch (Exception ex) {
+            LOGGER.error("Failed to publish the current value on topic '" + subscription.getTopic() + "'", ex);
         }
     }
 
+    /**
+     * Publishes a notification as the retained message of the topic. The
+     * publish is counted under the lock of the topic, so that
+     * {@link #publishLatest(Subscription)} can not overwrite it with an older
+     * value.
+     */
+    private void publishRetained(String topic, byte[] payload) {
+        RetainedTopic retained = retainedTopics.computeIfAbsent(topic, t -> new RetainedTopic());
+        synchronized (retained) {
+            server.publish(topic, payload, getRetainQos(), true);
+            retained.published++;
+        }
+    }
+
+    /**
+     * The QoS for retained messages. A server may discard retained messages
+     * that were published with QoS 0, so at least QoS 1 is used.
+     */
+    private int getRetainQos() {
+        return Math.max(1, settings.getMqttSettings().getQosLevel());
+    }
+
     @Override
     public void messageReceived(EntityChangedMessage message) {
         entityChanged(message);
@@ -266,8 +484,17 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (shutdown || !enabledMqtt) {
             return;
         }
-        if (!observationCreateEventQueue.offer(e)) {
-            LOGGER.warn("ObservationCreateEvent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize", observationCreateEventQueue.size());
+        if (!observationCreateOverflowQueue.offer(e)) {
+            LOGGER.warn("ObservationCreateEvent dropped because message queue is full {}! Increase mqtt.CreateMessageQueueSize and/or mqtt.CreateThreadPoolSize", observationCreateEventQueue.size());
         }
     }
+
+    /**
+     * The number of notifications published as retained message on a topic.
+     * Guarded by synchronising on the instance.
+     */
+    private static class RetainedTopic {
+
+        private long published;
+    }
 }
@@ -33,7 +33,22 @@ public interface MqttServer {
 
     public void stop();
 
-    public void publish(String topic, byte[] payload, int qos);
+    public default void publish(String topic, byte[] payload, int qos) {
+        publish(topic, payload, qos, false);
+    }
+
+    /**
+     * Publish a message on the given topic. A retained message is kept by the
+     * server and delivered to clients that subscribe to the topic later. A
+     * retained message with an empty payload removes the retained message of
+     * the topic.
+     *
+     * @param topic The topic to publish on.
+     * @param payload The message to publish.
+     * @param qos The Quality of Service level to publish with.
+     * @param retain Flag indicating the message should be retained.
+     */
+    public void publish(String topic, byte[] payload, int qos, boolean retain);
 
     public void addSubscriptionListener(SubscriptionListener listener);
 
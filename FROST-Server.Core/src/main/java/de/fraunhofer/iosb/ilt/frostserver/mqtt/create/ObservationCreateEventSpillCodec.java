@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.create;
+
+import de.fraunhofer.iosb.ilt.frostserver.util.SpillCodec;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the topic and payload of ObservationCreateEvents to bytes for
+ * spilling to disk, and reads them back.
+ *
+ * @author scf
+ */
+public class ObservationCreateEventSpillCodec implements SpillCodec<ObservationCreateEvent> {
+
+    private final Object source;
+
+    /**
+     * @param source The source to set on events that are read back.
+     */
+    public ObservationCreateEventSpillCodec(Object source) {
+        this.source = source;
+    }
+
+    @Override
+    public byte[] encode(ObservationCreateEvent event) throws IOException {
+        byte[] payload = event.getPayload().getBytes(StringHelper.UTF8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + event.getTopic().length() + 8);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(event.getTopic());
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ObservationCreateEvent decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            String topic = in.readUTF();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return new ObservationCreateEvent(source, topic, new String(payload, StringHelper.UTF8));
+        }
+    }
+}
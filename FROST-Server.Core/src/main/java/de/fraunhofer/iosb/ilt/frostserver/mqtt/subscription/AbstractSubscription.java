@@ -17,8 +17,10 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
 
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
@@ -33,16 +35,24 @@ import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.IntegerConstant;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.StringConstant;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.Equal;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.PathHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -50,14 +60,34 @@ import java.util.stream.Collectors;
  */
 public abstract class AbstractSubscription implements Subscription {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSubscription.class);
+
     private static Map<EntityType, List<NavigationProperty>> navigationProperties = null;
 
     protected final String topic;
     protected EntityType entityType;
     protected Expression matchExpression = null;
+    /**
+     * The navigation properties and target id of the matchExpression, used to
+     * match in memory with the relationIndex.
+     */
+    private List<NavigationProperty> matchChain;
+    private Id matchId;
+    private RelationIndex relationIndex;
     private Predicate<? super Entity> matcher;
+    /**
+     * The navigation property and id of the parent, for one-to-many
+     * collection subscriptions.
+     */
+    private NavigationProperty parentProperty;
+    private Id parentId;
     protected ResourcePath path;
     protected String serviceRootUrl;
+    /**
+     * The data format the messages should be formatted in, as requested with
+     * $resultFormat in the topic.
+     */
+    protected DataFormat dataFormat = DataFormat.JSON;
 
     public AbstractSubscription(String topic, ResourcePath path, String serviceRootUrl) {
         initNavigationProperties();
@@ -88,6 +118,12 @@ public abstract class AbstractSubscription implements Subscription {
             return false;
         }
         if (matchExpression != null) {
+            if (relationIndex != null) {
+                Boolean result = relationIndex.matches(persistenceManager, newEntity, matchChain, matchId);
+                if (result != null) {
+                    return result;
+                }
+            }
             Query query = new Query();
             query.setFilter(matchExpression);
             Object result = persistenceManager.get(newEntity.getPath(), query);
@@ -129,6 +165,8 @@ public abstract class AbstractSubscription implements Subscription {
     private void createMatcher(final NavigationProperty navProp, Id id) {
         // We have a collectionSubscription of type one-to-many.
         // Create a (cheap) matcher instead of an (expensive) Expression
+        parentProperty = navProp;
+        parentId = id;
         matcher = (Entity t) -> {
             Entity parent = (Entity) t.getProperty(navProp);
             if (parent == null) {
@@ -140,6 +178,10 @@ public abstract class AbstractSubscription implements Subscription {
     }
 
     private void createMatchExpression(List<Property> properties, final EntityPathElement epe) {
+        matchChain = properties.stream()
+                .map(x -> (NavigationProperty) x)
+                .collect(Collectors.toList());
+        matchId = epe.getId();
         properties.add(EntityProperty.ID);
         String epeId = epe.getId().getUrl();
         if (epeId.startsWith("'")) {
@@ -154,17 +196,123 @@ public abstract class AbstractSubscription implements Subscription {
         return entityType;
     }
 
+    /**
+     * Sets the index used to match deep subscriptions in memory. Without an
+     * index, deep subscriptions are matched with a database query.
+     *
+     * @param relationIndex The index to use for matching.
+     */
+    public void setRelationIndex(RelationIndex relationIndex) {
+        this.relationIndex = relationIndex;
+    }
+
+    @Override
+    public Set<EntityType> getRelatedEntityTypes() {
+        if (matchChain == null) {
+            return Collections.emptySet();
+        }
+        Set<EntityType> result = EnumSet.noneOf(EntityType.class);
+        for (NavigationProperty property : matchChain) {
+            result.add(property.type);
+        }
+        result.remove(entityType);
+        return result;
+    }
+
+    @Override
+    public NavigationProperty getParentProperty() {
+        return parentProperty;
+    }
+
+    @Override
+    public Id getParentId() {
+        return parentId;
+    }
+
     @Override
     public String getTopic() {
         return topic;
     }
 
     @Override
-    public String formatMessage(Entity entity) throws IOException {
+    public byte[] formatMessage(Entity entity) throws IOException {
         return doFormatMessage(entity);
     }
 
-    public abstract String doFormatMessage(Entity entity) throws IOException;
+    public abstract byte[] doFormatMessage(Entity entity) throws IOException;
+
+    /**
+     * Parses the query part of a topic.
+     *
+     * @param topicQuery The query part of the topic.
+     * @return The parsed query, or null if the query could not be parsed.
+     */
+    protected static Query parseQuery(String topicQuery) {
+        String queryString = null;
+        try {
+            queryString = URLDecoder.decode(topicQuery, StringHelper.UTF8.name());
+        } catch (UnsupportedEncodingException ex) {
+            LOGGER.error("Unsupported encoding.", ex);
+        }
+        try {
+            return QueryParser.parseQuery(queryString, new CoreSettings());
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid query: {} ERROR: {}", queryString, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sets the data format of the messages from the $resultFormat of the
+     * given query. Unknown formats result in JSON.
+     *
+     * @param query The query to take the format from.
+     */
+    protected void setDataFormat(Query query) {
+        DataFormat format = null;
+        if (query != null) {
+            format = DataFormat.fromFormatName(query.getFormat());
+        }
+        dataFormat = format == null ? DataFormat.JSON : format;
+    }
+
+    /**
+     * Checks if the given query has no other options than $resultFormat.
+     *
+     * @param query The query to check.
+     * @return true if the query has no other options than $resultFormat.
+     */
+    protected static boolean hasOnlyFormat(Query query) {
+        return query.getSelect().isEmpty() && hasOnlySelectAndFormat(query);
+    }
+
+    /**
+     * Checks if the given query has no other options than $select and
+     * $resultFormat.
+     *
+     * @param query The query to check.
+     * @return true if the query has no other options than $select and
+     * $resultFormat.
+     */
+    protected static boolean hasOnlySelectAndFormat(Query query) {
+        return query.getFilter() == null && hasOnlySelectFilterAndFormat(query);
+    }
+
+    /**
+     * Checks if the given query has no other options than $select, $filter
+     * and $resultFormat.
+     *
+     * @param query The query to check.
+     * @return true if the query has no other options than $select, $filter
+     * and $resultFormat.
+     */
+    protected static boolean hasOnlySelectFilterAndFormat(Query query) {
+        return !query.getCount().isPresent()
+                && query.getExpand().isEmpty()
+                && query.getOrderBy().isEmpty()
+                && !query.getSkip().isPresent()
+                && !query.getTop().isPresent();
+    }
 
     @Override
     public int hashCode() {
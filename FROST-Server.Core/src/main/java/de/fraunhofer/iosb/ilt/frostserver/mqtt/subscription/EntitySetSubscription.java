@@ -18,18 +18,23 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
-import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.frostserver.path.Property;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.query.OrderBy;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.EntityExpressionEvaluator;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
-import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.Objects;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.Set;
 
 /**
  *
@@ -37,9 +42,13 @@ import org.slf4j.LoggerFactory;
  */
 public class EntitySetSubscription extends AbstractSubscription {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(EntitySetSubscription.class);
     private final CoreSettings settings;
     private Query query;
+    /**
+     * The $filter of the topic, or null if there is none.
+     */
+    private Expression filter;
+    private PayloadKey payloadKey;
 
     public EntitySetSubscription(CoreSettings settings, String topic, ResourcePath path, String serviceRootUrl) {
         super(topic, path, serviceRootUrl);
@@ -51,36 +60,65 @@ public class EntitySetSubscription extends AbstractSubscription {
         entityType = ((EntitySetPathElement) path.getLastElement()).getEntityType();
 
         query = parseQuery(SubscriptionFactory.getQueryFromTopic(topic));
-        if (query != null
-                && (query.getCount().isPresent()
-                || !query.getExpand().isEmpty()
-                || query.getFilter() != null
-                || !query.getOrderBy().isEmpty()
-                || query.getSkip().isPresent()
-                || query.getTop().isPresent())) {
-            throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': only $select is allowed in query options.");
+        if (query != null && !hasOnlySelectFilterAndFormat(query)) {
+            throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': only $select, $filter and $resultFormat are allowed in query options.");
         }
+        if (query != null) {
+            filter = query.getFilter();
+        }
+        setDataFormat(query);
         generateFilter(1);
+        Set<Property> select = query == null ? Collections.emptySet() : query.getSelect();
+        payloadKey = PayloadKey.forEntity(dataFormat, path.getServiceRootUrl(), select);
     }
 
-    private Query parseQuery(String topic) {
-        String queryString = null;
-        try {
-            queryString = URLDecoder.decode(topic, StringHelper.UTF8.name());
-        } catch (UnsupportedEncodingException ex) {
-            LOGGER.error("Unsupported encoding.", ex);
+    @Override
+    public boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields) {
+        if (!super.matches(persistenceManager, newEntity, fields)) {
+            return false;
         }
-        try {
-            return QueryParser.parseQuery(queryString, new CoreSettings());
-        } catch (IllegalArgumentException e) {
-            LOGGER.error("Invalid query: {} ERROR: {}", queryString, e.getMessage());
-            return null;
+        if (filter == null) {
+            return true;
         }
+        Boolean result = EntityExpressionEvaluator.evaluate(filter, newEntity);
+        if (result != null) {
+            return result;
+        }
+        Query filterQuery = new Query();
+        filterQuery.setFilter(filter);
+        return persistenceManager.get(newEntity.getPath(), filterQuery) != null;
+    }
+
+    /**
+     * Fetches the latest entity that matches the subscription. For
+     * Observations this is the one with the latest phenomenonTime, for other
+     * entity types the one with the highest id.
+     *
+     * @param persistenceManager The PersistenceManager to use for queries.
+     * @return The latest matching entity, or null if there is none.
+     */
+    @Override
+    public Entity fetchLatest(PersistenceManager persistenceManager) {
+        EntityProperty orderProperty = entityType == EntityType.OBSERVATION ? EntityProperty.PHENOMENONTIME : EntityProperty.ID;
+        Query latestQuery = new Query(settings);
+        latestQuery.setFilter(filter);
+        latestQuery.setTop(1);
+        latestQuery.getOrderBy().add(new OrderBy(new Path(orderProperty), OrderBy.OrderType.DESCENDING));
+        Object result = persistenceManager.get(path, latestQuery);
+        if (result instanceof EntitySet && !((EntitySet<?>) result).isEmpty()) {
+            return (Entity) ((EntitySet<?>) result).iterator().next();
+        }
+        return null;
+    }
+
+    @Override
+    public PayloadKey getPayloadKey() {
+        return payloadKey;
     }
 
     @Override
-    public String doFormatMessage(Entity entity) throws IOException {
-        return settings.getFormatter().format(path, query, entity, true);
+    public byte[] doFormatMessage(Entity entity) throws IOException {
+        return settings.getFormatter(dataFormat).formatBytes(path, query, entity, true);
     }
 
     @Override
@@ -28,6 +28,7 @@ import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -41,6 +42,7 @@ public class EntitySubscription extends AbstractSubscription {
 
     private final CoreSettings settings;
     private Predicate<? super Entity> matcher;
+    private PayloadKey payloadKey;
 
     public EntitySubscription(CoreSettings settings, String topic, ResourcePath path, String serviceRootUrl) {
         super(topic, path, serviceRootUrl);
@@ -49,8 +51,13 @@ public class EntitySubscription extends AbstractSubscription {
     }
 
     private void init() {
-        if (!SubscriptionFactory.getQueryFromTopic(topic).isEmpty()) {
-            throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': query options not allowed for subscription on an entity.");
+        String topicQuery = SubscriptionFactory.getQueryFromTopic(topic);
+        if (!topicQuery.isEmpty()) {
+            Query query = parseQuery(topicQuery);
+            if (query == null || !hasOnlyFormat(query)) {
+                throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': only $resultFormat is allowed in query options for subscription on an entity.");
+            }
+            setDataFormat(query);
         }
         entityType = ((EntityPathElement) path.getLastElement()).getEntityType();
         final int size = path.size();
@@ -59,6 +66,12 @@ public class EntitySubscription extends AbstractSubscription {
             matcher = x -> x.getProperty(EntityProperty.ID).equals(id);
         }
         generateFilter(1);
+        payloadKey = PayloadKey.forEntity(dataFormat, path.getServiceRootUrl(), Collections.emptySet());
+    }
+
+    @Override
+    public PayloadKey getPayloadKey() {
+        return payloadKey;
     }
 
     @Override
@@ -70,8 +83,17 @@ public class EntitySubscription extends AbstractSubscription {
     }
 
     @Override
-    public String doFormatMessage(Entity entity) throws IOException {
-        return settings.getFormatter().format(path, emptyQuery, entity, true);
+    public Entity fetchLatest(PersistenceManager persistenceManager) {
+        Object result = persistenceManager.get(path, new Query());
+        if (result instanceof Entity) {
+            return (Entity) result;
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] doFormatMessage(Entity entity) throws IOException {
+        return settings.getFormatter(dataFormat).formatBytes(path, emptyQuery, entity, true);
     }
 
     @Override
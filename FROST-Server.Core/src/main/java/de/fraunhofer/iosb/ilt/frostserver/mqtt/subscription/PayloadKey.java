@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
+import de.fraunhofer.iosb.ilt.frostserver.path.Property;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Identifies the projection a Subscription applies to an entity when
+ * formatting a message. Two Subscriptions with equal keys produce identical
+ * payloads for the same entity, so the payload only needs to be serialised
+ * once per event.
+ *
+ * @author scf
+ */
+public final class PayloadKey {
+
+    /**
+     * The single property that is published, or null if the entity is
+     * published.
+     */
+    private final Property property;
+    private final DataFormat dataFormat;
+    /**
+     * The base for the (absolute) navigation links.
+     */
+    private final String serviceRootUrl;
+    private final Set<Property> select;
+    private final int hash;
+
+    private PayloadKey(Property property, DataFormat dataFormat, String serviceRootUrl, Set<Property> select) {
+        this.property = property;
+        this.dataFormat = dataFormat;
+        this.serviceRootUrl = serviceRootUrl;
+        this.select = select;
+        this.hash = Objects.hash(property, dataFormat, serviceRootUrl, select);
+    }
+
+    /**
+     * Creates a key for a Subscription that publishes (a selection of) the
+     * entity.
+     *
+     * @param dataFormat The format of the message.
+     * @param serviceRootUrl The service root url the navigation links are
+     * generated with.
+     * @param select The selected properties, empty if all properties are
+     * selected.
+     * @return the key.
+     */
+    public static PayloadKey forEntity(DataFormat dataFormat, String serviceRootUrl, Set<Property> select) {
+        Set<Property> selectCopy = select.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(select));
+        return new PayloadKey(null, dataFormat, serviceRootUrl, selectCopy);
+    }
+
+    /**
+     * Creates a key for a Subscription that publishes a single property of
+     * the entity.
+     *
+     * @param dataFormat The format of the message.
+     * @param property The published property.
+     * @return the key.
+     */
+    public static PayloadKey forProperty(DataFormat dataFormat, Property property) {
+        return new PayloadKey(property, dataFormat, null, Collections.emptySet());
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final PayloadKey other = (PayloadKey) obj;
+        return hash == other.hash
+                && Objects.equals(property, other.property)
+                && dataFormat == other.dataFormat
+                && Objects.equals(serviceRootUrl, other.serviceRootUrl)
+                && Objects.equals(select, other.select);
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadKey{" + dataFormat + ", " + (property == null ? select : property) + '}';
+    }
+
+}
@@ -26,6 +26,7 @@ import de.fraunhofer.iosb.ilt.frostserver.path.Property;
 import de.fraunhofer.iosb.ilt.frostserver.path.PropertyPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Objects;
@@ -40,6 +41,7 @@ public class PropertySubscription extends AbstractSubscription {
 
     private Property property;
     private Predicate<? super Entity> matcher;
+    private PayloadKey payloadKey;
 
     public PropertySubscription(String topic, ResourcePath path, String serviceRootUrl) {
         super(topic, path, serviceRootUrl);
@@ -47,8 +49,13 @@ public class PropertySubscription extends AbstractSubscription {
     }
 
     private void init() {
-        if (!SubscriptionFactory.getQueryFromTopic(topic).isEmpty()) {
-            throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': query options not allowed for subscription on a property.");
+        String topicQuery = SubscriptionFactory.getQueryFromTopic(topic);
+        if (!topicQuery.isEmpty()) {
+            Query query = parseQuery(topicQuery);
+            if (query == null || !hasOnlyFormat(query)) {
+                throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': only $resultFormat is allowed in query options for subscription on a property.");
+            }
+            setDataFormat(query);
         }
         final int size = path.size();
         entityType = ((EntityPathElement) path.get(size - 2)).getEntityType();
@@ -58,6 +65,12 @@ public class PropertySubscription extends AbstractSubscription {
             matcher = x -> x.getProperty(EntityProperty.ID).equals(id);
         }
         generateFilter(2);
+        payloadKey = PayloadKey.forProperty(dataFormat, property);
+    }
+
+    @Override
+    public PayloadKey getPayloadKey() {
+        return payloadKey;
     }
 
     @Override
@@ -72,12 +85,32 @@ public class PropertySubscription extends AbstractSubscription {
         return super.matches(persistenceManager, newEntity, fields);
     }
 
+    /**
+     * Fetches the entity that has the property this subscription is for.
+     *
+     * @param persistenceManager The PersistenceManager to use for queries.
+     * @return The entity, or null if it does not exist.
+     */
+    @Override
+    public Entity fetchLatest(PersistenceManager persistenceManager) {
+        ResourcePath entityPath = new ResourcePath(path.getServiceRootUrl(), path.getPathUrl());
+        for (int i = 0; i < path.size() - 1; i++) {
+            entityPath.addPathElement(path.get(i), true, false);
+        }
+        entityPath.setIdentifiedElement(path.getIdentifiedElement());
+        Object result = persistenceManager.get(entityPath, new Query());
+        if (result instanceof Entity) {
+            return (Entity) result;
+        }
+        return null;
+    }
+
     @Override
-    public String doFormatMessage(Entity entity) throws IOException {
+    public byte[] doFormatMessage(Entity entity) throws IOException {
         HashSet<String> propNames = new HashSet<>(1);
         propNames.add(property.getJsonName());
         entity.setSelectedPropertyNames(propNames);
-        return EntityFormatter.writeEntity(entity);
+        return EntityFormatter.writeObject(dataFormat, entity);
     }
 
     @Override
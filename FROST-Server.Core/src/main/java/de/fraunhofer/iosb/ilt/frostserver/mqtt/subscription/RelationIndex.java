@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.MqttSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.PathHelper;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory index of the relations between entities, used to match
+ * subscriptions on deep paths, like Datastreams(1)/Thing/Locations, without
+ * querying the database for each message.
+ *
+ * Two kinds of relations are cached:
+ * <ul>
+ * <li>The single parent of an entity, like the Thing of a Datastream. These
+ * are taken from the EntityChangedMessages, or loaded from the database on a
+ * cache miss. Since each entity has only one parent, they are also used to
+ * check membership in one-to-many sets, like the Datastreams of a
+ * Thing.</li>
+ * <li>The related ids of many-to-many relations, like the Things of a
+ * Location. These are loaded on a cache miss, and dropped whenever an entity
+ * of a type that takes part in a many-to-many relation changes, since the
+ * messages do not contain these relations.</li>
+ * </ul>
+ *
+ * @author scf
+ */
+public class RelationIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RelationIndex.class);
+
+    /**
+     * Many-to-many sets larger than this are not cached, matching falls back
+     * to the database for those.
+     */
+    private static final int MAX_SET_SIZE = 1000;
+
+    private final CoreSettings settings;
+    private final Cache<RelationKey, Id> parents;
+    private final Cache<RelationKey, Set<Id>> manyToMany;
+
+    public RelationIndex(CoreSettings settings) {
+        this.settings = settings;
+        MqttSettings mqttSettings = settings.getMqttSettings();
+        parents = CacheBuilder.newBuilder()
+                .maximumSize(mqttSettings.getRelationCacheSize())
+                .expireAfterWrite(mqttSettings.getRelationCacheTimeout(), TimeUnit.SECONDS)
+                .build();
+        manyToMany = CacheBuilder.newBuilder()
+                .maximumSize(mqttSettings.getRelationCacheSize())
+                .expireAfterWrite(mqttSettings.getRelationCacheTimeout(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Updates the index with the relations of the changed entity.
+     *
+     * @param message The message describing the change.
+     */
+    public void entityChanged(EntityChangedMessage message) {
+        Entity entity = message.getEntity();
+        if (entity == null || entity.getId() == null) {
+            return;
+        }
+        EntityType type = entity.getEntityType();
+        if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+            for (NavigationProperty property : type.getNavigationEntities()) {
+                parents.invalidate(new RelationKey(type, entity.getId(), property));
+            }
+        } else {
+            addParents(entity);
+        }
+        if (hasManyToMany(type)) {
+            manyToMany.invalidateAll();
+        }
+    }
+
+    /**
+     * Checks, in memory, if the entity is related to the entity with the given
+     * id through the given chain of navigation properties. This is the same
+     * check as the filter "chain/id eq targetId" on the entity.
+     *
+     * The chain is walked from both ends: from the entity through single
+     * parents, and from the target through the single parents that make up
+     * one-to-many sets. If the two ends do not meet, and the remaining gap is
+     * not a single many-to-many relation, the check can not be done in memory.
+     *
+     * @param pm The PersistenceManager to use on cache misses.
+     * @param entity The entity to check.
+     * @param chain The navigation properties leading from the entity to the
+     * target.
+     * @param targetId The id of the target.
+     * @return TRUE or FALSE if the check could be done, null if the database
+     * must be used.
+     */
+    public Boolean matches(PersistenceManager pm, Entity entity, List<NavigationProperty> chain, Id targetId) {
+        int back = chain.size();
+        Id backId = targetId;
+        while (back > 0) {
+            NavigationProperty property = chain.get(back - 1);
+            NavigationProperty reverse = reverseOf(typeAt(entity, chain, back - 1), property);
+            if (!property.isSet || reverse == null || reverse.isSet) {
+                break;
+            }
+            backId = getParent(pm, property.type, backId, reverse);
+            if (backId == null) {
+                return false;
+            }
+            back--;
+        }
+
+        int forward = 0;
+        Id forwardId = entity.getId();
+        while (forward < back) {
+            NavigationProperty property = chain.get(forward);
+            if (property.isSet) {
+                break;
+            }
+            if (forward == 0) {
+                forwardId = parentIdFromEntity(entity, property);
+            } else {
+                forwardId = getParent(pm, typeAt(entity, chain, forward), forwardId, property);
+            }
+            if (forwardId == null) {
+                return false;
+            }
+            forward++;
+        }
+
+        if (forward == back) {
+            return backId.equals(forwardId);
+        }
+        if (forward + 1 == back) {
+            EntityType type = typeAt(entity, chain, forward);
+            Set<Id> related = getManyToMany(pm, type, forwardId, chain.get(forward));
+            if (related != null) {
+                return related.contains(backId);
+            }
+        }
+        return null;
+    }
+
+    private static EntityType typeAt(Entity entity, List<NavigationProperty> chain, int index) {
+        if (index == 0) {
+            return entity.getEntityType();
+        }
+        return chain.get(index - 1).type;
+    }
+
+    private static NavigationProperty reverseOf(EntityType source, NavigationProperty property) {
+        return PathHelper.getNavigationProperty(property.type, source);
+    }
+
+    private static boolean hasManyToMany(EntityType type) {
+        for (NavigationProperty property : type.getNavigationSets()) {
+            NavigationProperty reverse = reverseOf(type, property);
+            if (reverse != null && reverse.isSet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Id parentIdFromEntity(Entity entity, NavigationProperty property) {
+        Object parent = entity.getProperty(property);
+        if (parent instanceof Entity) {
+            return ((Entity) parent).getId();
+        }
+        return null;
+    }
+
+    private void addParents(Entity entity) {
+        EntityType type = entity.getEntityType();
+        for (NavigationProperty property : type.getNavigationEntities()) {
+            RelationKey key = new RelationKey(type, entity.getId(), property);
+            Id parentId = parentIdFromEntity(entity, property);
+            if (parentId == null) {
+                parents.invalidate(key);
+            } else {
+                parents.put(key, parentId);
+            }
+        }
+    }
+
+    private Id getParent(PersistenceManager pm, EntityType type, Id id, NavigationProperty property) {
+        RelationKey key = new RelationKey(type, id, property);
+        Id parentId = parents.getIfPresent(key);
+        if (parentId != null) {
+            return parentId;
+        }
+        Entity entity = pm.get(type, id);
+        if (entity == null) {
+            return null;
+        }
+        addParents(entity);
+        return parentIdFromEntity(entity, property);
+    }
+
+    private Set<Id> getManyToMany(PersistenceManager pm, EntityType type, Id id, NavigationProperty property) {
+        RelationKey key = new RelationKey(type, id, property);
+        Set<Id> related = manyToMany.getIfPresent(key);
+        if (related != null) {
+            return related;
+        }
+        ResourcePath path = new ResourcePath();
+        path.setServiceRootUrl(settings.getServiceRootUrl());
+        EntitySetPathElement parentSet = new EntitySetPathElement(type, null);
+        path.addPathElement(parentSet, false, false);
+        EntityPathElement parent = new EntityPathElement(id, type, parentSet);
+        path.addPathElement(parent, false, true);
+        path.addPathElement(new EntitySetPathElement(property.type, parent), true, false);
+
+        Query query = new Query(settings);
+        query.setTop(MAX_SET_SIZE + 1);
+        query.getSelect().add(EntityProperty.ID);
+        Object result = pm.get(path, query);
+        if (!(result instanceof EntitySet)) {
+            return null;
+        }
+        EntitySet<?> entitySet = (EntitySet<?>) result;
+        if (entitySet.size() > MAX_SET_SIZE) {
+            LOGGER.debug("Not caching {} of {}({}): too many entries.", property, type, id);
+            return null;
+        }
+        related = new HashSet<>();
+        for (Entity relatedEntity : entitySet) {
+            related.add(relatedEntity.getId());
+        }
+        manyToMany.put(key, related);
+        return related;
+    }
+
+    private static class RelationKey {
+
+        private final EntityType type;
+        private final Id id;
+        private final NavigationProperty property;
+        private final int hash;
+
+        public RelationKey(EntityType type, Id id, NavigationProperty property) {
+            this.type = type;
+            this.id = id;
+            this.property = property;
+            this.hash = Objects.hash(type, id, property);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final RelationKey other = (RelationKey) obj;
+            return type == other.type
+                    && property == other.property
+                    && Objects.equals(id, other.id);
+        }
+    }
+}
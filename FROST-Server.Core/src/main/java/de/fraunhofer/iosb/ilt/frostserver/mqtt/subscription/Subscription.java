@@ -18,10 +18,13 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.frostserver.path.Property;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -31,13 +34,39 @@ import java.util.Set;
 public interface Subscription {
 
     /**
-     * Format the given entity so it fits for the subscription.
+     * Format the given entity so it fits for the subscription, in the data
+     * format requested by the subscription.
      *
      * @param entity The entity to format.
      * @return A message body.
      * @throws IOException If the formatting failed.
      */
-    String formatMessage(Entity entity) throws IOException;
+    byte[] formatMessage(Entity entity) throws IOException;
+
+    /**
+     * Get the key describing the projection this Subscription applies in
+     * {@link #formatMessage(Entity)}. Subscriptions with equal keys produce
+     * identical messages for the same entity, so a message formatted for one
+     * of them can be published to all of them.
+     *
+     * @return The payload key, or null if the messages of this Subscription
+     * can not be shared.
+     */
+    default PayloadKey getPayloadKey() {
+        return null;
+    }
+
+    /**
+     * Fetch the current value of this Subscription from the database: the
+     * entity the Subscription points to or, for collections, the latest
+     * entity that matches the Subscription.
+     *
+     * @param persistenceManager The PersistenceManager to use for queries.
+     * @return The current entity, or null if there is none.
+     */
+    default Entity fetchLatest(PersistenceManager persistenceManager) {
+        return null;
+    }
 
     /**
      * Get the type of entity that is of interest for this Subscription.
@@ -63,4 +92,39 @@ public interface Subscription {
      */
     boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields);
 
+    /**
+     * Get the navigation property that binds this Subscription to a single
+     * parent entity, like the Datastream in Datastreams(1)/Observations. Only
+     * entities that have the parent with the id given by
+     * {@link #getParentId()} can match the Subscription.
+     *
+     * @return The navigation property to the parent, or null if the
+     * Subscription is not bound to a single parent.
+     */
+    default NavigationProperty getParentProperty() {
+        return null;
+    }
+
+    /**
+     * Get the other entity types whose changes are needed to match this
+     * Subscription, like the types along the path of a deep Subscription.
+     *
+     * @return The entity types, other than {@link #getEntityType()}, that
+     * this Subscription depends on.
+     */
+    default Set<EntityType> getRelatedEntityTypes() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Get the id of the parent entity that this Subscription is bound to.
+     *
+     * @return The id of the parent, or null if the Subscription is not bound
+     * to a single parent.
+     * @see #getParentProperty()
+     */
+    default Id getParentId() {
+        return null;
+    }
+
 }
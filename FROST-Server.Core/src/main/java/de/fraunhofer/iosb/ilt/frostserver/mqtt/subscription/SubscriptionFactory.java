@@ -72,10 +72,20 @@ public class SubscriptionFactory {
     }
     private final CoreSettings settings;
     private final IdManager idManager;
+    private final RelationIndex relationIndex;
 
     private SubscriptionFactory(CoreSettings settings) {
         this.settings = settings;
         this.idManager = PersistenceManagerFactory.getInstance().getIdManager();
+        this.relationIndex = new RelationIndex(settings);
+    }
+
+    /**
+     * @return The index used by the created subscriptions to match deep paths
+     * in memory. It must be kept up to date with all EntityChangedMessages.
+     */
+    public RelationIndex getRelationIndex() {
+        return relationIndex;
     }
 
     public Subscription get(String topic) {
@@ -102,22 +112,24 @@ public class SubscriptionFactory {
         path.setServiceRootUrl(settings.getServiceRootUrl());
         path.compress();
         final int size = path.size();
+        AbstractSubscription subscription;
         if (path.getLastElement() instanceof EntitySetPathElement) {
             // SensorThings Standard 14.2.1 - Subscribe to EntitySet
-            return new EntitySetSubscription(settings, topic, path, settings.getServiceRootUrl());
+            subscription = new EntitySetSubscription(settings, topic, path, settings.getServiceRootUrl());
         } else if (path.getLastElement() instanceof EntityPathElement) {
             // SensorThings Standard 14.2.2 - Subscribe to Entity
-            return new EntitySubscription(settings, topic, path, settings.getServiceRootUrl());
+            subscription = new EntitySubscription(settings, topic, path, settings.getServiceRootUrl());
         } else if (size >= 2
                 && path.get(size - 2) instanceof EntityPathElement
                 && path.get(size - 1) instanceof PropertyPathElement) {
             // SensorThings Standard 14.2.3 - Subscribe to Property
-            return new PropertySubscription(topic, path, settings.getServiceRootUrl());
+            subscription = new PropertySubscription(topic, path, settings.getServiceRootUrl());
 
         } else {
             throw new IllegalArgumentException(errorMsg + "topic does not match any allowed pattern (RESOURCE_PATH/COLLECTION_NAME, RESOURCE_PATH_TO_AN_ENTITY, RESOURCE_PATH_TO_AN_ENTITY/PROPERTY_NAME, RESOURCE_PATH/COLLECTION_NAME?$select=PROPERTY_1,PROPERTY_2,…)");
         }
-
+        subscription.setRelationIndex(relationIndex);
+        return subscription;
     }
 
     private ResourcePath parsePath(String topic) {
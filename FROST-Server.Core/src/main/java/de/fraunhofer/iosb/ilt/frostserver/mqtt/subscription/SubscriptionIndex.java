@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.BusInterest;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of the active Subscriptions, and of the number of clients for
+ * each Subscription, indexed so that the Subscriptions that might be
+ * interested in an entity can be found without checking all Subscriptions
+ * for the type of that entity.
+ *
+ * Subscriptions that are bound to a single parent, like
+ * Datastreams(1)/Observations, are stored in a hash map keyed by entity type,
+ * parent navigation property and parent id. Only the remaining Subscriptions
+ * are kept in a list per entity type.
+ *
+ * Adding and removing Subscriptions is synchronised, finding candidates is
+ * not, and can happen concurrently with changes.
+ *
+ * @author scf
+ */
+public class SubscriptionIndex {
+
+    private final Map<Subscription, Integer> clientCounts = new ConcurrentHashMap<>();
+    private final Map<EntityType, Set<Subscription>> unbound = new EnumMap<>(EntityType.class);
+    private final Map<ParentKey, Set<Subscription>> bound = new ConcurrentHashMap<>();
+    /**
+     * The single-entity navigation properties of each entity type, the
+     * properties that can be used to bind a Subscription to a parent.
+     */
+    private final Map<EntityType, List<NavigationProperty>> parentProperties = new EnumMap<>(EntityType.class);
+
+    public SubscriptionIndex() {
+        for (EntityType type : EntityType.values()) {
+            unbound.put(type, ConcurrentHashMap.newKeySet());
+            parentProperties.put(type, type.getPropertySet().stream()
+                    .filter(x -> x instanceof NavigationProperty)
+                    .map(x -> (NavigationProperty) x)
+                    .filter(x -> !x.isSet)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Adds a client for the given Subscription.
+     *
+     * @param subscription The Subscription to add a client for.
+     * @return The number of clients for the Subscription, after adding.
+     */
+    public synchronized int addSubscription(Subscription subscription) {
+        int count = clientCounts.getOrDefault(subscription, 0) + 1;
+        clientCounts.put(subscription, count);
+        if (count == 1) {
+            setFor(subscription).add(subscription);
+        }
+        return count;
+    }
+
+    /**
+     * Removes a client for the given Subscription. When the last client is
+     * removed, the Subscription is removed.
+     *
+     * @param subscription The Subscription to remove a client for.
+     * @return The number of clients left for the Subscription, or -1 if the
+     * Subscription was not known.
+     */
+    public synchronized int removeSubscription(Subscription subscription) {
+        Integer count = clientCounts.get(subscription);
+        if (count == null) {
+            return -1;
+        }
+        count--;
+        if (count > 0) {
+            clientCounts.put(subscription, count);
+            return count;
+        }
+        clientCounts.remove(subscription);
+        ParentKey key = ParentKey.of(subscription);
+        if (key == null) {
+            unbound.get(subscription.getEntityType()).remove(subscription);
+        } else {
+            Set<Subscription> set = bound.get(key);
+            set.remove(subscription);
+            if (set.isEmpty()) {
+                bound.remove(key);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of distinct Subscriptions, regardless of the number
+     * of clients for each.
+     */
+    public int size() {
+        return clientCounts.size();
+    }
+
+    /**
+     * Finds the Subscriptions that may be interested in the given entity. The
+     * returned Subscriptions still need to be checked with
+     * {@link Subscription#matches}.
+     *
+     * @param entity The entity to find the candidate Subscriptions for.
+     * @return The Subscriptions that may be interested in the entity.
+     */
+    public List<Subscription> getCandidates(Entity entity) {
+        EntityType type = entity.getEntityType();
+        Set<Subscription> unboundSet = unbound.get(type);
+        if (bound.isEmpty()) {
+            return unboundSet.isEmpty() ? Collections.emptyList() : new ArrayList<>(unboundSet);
+        }
+        List<Subscription> result = new ArrayList<>(unboundSet);
+        for (NavigationProperty property : parentProperties.get(type)) {
+            Object parent = entity.getProperty(property);
+            if (!(parent instanceof Entity)) {
+                continue;
+            }
+            Id parentId = ((Entity) parent).getId();
+            if (parentId == null) {
+                continue;
+            }
+            Set<Subscription> boundSet = bound.get(new ParentKey(type, property, parentId));
+            if (boundSet != null) {
+                result.addAll(boundSet);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the changes the active Subscriptions are interested in: the
+     * changes of the entities of a parent for bound Subscriptions, all
+     * changes of a type for the others, and all changes of the types deep
+     * Subscriptions depend on.
+     *
+     * @return The interests of the active Subscriptions.
+     */
+    public synchronized Set<BusInterest> getInterests() {
+        Set<BusInterest> result = new HashSet<>();
+        for (Subscription subscription : clientCounts.keySet()) {
+            result.add(BusInterest.forParent(subscription.getEntityType(), subscription.getParentProperty(), subscription.getParentId()));
+            for (EntityType type : subscription.getRelatedEntityTypes()) {
+                result.add(BusInterest.forType(type));
+            }
+        }
+        return result;
+    }
+
+    private Set<Subscription> setFor(Subscription subscription) {
+        ParentKey key = ParentKey.of(subscription);
+        if (key == null) {
+            return unbound.get(subscription.getEntityType());
+        }
+        return bound.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static class ParentKey {
+
+        private final EntityType entityType;
+        private final NavigationProperty parentProperty;
+        private final Id parentId;
+        private final int hash;
+
+        public ParentKey(EntityType entityType, NavigationProperty parentProperty, Id parentId) {
+            this.entityType = entityType;
+            this.parentProperty = parentProperty;
+            this.parentId = parentId;
+            this.hash = Objects.hash(entityType, parentProperty, parentId);
+        }
+
+        public static ParentKey of(Subscription subscription) {
+            NavigationProperty property = subscription.getParentProperty();
+            Id id = subscription.getParentId();
+            if (property == null || id == null) {
+                return null;
+            }
+            return new ParentKey(subscription.getEntityType(), property, id);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final ParentKey other = (ParentKey) obj;
+            return entityType == other.entityType
+                    && parentProperty == other.parentProperty
+                    && Objects.equals(parentId, other.parentId);
+        }
+    }
+}
@@ -18,7 +18,9 @@
 package de.fraunhofer.iosb.ilt.frostserver.persistence;
 
 import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayWriter;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
@@ -28,6 +30,7 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUser;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
+import java.util.function.Consumer;
 
 /**
  *
@@ -68,6 +71,44 @@ public interface PersistenceManager extends LiquibaseUser, AutoCloseable {
         return clazz.cast(result);
     }
 
+    /**
+     * Passes the entities of the entity set that the given path points to, to
+     * the given consumer, one by one. Implementations should read the entities
+     * from the backend while passing them on, instead of collecting them
+     * first. No count or nextLink is generated. Expanded entities are added
+     * to the entities before they are passed on.
+     *
+     * The default implementation fetches the entity set using
+     * {@link #get(ResourcePath, Query)}.
+     *
+     * @param path The path to an entity set.
+     * @param query The query to apply.
+     * @param consumer The consumer to pass the entities to.
+     */
+    public default void stream(ResourcePath path, Query query, Consumer<Entity> consumer) {
+        EntitySet<?> entitySet = get(path, query, EntitySet.class);
+        for (Entity entity : entitySet) {
+            consumer.accept(entity);
+        }
+    }
+
+    /**
+     * Adds the Observations that the given path points to directly to the
+     * given DataArrayWriter, without creating Observation entities. The count
+     * and nextLink are set on the writer too.
+     *
+     * The default implementation does not support this, and returns false.
+     *
+     * @param path The path to an entity set of Observations.
+     * @param query The query to apply.
+     * @param writer The writer to add the Observations to.
+     * @return false if this PersistenceManager does not support writing
+     * dataArrays directly, in which case nothing was added to the writer.
+     */
+    public default boolean fetchDataArray(ResourcePath path, Query query, DataArrayWriter writer) {
+        return false;
+    }
+
     public boolean delete(EntityPathElement pathElement) throws NoSuchEntityException;
 
     /**
@@ -27,7 +27,7 @@ import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -39,8 +39,20 @@ import java.util.Set;
  */
 public class Query {
 
+    /**
+     * The value of getTopOrDefault when the top limit is lifted and no $top is
+     * given. One less than the maximum integer, so fetching one extra entity
+     * to check for more results does not overflow.
+     */
+    public static final int TOP_UNLIMITED = Integer.MAX_VALUE - 1;
+
     private CoreSettings settings;
     private Optional<Integer> top;
+    /**
+     * The $top as requested, before it was capped to the maximum top.
+     */
+    private Optional<Integer> topRequested;
+    private boolean topLimitLifted;
     private Optional<Integer> skip;
     private Optional<Boolean> count;
     private Set<Property> select;
@@ -56,11 +68,12 @@ public class Query {
     public Query(CoreSettings settings) {
         this.settings = settings;
         this.top = Optional.empty();
+        this.topRequested = Optional.empty();
         this.skip = Optional.empty();
         this.count = Optional.empty();
         this.orderBy = new ArrayList<>();
         this.expand = new ArrayList<>();
-        this.select = new HashSet<>();
+        this.select = new LinkedHashSet<>();
     }
 
     public void validate(ResourcePath path) {
@@ -96,9 +109,26 @@ public class Query {
         if (top.isPresent()) {
             return top.get();
         }
+        if (topLimitLifted) {
+            return TOP_UNLIMITED;
+        }
         return settings.getTopDefault();
     }
 
+    /**
+     * Lifts the maximum top limit from this query. A $top that was given is
+     * used as requested, up to {@link #TOP_UNLIMITED}, if no $top was given,
+     * there is no limit at all.
+     */
+    public void liftTopLimit() {
+        topLimitLifted = true;
+        top = topRequested.map(requested -> Math.min(requested, TOP_UNLIMITED));
+    }
+
+    public boolean isTopLimitLifted() {
+        return topLimitLifted;
+    }
+
     public Optional<Integer> getSkip() {
         return skip;
     }
@@ -151,7 +181,11 @@ public class Query {
     }
 
     public void setTop(int top) {
-        if (top <= settings.getTopMax()) {
+        this.topRequested = Optional.of(top);
+        if (topLimitLifted) {
+            // Fetching one extra entity to check for more results must not overflow.
+            this.top = Optional.of(Math.min(top, TOP_UNLIMITED));
+        } else if (top <= settings.getTopMax()) {
             this.top = Optional.of(top);
         } else {
             this.top = Optional.of(settings.getTopMax());
@@ -0,0 +1,1036 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.query.expression;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Id;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInterval;
+import de.fraunhofer.iosb.ilt.frostserver.path.CustomProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.Property;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.BooleanConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DateConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DateTimeConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DoubleConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DurationConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.IntegerConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.IntervalConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.LineStringConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.PointConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.PolygonConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.StringConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.TimeConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.Function;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Add;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Divide;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Modulo;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Multiply;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Subtract;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.Equal;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.GreaterEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.GreaterThan;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.LessEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.LessThan;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.NotEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Date;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Day;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.FractionalSeconds;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Hour;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.MaxDateTime;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.MinDateTime;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Minute;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Month;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Now;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Second;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Time;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.TotalOffsetMinutes;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Year;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.And;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Not;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Or;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Ceiling;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Floor;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Round;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoDistance;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoIntersects;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoLength;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STContains;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STCrosses;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STDisjoint;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STEquals;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STIntersects;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STOverlaps;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STRelate;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STTouches;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STWithin;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Concat;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.EndsWith;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.IndexOf;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Length;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.StartsWith;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Substring;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.SubstringOf;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.ToLower;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.ToUpper;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Trim;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.After;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Before;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.During;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Finishes;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Meets;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Overlaps;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Starts;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.joda.time.Period;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates a filter expression against a single entity, in memory. The
+ * semantics follow those of the PostgreSQL backends: a comparison with a null
+ * value is unknown, and a filter that evaluates to unknown does not match.
+ *
+ * Parts of an expression that can not be evaluated reliably in memory, like
+ * geospatial functions, comparisons between values of different types, string
+ * ordering (which depends on the database collation) or properties of related
+ * entities that are not loaded, make {@link #evaluate(Expression, Entity)}
+ * return null, so the caller can fall back to the database. Date parts are
+ * calculated in UTC.
+ *
+ * @author scf
+ */
+public class EntityExpressionEvaluator implements ExpressionVisitor<Object> {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityExpressionEvaluator.class);
+
+    /**
+     * The same limits the database backends use for minDateTime() and
+     * maxDateTime().
+     */
+    private static final DateTime DATETIME_MIN = new DateTime("0001-01-02T00:00:00.000Z", DateTimeZone.UTC);
+    private static final DateTime DATETIME_MAX = new DateTime("9999-12-30T23:59:59.999Z", DateTimeZone.UTC);
+
+    private enum Comparison {
+        EQUAL,
+        NOT_EQUAL,
+        GREATER_THAN,
+        GREATER_EQUAL,
+        LESS_THAN,
+        LESS_EQUAL
+    }
+
+    /**
+     * Thrown when (a part of) an expression can not be evaluated in memory.
+     */
+    private static class CannotEvaluateException extends RuntimeException {
+
+        public CannotEvaluateException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Entity entity;
+
+    private EntityExpressionEvaluator(Entity entity) {
+        this.entity = entity;
+    }
+
+    /**
+     * Evaluates the given filter against the given entity.
+     *
+     * @param filter The filter to evaluate.
+     * @param entity The entity to evaluate the filter against.
+     * @return TRUE if the entity matches the filter, FALSE if it does not,
+     * or null if the filter can not be evaluated in memory.
+     */
+    public static Boolean evaluate(Expression filter, Entity entity) {
+        try {
+            Object result = filter.accept(new EntityExpressionEvaluator(entity));
+            if (result == null) {
+                return false;
+            }
+            if (result instanceof Boolean) {
+                return (Boolean) result;
+            }
+            LOGGER.debug("Filter {} does not result in a boolean.", filter.toUrl());
+            return null;
+        } catch (CannotEvaluateException ex) {
+            LOGGER.trace("Can not evaluate {} in memory: {}", filter.toUrl(), ex.getMessage());
+            return null;
+        }
+    }
+
+    private Object param(Function node, int index) {
+        return node.getParameters().get(index).accept(this);
+    }
+
+    @Override
+    public Object visit(Path node) {
+        Object value = entity;
+        boolean related = false;
+        for (Property element : node.getElements()) {
+            if (value == null) {
+                return null;
+            }
+            if (element instanceof CustomProperty) {
+                value = getCustomProperty(value, (CustomProperty) element);
+                continue;
+            }
+            if (!(value instanceof Entity)) {
+                throw new CannotEvaluateException("Property " + element + " on a non-entity.");
+            }
+            Entity current = (Entity) value;
+            if (!current.getEntityType().getPropertySet().contains(element)) {
+                throw new CannotEvaluateException("Entity type " + current.getEntityType() + " has no property " + element);
+            }
+            if (element instanceof NavigationProperty) {
+                if (((NavigationProperty) element).isSet) {
+                    throw new CannotEvaluateException("Navigation to set " + element);
+                }
+                value = current.getProperty(element);
+                related = true;
+            } else {
+                value = current.getProperty(element);
+                if (value == null && related && !current.isSetProperty(element)) {
+                    // Related entities only have their id loaded.
+                    throw new CannotEvaluateException("Property " + element + " not loaded.");
+                }
+            }
+        }
+        return toValue(value);
+    }
+
+    private static Object getCustomProperty(Object value, CustomProperty property) {
+        if (value instanceof Map) {
+            return ((Map) value).get(property.getName());
+        }
+        if (value instanceof List && property.isArrayIndex()) {
+            List list = (List) value;
+            int index = property.getIndex();
+            if (index >= 0 && index < list.size()) {
+                return list.get(index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts the value of an entity property to the type used during
+     * evaluation.
+     */
+    private static Object toValue(Object value) {
+        if (value == null
+                || value instanceof Number
+                || value instanceof String
+                || value instanceof Boolean
+                || value instanceof Map
+                || value instanceof List) {
+            return value;
+        }
+        if (value instanceof TimeInstant) {
+            return ((TimeInstant) value).getDateTime();
+        }
+        if (value instanceof TimeInterval) {
+            return ((TimeInterval) value).getInterval();
+        }
+        if (value instanceof Id) {
+            return ((Id) value).getValue();
+        }
+        throw new CannotEvaluateException("Unsupported value type " + value.getClass().getName());
+    }
+
+    @Override
+    public Object visit(BooleanConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(DateConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(DateTimeConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(DoubleConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(DurationConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(IntervalConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(IntegerConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(LineStringConstant node) {
+        throw new CannotEvaluateException("Geometries are not supported.");
+    }
+
+    @Override
+    public Object visit(PointConstant node) {
+        throw new CannotEvaluateException("Geometries are not supported.");
+    }
+
+    @Override
+    public Object visit(PolygonConstant node) {
+        throw new CannotEvaluateException("Geometries are not supported.");
+    }
+
+    @Override
+    public Object visit(StringConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(TimeConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(Before node) {
+        return compare(Comparison.LESS_THAN, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(After node) {
+        return compare(Comparison.GREATER_THAN, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(Meets node) {
+        long[] t1 = toTimeRange(param(node, 0));
+        long[] t2 = toTimeRange(param(node, 1));
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        return t1[0] == t2[1] || t1[1] == t2[0];
+    }
+
+    @Override
+    public Object visit(During node) {
+        Object p2 = param(node, 1);
+        if (p2 != null && !(p2 instanceof Interval)) {
+            throw new CannotEvaluateException("Second parameter of 'during' has to be an interval.");
+        }
+        long[] t1 = toTimeRange(param(node, 0));
+        long[] t2 = toTimeRange(p2);
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        return t2[0] <= t1[0] && t2[1] > t1[0] && t2[1] >= t1[1];
+    }
+
+    @Override
+    public Object visit(Overlaps node) {
+        long[] t1 = toTimeRange(param(node, 0));
+        long[] t2 = toTimeRange(param(node, 1));
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        return !(t1[0] >= t2[1] || t2[0] >= t1[1]) || t1[0] == t2[0];
+    }
+
+    @Override
+    public Object visit(Starts node) {
+        long[] t1 = toTimeRange(param(node, 0));
+        long[] t2 = toTimeRange(param(node, 1));
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        return t1[0] == t2[0];
+    }
+
+    @Override
+    public Object visit(Finishes node) {
+        long[] t1 = toTimeRange(param(node, 0));
+        long[] t2 = toTimeRange(param(node, 1));
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        return t1[1] == t2[1];
+    }
+
+    @Override
+    public Object visit(Add node) {
+        Object p1 = param(node, 0);
+        Object p2 = param(node, 1);
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            return toBigDecimal(p1).add(toBigDecimal(p2));
+        }
+        if (p2 instanceof Period) {
+            return plus(p1, (Period) p2);
+        }
+        throw new CannotEvaluateException("Can not add " + p1.getClass().getName() + " and " + p2.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Divide node) {
+        Object p1 = param(node, 0);
+        Object p2 = param(node, 1);
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            if (isIntegerTyped(node.getParameters().get(0)) && isIntegerTyped(node.getParameters().get(1))) {
+                // Like PostgreSQL, integer division truncates towards zero.
+                BigInteger divisor = toBigDecimal(p2).toBigIntegerExact();
+                if (divisor.signum() == 0) {
+                    throw new CannotEvaluateException("Division by zero.");
+                }
+                return new BigDecimal(toBigDecimal(p1).toBigIntegerExact().divide(divisor));
+            }
+            double divisor = ((Number) p2).doubleValue();
+            if (divisor == 0) {
+                throw new CannotEvaluateException("Division by zero.");
+            }
+            return ((Number) p1).doubleValue() / divisor;
+        }
+        throw new CannotEvaluateException("Can not divide " + p1.getClass().getName() + " by " + p2.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Modulo node) {
+        Object p1 = param(node, 0);
+        Object p2 = param(node, 1);
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            BigDecimal divisor = toBigDecimal(p2);
+            if (divisor.signum() == 0) {
+                throw new CannotEvaluateException("Division by zero.");
+            }
+            return toBigDecimal(p1).remainder(divisor);
+        }
+        throw new CannotEvaluateException("Can not take the modulo of " + p1.getClass().getName() + " and " + p2.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Multiply node) {
+        Object p1 = param(node, 0);
+        Object p2 = param(node, 1);
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            return toBigDecimal(p1).multiply(toBigDecimal(p2));
+        }
+        throw new CannotEvaluateException("Can not multiply " + p1.getClass().getName() + " and " + p2.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Subtract node) {
+        Object p1 = param(node, 0);
+        Object p2 = param(node, 1);
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            return toBigDecimal(p1).subtract(toBigDecimal(p2));
+        }
+        if (p2 instanceof Period) {
+            return plus(p1, ((Period) p2).negated());
+        }
+        throw new CannotEvaluateException("Can not subtract " + p2.getClass().getName() + " from " + p1.getClass().getName());
+    }
+
+    private static Object plus(Object time, Period period) {
+        if (time instanceof DateTime) {
+            return ((DateTime) time).plus(period);
+        }
+        if (time instanceof Interval) {
+            Interval interval = (Interval) time;
+            return new Interval(interval.getStart().plus(period), interval.getEnd().plus(period));
+        }
+        throw new CannotEvaluateException("Can not add a duration to " + time.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Equal node) {
+        return compare(Comparison.EQUAL, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(GreaterEqual node) {
+        return compare(Comparison.GREATER_EQUAL, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(GreaterThan node) {
+        return compare(Comparison.GREATER_THAN, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(LessEqual node) {
+        return compare(Comparison.LESS_EQUAL, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(LessThan node) {
+        return compare(Comparison.LESS_THAN, param(node, 0), param(node, 1));
+    }
+
+    @Override
+    public Object visit(NotEqual node) {
+        return compare(Comparison.NOT_EQUAL, param(node, 0), param(node, 1));
+    }
+
+    private static Boolean compare(Comparison op, Object p1, Object p2) {
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        if (isTime(p1) || isTime(p2)) {
+            return compareTimes(op, toTimeRange(p1), toTimeRange(p2));
+        }
+        if (p1 instanceof Number && p2 instanceof Number) {
+            return compareOrdered(op, toBigDecimal(p1).compareTo(toBigDecimal(p2)));
+        }
+        if (p1 instanceof Boolean && p2 instanceof Boolean) {
+            return compareOrdered(op, ((Boolean) p1).compareTo((Boolean) p2));
+        }
+        if (p1 instanceof LocalDate && p2 instanceof LocalDate) {
+            return compareOrdered(op, ((LocalDate) p1).compareTo((LocalDate) p2));
+        }
+        if (p1 instanceof LocalTime && p2 instanceof LocalTime) {
+            return compareOrdered(op, ((LocalTime) p1).compareTo((LocalTime) p2));
+        }
+        if (p1 instanceof String && p2 instanceof String) {
+            if (op == Comparison.EQUAL) {
+                return p1.equals(p2);
+            }
+            if (op == Comparison.NOT_EQUAL) {
+                return !p1.equals(p2);
+            }
+            throw new CannotEvaluateException("String ordering depends on the database collation.");
+        }
+        throw new CannotEvaluateException("Can not compare " + p1.getClass().getName() + " and " + p2.getClass().getName());
+    }
+
+    private static boolean compareOrdered(Comparison op, int result) {
+        switch (op) {
+            case EQUAL:
+                return result == 0;
+
+            case NOT_EQUAL:
+                return result != 0;
+
+            case GREATER_THAN:
+                return result > 0;
+
+            case GREATER_EQUAL:
+                return result >= 0;
+
+            case LESS_THAN:
+                return result < 0;
+
+            case LESS_EQUAL:
+                return result <= 0;
+
+            default:
+                throw new IllegalArgumentException("Unknown comparison " + op);
+        }
+    }
+
+    /**
+     * Compares two times, that can each be an instant or an interval, the
+     * same way the database backends do.
+     */
+    private static Boolean compareTimes(Comparison op, long[] t1, long[] t2) {
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        long s1 = t1[0];
+        long e1 = t1[1];
+        long s2 = t2[0];
+        long e2 = t2[1];
+        switch (op) {
+            case EQUAL:
+                return s1 == s2 && e1 == e2;
+
+            case NOT_EQUAL:
+                return s1 != s2 && e1 != e2;
+
+            case GREATER_THAN:
+                return s1 >= e2 && s1 > s2;
+
+            case GREATER_EQUAL:
+                return s1 >= s2 && e1 >= e2;
+
+            case LESS_THAN:
+                return e1 <= s2 && s1 < s2;
+
+            case LESS_EQUAL:
+                return s1 <= s2 && e1 <= e2;
+
+            default:
+                throw new IllegalArgumentException("Unknown comparison " + op);
+        }
+    }
+
+    private static boolean isTime(Object value) {
+        return value instanceof DateTime || value instanceof Interval;
+    }
+
+    /**
+     * Converts an instant or interval into its start and end, in
+     * milliseconds. For instants, start and end are the same.
+     *
+     * @param value The time to convert.
+     * @return The start and end, or null if the given value is null.
+     */
+    private static long[] toTimeRange(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof DateTime) {
+            long millis = ((DateTime) value).getMillis();
+            return new long[]{millis, millis};
+        }
+        if (value instanceof Interval) {
+            Interval interval = (Interval) value;
+            return new long[]{interval.getStartMillis(), interval.getEndMillis()};
+        }
+        throw new CannotEvaluateException("Not a time: " + value.getClass().getName());
+    }
+
+    /**
+     * Checks if the given expression has an integer type in the database:
+     * integer literals, ids, and arithmetic on those. The result and JSON
+     * properties are not, even if their value is a whole number.
+     */
+    private static boolean isIntegerTyped(Expression expression) {
+        if (expression instanceof IntegerConstant) {
+            return true;
+        }
+        if (expression instanceof Path) {
+            List<Property> elements = ((Path) expression).getElements();
+            return !elements.isEmpty() && elements.get(elements.size() - 1) == EntityProperty.ID;
+        }
+        if (expression instanceof Add
+                || expression instanceof Subtract
+                || expression instanceof Multiply
+                || expression instanceof Modulo
+                || expression instanceof Divide) {
+            for (Expression parameter : ((Function) expression).getParameters()) {
+                if (!isIntegerTyped(parameter)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                throw new CannotEvaluateException("Not a finite number: " + value);
+            }
+            return BigDecimal.valueOf(doubleValue);
+        }
+        if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        throw new CannotEvaluateException("Not a number: " + value.getClass().getName());
+    }
+
+    /**
+     * Returns the UTC date-time of the given instant, or the start of the
+     * given interval.
+     */
+    private static DateTime toUtcDateTime(Object value) {
+        if (value instanceof DateTime) {
+            return ((DateTime) value).withZone(DateTimeZone.UTC);
+        }
+        if (value instanceof Interval) {
+            return ((Interval) value).getStart().withZone(DateTimeZone.UTC);
+        }
+        throw new CannotEvaluateException("Not a time: " + value.getClass().getName());
+    }
+
+    @Override
+    public Object visit(Date node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).toLocalDate();
+    }
+
+    @Override
+    public Object visit(Day node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getDayOfMonth();
+    }
+
+    @Override
+    public Object visit(FractionalSeconds node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getMillisOfSecond() / 1000.0;
+    }
+
+    @Override
+    public Object visit(Hour node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getHourOfDay();
+    }
+
+    @Override
+    public Object visit(MaxDateTime node) {
+        return DATETIME_MAX;
+    }
+
+    @Override
+    public Object visit(MinDateTime node) {
+        return DATETIME_MIN;
+    }
+
+    @Override
+    public Object visit(Minute node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getMinuteOfHour();
+    }
+
+    @Override
+    public Object visit(Month node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getMonthOfYear();
+    }
+
+    @Override
+    public Object visit(Now node) {
+        return DateTime.now(DateTimeZone.UTC);
+    }
+
+    @Override
+    public Object visit(Second node) {
+        Object p1 = param(node, 0);
+        if (p1 == null) {
+            return null;
+        }
+        // Like the database, the seconds include the fractional part.
+        DateTime dateTime = toUtcDateTime(p1);
+        return BigDecimal.valueOf(dateTime.getSecondOfMinute() * 1000L + dateTime.getMillisOfSecond(), 3);
+    }
+
+    @Override
+    public Object visit(Time node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).toLocalTime();
+    }
+
+    @Override
+    public Object visit(TotalOffsetMinutes node) {
+        throw new CannotEvaluateException("The offset depends on the database time zone.");
+    }
+
+    @Override
+    public Object visit(Year node) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toUtcDateTime(p1).getYear();
+    }
+
+    @Override
+    public Object visit(GeoDistance node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(GeoIntersects node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(GeoLength node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    private Boolean paramAsBoolean(Function node, int index) {
+        Object value = param(node, index);
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new CannotEvaluateException("Not a condition: " + value.getClass().getName());
+    }
+
+    @Override
+    public Object visit(And node) {
+        Boolean p1 = paramAsBoolean(node, 0);
+        if (Boolean.FALSE.equals(p1)) {
+            return false;
+        }
+        Boolean p2 = paramAsBoolean(node, 1);
+        if (Boolean.FALSE.equals(p2)) {
+            return false;
+        }
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        return true;
+    }
+
+    @Override
+    public Object visit(Not node) {
+        Boolean p1 = paramAsBoolean(node, 0);
+        return p1 == null ? null : !p1;
+    }
+
+    @Override
+    public Object visit(Or node) {
+        Boolean p1 = paramAsBoolean(node, 0);
+        if (Boolean.TRUE.equals(p1)) {
+            return true;
+        }
+        Boolean p2 = paramAsBoolean(node, 1);
+        if (Boolean.TRUE.equals(p2)) {
+            return true;
+        }
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        return false;
+    }
+
+    private Object round(Function node, RoundingMode mode) {
+        Object p1 = param(node, 0);
+        return p1 == null ? null : toBigDecimal(p1).setScale(0, mode);
+    }
+
+    @Override
+    public Object visit(Ceiling node) {
+        return round(node, RoundingMode.CEILING);
+    }
+
+    @Override
+    public Object visit(Floor node) {
+        return round(node, RoundingMode.FLOOR);
+    }
+
+    @Override
+    public Object visit(Round node) {
+        return round(node, RoundingMode.HALF_UP);
+    }
+
+    @Override
+    public Object visit(STContains node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STCrosses node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STDisjoint node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STEquals node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STIntersects node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STOverlaps node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STRelate node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STTouches node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    @Override
+    public Object visit(STWithin node) {
+        throw new CannotEvaluateException("Geospatial functions are not supported.");
+    }
+
+    private String paramAsString(Function node, int index) {
+        Object value = param(node, index);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw new CannotEvaluateException("Not a string: " + value.getClass().getName());
+    }
+
+    private Integer paramAsInteger(Function node, int index) {
+        Object value = param(node, index);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return toBigDecimal(value).intValueExact();
+        } catch (ArithmeticException ex) {
+            throw new CannotEvaluateException("Not an integer: " + value);
+        }
+    }
+
+    @Override
+    public Object visit(Concat node) {
+        String s1 = paramAsString(node, 0);
+        String s2 = paramAsString(node, 1);
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return s1 + s2;
+    }
+
+    @Override
+    public Object visit(EndsWith node) {
+        String s1 = paramAsString(node, 0);
+        String s2 = paramAsString(node, 1);
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return s1.endsWith(s2);
+    }
+
+    @Override
+    public Object visit(IndexOf node) {
+        String s1 = paramAsString(node, 0);
+        String s2 = paramAsString(node, 1);
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        // The database position function is 1-based, and returns 0 when not found.
+        return s1.indexOf(s2) + 1;
+    }
+
+    @Override
+    public Object visit(Length node) {
+        String s1 = paramAsString(node, 0);
+        return s1 == null ? null : s1.length();
+    }
+
+    @Override
+    public Object visit(StartsWith node) {
+        String s1 = paramAsString(node, 0);
+        String s2 = paramAsString(node, 1);
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return s1.startsWith(s2);
+    }
+
+    @Override
+    public Object visit(Substring node) {
+        String s1 = paramAsString(node, 0);
+        Integer start = paramAsInteger(node, 1);
+        Integer count = node.getParameters().size() > 2 ? paramAsInteger(node, 2) : null;
+        if (s1 == null || start == null || (count == null && node.getParameters().size() > 2)) {
+            return null;
+        }
+        if (count != null && count < 0) {
+            throw new CannotEvaluateException("Negative substring length.");
+        }
+        // Like the database substring function, positions are 1-based.
+        int from = Math.max(start, 1);
+        long to = count == null ? s1.length() + 1L : Math.min((long) start + count, s1.length() + 1L);
+        if (to <= from) {
+            return "";
+        }
+        return s1.substring(from - 1, (int) to - 1);
+    }
+
+    @Override
+    public Object visit(SubstringOf node) {
+        String s1 = paramAsString(node, 0);
+        String s2 = paramAsString(node, 1);
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return s2.contains(s1);
+    }
+
+    @Override
+    public Object visit(ToLower node) {
+        String s1 = paramAsString(node, 0);
+        return s1 == null ? null : s1.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public Object visit(ToUpper node) {
+        String s1 = paramAsString(node, 0);
+        return s1 == null ? null : s1.toUpperCase(Locale.ROOT);
+    }
+
+    @Override
+    public Object visit(Trim node) {
+        String s1 = paramAsString(node, 0);
+        if (s1 == null) {
+            return null;
+        }
+        // The database trim only removes spaces.
+        int start = 0;
+        int end = s1.length();
+        while (start < end && s1.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && s1.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return s1.substring(start, end);
+    }
+
+}
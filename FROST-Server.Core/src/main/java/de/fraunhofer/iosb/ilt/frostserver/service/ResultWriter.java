@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a result directly to the client. Used for results that are too large
+ * to be formatted in memory before sending them.
+ *
+ * @author scf
+ */
+@FunctionalInterface
+public interface ResultWriter {
+
+    /**
+     * Write the result to the given writer. Any resources held for the result
+     * are released when this method returns.
+     *
+     * @param writer The writer to write the result to.
+     * @throws IOException If writing to the writer fails.
+     */
+    public void writeTo(Writer writer) throws IOException;
+}
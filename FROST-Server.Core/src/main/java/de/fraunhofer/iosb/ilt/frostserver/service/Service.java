@@ -20,14 +20,23 @@ package de.fraunhofer.iosb.ilt.frostserver.service;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.CsvResultFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayWriter;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DefaultResultFormater;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Histogram;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Metrics;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerTiming;
 import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
 import de.fraunhofer.iosb.ilt.frostserver.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
 import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
 import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityPathElement;
@@ -47,6 +56,7 @@ import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityExcepti
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.UrlHelper;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
@@ -98,9 +108,24 @@ public class Service implements AutoCloseable {
      */
     private static final String KEY_EXTENSION_LIST = "extensions";
 
+    /**
+     * The duration of the requests, by request type and entity type.
+     */
+    private static final Histogram REQUEST_DURATION = Metrics.histogram(
+            "request_duration_seconds",
+            "The time taken to execute requests, excluding the streaming of results.",
+            Histogram.DURATION_BUCKETS,
+            "request_type", "entity_type");
+    private static final String NO_ENTITY_TYPE = "none";
+
     private final CoreSettings settings;
     private PersistenceManager persistenceManager;
     private boolean transactionActive = false;
+    /**
+     * The type of the main entity of the path of the current request, for the
+     * metrics.
+     */
+    private EntityType requestEntityType;
 
     public Service(CoreSettings settings) {
         this.settings = settings;
@@ -108,6 +133,26 @@ public class Service implements AutoCloseable {
     }
 
     public <T> ServiceResponse<T> execute(ServiceRequest request) {
+        long start = System.nanoTime();
+        requestEntityType = null;
+        ServerTiming timing = request.isServerTiming() ? ServerTiming.start() : null;
+        try {
+            ServiceResponse<T> response = executeRequest(request);
+            if (timing != null) {
+                ServerTiming.record(ServerTiming.PHASE_TOTAL, start);
+                response.setServerTiming(timing);
+            }
+            return response;
+        } finally {
+            if (timing != null) {
+                ServerTiming.stop();
+            }
+            String entityType = requestEntityType == null ? NO_ENTITY_TYPE : requestEntityType.entityName;
+            REQUEST_DURATION.labels(request.getRequestType().toString(), entityType).observeSince(start);
+        }
+    }
+
+    private <T> ServiceResponse<T> executeRequest(ServiceRequest request) {
         switch (request.getRequestType()) {
             case GET_CAPABILITIES:
                 return executeGetCapabilities(request);
@@ -241,7 +286,7 @@ public class Service implements AutoCloseable {
             }
             response.setCode(200);
             response.setResult(result);
-            response.setResultFormatted(request.getFormatter().format(null, null, result, settings.isUseAbsoluteNavigationLinks()));
+            formatResult(request.getFormatter(), response, null, null, result);
             return response;
         } catch (MalformedURLException ex) {
             LOGGER.error("Failed to build url.", ex);
@@ -268,14 +313,17 @@ public class Service implements AutoCloseable {
             }
             return errorResponse(response, 500, "Failed to execute query. See logs for details.");
         } finally {
-            maybeRollbackAndClose();
+            if (response.getResultWriter() == null) {
+                // Streamed results close the PersistenceManager themselves.
+                maybeRollbackAndClose();
+            }
         }
     }
 
-    private <T> ServiceResponse<T> handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse<T> response) {
+    private <T> ServiceResponse<T> handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse<T> response) throws IOException {
         ResourcePath path;
         try {
-            path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), request.getUrlPath());
+            path = parsePath(pm, request.getUrlPath());
         } catch (IllegalArgumentException e) {
             return errorResponse(response, 404, NOT_A_VALID_ID);
         } catch (IllegalStateException e) {
@@ -283,7 +331,7 @@ public class Service implements AutoCloseable {
         }
         Query query;
         try {
-            query = QueryParser.parseQuery(request.getUrlQuery(), settings);
+            query = parseQuery(request.getUrlQuery());
             query.validate(path);
         } catch (IllegalArgumentException ex) {
             return errorResponse(response, 400, ex.getMessage());
@@ -291,12 +339,33 @@ public class Service implements AutoCloseable {
 
         fixDataArrayRequests(query, path);
 
-        if (!pm.validatePath(path)) {
+        if (!validatePath(pm, path)) {
             maybeCommitAndClose();
             return errorResponse(response, 404, NOTHING_FOUND_RESPONSE);
         }
+        ResultFormatter formatter = getFormatter(request, query);
+        if (formatter instanceof CsvResultFormatter) {
+            ResourcePathElement lastElement = path.getLastElement();
+            if (lastElement instanceof EntitySetPathElement && !transactionActive && request.isUnlimitedExport()) {
+                return streamResult(pm, response, (CsvResultFormatter) formatter, path, query);
+            }
+            if (!(lastElement instanceof EntityPathElement) && !(lastElement instanceof EntitySetPathElement)) {
+                maybeCommitAndClose();
+                return errorResponse(response, 400, "Only Entities and EntitySets can be requested as " + query.getFormat());
+            }
+        }
         T object;
         try {
+            if (isDataArrayRequest(query, path) && formatter instanceof DefaultResultFormater && !formatter.isBinary()) {
+                DataArrayWriter dataArrayWriter = new DataArrayWriter(path, query);
+                if (pm.fetchDataArray(path, query, dataArrayWriter)) {
+                    maybeCommitAndClose();
+                    response.setContentType(formatter.getContentType());
+                    response.setResultFormatted(dataArrayWriter.finish());
+                    response.setCode(200);
+                    return response;
+                }
+            }
             object = (T) pm.get(path, query);
         } catch (UnsupportedOperationException e) {
             LOGGER.error("Unsupported operation.", e);
@@ -320,21 +389,102 @@ public class Service implements AutoCloseable {
             }
         } else {
             response.setResult(object);
-            response.setResultFormatted(request.getFormatter().format(path, query, object, settings.isUseAbsoluteNavigationLinks()));
+            formatResult(formatter, response, path, query, object);
+            if (formatter instanceof CsvResultFormatter) {
+                addNextLinkHeader(response, object);
+            }
             response.setCode(200);
             return response;
         }
     }
 
+    /**
+     * CSV and TSV have no place for a nextLink in the body, so it is sent in
+     * a Link header instead.
+     */
+    private void addNextLinkHeader(ServiceResponse<?> response, Object result) {
+        if (result instanceof EntitySet) {
+            String nextLink = ((EntitySet<?>) result).getNextLink();
+            if (nextLink != null) {
+                response.addHeader("Link", "<" + nextLink + ">; rel=\"next\"");
+            }
+        }
+    }
+
+    /**
+     * Sets up the response to stream the entity set directly from the
+     * PersistenceManager to the client, without the maximum top limit. The
+     * query is executed when the response is written, after which the
+     * PersistenceManager is closed. Only used for users with the export role,
+     * other users get a normal, paged result with a nextLink.
+     */
+    private <T> ServiceResponse<T> streamResult(PersistenceManager pm, ServiceResponse<T> response, CsvResultFormatter formatter, ResourcePath path, Query query) {
+        query.liftTopLimit();
+        CsvResultFormatter.removeUnusedExpands(query);
+        response.setContentType(formatter.getContentType());
+        response.setCode(200);
+        response.setResultWriter(writer -> {
+            try {
+                pm.stream(path, query, formatter.startWriting(path, query, writer));
+                writer.flush();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            } finally {
+                pm.rollbackAndClose();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Get the formatter to use for the given request. A $resultFormat that
+     * names one of the data formats, or CSV or TSV, overrides the formatter of
+     * the request.
+     */
+    private ResultFormatter getFormatter(ServiceRequest request, Query query) {
+        DataFormat format = DataFormat.fromFormatName(query.getFormat());
+        if (format != null) {
+            return settings.getFormatter(format);
+        }
+        CsvResultFormatter csvFormatter = CsvResultFormatter.fromFormatName(query.getFormat());
+        if (csvFormatter != null) {
+            return csvFormatter;
+        }
+        return request.getFormatter();
+    }
+
+    private void formatResult(ResultFormatter formatter, ServiceResponse<?> response, ResourcePath path, Query query, Object result) {
+        long start = System.nanoTime();
+        response.setContentType(formatter.getContentType());
+        if (formatter.isBinary()) {
+            response.setResultFormattedBinary(formatter.formatBytes(path, query, result, settings.isUseAbsoluteNavigationLinks()));
+        } else {
+            response.setResultFormatted(formatter.format(path, query, result, settings.isUseAbsoluteNavigationLinks()));
+        }
+        ServerTiming.record(ServerTiming.PHASE_FORMAT, start);
+    }
+
+    private static Entity parseEntity(EntityParser entityParser, Class<? extends Entity> clazz, ServiceRequest request) throws IOException {
+        if (request.getContentBinary() == null) {
+            return entityParser.parseEntity(clazz, request.getContent());
+        }
+        return entityParser.parseEntity(clazz, request.getContentBinary());
+    }
+
     private void fixDataArrayRequests(Query query, ResourcePath path) {
         // If DataArray is requested, and $select is used, make sure Datastream is in the $select.
-        if ("dataarray".equalsIgnoreCase(query.getFormat()) && !query.getSelect().isEmpty()) {
-            ResourcePathElement lastElement = path.getLastElement();
-            if (lastElement instanceof EntitySetPathElement && ((EntitySetPathElement) lastElement).getEntityType() == EntityType.OBSERVATION) {
-                query.getSelect().add(NavigationProperty.DATASTREAM);
-                query.getSelect().add(NavigationProperty.MULTIDATASTREAM);
-            }
+        if (isDataArrayRequest(query, path) && !query.getSelect().isEmpty()) {
+            query.getSelect().add(NavigationProperty.DATASTREAM);
+            query.getSelect().add(NavigationProperty.MULTIDATASTREAM);
+        }
+    }
+
+    private static boolean isDataArrayRequest(Query query, ResourcePath path) {
+        if (!"dataarray".equalsIgnoreCase(query.getFormat())) {
+            return false;
         }
+        ResourcePathElement lastElement = path.getLastElement();
+        return lastElement instanceof EntitySetPathElement && ((EntitySetPathElement) lastElement).getEntityType() == EntityType.OBSERVATION;
     }
 
     private <T> ServiceResponse<T> executePost(ServiceRequest request) {
@@ -361,7 +511,7 @@ public class Service implements AutoCloseable {
     private <T> ServiceResponse<T> handlePost(PersistenceManager pm, String urlPath, ServiceResponse<T> response, ServiceRequest request) throws IOException {
         ResourcePath path;
         try {
-            path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), urlPath);
+            path = parsePath(pm, urlPath);
         } catch (IllegalArgumentException e) {
             return errorResponse(response, 404, NOT_A_VALID_ID);
         } catch (IllegalStateException e) {
@@ -374,17 +524,17 @@ public class Service implements AutoCloseable {
             return errorResponse(response, 400, "Not query options allowed on POST.");
         }
 
-        if (!pm.validatePath(path)) {
+        if (!validatePath(pm, path)) {
             maybeCommitAndClose();
             return errorResponse(response, 404, NOTHING_FOUND_RESPONSE);
         }
 
         EntitySetPathElement mainSet = (EntitySetPathElement) path.getMainElement();
         EntityType type = mainSet.getEntityType();
-        EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
+        EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass(), request.getContentFormat());
         Entity entity;
         try {
-            entity = entityParser.parseEntity(type.getImplementingClass(), request.getContent());
+            entity = parseEntity(entityParser, type.getImplementingClass(), request);
             entity.complete(mainSet);
         } catch (JsonParseException | JsonMappingException | IncompleteEntityException | IllegalStateException ex) {
             LOGGER.debug("Post failed: {}", ex.getMessage());
@@ -419,8 +569,13 @@ public class Service implements AutoCloseable {
 
         PersistenceManager pm = getPm();
         try {
-            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            List<DataArrayValue> postData = entityParser.parseObservationDataArray(request.getContent());
+            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass(), request.getContentFormat());
+            List<DataArrayValue> postData;
+            if (request.getContentBinary() == null) {
+                postData = entityParser.parseObservationDataArray(request.getContent());
+            } else {
+                postData = entityParser.parseObservationDataArray(request.getContentBinary());
+            }
             List<String> selfLinks = new ArrayList<>();
             for (DataArrayValue daValue : postData) {
                 Datastream datastream = daValue.getDatastream();
@@ -432,7 +587,7 @@ public class Service implements AutoCloseable {
                 handleDataArrayItems(handlers, daValue, datastream, multiDatastream, pm, selfLinks);
             }
             maybeCommitAndClose();
-            response.setResultFormatted(request.getFormatter().format(null, null, selfLinks, settings.isUseAbsoluteNavigationLinks()));
+            formatResult(request.getFormatter(), response, null, null, selfLinks);
             return successResponse(response, 201, "Created");
         } catch (IllegalArgumentException | IOException e) {
             pm.rollbackAndClose();
@@ -495,8 +650,8 @@ public class Service implements AutoCloseable {
         Entity entity;
         try {
             mainElement = parsePathForPutPatch(pm, request);
-            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContent());
+            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass(), request.getContentFormat());
+            entity = parseEntity(entityParser, mainElement.getEntityType().getImplementingClass(), request);
         } catch (IllegalArgumentException exc) {
             LOGGER.trace("Path not valid for patch.", exc);
             return errorResponse(response, 400, exc.getMessage());
@@ -554,10 +709,34 @@ public class Service implements AutoCloseable {
         }
     }
 
+    private ResourcePath parsePath(PersistenceManager pm, String urlPath) {
+        long start = System.nanoTime();
+        ResourcePath path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), urlPath);
+        ServerTiming.record(ServerTiming.PHASE_PATH, start);
+        if (path != null) {
+            requestEntityType = path.getMainElementType();
+        }
+        return path;
+    }
+
+    private Query parseQuery(String urlQuery) {
+        long start = System.nanoTime();
+        Query query = QueryParser.parseQuery(urlQuery, settings);
+        ServerTiming.record(ServerTiming.PHASE_QUERY, start);
+        return query;
+    }
+
+    private static boolean validatePath(PersistenceManager pm, ResourcePath path) {
+        long start = System.nanoTime();
+        boolean valid = pm.validatePath(path);
+        ServerTiming.record(ServerTiming.PHASE_VALIDATE, start);
+        return valid;
+    }
+
     private EntityPathElement parsePathForPutPatch(PersistenceManager pm, ServiceRequest request) throws NoSuchEntityException {
         ResourcePath path;
         try {
-            path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), request.getUrlPath());
+            path = parsePath(pm, request.getUrlPath());
         } catch (IllegalArgumentException exc) {
             LOGGER.trace(NOT_A_VALID_ID, exc);
             throw new NoSuchEntityException(NOT_A_VALID_ID);
@@ -565,7 +744,7 @@ public class Service implements AutoCloseable {
             throw new NoSuchEntityException(NOT_A_VALID_ID + ": " + exc.getMessage());
         }
 
-        if (!pm.validatePath(path)) {
+        if (!validatePath(pm, path)) {
             throw new NoSuchEntityException("No entity found for path.");
         }
 
@@ -609,8 +788,8 @@ public class Service implements AutoCloseable {
         try {
             mainElement = parsePathForPutPatch(pm, request);
 
-            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
-            entity = entityParser.parseEntity(mainElement.getEntityType().getImplementingClass(), request.getContent());
+            EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass(), request.getContentFormat());
+            entity = parseEntity(entityParser, mainElement.getEntityType().getImplementingClass(), request);
             entity.complete(true);
             entity.setEntityPropertiesSet(true, true);
         } catch (IllegalArgumentException exc) {
@@ -645,7 +824,7 @@ public class Service implements AutoCloseable {
 
         ResourcePath path;
         try {
-            path = PathParser.parsePath(getPm().getIdManager(), settings.getServiceRootUrl(), request.getUrlPath());
+            path = parsePath(getPm(), request.getUrlPath());
         } catch (IllegalArgumentException e) {
             return new ServiceResponse<>().setStatus(404, NOT_A_VALID_ID);
         } catch (IllegalStateException e) {
@@ -678,7 +857,7 @@ public class Service implements AutoCloseable {
 
             pm = getPm();
 
-            if (!pm.validatePath(path)) {
+            if (!validatePath(pm, path)) {
                 maybeCommitAndClose();
                 return errorResponse(response, 404, NOTHING_FOUND_RESPONSE);
             }
@@ -723,7 +902,7 @@ public class Service implements AutoCloseable {
 
             pm = getPm();
 
-            if (!pm.validatePath(path)) {
+            if (!validatePath(pm, path)) {
                 maybeCommitAndClose();
                 return errorResponse(response, 404, NOTHING_FOUND_RESPONSE);
             }
@@ -743,7 +922,7 @@ public class Service implements AutoCloseable {
     private <T> ServiceResponse<T> handleDeleteSet(ServiceRequest request, ServiceResponse<T> response, PersistenceManager pm, ResourcePath path) {
         Query query;
         try {
-            query = QueryParser.parseQuery(request.getUrlQuery(), settings);
+            query = parseQuery(request.getUrlQuery());
         } catch (IllegalArgumentException e) {
             return errorResponse(response, 404, "Failed to parse query: " + e.getMessage());
         }
@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.service;
 
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 
 /**
@@ -29,7 +30,11 @@ public class ServiceRequest {
     private String urlPath;
     private String urlQuery;
     private String content;
+    private byte[] contentBinary;
+    private DataFormat contentFormat = DataFormat.JSON;
     private ResultFormatter formatter;
+    private boolean unlimitedExport;
+    private boolean serverTiming;
 
     protected ServiceRequest() {
 
@@ -73,6 +78,25 @@ public class ServiceRequest {
         return content;
     }
 
+    /**
+     * The content of the request, if the content is in a binary format.
+     *
+     * @return The binary content of the request, or null if the content is
+     * not binary.
+     */
+    public byte[] getContentBinary() {
+        return contentBinary;
+    }
+
+    /**
+     * The format of the content of the request.
+     *
+     * @return The format of the content of the request.
+     */
+    public DataFormat getContentFormat() {
+        return contentFormat;
+    }
+
     public ResultFormatter getFormatter() {
         return formatter;
     }
@@ -118,6 +142,42 @@ public class ServiceRequest {
         this.content = content;
     }
 
+    public void setContentBinary(byte[] contentBinary) {
+        this.contentBinary = contentBinary;
+    }
+
+    public void setContentFormat(DataFormat contentFormat) {
+        this.contentFormat = contentFormat;
+    }
+
+    /**
+     * Flag indicating the user is allowed to export entity sets without the
+     * maximum top limit, using a streaming result format like CSV.
+     *
+     * @return true if streaming exports of this request are not limited.
+     */
+    public boolean isUnlimitedExport() {
+        return unlimitedExport;
+    }
+
+    public void setUnlimitedExport(boolean unlimitedExport) {
+        this.unlimitedExport = unlimitedExport;
+    }
+
+    /**
+     * Flag indicating the time spent in the phases of this request should be
+     * recorded in the response.
+     *
+     * @return true if the phases of this request should be timed.
+     */
+    public boolean isServerTiming() {
+        return serverTiming;
+    }
+
+    public void setServerTiming(boolean serverTiming) {
+        this.serverTiming = serverTiming;
+    }
+
     public void setFormatter(ResultFormatter formatter) {
         this.formatter = formatter;
     }
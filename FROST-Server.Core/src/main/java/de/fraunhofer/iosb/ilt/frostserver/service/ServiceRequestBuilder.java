@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.service;
 
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 import java.util.Optional;
 
@@ -31,7 +32,11 @@ public class ServiceRequestBuilder {
     private Optional<String> urlPath;
     private Optional<String> urlQuery;
     private Optional<String> content;
+    private Optional<byte[]> contentBinary;
+    private DataFormat contentFormat = DataFormat.JSON;
     private ResultFormatter formatter;
+    private boolean unlimitedExport;
+    private boolean serverTiming;
 
     public ServiceRequestBuilder(ResultFormatter formatter) {
         this.requestType = Optional.empty();
@@ -39,6 +44,7 @@ public class ServiceRequestBuilder {
         this.urlPath = Optional.empty();
         this.urlQuery = Optional.empty();
         this.content = Optional.empty();
+        this.contentBinary = Optional.empty();
         this.formatter = formatter;
     }
 
@@ -62,6 +68,29 @@ public class ServiceRequestBuilder {
         return this;
     }
 
+    /**
+     * Sets the content of the request, in the given binary format.
+     *
+     * @param content The binary content.
+     * @param format The format of the content.
+     * @return this.
+     */
+    public ServiceRequestBuilder withContent(byte[] content, DataFormat format) {
+        this.contentBinary = Optional.ofNullable(content);
+        this.contentFormat = format;
+        return this;
+    }
+
+    public ServiceRequestBuilder withUnlimitedExport(boolean unlimitedExport) {
+        this.unlimitedExport = unlimitedExport;
+        return this;
+    }
+
+    public ServiceRequestBuilder withServerTiming(boolean serverTiming) {
+        this.serverTiming = serverTiming;
+        return this;
+    }
+
     public ServiceRequestBuilder withFormatter(ResultFormatter formatter) {
         this.formatter = formatter;
         return this;
@@ -86,6 +115,12 @@ public class ServiceRequestBuilder {
         if (content.isPresent()) {
             result.setContent(content.get());
         }
+        if (contentBinary.isPresent()) {
+            result.setContentBinary(contentBinary.get());
+        }
+        result.setContentFormat(contentFormat);
+        result.setUnlimitedExport(unlimitedExport);
+        result.setServerTiming(serverTiming);
         if (requestType.isPresent()) {
             result.setRequestType(requestType.get());
         }
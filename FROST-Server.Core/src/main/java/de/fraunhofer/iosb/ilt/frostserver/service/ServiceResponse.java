@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.service;
 
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerTiming;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,6 +29,10 @@ public class ServiceResponse<T> {
 
     private T result;
     private String resultFormatted;
+    private byte[] resultFormattedBinary;
+    private String contentType;
+    private ResultWriter resultWriter;
+    private ServerTiming serverTiming;
     private int code;
     private String message;
     private final Map<String, String> headers;
@@ -96,6 +101,62 @@ public class ServiceResponse<T> {
         this.resultFormatted = resultFormatted;
     }
 
+    /**
+     * The formatted result, if the result was formatted in a binary format.
+     *
+     * @return The binary formatted result, or null.
+     */
+    public byte[] getResultFormattedBinary() {
+        return resultFormattedBinary;
+    }
+
+    public void setResultFormattedBinary(byte[] resultFormattedBinary) {
+        this.resultFormattedBinary = resultFormattedBinary;
+    }
+
+    /**
+     * The content type of the formatted result.
+     *
+     * @return The content type of the formatted result, or null if there is
+     * no formatted result.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * The writer for a result that is streamed to the client, instead of being
+     * formatted in advance.
+     *
+     * @return The writer for a streamed result, or null if the result is not
+     * streamed.
+     */
+    public ResultWriter getResultWriter() {
+        return resultWriter;
+    }
+
+    public void setResultWriter(ResultWriter resultWriter) {
+        this.resultWriter = resultWriter;
+    }
+
+    /**
+     * The time spent in the phases of the request, if the request asked for
+     * it.
+     *
+     * @return The timing of the request, or null.
+     */
+    public ServerTiming getServerTiming() {
+        return serverTiming;
+    }
+
+    public void setServerTiming(ServerTiming serverTiming) {
+        this.serverTiming = serverTiming;
+    }
+
     public boolean isSuccessful() {
         return code >= 200 && code < 300;
     }
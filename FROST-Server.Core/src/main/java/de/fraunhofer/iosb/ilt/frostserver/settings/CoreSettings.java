@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.frostserver.settings;
 
 import de.fraunhofer.iosb.ilt.frostserver.extensions.Extension;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DefaultResultFormater;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
@@ -34,8 +35,10 @@ import java.time.ZoneOffset;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,6 +96,28 @@ public class CoreSettings implements ConfigDefaults {
     public static final String TAG_CORS_PREFLIGHT_MAXAGE = "cors.preflight.maxage";
     @DefaultValueBoolean(true)
     public static final String TAG_CORS_REQUEST_DECORATE = "cors.request.decorate";
+    @DefaultValueBoolean(true)
+    public static final String TAG_EXECUTOR_ENABLE = "executor.enable";
+    @DefaultValueInt(10)
+    public static final String TAG_EXECUTOR_READ_THREADS = "executor.read.threads";
+    @DefaultValueInt(100)
+    public static final String TAG_EXECUTOR_READ_QUEUE = "executor.read.queueSize";
+    @DefaultValueInt(10)
+    public static final String TAG_EXECUTOR_WRITE_THREADS = "executor.write.threads";
+    @DefaultValueInt(100)
+    public static final String TAG_EXECUTOR_WRITE_QUEUE = "executor.write.queueSize";
+    @DefaultValueInt(2)
+    public static final String TAG_EXECUTOR_BATCH_THREADS = "executor.batch.threads";
+    @DefaultValueInt(10)
+    public static final String TAG_EXECUTOR_BATCH_QUEUE = "executor.batch.queueSize";
+    @DefaultValueInt(2)
+    public static final String TAG_EXECUTOR_EXPORT_THREADS = "executor.export.threads";
+    @DefaultValueInt(5)
+    public static final String TAG_EXECUTOR_EXPORT_QUEUE = "executor.export.queueSize";
+    @DefaultValueInt(5)
+    public static final String TAG_EXECUTOR_RETRY_AFTER = "executor.retryAfter";
+    @DefaultValueBoolean(false)
+    public static final String TAG_METRICS_ENABLE = "metrics.enable";
 
     // Auth Tags
     @DefaultValue("")
@@ -109,6 +134,10 @@ public class CoreSettings implements ConfigDefaults {
     public static final String TAG_AUTH_ROLE_DELETE = "role.delete";
     @DefaultValue("admin")
     public static final String TAG_AUTH_ROLE_ADMIN = "role.admin";
+    @DefaultValue("export")
+    public static final String TAG_AUTH_ROLE_EXPORT = "role.export";
+    @DefaultValue("admin")
+    public static final String TAG_AUTH_ROLE_TIMING = "role.timing";
 
     // Experimental settings
     @DefaultValueBoolean(false)
@@ -205,6 +234,10 @@ public class CoreSettings implements ConfigDefaults {
      * The default formatter.
      */
     private ResultFormatter formatter;
+    /**
+     * The formatters for the binary data formats.
+     */
+    private final Map<DataFormat, ResultFormatter> binaryFormatters = new ConcurrentHashMap<>();
 
     /**
      * Creates an empty, uninitialised CoreSettings.
@@ -455,4 +488,17 @@ public class CoreSettings implements ConfigDefaults {
         return formatter;
     }
 
+    /**
+     * Get the formatter for the given data format.
+     *
+     * @param format The data format to get the formatter for.
+     * @return The (cached) formatter for the given data format.
+     */
+    public ResultFormatter getFormatter(DataFormat format) {
+        if (format == DataFormat.JSON) {
+            return getFormatter();
+        }
+        return binaryFormatters.computeIfAbsent(format, f -> new DefaultResultFormater(this, f));
+    }
+
 }
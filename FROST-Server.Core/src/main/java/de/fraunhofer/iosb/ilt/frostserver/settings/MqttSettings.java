@@ -21,6 +21,7 @@ import de.fraunhofer.iosb.ilt.frostserver.extensions.Extension;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.OverflowPolicy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -61,8 +62,28 @@ public class MqttSettings implements ConfigDefaults {
     public static final String TAG_CREATE_MESSAGE_QUEUE_SIZE = "CreateMessageQueueSize";
     @DefaultValueInt(5)
     public static final String TAG_CREATE_THREAD_POOL_SIZE = "CreateThreadPoolSize";
+    @DefaultValueInt(100)
+    public static final String TAG_CREATE_BATCH_SIZE = "CreateBatchSize";
+    @DefaultValueInt(10)
+    public static final String TAG_CREATE_BATCH_DELAY = "CreateBatchDelay";
+    @DefaultValue("DROP_NEWEST")
+    public static final String TAG_SUBSCRIBE_OVERFLOW_POLICY = "SubscribeOverflowPolicy";
+    @DefaultValue("DROP_NEWEST")
+    public static final String TAG_CREATE_OVERFLOW_POLICY = "CreateOverflowPolicy";
+    @DefaultValueInt(1000)
+    public static final String TAG_OVERFLOW_TIMEOUT = "OverflowTimeout";
+    @DefaultValue("")
+    public static final String TAG_SPILL_DIRECTORY = "SpillDirectory";
+    @DefaultValueInt(1024)
+    public static final String TAG_SPILL_MAX_SIZE = "SpillMaxSize";
     @DefaultValue("")
     public static final String TAG_EXPOSED_MQTT_ENDPOINTS = "exposedEndpoints";
+    @DefaultValueBoolean(false)
+    public static final String TAG_RETAIN_LAST_VALUE = "retainLastValue";
+    @DefaultValueInt(100000)
+    public static final String TAG_RELATION_CACHE_SIZE = "relationCacheSize";
+    @DefaultValueInt(600)
+    public static final String TAG_RELATION_CACHE_TIMEOUT = "relationCacheTimeout";
 
     /**
      * Constraints
@@ -139,6 +160,50 @@ public class MqttSettings implements ConfigDefaults {
      * Number of threads used to process ObservationCreateEvents
      */
     private int createThreadPoolSize;
+    /**
+     * The maximum number of ObservationCreateEvents stored in one transaction.
+     */
+    private int createBatchSize;
+    /**
+     * The maximum number of milliseconds to wait for more
+     * ObservationCreateEvents to fill a batch.
+     */
+    private int createBatchDelay;
+    /**
+     * What to do with EntityChangeEvents when the queue is full.
+     */
+    private OverflowPolicy subscribeOverflowPolicy;
+    /**
+     * What to do with ObservationCreateEvents when the queue is full.
+     */
+    private OverflowPolicy createOverflowPolicy;
+    /**
+     * The number of milliseconds to wait for space in a full queue, with the
+     * BLOCK overflow policy.
+     */
+    private int overflowTimeout;
+    /**
+     * The directory to spill events to, with the SPILL overflow policy.
+     */
+    private String spillDirectory;
+    /**
+     * The maximum size, in MiB, of each spill file. 0 for no limit.
+     */
+    private int spillMaxSize;
+    /**
+     * Flag indicating new subscribers should get the current value of the
+     * topic they subscribe to.
+     */
+    private boolean retainLastValue;
+    /**
+     * The maximum number of relations kept in memory for matching deep
+     * subscriptions.
+     */
+    private int relationCacheSize;
+    /**
+     * The number of seconds after which cached relations are reloaded.
+     */
+    private int relationCacheTimeout;
     /**
      * Extension point for implementation specific settings
      */
@@ -161,7 +226,17 @@ public class MqttSettings implements ConfigDefaults {
         setSubscribeThreadPoolSize(settings.getInt(TAG_SUBSCRIBE_THREAD_POOL_SIZE, getClass()));
         setCreateMessageQueueSize(settings.getInt(TAG_CREATE_MESSAGE_QUEUE_SIZE, getClass()));
         setCreateThreadPoolSize(settings.getInt(TAG_CREATE_THREAD_POOL_SIZE, getClass()));
+        setCreateBatchSize(settings.getInt(TAG_CREATE_BATCH_SIZE, getClass()));
+        setCreateBatchDelay(settings.getInt(TAG_CREATE_BATCH_DELAY, getClass()));
         setQosLevel(settings.getInt(TAG_QOS, getClass()));
+        subscribeOverflowPolicy = OverflowPolicy.parse(settings.get(TAG_SUBSCRIBE_OVERFLOW_POLICY, getClass()), OverflowPolicy.DROP_NEWEST);
+        createOverflowPolicy = OverflowPolicy.parse(settings.get(TAG_CREATE_OVERFLOW_POLICY, getClass()), OverflowPolicy.DROP_NEWEST);
+        setOverflowTimeout(settings.getInt(TAG_OVERFLOW_TIMEOUT, getClass()));
+        spillDirectory = settings.get(TAG_SPILL_DIRECTORY, getClass());
+        spillMaxSize = settings.getInt(TAG_SPILL_MAX_SIZE, getClass());
+        retainLastValue = settings.getBoolean(TAG_RETAIN_LAST_VALUE, getClass());
+        setRelationCacheSize(settings.getInt(TAG_RELATION_CACHE_SIZE, getClass()));
+        setRelationCacheTimeout(settings.getInt(TAG_RELATION_CACHE_TIMEOUT, getClass()));
         customSettings = settings;
 
         if (enableMqtt) {
@@ -336,4 +411,99 @@ public class MqttSettings implements ConfigDefaults {
         this.createThreadPoolSize = createThreadPoolSize;
     }
 
+    public int getCreateBatchSize() {
+        return createBatchSize;
+    }
+
+    public void setCreateBatchSize(int createBatchSize) {
+        if (createBatchSize < 1) {
+            throw new IllegalArgumentException(TAG_CREATE_BATCH_SIZE + MUST_BE_POSITIVE);
+        }
+        this.createBatchSize = createBatchSize;
+    }
+
+    public int getCreateBatchDelay() {
+        return createBatchDelay;
+    }
+
+    public void setCreateBatchDelay(int createBatchDelay) {
+        if (createBatchDelay < 0) {
+            throw new IllegalArgumentException(TAG_CREATE_BATCH_DELAY + " must be >= 0");
+        }
+        this.createBatchDelay = createBatchDelay;
+    }
+
+    public OverflowPolicy getSubscribeOverflowPolicy() {
+        return subscribeOverflowPolicy;
+    }
+
+    public void setSubscribeOverflowPolicy(OverflowPolicy subscribeOverflowPolicy) {
+        this.subscribeOverflowPolicy = subscribeOverflowPolicy;
+    }
+
+    public OverflowPolicy getCreateOverflowPolicy() {
+        return createOverflowPolicy;
+    }
+
+    public void setCreateOverflowPolicy(OverflowPolicy createOverflowPolicy) {
+        this.createOverflowPolicy = createOverflowPolicy;
+    }
+
+    public int getOverflowTimeout() {
+        return overflowTimeout;
+    }
+
+    public void setOverflowTimeout(int overflowTimeout) {
+        if (overflowTimeout < 0) {
+            throw new IllegalArgumentException(TAG_OVERFLOW_TIMEOUT + " must be >= 0");
+        }
+        this.overflowTimeout = overflowTimeout;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getSpillMaxSize() {
+        return spillMaxSize;
+    }
+
+    public void setSpillMaxSize(int spillMaxSize) {
+        this.spillMaxSize = spillMaxSize;
+    }
+
+    public boolean isRetainLastValue() {
+        return retainLastValue;
+    }
+
+    public void setRetainLastValue(boolean retainLastValue) {
+        this.retainLastValue = retainLastValue;
+    }
+
+    public int getRelationCacheSize() {
+        return relationCacheSize;
+    }
+
+    public void setRelationCacheSize(int relationCacheSize) {
+        if (relationCacheSize < 1) {
+            throw new IllegalArgumentException(TAG_RELATION_CACHE_SIZE + MUST_BE_POSITIVE);
+        }
+        this.relationCacheSize = relationCacheSize;
+    }
+
+    public int getRelationCacheTimeout() {
+        return relationCacheTimeout;
+    }
+
+    public void setRelationCacheTimeout(int relationCacheTimeout) {
+        if (relationCacheTimeout < 1) {
+            throw new IllegalArgumentException(TAG_RELATION_CACHE_TIMEOUT + MUST_BE_POSITIVE);
+        }
+        this.relationCacheTimeout = relationCacheTimeout;
+    }
+
 }
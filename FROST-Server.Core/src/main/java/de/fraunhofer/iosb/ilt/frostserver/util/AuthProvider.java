@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.util;
 
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUser;
+import java.util.function.Consumer;
 
 /**
  * An interface for classes that can configure a Filter on a ServletContext.
@@ -57,4 +58,17 @@ public interface AuthProvider extends LiquibaseUser {
      * @return true if the given user has the given role, false otherwise.
      */
     public boolean userHasRole(String clientId, String userName, String roleName);
+
+    /**
+     * Register a listener that is called when the provider flushes its cached
+     * credentials or roles, so that decisions cached elsewhere can be flushed
+     * too. The listener is given the name of the flushed user, or null if all
+     * users were flushed. The default implementation has no cache, and never
+     * calls the listener.
+     *
+     * @param listener The listener to call when the cache is flushed.
+     */
+    public default void addCacheFlushListener(Consumer<String> listener) {
+        // No cache, so nothing is ever flushed.
+    }
 }
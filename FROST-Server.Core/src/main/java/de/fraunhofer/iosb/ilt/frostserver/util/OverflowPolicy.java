@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What to do with an item when the queue it should go into is full.
+ *
+ * @author scf
+ */
+public enum OverflowPolicy {
+    /**
+     * The new item is discarded.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest item in the queue is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The caller waits for space in the queue, up to a timeout. If the
+     * timeout expires, the new item is discarded.
+     */
+    BLOCK,
+    /**
+     * The new item is appended to a log on disk, and put in the queue when
+     * there is space again.
+     */
+    SPILL;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OverflowPolicy.class);
+
+    /**
+     * Parses the given policy name, case insensitive.
+     *
+     * @param name The name of the policy.
+     * @param defaultPolicy The policy to return if the name is not valid.
+     * @return The policy with the given name, or the default policy.
+     */
+    public static OverflowPolicy parse(String name, OverflowPolicy defaultPolicy) {
+        if (StringHelper.isNullOrEmpty(name)) {
+            return defaultPolicy;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.error("Unknown overflow policy: {}, using {}.", name, defaultPolicy);
+            return defaultPolicy;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts items in bounded queues, applying an {@link OverflowPolicy} when the
+ * queue of an item is full, and counting the items that are dropped, spilled
+ * to disk, and replayed from disk.
+ *
+ * With the SPILL policy, a replay thread moves the spilled items back into
+ * their queues as soon as there is space. While there are spilled items
+ * waiting, new items are spilled too, so items keep their order. When the
+ * spill log reaches its maximum size, new items are dropped, as with
+ * DROP_NEWEST, until the replay has made room again.
+ *
+ * Replay is at-least-once: a record is only removed from the spill log after
+ * its item is in the queue, and the read position of the spill log is stored
+ * with some delay. After a crash, the items replayed just before it may be
+ * replayed again.
+ *
+ * @author scf
+ * @param <T> The type of the items.
+ */
+public class OverflowQueue<T> implements OverflowQueueMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OverflowQueue.class);
+    private static final long REPLAY_WAIT_MILLIS = 100;
+    private static final long REPLAY_POLL_MILLIS = 5;
+
+    private final String name;
+    private final OverflowPolicy policy;
+    private final Function<T, BlockingQueue<T>> queueFunction;
+    private final long blockTimeout;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private final Object spillLock = new Object();
+    private SpillCodec<T> spillCodec;
+    private SpillLog spillLog;
+    private long maxSpillBytes;
+    private boolean spillFull = false;
+    private Thread replayThread;
+    private volatile boolean running = true;
+    private boolean metricsRegistered = false;
+
+    /**
+     * Creates an OverflowQueue for a single queue.
+     *
+     * @param name The name, used for the spill file, the replay thread and the
+     * metrics.
+     * @param policy The policy to apply when the queue is full.
+     * @param blockTimeout The time, in milliseconds, to wait for space with
+     * the BLOCK policy.
+     * @param queue The queue to put the items in.
+     */
+    public OverflowQueue(String name, OverflowPolicy policy, long blockTimeout, BlockingQueue<T> queue) {
+        this(name, policy, blockTimeout, item -> queue);
+    }
+
+    /**
+     * Creates an OverflowQueue for items that are spread over several queues.
+     *
+     * @param name The name, used for the spill file, the replay thread and the
+     * metrics.
+     * @param policy The policy to apply when the queue of an item is full.
+     * @param blockTimeout The time, in milliseconds, to wait for space with
+     * the BLOCK policy.
+     * @param queueFunction The function giving the queue for an item.
+     */
+    public OverflowQueue(String name, OverflowPolicy policy, long blockTimeout, Function<T, BlockingQueue<T>> queueFunction) {
+        this.name = name;
+        this.policy = policy;
+        this.blockTimeout = blockTimeout;
+        this.queueFunction = queueFunction;
+    }
+
+    /**
+     * Opens the spill log and starts the replay thread. Must be called before
+     * items are offered when the policy is SPILL, has no effect for other
+     * policies. Items spilled in a previous run are replayed. If the spill log
+     * can not be opened, overflowing items are dropped.
+     *
+     * @param directory The directory to put the spill file in, the temporary
+     * directory if empty.
+     * @param maxBytes The maximum size of the spilled items, in bytes. Once
+     * reached, new items are dropped. 0 for no limit.
+     * @param codec The codec to turn items into bytes, and back.
+     * @return this.
+     */
+    public OverflowQueue<T> enableSpill(String directory, long maxBytes, SpillCodec<T> codec) {
+        if (policy != OverflowPolicy.SPILL) {
+            return this;
+        }
+        File dir = new File(StringHelper.isNullOrEmpty(directory) ? System.getProperty("java.io.tmpdir") : directory);
+        File file = new File(dir, name + ".spill");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create directory " + dir);
+            }
+            synchronized (spillLock) {
+                spillCodec = codec;
+                maxSpillBytes = maxBytes;
+                spillLog = new SpillLog(file);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to open spill log {} for queue {}, overflowing items will be dropped.", file.getAbsolutePath(), name, ex);
+            return this;
+        }
+        LOGGER.info("Queue {} spills to {}", name, file.getAbsolutePath());
+        replayThread = new Thread(this::replay, name + "-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+        return this;
+    }
+
+    /**
+     * Puts the given item in its queue, applying the overflow policy if the
+     * queue is full.
+     *
+     * @param item The item to add.
+     * @return false if an item was dropped, either the given one or, with
+     * DROP_OLDEST, an older one.
+     */
+    public boolean offer(T item) {
+        if (policy == OverflowPolicy.SPILL) {
+            return offerOrSpill(item);
+        }
+        BlockingQueue<T> queue = queueFunction.apply(item);
+        if (queue.offer(item)) {
+            return true;
+        }
+        switch (policy) {
+            case BLOCK:
+                return offerBlocking(queue, item);
+
+            case DROP_OLDEST:
+                return offerDropOldest(queue, item);
+
+            default:
+                droppedCount.incrementAndGet();
+                return false;
+        }
+    }
+
+    private boolean offerBlocking(BlockingQueue<T> queue, T item) {
+        try {
+            if (queue.offer(item, blockTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    private boolean offerDropOldest(BlockingQueue<T> queue, T item) {
+        do {
+            if (queue.poll() != null) {
+                droppedCount.incrementAndGet();
+            }
+        } while (!queue.offer(item));
+        return false;
+    }
+
+    private boolean offerOrSpill(T item) {
+        synchronized (spillLock) {
+            if ((spillLog == null || spillLog.isEmpty()) && queueFunction.apply(item).offer(item)) {
+                return true;
+            }
+            if (spillLog == null) {
+                // Not enabled, or already shut down.
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            try {
+                byte[] record = spillCodec.encode(item);
+                if (isSpillFull(record.length)) {
+                    droppedCount.incrementAndGet();
+                    return false;
+                }
+                spillLog.append(record);
+                spilledCount.incrementAndGet();
+                spillLock.notifyAll();
+                return true;
+            } catch (IOException ex) {
+                LOGGER.error("Failed to spill item of queue {} to disk.", name, ex);
+                droppedCount.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    private boolean isSpillFull(int recordLength) {
+        boolean full = maxSpillBytes > 0 && spillLog.sizeInBytes() + recordLength > maxSpillBytes;
+        if (full && !spillFull) {
+            LOGGER.warn("Spill log of queue {} reached its maximum size of {} bytes, dropping new items.", name, maxSpillBytes);
+        } else if (!full && spillFull) {
+            LOGGER.info("Spill log of queue {} has room again, spilling new items.", name);
+        }
+        spillFull = full;
+        return full;
+    }
+
+    private void replay() {
+        while (running) {
+            try {
+                byte[] record;
+                synchronized (spillLock) {
+                    while (running && spillLog.isEmpty()) {
+                        spillLock.wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    record = spillLog.peek();
+                }
+                replayRecord(record);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException ex) {
+                LOGGER.error("Failed to read spill log of queue {}, stopping replay.", name, ex);
+                return;
+            }
+        }
+    }
+
+    private void replayRecord(byte[] record) throws IOException, InterruptedException {
+        T item;
+        try {
+            item = spillCodec.decode(record);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to decode spilled item of queue {}, dropping it.", name, ex);
+            droppedCount.incrementAndGet();
+            synchronized (spillLock) {
+                spillLog.remove();
+            }
+            return;
+        }
+        BlockingQueue<T> queue = queueFunction.apply(item);
+        while (running) {
+            synchronized (spillLock) {
+                if (spillLog == null) {
+                    return;
+                }
+                // Counted before the hand-off, so a consumer that takes the
+                // item right away sees it counted. The record is removed under
+                // the same lock, so no new item can overtake it.
+                replayedCount.incrementAndGet();
+                if (queue.offer(item)) {
+                    spillLog.remove();
+                    return;
+                }
+                replayedCount.decrementAndGet();
+            }
+            Thread.sleep(REPLAY_POLL_MILLIS);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    @Override
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    @Override
+    public long getSpillBacklog() {
+        synchronized (spillLock) {
+            return spillLog == null ? 0 : spillLog.size();
+        }
+    }
+
+    /**
+     * Registers the counters in JMX, under
+     * {@value ProcessorHelper#JMX_DOMAIN}:type=QueueOverflow,name=&lt;name&gt;.
+     *
+     * @return this.
+     */
+    public OverflowQueue<T> registerMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+            metricsRegistered = true;
+        } catch (JMException ex) {
+            LOGGER.warn("Failed to register metrics for queue {}: {}", name, ex.getMessage());
+        }
+        return this;
+    }
+
+    private ObjectName objectName() throws JMException {
+        return new ObjectName(ProcessorHelper.JMX_DOMAIN + ":type=QueueOverflow,name=" + name);
+    }
+
+    /**
+     * Stops the replay thread and closes the spill log. Items still in the
+     * spill log are replayed the next time the spill log is enabled.
+     */
+    public void shutdown() {
+        running = false;
+        synchronized (spillLock) {
+            spillLock.notifyAll();
+        }
+        if (replayThread != null) {
+            try {
+                replayThread.join(REPLAY_WAIT_MILLIS * 10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (spillLock) {
+            if (spillLog != null) {
+                if (!spillLog.isEmpty()) {
+                    LOGGER.warn("Queue {} has {} spilled items left, they are replayed on the next start.", name, spillLog.size());
+                }
+                try {
+                    spillLog.close();
+                } catch (IOException ex) {
+                    LOGGER.error("Failed to close spill log of queue {}.", name, ex);
+                }
+                spillLog = null;
+            }
+        }
+        if (metricsRegistered) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName());
+                metricsRegistered = false;
+            } catch (JMException ex) {
+                LOGGER.debug("Failed to unregister metrics for queue {}", name, ex);
+            }
+        }
+    }
+}
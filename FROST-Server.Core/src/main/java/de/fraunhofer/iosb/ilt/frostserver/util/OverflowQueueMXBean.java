@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+/**
+ * The counters of an {@link OverflowQueue}, as exposed over JMX.
+ *
+ * @author scf
+ */
+public interface OverflowQueueMXBean {
+
+    /**
+     * @return The name of the queue.
+     */
+    public String getName();
+
+    /**
+     * @return The name of the overflow policy of the queue.
+     */
+    public String getPolicy();
+
+    /**
+     * @return The number of items that were discarded because the queue was
+     * full.
+     */
+    public long getDroppedCount();
+
+    /**
+     * @return The number of items that were written to the spill log.
+     */
+    public long getSpilledCount();
+
+    /**
+     * @return The number of items that were read back from the spill log and
+     * put in the queue.
+     */
+    public long getReplayedCount();
+
+    /**
+     * @return The number of items waiting in the spill log.
+     */
+    public long getSpillBacklog();
+}
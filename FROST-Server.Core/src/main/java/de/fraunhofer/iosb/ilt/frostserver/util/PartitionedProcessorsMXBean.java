@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+/**
+ * The metrics of a set of partitioned processors created by
+ * {@link ProcessorHelper#createPartitionedProcessors}, as exposed over JMX.
+ *
+ * @author scf
+ */
+public interface PartitionedProcessorsMXBean {
+
+    /**
+     * @return The name of the processors.
+     */
+    public String getName();
+
+    /**
+     * @return The number of partitions, each handled by one thread.
+     */
+    public int getPartitionCount();
+
+    /**
+     * @return The maximum number of items that can wait in the queue of one
+     * partition.
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return The number of items waiting in the queue of each partition.
+     */
+    public int[] getQueueDepths();
+
+    /**
+     * @return The number of items waiting in all partitions.
+     */
+    public int getTotalQueueDepth();
+
+    /**
+     * @return The number of items that were rejected because the queue of
+     * their partition was full.
+     */
+    public long getRejectedCount();
+}
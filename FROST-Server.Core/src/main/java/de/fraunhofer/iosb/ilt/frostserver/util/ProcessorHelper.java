@@ -18,12 +18,26 @@
 package de.fraunhofer.iosb.ilt.frostserver.util;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Counter;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Gauge;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Metrics;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +49,24 @@ public class ProcessorHelper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessorHelper.class);
     private static final long SHUTDOWN_WAIT_STEP_IN_MILLIS = 100;
+    /**
+     * The JMX domain the metrics of partitioned processors are registered in.
+     */
+    public static final String JMX_DOMAIN = "de.fraunhofer.iosb.ilt.frostserver";
+    /**
+     * The number of items handled by each set of processors, by name.
+     */
+    public static final Counter PROCESSED = Metrics.counter("processor_processed_total", "The number of items handled by the processors.", "name");
+    /**
+     * The number of items waiting in the queue of each set of processors, by
+     * name.
+     */
+    public static final Gauge QUEUE_DEPTH = Metrics.gauge("processor_queue_depth", "The number of items waiting for the processors.", "name");
+    /**
+     * The names the queue depth gauges of the processors are registered
+     * under, so they can be removed when the processors are shut down.
+     */
+    private static final Map<ExecutorService, String> GAUGE_NAMES = new ConcurrentHashMap<>();
 
     private ProcessorHelper() {
     }
@@ -42,13 +74,65 @@ public class ProcessorHelper {
     public static <T> ExecutorService createProcessors(int threadCount, BlockingQueue<T> queue, Consumer<T> consumer, String name) {
         ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
         ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QUEUE_DEPTH.labels(name).set(queue::size);
+        GAUGE_NAMES.put(result, name);
         for (int i = 0; i < threadCount; i++) {
+            result.submit(new Processor<>(queue, consumer, name));
+        }
+        return result;
+    }
 
-            result.submit(new Processor(queue, consumer, name));
+    /**
+     * Creates processors that hand the items to the consumer in batches. Each
+     * thread takes an item from the queue, and then waits at most
+     * maxBatchDelay milliseconds for more items, until maxBatchSize items are
+     * collected. When the processors are shut down, the items that are
+     * collected, and those still in the queue, are handed to the consumer
+     * before the threads exit.
+     *
+     * @param <T> The type of the items.
+     * @param threadCount The number of threads.
+     * @param queue The queue to take the items from.
+     * @param consumer The consumer that handles the batches.
+     * @param maxBatchSize The maximum number of items in one batch.
+     * @param maxBatchDelay The maximum time, in milliseconds, to wait for
+     * more items to fill a batch.
+     * @param name The name of the processors, used for the threads.
+     * @return The ExecutorService running the processors.
+     */
+    public static <T> ExecutorService createBatchProcessors(int threadCount, BlockingQueue<T> queue, Consumer<List<T>> consumer, int maxBatchSize, long maxBatchDelay, String name) {
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+        ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QUEUE_DEPTH.labels(name).set(queue::size);
+        GAUGE_NAMES.put(result, name);
+        for (int i = 0; i < threadCount; i++) {
+            result.submit(new BatchProcessor<>(queue, consumer, maxBatchSize, maxBatchDelay, name));
         }
         return result;
     }
 
+    /**
+     * Creates a set of processors that keeps the items with the same key in
+     * order. Each item is assigned to one of the partitions by the hash of its
+     * key, and each partition has its own queue and a single thread. Items
+     * with the same key are thus handled one after the other, in the order
+     * they were offered, while items with different keys are handled in
+     * parallel.
+     *
+     * @param <T> The type of the items.
+     * @param partitionCount The number of partitions, and thus threads.
+     * @param queueSize The total size of the queues, divided over the
+     * partitions.
+     * @param keyFunction The function that gives the ordering key of an item.
+     * @param consumer The consumer that handles the items.
+     * @param name The name of the processors, used for the threads and the
+     * metrics.
+     * @return The partitioned processors.
+     */
+    public static <T> PartitionedProcessors<T> createPartitionedProcessors(int partitionCount, int queueSize, Function<T, Object> keyFunction, Consumer<T> consumer, String name) {
+        return new PartitionedProcessors<>(partitionCount, queueSize, keyFunction, consumer, name);
+    }
+
     public static void shutdownProcessors(ExecutorService executorService, BlockingQueue<?> queue, long timeout, TimeUnit timeUnit) {
         if (executorService != null) {
             executorService.shutdown();
@@ -70,6 +154,192 @@ public class ProcessorHelper {
                 executorService.shutdownNow();
                 Thread.currentThread().interrupt();
             }
+            String gaugeName = GAUGE_NAMES.remove(executorService);
+            if (gaugeName != null) {
+                QUEUE_DEPTH.remove(gaugeName);
+            }
+        }
+    }
+
+    /**
+     * Processors that keep the items with the same key in order. Created by
+     * {@link #createPartitionedProcessors}.
+     *
+     * @param <T> The type of the items.
+     */
+    public static class PartitionedProcessors<T> implements PartitionedProcessorsMXBean {
+
+        private final String name;
+        private final Function<T, Object> keyFunction;
+        private final List<BlockingQueue<T>> queues;
+        private final List<ExecutorService> executors;
+        private final int queueCapacity;
+        private final AtomicLong rejectedCount = new AtomicLong();
+        private boolean metricsRegistered = false;
+
+        private PartitionedProcessors(int partitionCount, int queueSize, Function<T, Object> keyFunction, Consumer<T> consumer, String name) {
+            if (partitionCount < 1) {
+                throw new IllegalArgumentException("partitionCount must be positive");
+            }
+            this.name = name;
+            this.keyFunction = keyFunction;
+            this.queueCapacity = Math.max(1, (queueSize + partitionCount - 1) / partitionCount);
+            queues = new ArrayList<>(partitionCount);
+            executors = new ArrayList<>(partitionCount);
+            for (int i = 0; i < partitionCount; i++) {
+                BlockingQueue<T> queue = new ArrayBlockingQueue<>(queueCapacity);
+                ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-" + i).build();
+                ExecutorService executor = Executors.newSingleThreadExecutor(factory);
+                executor.submit(new Processor<>(queue, consumer, name));
+                queues.add(queue);
+                executors.add(executor);
+            }
+            QUEUE_DEPTH.labels(name).set(this::getTotalQueueDepth);
+        }
+
+        /**
+         * Adds the given item to the queue of its partition, if there is
+         * space.
+         *
+         * @param item The item to add.
+         * @return false if the queue of the partition was full and the item was
+         * not added.
+         */
+        public boolean offer(T item) {
+            if (queues.get(partitionOf(item)).offer(item)) {
+                return true;
+            }
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * Get the queue of the partition the given item is assigned to. Items
+         * added to this queue directly are not counted as rejected when the
+         * queue is full.
+         *
+         * @param item The item to get the queue for.
+         * @return The queue of the partition of the item.
+         */
+        public BlockingQueue<T> queueOf(T item) {
+            return queues.get(partitionOf(item));
+        }
+
+        /**
+         * Get the partition the given item is assigned to.
+         *
+         * @param item The item to get the partition for.
+         * @return The index of the partition.
+         */
+        public int partitionOf(T item) {
+            Object key = keyFunction.apply(item);
+            if (key == null) {
+                return 0;
+            }
+            return Math.floorMod(key.hashCode(), queues.size());
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getPartitionCount() {
+            return queues.size();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        @Override
+        public int[] getQueueDepths() {
+            int[] depths = new int[queues.size()];
+            for (int i = 0; i < depths.length; i++) {
+                depths[i] = queues.get(i).size();
+            }
+            return depths;
+        }
+
+        @Override
+        public int getTotalQueueDepth() {
+            int total = 0;
+            for (BlockingQueue<T> queue : queues) {
+                total += queue.size();
+            }
+            return total;
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        /**
+         * Registers the metrics of the processors in JMX, under
+         * {@value ProcessorHelper#JMX_DOMAIN}:type=Processors,name=&lt;name&gt;.
+         */
+        public void registerMetrics() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName());
+                metricsRegistered = true;
+            } catch (JMException ex) {
+                LOGGER.warn("Failed to register metrics for processors {}: {}", name, ex.getMessage());
+            }
+        }
+
+        private ObjectName objectName() throws JMException {
+            return new ObjectName(JMX_DOMAIN + ":type=Processors,name=" + name);
+        }
+
+        /**
+         * Stops the processors. Items still in the queues are handled until
+         * the queues are empty, or the timeout expires.
+         *
+         * @param timeout The maximum time to wait for the queues to empty.
+         * @param timeUnit The unit of the timeout.
+         */
+        public void shutdown(long timeout, TimeUnit timeUnit) {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+            long timeoutInMillis = timeUnit.toMillis(timeout);
+            try {
+                while (getTotalQueueDepth() > 0 && timeoutInMillis > 0) {
+                    Thread.sleep(SHUTDOWN_WAIT_STEP_IN_MILLIS);
+                    timeoutInMillis -= SHUTDOWN_WAIT_STEP_IN_MILLIS;
+                }
+                for (ExecutorService executor : executors) {
+                    executor.shutdownNow();
+                }
+                for (ExecutorService executor : executors) {
+                    if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                        LOGGER.debug("executoreService did not terminate in time");
+                    }
+                }
+            } catch (InterruptedException ie) {
+                for (ExecutorService executor : executors) {
+                    executor.shutdownNow();
+                }
+                Thread.currentThread().interrupt();
+            }
+            unregisterMetrics();
+            QUEUE_DEPTH.remove(name);
+        }
+
+        private void unregisterMetrics() {
+            if (!metricsRegistered) {
+                return;
+            }
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName());
+                metricsRegistered = false;
+            } catch (JMException ex) {
+                LOGGER.debug("Failed to unregister metrics for processors {}", name, ex);
+            }
         }
     }
 
@@ -79,6 +349,7 @@ public class ProcessorHelper {
         private final BlockingQueue<T> queue;
         private final Consumer<T> consumer;
         private final String name;
+        private final Counter.Child processed;
 
         private Processor(BlockingQueue<T> queue, Consumer<T> consumer) {
             this(queue, consumer, null);
@@ -98,6 +369,7 @@ public class ProcessorHelper {
             }
             this.queue = queue;
             this.consumer = consumer;
+            this.processed = PROCESSED.labels(this.name);
         }
 
         @Override
@@ -108,6 +380,7 @@ public class ProcessorHelper {
                 try {
                     event = queue.take();
                     consumer.accept(event);
+                    processed.inc();
                 } catch (InterruptedException ex) {
                     LOGGER.debug("{} interrupted", name);
                     LOGGER.trace(name + " interrupted", ex);
@@ -120,4 +393,76 @@ public class ProcessorHelper {
             LOGGER.debug("exiting {}-Thread", name);
         }
     }
+
+    private static class BatchProcessor<T> implements Runnable {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(BatchProcessor.class);
+        private final BlockingQueue<T> queue;
+        private final Consumer<List<T>> consumer;
+        private final int maxBatchSize;
+        private final long maxBatchDelayNanos;
+        private final String name;
+        private final Counter.Child processed;
+
+        private BatchProcessor(BlockingQueue<T> queue, Consumer<List<T>> consumer, int maxBatchSize, long maxBatchDelay, String name) {
+            if (queue == null) {
+                throw new IllegalArgumentException("queue must be non-null");
+            }
+            if (consumer == null) {
+                throw new IllegalArgumentException("handler must be non-null");
+            }
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be > 0");
+            }
+            this.queue = queue;
+            this.consumer = consumer;
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelay);
+            this.name = name;
+            this.processed = PROCESSED.labels(name);
+        }
+
+        @Override
+        public void run() {
+            LOGGER.debug("starting {}-Thread", name);
+            boolean interrupted = false;
+            while (!interrupted) {
+                List<T> batch = new ArrayList<>();
+                try {
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + maxBatchDelayNanos;
+                    while (batch.size() < maxBatchSize) {
+                        T next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                } catch (InterruptedException ex) {
+                    LOGGER.debug("{} interrupted", name);
+                    LOGGER.trace(name + " interrupted", ex);
+                    interrupted = true;
+                }
+                if (interrupted || Thread.interrupted()) {
+                    // Shutting down, do not leave anything behind in the queue.
+                    interrupted = true;
+                    queue.drainTo(batch);
+                }
+                for (int start = 0; start < batch.size(); start += maxBatchSize) {
+                    handle(batch.subList(start, Math.min(batch.size(), start + maxBatchSize)));
+                }
+            }
+            Thread.currentThread().interrupt();
+            LOGGER.debug("exiting {}-Thread", name);
+        }
+
+        private void handle(List<T> batch) {
+            try {
+                consumer.accept(batch);
+                processed.inc(batch.size());
+            } catch (Exception ex) {
+                LOGGER.warn("Exception while executing " + name, ex);
+            }
+        }
+    }
 }
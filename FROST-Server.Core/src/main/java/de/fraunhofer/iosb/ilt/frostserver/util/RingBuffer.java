@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A preallocated ring buffer that hands each item to all of its readers,
+ * without locks.
+ *
+ * Writers claim a sequence number with a compare-and-set on the cursor, store
+ * their item in the slot of that sequence, and then mark the slot as
+ * published. Each reader has its own thread and sequence, and reads all
+ * consecutive published items in one go, handing them to its consumer as one
+ * batch. Once all readers have passed a slot, the item in it is cleared, so
+ * the ring does not keep handled items alive. A slot can only be re-used once
+ * it is cleared, so writers wait when the slowest reader is a full ring
+ * behind.
+ *
+ * @author scf
+ * @param <T> The type of the items.
+ */
+public class RingBuffer<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RingBuffer.class);
+    private static final long WRITER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long READER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final Object[] entries;
+    /**
+     * For each slot, the sequence number of the item last published in it.
+     */
+    private final AtomicLongArray published;
+    private final int mask;
+    private final int maxBatchSize;
+    /**
+     * The highest sequence number claimed by a writer.
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+    /**
+     * The highest sequence number of which the slot is cleared. Writers may
+     * only re-use slots up to here.
+     */
+    private final AtomicLong cleared = new AtomicLong(-1);
+    /**
+     * Held by the thread clearing slots.
+     */
+    private final AtomicBoolean clearing = new AtomicBoolean(false);
+    private final List<Reader> readers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name The name, used for the reader threads.
+     * @param size The number of slots, rounded up to a power of two.
+     * @param maxBatchSize The maximum number of items handed to a reader in
+     * one batch.
+     */
+    public RingBuffer(String name, int size, int maxBatchSize) {
+        if (size < 1 || size > (1 << 30)) {
+            throw new IllegalArgumentException("size must be between 1 and 2^30");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.name = name;
+        this.entries = new Object[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        ProcessorHelper.QUEUE_DEPTH.labels(name).set(this::getBacklog);
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Publishes an item to all readers. If the ring is full, waits at most
+     * the given time for the slowest reader to catch up.
+     *
+     * @param item The item to publish.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return false if the ring stayed full, and the item was not published.
+     */
+    public boolean publish(T item, long timeout) {
+        long deadline = 0;
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1;
+            long wrapPoint = next - entries.length;
+            if (wrapPoint > cleared.get()) {
+                long minimum = clearPassedSlots();
+                if (wrapPoint > minimum) {
+                    if (deadline == 0) {
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                    } else if (System.nanoTime() > deadline) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(WRITER_PARK_NANOS);
+                    continue;
+                }
+            }
+            if (cursor.compareAndSet(current, next)) {
+                int index = (int) next & mask;
+                entries[index] = item;
+                // The volatile write makes the entry visible to the readers.
+                published.set(index, next);
+                wakeReaders();
+                return true;
+            }
+        }
+    }
+
+    private long minimumReaderSequence(long defaultValue) {
+        long minimum = defaultValue;
+        for (Reader reader : readers) {
+            minimum = Math.min(minimum, reader.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Clears the slots that all readers have passed. Only one thread clears at
+     * a time, others return right away; writers that find the ring full try
+     * again.
+     *
+     * @return The highest sequence number of which the slot is cleared.
+     */
+    private long clearPassedSlots() {
+        if (!clearing.compareAndSet(false, true)) {
+            return cleared.get();
+        }
+        try {
+            long from = cleared.get();
+            long to = minimumReaderSequence(cursor.get());
+            for (long seq = from + 1; seq <= to; seq++) {
+                entries[(int) seq & mask] = null;
+            }
+            if (to > from) {
+                // The volatile write orders the clearing before any re-use.
+                cleared.set(to);
+                return to;
+            }
+            return from;
+        } finally {
+            clearing.set(false);
+        }
+    }
+
+    private void wakeReaders() {
+        for (Reader reader : readers) {
+            if (reader.waiting) {
+                LockSupport.unpark(reader.thread);
+            }
+        }
+    }
+
+    /**
+     * Adds a reader, with its own thread, that receives all items published
+     * from now on.
+     *
+     * @param consumer The consumer that handles the batches of items.
+     * @return The reader, to be passed to {@link #removeReader(Reader, long)}.
+     */
+    public synchronized Reader addReader(Consumer<List<T>> consumer) {
+        Reader reader = new Reader(consumer);
+        reader.sequence.set(cursor.get());
+        readers.add(reader);
+        reader.thread = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-" + readers.size())
+                .build()
+                .newThread(reader);
+        reader.thread.start();
+        return reader;
+    }
+
+    /**
+     * Stops the given reader, after it has handled the items already
+     * published.
+     *
+     * @param reader The reader to stop.
+     * @param timeout The maximum time to wait, in milliseconds.
+     */
+    public synchronized void removeReader(Reader reader, long timeout) {
+        reader.stopAt = cursor.get();
+        reader.running = false;
+        LockSupport.unpark(reader.thread);
+        try {
+            reader.thread.join(timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        readers.remove(reader);
+    }
+
+    /**
+     * Stops all readers.
+     *
+     * @param timeout The maximum time to wait for each reader, in
+     * milliseconds.
+     */
+    public synchronized void shutdown(long timeout) {
+        for (Reader reader : new ArrayList<>(readers)) {
+            removeReader(reader, timeout);
+        }
+        ProcessorHelper.QUEUE_DEPTH.remove(name);
+    }
+
+    /**
+     * @return The number of items the slowest reader is behind.
+     */
+    public long getBacklog() {
+        long current = cursor.get();
+        return current - minimumReaderSequence(current);
+    }
+
+    /**
+     * A reader of the ring, with its own thread and sequence.
+     */
+    public final class Reader implements Runnable {
+
+        private final Consumer<List<T>> consumer;
+        /**
+         * The sequence number of the last item handled by this reader.
+         */
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private volatile boolean running = true;
+        private volatile boolean waiting = false;
+        /**
+         * The last sequence to handle after the reader is stopped.
+         */
+        private volatile long stopAt = Long.MAX_VALUE;
+        private Thread thread;
+
+        private Reader(Consumer<List<T>> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!running && sequence.get() >= stopAt) {
+                    return;
+                }
+                if (readBatch()) {
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                waiting = true;
+                // Check again, a writer may have published before seeing the flag.
+                if (!isPublished(sequence.get() + 1)) {
+                    LockSupport.parkNanos(READER_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+
+        /**
+         * Hands all consecutive published items, up to the maximum batch
+         * size, to the consumer.
+         *
+         * @return false if there was nothing to read.
+         */
+        @SuppressWarnings("unchecked")
+        private boolean readBatch() {
+            long start = sequence.get() + 1;
+            long end = start;
+            while (end - start < maxBatchSize && isPublished(end)) {
+                end++;
+            }
+            if (end == start) {
+                return false;
+            }
+            List<T> batch = new ArrayList<>((int) (end - start));
+            for (long seq = start; seq < end; seq++) {
+                batch.add((T) entries[(int) seq & mask]);
+            }
+            // Release the slots before handling, the items are in the batch.
+            sequence.set(end - 1);
+            clearPassedSlots();
+            try {
+                consumer.accept(batch);
+                ProcessorHelper.PROCESSED.labels(name).inc(batch.size());
+            } catch (RuntimeException ex) {
+                LOGGER.error("Reader of {} failed to handle a batch.", name, ex);
+            }
+            return true;
+        }
+
+        private boolean isPublished(long seq) {
+            return published.get((int) seq & mask) == seq;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of byte records on disk, read in the order they were
+ * written. The file starts with the position of the oldest unread record,
+ * followed by the records, each stored as its length and its bytes.
+ *
+ * The read position is written to the file each time a record is removed, and
+ * forced to disk at least every {@value #FORCE_INTERVAL_MILLIS} ms, so after a
+ * crash only the records removed in that window are read again. Once all
+ * records are read, the file is truncated. When the part that is read grows
+ * beyond the compaction threshold, and is larger than the unread part, the
+ * unread records are copied to a new file that replaces the old one.
+ *
+ * Not thread-safe, callers must synchronise.
+ *
+ * @author scf
+ */
+class SpillLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillLog.class);
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long FORCE_INTERVAL_MILLIS = 100;
+    /**
+     * The default size, in bytes, the read part of the file must reach before
+     * the file is compacted.
+     */
+    static final long DEFAULT_COMPACT_THRESHOLD = 4L * 1024 * 1024;
+
+    private final File file;
+    private final long compactThreshold;
+    private RandomAccessFile raf;
+    private long readPosition;
+    private long writePosition;
+    private long count;
+    private long lastForce = System.nanoTime();
+
+    SpillLog(File file) throws IOException {
+        this(file, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param file The file to store the records in.
+     * @param compactThreshold The size, in bytes, the read part of the file
+     * must reach before the file is compacted.
+     * @throws IOException If the file can not be opened.
+     */
+    SpillLog(File file, long compactThreshold) throws IOException {
+        this.file = file;
+        this.compactThreshold = compactThreshold;
+        this.raf = new RandomAccessFile(file, "rw");
+        scan();
+    }
+
+    /**
+     * Reads the read position, counts the unread records in the file, and
+     * cuts off a partially written record at the end.
+     */
+    private void scan() throws IOException {
+        long length = raf.length();
+        if (length < HEADER_SIZE) {
+            // A new file.
+            reset();
+            return;
+        }
+        raf.seek(0);
+        long start = raf.readLong();
+        if (start > length) {
+            // Truncated after the last record was read, before the header was updated.
+            reset();
+            return;
+        }
+        if (start < HEADER_SIZE) {
+            LOGGER.warn("Spill log {} has an invalid read position {}, reading all records.", file, start);
+            start = HEADER_SIZE;
+        }
+        long position = start;
+        while (position + LENGTH_SIZE <= length) {
+            raf.seek(position);
+            int recordLength = raf.readInt();
+            if (recordLength < 0 || position + LENGTH_SIZE + recordLength > length) {
+                break;
+            }
+            position += LENGTH_SIZE + recordLength;
+            count++;
+        }
+        if (position < length) {
+            LOGGER.warn("Truncating {} bytes of incomplete records from spill log {}.", length - position, file);
+            raf.setLength(position);
+        }
+        readPosition = start;
+        writePosition = position;
+        if (count > 0) {
+            LOGGER.info("Spill log {} contains {} records from a previous run.", file, count);
+        }
+    }
+
+    /**
+     * Empties the file. The file is truncated before the header is updated,
+     * so a crash in between leaves a read position beyond the end of the
+     * file, which {@link #scan()} treats as empty.
+     */
+    private void reset() throws IOException {
+        raf.setLength(HEADER_SIZE);
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE;
+        count = 0;
+        writeHeader();
+        force();
+    }
+
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeLong(readPosition);
+    }
+
+    private void force() throws IOException {
+        raf.getChannel().force(false);
+        lastForce = System.nanoTime();
+    }
+
+    /**
+     * Appends a record to the end of the log.
+     *
+     * @param record The record to append.
+     * @throws IOException If writing fails.
+     */
+    void append(byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + record.length);
+        buffer.putInt(record.length).put(record);
+        raf.seek(writePosition);
+        raf.write(buffer.array());
+        writePosition += buffer.capacity();
+        count++;
+    }
+
+    /**
+     * Reads the oldest record, without removing it.
+     *
+     * @return The oldest record, or null if the log is empty.
+     * @throws IOException If reading fails.
+     */
+    byte[] peek() throws IOException {
+        if (count == 0) {
+            return null;
+        }
+        raf.seek(readPosition);
+        byte[] record = new byte[raf.readInt()];
+        raf.readFully(record);
+        return record;
+    }
+
+    /**
+     * Removes the oldest record, and stores the new read position. When the
+     * last record is removed, the file is truncated, when the read part of
+     * the file is large, the file is compacted.
+     *
+     * @throws IOException If reading or writing fails.
+     */
+    void remove() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        raf.seek(readPosition);
+        readPosition += LENGTH_SIZE + raf.readInt();
+        count--;
+        if (count == 0) {
+            reset();
+            return;
+        }
+        long readBytes = readPosition - HEADER_SIZE;
+        if (readBytes >= compactThreshold && readBytes >= sizeInBytes()) {
+            compact();
+            return;
+        }
+        writeHeader();
+        if (System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(FORCE_INTERVAL_MILLIS)) {
+            force();
+        }
+    }
+
+    /**
+     * @return The number of records in the log.
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * @return The number of bytes the unread records take in the file.
+     */
+    long sizeInBytes() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * @return The length of the file.
+     */
+    long fileLength() {
+        return writePosition;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Stores the read position and closes the file. Records that are not read
+     * yet stay in the file.
+     */
+    @Override
+    public void close() throws IOException {
+        writeHeader();
+        force();
+        raf.close();
+    }
+
+    /**
+     * Copies the unread records to a new file, and moves that over the old
+     * one. A crash leaves either the old file, or the new one, both with a
+     * correct read position.
+     */
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long target = HEADER_SIZE;
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            out.writeLong(HEADER_SIZE);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long source = readPosition;
+            while (source < writePosition) {
+                int length = (int) Math.min(buffer.length, writePosition - source);
+                raf.seek(source);
+                raf.readFully(buffer, 0, length);
+                out.write(buffer, 0, length);
+                source += length;
+                target += length;
+            }
+            out.getChannel().force(false);
+        }
+        raf.close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        raf = new RandomAccessFile(file, "rw");
+        LOGGER.debug("Compacted spill log {} from {} to {} bytes.", file, writePosition, target);
+        readPosition = HEADER_SIZE;
+        writePosition = target;
+        lastForce = System.nanoTime();
+    }
+}
@@ -17,9 +17,12 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.deserialize;
 
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
 import de.fraunhofer.iosb.ilt.frostserver.model.FeatureOfInterest;
 import de.fraunhofer.iosb.ilt.frostserver.model.Location;
@@ -42,6 +45,7 @@ import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.IdString;
 import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInterval;
 import de.fraunhofer.iosb.ilt.frostserver.model.ext.UnitOfMeasurement;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.util.TestHelper;
@@ -1293,6 +1297,56 @@ public class EntityParserTest {
         entityParser.parseObservation(json);
     }
 
+    @Test
+    public void readObservation_WithInvalidTime_Exception() throws IOException {
+        String json = "{ \"phenomenonTime\": \"not a time\"}";
+        exception.expect(JsonMappingException.class);
+        entityParser.parseObservation(json);
+    }
+
+    @Test
+    public void readObservation_WithIntervalAndNulls_Success() throws IOException {
+        String json = "{\n"
+                + "  \"@iot.id\": 42,\n"
+                + "  \"phenomenonTime\": \"2014-03-01T13:00:00Z/2015-05-11T15:30:00Z\",\n"
+                + "  \"resultTime\": null,\n"
+                + "  \"result\": null,\n"
+                + "  \"resultQuality\": {\"q\": [1, 2.5]},\n"
+                + "  \"parameters\": null\n"
+                + "}";
+        Map<String, Object> quality = new HashMap<>();
+        quality.put("q", Arrays.asList(1, new BigDecimal("2.5")));
+        Observation expectedResult = new ObservationBuilder()
+                .setId(new IdLong(42))
+                .setPhenomenonTime(TimeInterval.parse("2014-03-01T13:00:00Z/2015-05-11T15:30:00Z"))
+                .setResult(null)
+                .setResultQuality(quality)
+                .build();
+        Observation result = entityParser.parseObservation(json);
+        assertEquals(expectedResult, result);
+        Assert.assertTrue(result.isSetResult()
+                && result.isSetParameters()
+                && !result.isSetResultTime());
+    }
+
+    @Test
+    public void readObservation_BinaryFormats_RoundTrip() throws IOException {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("depth", new BigDecimal("3.5"));
+        Observation expectedResult = new ObservationBuilder()
+                .setId(new IdLong(7))
+                .setPhenomenonTime(TimeInstant.parse("2015-03-01T13:00:00Z"))
+                .setResultTime(TimeInstant.parse("2015-03-01T13:00:00Z"))
+                .setResult(42)
+                .setParameters(parameters)
+                .build();
+        for (DataFormat format : new DataFormat[]{DataFormat.CBOR, DataFormat.SMILE}) {
+            byte[] data = EntityFormatter.writeObject(format, expectedResult);
+            Observation result = new EntityParser(IdLong.class, format).parseEntity(Observation.class, data);
+            assertEquals("Round trip failed for " + format, expectedResult, result);
+        }
+    }
+
     @Test
     public void readEntity_LongId() throws IOException {
         {
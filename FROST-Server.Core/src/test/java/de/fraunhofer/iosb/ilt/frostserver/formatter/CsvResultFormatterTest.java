@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class CsvResultFormatterTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings = new CoreSettings();
+
+    @Test
+    public void testFromFormatName() {
+        assertEquals(CsvResultFormatter.CONTENT_TYPE_CSV, CsvResultFormatter.fromFormatName("CSV").getContentType());
+        assertEquals(CsvResultFormatter.CONTENT_TYPE_TSV, CsvResultFormatter.fromFormatName("tsv").getContentType());
+        assertNull(CsvResultFormatter.fromFormatName("dataArray"));
+    }
+
+    @Test
+    public void testFormatSelectAndExpand() {
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), SERVICE_ROOT, "/Observations");
+        Query query = QueryParser.parseQuery("$select=id,phenomenonTime,result&$expand=Datastream($select=name)", settings);
+
+        EntitySet<Observation> observations = new EntitySetImpl<>(EntityType.OBSERVATION);
+        observations.add(new ObservationBuilder()
+                .setId(new IdLong(1))
+                .setPhenomenonTime(TimeInstant.parse("2019-01-01T00:00:00.000Z"))
+                .setResult(1.5)
+                .setDatastream(new DatastreamBuilder().setId(new IdLong(5)).setName("Temp, \"outside\"").build())
+                .build());
+        observations.add(new ObservationBuilder()
+                .setId(new IdLong(2))
+                .setPhenomenonTime(TimeInstant.parse("2019-01-01T01:00:00.000Z"))
+                .setResult(Collections.singletonMap("a", 1))
+                .build());
+
+        String expected = "@iot.id,phenomenonTime,result,Datastream/name\r\n"
+                + "1,2019-01-01T00:00:00.000Z,1.5,\"Temp, \"\"outside\"\"\"\r\n"
+                + "2,2019-01-01T01:00:00.000Z,\"{\"\"a\"\":1}\",\r\n";
+        String result = CsvResultFormatter.fromFormatName("csv").format(path, query, observations, false);
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void testFormatTsvDefaultColumns() {
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), SERVICE_ROOT, "/Observations(3)");
+        Query query = QueryParser.parseQuery("", settings);
+
+        Observation observation = new ObservationBuilder()
+                .setId(new IdLong(3))
+                .setPhenomenonTime(TimeInstant.parse("2019-01-01T00:00:00.000Z"))
+                .setResult("a\tb")
+                .build();
+
+        String expected = "@iot.id\tphenomenonTime\tparameters\tresult\tresultTime\tresultQuality\tvalidTime\r\n"
+                + "3\t2019-01-01T00:00:00.000Z\t\t\"a\tb\"\t\t\t\r\n";
+        String result = CsvResultFormatter.fromFormatName("tsv").format(path, query, observation, false);
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void testRemoveUnusedExpands() {
+        Query query = QueryParser.parseQuery("$expand=Datastream($select=name;$expand=Thing),FeatureOfInterest,Datastream/Sensor,Datastream/ObservedProperty", settings);
+        Query expected = QueryParser.parseQuery("$expand=Datastream($select=name),FeatureOfInterest", settings);
+        CsvResultFormatter.removeUnusedExpands(query);
+        assertEquals(expected.getExpand(), query.getExpand());
+
+        query = QueryParser.parseQuery("$expand=Datastreams", settings);
+        CsvResultFormatter.removeUnusedExpands(query);
+        assertTrue(query.getExpand().isEmpty());
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.MultiDatastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.MultiDatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInterval;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.io.IOException;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class DataArrayWriterTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings = new CoreSettings();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testSameAsFormatter() throws IOException {
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), SERVICE_ROOT, "/Observations");
+        Query query = QueryParser.parseQuery("$resultFormat=dataArray&$count=true&$select=id,phenomenonTime,result,Datastream,MultiDatastream", settings);
+
+        Datastream ds1 = new DatastreamBuilder().setId(new IdLong(1)).build();
+        Datastream ds2 = new DatastreamBuilder().setId(new IdLong(2)).build();
+        MultiDatastream mds = new MultiDatastreamBuilder().setId(new IdLong(3)).build();
+        Observation[] observations = {
+            new ObservationBuilder().setId(new IdLong(10)).setDatastream(ds1)
+            .setPhenomenonTime(TimeInstant.parse("2019-01-01T00:00:00.000Z")).setResult(1.5).build(),
+            new ObservationBuilder().setId(new IdLong(11)).setDatastream(ds2)
+            .setPhenomenonTime(TimeInterval.parse("2019-01-01T00:00:00.000Z/2019-01-01T01:00:00.000Z")).setResult("a").build(),
+            new ObservationBuilder().setId(new IdLong(12)).setDatastream(ds1)
+            .setPhenomenonTime(TimeInstant.parse("2019-01-01T02:00:00.000Z")).setResult(true).build(),
+            new ObservationBuilder().setId(new IdLong(13)).setMultiDatastream(mds)
+            .setPhenomenonTime(TimeInstant.parse("2019-01-01T03:00:00.000Z")).setResult(Arrays.asList(1, 2)).build()
+        };
+
+        EntitySet<Observation> entitySet = new EntitySetImpl<>(EntityType.OBSERVATION);
+        entitySet.addAll(Arrays.asList(observations));
+        entitySet.setCount(42);
+        entitySet.setNextLink(SERVICE_ROOT + "/Observations?$skip=4");
+        String expected = new DefaultResultFormater(settings).format(path, query, entitySet, false);
+
+        DataArrayWriter writer = new DataArrayWriter(path, query);
+        writer.setCount(42);
+        writer.setNextLink(SERVICE_ROOT + "/Observations?$skip=4");
+        for (Observation o : observations) {
+            JsonGenerator gen;
+            if (o.getDatastream() == null) {
+                gen = writer.startRow(true, o.getMultiDatastream().getId().getValue(), id -> o.getMultiDatastream());
+            } else {
+                gen = writer.startRow(false, o.getDatastream().getId().getValue(), id -> o.getDatastream());
+            }
+            gen.writeNumber((Long) o.getId().getValue());
+            gen.writeString(o.getPhenomenonTime().toString());
+            gen.writeRawValue(mapper.writeValueAsString(o.getResult()));
+            writer.endRow();
+        }
+        assertEquals(mapper.readTree(expected), mapper.readTree(writer.finish()));
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class DataFormatTest {
+
+    @Test
+    public void testFromAcceptHeader() {
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader(null));
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("*/*"));
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("text/html, application/json"));
+        assertEquals(DataFormat.CBOR, DataFormat.fromAcceptHeader("application/cbor"));
+        assertEquals(DataFormat.SMILE, DataFormat.fromAcceptHeader("application/json;q=0.5, application/x-jackson-smile"));
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("application/json, application/cbor;q=0.9"));
+    }
+
+    @Test
+    public void testFromAcceptHeaderQualityZero() {
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("application/cbor;q=0"));
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("application/cbor;q=0.0, application/x-jackson-smile;q=0"));
+        assertEquals(DataFormat.CBOR, DataFormat.fromAcceptHeader("application/json;q=0, application/cbor;q=0.1"));
+        assertEquals(DataFormat.SMILE, DataFormat.fromAcceptHeader("application/cbor;q=0, application/x-jackson-smile;q=0.2"));
+        assertEquals(DataFormat.JSON, DataFormat.fromAcceptHeader("application/cbor;q=invalid"));
+    }
+
+    @Test
+    public void testFromContentType() {
+        assertEquals(DataFormat.JSON, DataFormat.fromContentType(null));
+        assertEquals(DataFormat.JSON, DataFormat.fromContentType("application/json; charset=UTF-8"));
+        assertEquals(DataFormat.CBOR, DataFormat.fromContentType("application/cbor"));
+        assertEquals(DataFormat.SMILE, DataFormat.fromContentType("application/x-jackson-smile"));
+    }
+
+    @Test
+    public void testFromFormatName() {
+        assertEquals(DataFormat.CBOR, DataFormat.fromFormatName("CBOR"));
+        assertEquals(DataFormat.SMILE, DataFormat.fromFormatName("smile"));
+        assertNull(DataFormat.fromFormatName("dataArray"));
+        assertNull(DataFormat.fromFormatName(null));
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ThingBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class BusFrameCodecTest {
+
+    private static List<EntityChangedMessage> createMessages(int count) {
+        List<EntityChangedMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Observation observation = new ObservationBuilder()
+                    .setId(new IdLong(1000 + i))
+                    .setResult(i)
+                    .setDatastream(new DatastreamBuilder().setId(new IdLong(12)).build())
+                    .build();
+            observation.setResultTime(new TimeInstant(null));
+            observation.getDatastream().setExportObject(true);
+            messages.add(new EntityChangedMessage()
+                    .setEventType(EntityChangedMessage.Type.CREATE)
+                    .setEntity(observation));
+        }
+        EntityChangedMessage thingMessage = new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.UPDATE)
+                .setEntity(new ThingBuilder().setId(new IdLong(1)).setName("Thing 1").build());
+        thingMessage.addEpField(EntityProperty.NAME);
+        messages.add(thingMessage);
+        return messages;
+    }
+
+    private static void testRoundTrip(DataFormat format, boolean deflate) throws IOException {
+        BusFrameCodec codec = new BusFrameCodec(format, deflate, 1024 * 1024, IdLong.class);
+        List<EntityChangedMessage> messages = createMessages(20);
+        List<byte[]> frames = codec.encode(messages);
+        assertEquals(1, frames.size());
+        assertTrue(BusFrameCodec.isFrame(frames.get(0)));
+        assertEquals(messages, codec.decode(frames.get(0)));
+    }
+
+    @Test
+    public void testRoundTripJson() throws IOException {
+        testRoundTrip(DataFormat.JSON, false);
+    }
+
+    @Test
+    public void testRoundTripSmileDeflated() throws IOException {
+        testRoundTrip(DataFormat.SMILE, true);
+    }
+
+    @Test
+    public void testRoundTripCbor() throws IOException {
+        testRoundTrip(DataFormat.CBOR, false);
+    }
+
+    @Test
+    public void testFrameSplitting() throws IOException {
+        BusFrameCodec codec = new BusFrameCodec(DataFormat.SMILE, false, 500, IdLong.class);
+        List<EntityChangedMessage> messages = createMessages(50);
+        List<byte[]> frames = codec.encode(messages);
+        assertTrue(frames.size() > 1);
+        List<EntityChangedMessage> decoded = new ArrayList<>();
+        for (byte[] frame : frames) {
+            decoded.addAll(codec.decode(frame));
+        }
+        assertEquals(messages, decoded);
+    }
+
+    @Test
+    public void testDecodeOtherFormat() throws IOException {
+        BusFrameCodec sender = new BusFrameCodec(DataFormat.CBOR, true, 1024 * 1024, IdLong.class);
+        BusFrameCodec receiver = new BusFrameCodec(DataFormat.SMILE, false, 1024 * 1024, IdLong.class);
+        List<EntityChangedMessage> messages = createMessages(5);
+        assertEquals(messages, receiver.decode(sender.encode(messages).get(0)));
+    }
+
+    @Test
+    public void testFormatCodesAreStable() throws IOException {
+        List<EntityChangedMessage> messages = createMessages(1);
+        assertEquals(0, new BusFrameCodec(DataFormat.JSON, false, 1024, IdLong.class).encode(messages).get(0)[1]);
+        assertEquals(1, new BusFrameCodec(DataFormat.CBOR, false, 1024, IdLong.class).encode(messages).get(0)[1]);
+        assertEquals(2, new BusFrameCodec(DataFormat.SMILE, false, 1024, IdLong.class).encode(messages).get(0)[1]);
+        assertEquals(0x12, new BusFrameCodec(DataFormat.SMILE, true, 1024, IdLong.class).encode(messages).get(0)[1]);
+    }
+
+    @Test
+    public void testUnknownFormatCode() {
+        BusFrameCodec codec = new BusFrameCodec(DataFormat.JSON, false, 1024, IdLong.class);
+        try {
+            codec.decode(new byte[]{0, 0x0F, '{', '}'});
+            fail("Expected an IOException for an unknown format code.");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testInflateLimit() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0);
+        frame.write(0x10);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(frame)) {
+            out.write(new byte[1024 * 1024]);
+        }
+        BusFrameCodec codec = new BusFrameCodec(DataFormat.JSON, true, 1024, IdLong.class);
+        try {
+            codec.decode(frame.toByteArray());
+            fail("Expected an IOException for a frame that inflates beyond the limit.");
+        } catch (IOException ex) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testLegacyMessageIsNoFrame() throws IOException {
+        String json = EntityFormatter.getObjectMapper().writeValueAsString(createMessages(1).get(0));
+        assertFalse(BusFrameCodec.isFrame(json.getBytes(StringHelper.UTF8)));
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ThingBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class BusTopicsTest {
+
+    private static EntityChangedMessage observationMessage(long datastreamId) {
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.CREATE)
+                .setEntity(new ObservationBuilder()
+                        .setId(new IdLong(100))
+                        .setDatastream(new DatastreamBuilder().setId(new IdLong(datastreamId)).build())
+                        .build());
+    }
+
+    private static EntityChangedMessage thingMessage() {
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.UPDATE)
+                .setEntity(new ThingBuilder().setId(new IdLong(1)).build());
+    }
+
+    @Test
+    public void testUnpartitioned() {
+        BusTopics topics = new BusTopics("FROST-Bus", false, 8);
+        assertEquals("FROST-Bus", topics.topicFor(observationMessage(1)));
+        assertEquals("FROST-Bus", topics.topicFor(thingMessage()));
+        assertEquals(Collections.singleton("FROST-Bus"), topics.filtersFor(null));
+        assertEquals(Collections.singleton("FROST-Bus"), topics.filtersFor(Collections.emptySet()));
+    }
+
+    @Test
+    public void testPartitionByType() {
+        BusTopics topics = new BusTopics("FROST-Bus", true, 0);
+        assertEquals("FROST-Bus/Observation", topics.topicFor(observationMessage(1)));
+        assertEquals("FROST-Bus/Thing", topics.topicFor(thingMessage()));
+        assertEquals(Collections.singleton("FROST-Bus/#"), topics.filtersFor(null));
+        assertTrue(topics.filtersFor(Collections.emptySet()).isEmpty());
+
+        Set<BusInterest> interests = new HashSet<>(Arrays.asList(
+                BusInterest.forParent(EntityType.OBSERVATION, NavigationProperty.DATASTREAM, new IdLong(1)),
+                BusInterest.forType(EntityType.THING)));
+        Set<String> expected = new HashSet<>(Arrays.asList("FROST-Bus/Observation/#", "FROST-Bus/Thing/#"));
+        assertEquals(expected, topics.filtersFor(interests));
+    }
+
+    @Test
+    public void testPartitionByParent() {
+        BusTopics topics = new BusTopics("FROST-Bus", true, 4);
+        String topic1 = topics.topicFor(observationMessage(1));
+        String topic2 = topics.topicFor(observationMessage(2));
+        assertEquals("FROST-Bus/Observation/1", topic1);
+        assertEquals("FROST-Bus/Observation/2", topic2);
+        // Things have no parent to partition on.
+        assertEquals("FROST-Bus/Thing", topics.topicFor(thingMessage()));
+
+        Set<BusInterest> interests = new HashSet<>(Arrays.asList(
+                BusInterest.forParent(EntityType.OBSERVATION, NavigationProperty.DATASTREAM, new IdLong(1)),
+                BusInterest.forParent(EntityType.OBSERVATION, NavigationProperty.DATASTREAM, new IdLong(5))));
+        assertEquals(Collections.singleton("FROST-Bus/Observation/1"), topics.filtersFor(interests));
+
+        // An interest in all Observations covers the partitions.
+        interests.add(BusInterest.forType(EntityType.OBSERVATION));
+        assertEquals(Collections.singleton("FROST-Bus/Observation/#"), topics.filtersFor(interests));
+
+        // A parent that is not used for partitioning needs the entire type.
+        interests = Collections.singleton(BusInterest.forParent(EntityType.OBSERVATION, NavigationProperty.FEATUREOFINTEREST, new IdLong(1)));
+        assertEquals(Collections.singleton("FROST-Bus/Observation/#"), topics.filtersFor(interests));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author scf
+ */
+public class SharedLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(int i) {
+        return ("message " + i).getBytes(StringHelper.UTF8);
+    }
+
+    private static List<String> readAll(SharedLog.Reader reader) throws IOException {
+        List<String> result = new ArrayList<>();
+        List<byte[]> records;
+        while (!(records = reader.read(7)).isEmpty()) {
+            for (byte[] record : records) {
+                result.add(new String(record, StringHelper.UTF8));
+            }
+        }
+        return result;
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> result = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            result.add("message " + i);
+        }
+        return result;
+    }
+
+    @Test
+    public void testAppendAndReadAcrossSegments() throws IOException {
+        File dir = folder.getRoot();
+        try (SharedLog writer = new SharedLog(dir, 256, 100);
+                SharedLog readerLog = new SharedLog(dir, 256, 100);
+                SharedLog.Reader reader = readerLog.openReader("")) {
+            for (int i = 0; i < 100; i++) {
+                writer.append(record(i));
+            }
+            assertEquals(expected(0, 100), readAll(reader));
+            writer.append(record(100));
+            assertEquals(expected(100, 101), readAll(reader));
+        }
+        assertTrue(new File(dir, "bus-000000000001.log").exists());
+    }
+
+    @Test
+    public void testReaderResumes() throws IOException {
+        File dir = folder.getRoot();
+        try (SharedLog writer = new SharedLog(dir, 256, 100)) {
+            try (SharedLog.Reader reader = writer.openReader("mqtt")) {
+                writer.append(record(0));
+                writer.append(record(1));
+                assertEquals(expected(0, 2), readAll(reader));
+                reader.commit();
+            }
+            // Written while the reader is down.
+            for (int i = 2; i < 30; i++) {
+                writer.append(record(i));
+            }
+            try (SharedLog.Reader reader = writer.openReader("mqtt")) {
+                assertEquals(expected(2, 30), readAll(reader));
+            }
+            // A new reader starts at the end.
+            try (SharedLog.Reader reader = writer.openReader("other")) {
+                writer.append(record(30));
+                assertEquals(expected(30, 31), readAll(reader));
+            }
+        }
+    }
+
+    @Test
+    public void testReaderSkipsDeletedSegments() throws IOException {
+        File dir = folder.getRoot();
+        try (SharedLog writer = new SharedLog(dir, 256, 2)) {
+            SharedLog.Reader reader = writer.openReader("slow");
+            reader.close();
+            for (int i = 0; i < 100; i++) {
+                writer.append(record(i));
+            }
+            try (SharedLog.Reader resumed = writer.openReader("slow")) {
+                List<String> read = readAll(resumed);
+                assertTrue(read.size() < 100);
+                assertEquals("message 99", read.get(read.size() - 1));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBucketsAreCumulative() throws IOException {
+        Histogram histogram = new Histogram("test_seconds", "Test histogram.", new double[]{0.1, 1}, "type");
+        Histogram.Child child = histogram.labels("a");
+        child.observe(0.05);
+        child.observe(0.5);
+        child.observe(5);
+        StringWriter out = new StringWriter();
+        histogram.write(out);
+        String expected = "# HELP test_seconds Test histogram.\n"
+                + "# TYPE test_seconds histogram\n"
+                + "test_seconds_bucket{type=\"a\",le=\"0.1\"} 1\n"
+                + "test_seconds_bucket{type=\"a\",le=\"1\"} 2\n"
+                + "test_seconds_bucket{type=\"a\",le=\"+Inf\"} 3\n"
+                + "test_seconds_sum{type=\"a\"} 5.55\n"
+                + "test_seconds_count{type=\"a\"} 3\n";
+        Assert.assertEquals(expected, out.toString());
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() throws IOException {
+        Counter counter = new Counter("test_total", "Test counter.", "name");
+        counter.labels("a\"b\\c\nd").inc(2);
+        StringWriter out = new StringWriter();
+        counter.write(out);
+        Assert.assertTrue(out.toString(), out.toString().contains("test_total{name=\"a\\\"b\\\\c\\nd\"} 2\n"));
+    }
+
+    @Test
+    public void testRegistryReturnsExisting() {
+        Gauge gauge = Metrics.gauge("test_registry", "Test gauge.");
+        Assert.assertSame(gauge, Metrics.gauge("test_registry", "Test gauge."));
+        Assert.assertEquals("frost_test_registry", gauge.getName());
+        try {
+            Metrics.counter("test_registry", "Test counter.");
+            Assert.fail("Registering a different type under the same name should fail.");
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSnakeCase() {
+        Assert.assertEquals("total_queue_depth", Metrics.toSnakeCase("TotalQueueDepth"));
+        Assert.assertEquals("queue_overflow", Metrics.toSnakeCase("QueueOverflow"));
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class ServerTimingTest {
+
+    @Test
+    public void testRecordWithoutTimingIsIgnored() {
+        ServerTiming.stop();
+        ServerTiming.record(ServerTiming.PHASE_SELECT, System.nanoTime());
+        ServerTiming.beginNested();
+        ServerTiming.endNested(ServerTiming.PHASE_EXPAND, System.nanoTime());
+        ServerTiming timing = ServerTiming.start();
+        ServerTiming.stop();
+        Assert.assertTrue(timing.getDurations().isEmpty());
+        Assert.assertEquals("", timing.toHeaderValue());
+    }
+
+    @Test
+    public void testNestedPhasesAreNotCountedSeparately() {
+        ServerTiming timing = ServerTiming.start();
+        try {
+            ServerTiming.record(ServerTiming.PHASE_PATH, System.nanoTime());
+            ServerTiming.record(ServerTiming.PHASE_SELECT, System.nanoTime());
+            for (int i = 0; i < 2; i++) {
+                long start = System.nanoTime();
+                ServerTiming.beginNested();
+                ServerTiming.record(ServerTiming.PHASE_SELECT, System.nanoTime());
+                ServerTiming.record(ServerTiming.PHASE_COUNT, System.nanoTime());
+                ServerTiming.endNested(ServerTiming.PHASE_EXPAND, start);
+            }
+        } finally {
+            ServerTiming.stop();
+        }
+        Map<String, Double> durations = timing.getDurations();
+        Assert.assertArrayEquals(
+                new Object[]{ServerTiming.PHASE_PATH, ServerTiming.PHASE_SELECT, ServerTiming.PHASE_EXPAND},
+                durations.keySet().toArray());
+        String header = timing.toHeaderValue();
+        Assert.assertTrue(header, header.matches("path;dur=\\d+\\.\\d{3}, select;dur=\\d+\\.\\d{3}, expand;dur=\\d+\\.\\d{3};desc=\"2x\""));
+    }
+
+}
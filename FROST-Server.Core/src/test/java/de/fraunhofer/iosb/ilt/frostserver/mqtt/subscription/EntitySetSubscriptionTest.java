@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.query.OrderBy;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class EntitySetSubscriptionTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings = new CoreSettings();
+
+    private Subscription createSubscription(String topic) {
+        String pathString = topic.split("\\?", 2)[0];
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), "", "/" + pathString);
+        path.setServiceRootUrl(SERVICE_ROOT);
+        path.compress();
+        return new EntitySetSubscription(settings, topic, path, SERVICE_ROOT);
+    }
+
+    private static Observation observation(long datastreamId, Object result) {
+        return new ObservationBuilder()
+                .setId(new IdLong(10))
+                .setResult(result)
+                .setDatastream(new DatastreamBuilder().setId(new IdLong(datastreamId)).build())
+                .build();
+    }
+
+    @Test
+    public void testFilterInMemory() {
+        // Matching in memory must not need a PersistenceManager.
+        Subscription subscription = createSubscription("Datastreams(1)/Observations?$filter=result%20gt%2030");
+        assertTrue(subscription.matches(null, observation(1, 42), null));
+        assertFalse(subscription.matches(null, observation(1, 12), null));
+        assertFalse(subscription.matches(null, observation(2, 42), null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrderByNotAllowed() {
+        createSubscription("Observations?$orderby=result");
+    }
+
+    @Test
+    public void testFetchLatest() {
+        Subscription subscription = createSubscription("Datastreams(1)/Observations?$filter=result%20gt%2030");
+        Observation latest = observation(1, 42);
+        AtomicReference<Query> usedQuery = new AtomicReference<>();
+        PersistenceManager pm = (PersistenceManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{PersistenceManager.class},
+                (proxy, method, args) -> {
+                    if ("get".equals(method.getName()) && args.length == 2 && args[1] instanceof Query) {
+                        usedQuery.set((Query) args[1]);
+                        return new EntitySetImpl<>(EntityType.OBSERVATION, Arrays.asList(latest));
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        assertSame(latest, subscription.fetchLatest(pm));
+        Query query = usedQuery.get();
+        assertNotNull(query.getFilter());
+        assertEquals(1, query.getTop().get().intValue());
+        assertEquals(1, query.getOrderBy().size());
+        OrderBy orderBy = query.getOrderBy().get(0);
+        assertEquals(OrderBy.OrderType.DESCENDING, orderBy.getType());
+        assertEquals(new Path(EntityProperty.PHENOMENONTIME), orderBy.getExpression());
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.io.IOException;
+import java.util.Properties;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class PayloadKeyTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings;
+
+    public PayloadKeyTest() {
+        Properties properties = new Properties();
+        properties.setProperty(CoreSettings.TAG_SERVICE_ROOT_URL, "http://example.org");
+        properties.setProperty(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        settings = new CoreSettings(properties);
+    }
+
+    private ResourcePath parsePath(String topic) {
+        String pathString = topic.split("\\?", 2)[0];
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), "", "/" + pathString);
+        path.setServiceRootUrl(SERVICE_ROOT);
+        path.compress();
+        return path;
+    }
+
+    private Subscription createSetSubscription(String topic) {
+        return new EntitySetSubscription(settings, topic, parsePath(topic), SERVICE_ROOT);
+    }
+
+    private Subscription createEntitySubscription(String topic) {
+        return new EntitySubscription(settings, topic, parsePath(topic), SERVICE_ROOT);
+    }
+
+    private Subscription createPropertySubscription(String topic) {
+        return new PropertySubscription(topic, parsePath(topic), SERVICE_ROOT);
+    }
+
+    private static Observation observation() {
+        return new ObservationBuilder()
+                .setId(new IdLong(5))
+                .setResult(42)
+                .setPhenomenonTime(TimeInstant.parse("2019-01-01T00:00:00Z"))
+                .setDatastream(new DatastreamBuilder().setId(new IdLong(1)).build())
+                .build();
+    }
+
+    @Test
+    public void testSharedProjection() throws IOException {
+        Subscription all = createSetSubscription("Observations");
+        Subscription ds1 = createSetSubscription("Datastreams(1)/Observations");
+        Subscription single = createEntitySubscription("Observations(5)");
+        assertEquals(all.getPayloadKey(), ds1.getPayloadKey());
+        assertEquals(all.getPayloadKey(), single.getPayloadKey());
+
+        byte[] expected = all.formatMessage(observation());
+        assertArrayEquals(expected, ds1.formatMessage(observation()));
+        assertArrayEquals(expected, single.formatMessage(observation()));
+    }
+
+    @Test
+    public void testSelect() throws IOException {
+        Subscription all = createSetSubscription("Observations");
+        Subscription select = createSetSubscription("Observations?$select=result,phenomenonTime");
+        Subscription selectDs = createSetSubscription("Datastreams(1)/Observations?$select=phenomenonTime,result");
+        assertNotEquals(all.getPayloadKey(), select.getPayloadKey());
+        assertEquals(select.getPayloadKey(), selectDs.getPayloadKey());
+        assertArrayEquals(select.formatMessage(observation()), selectDs.formatMessage(observation()));
+    }
+
+    @Test
+    public void testFormatAndProperty() {
+        Subscription json = createSetSubscription("Observations");
+        Subscription cbor = createSetSubscription("Observations?$resultFormat=CBOR");
+        assertNotEquals(json.getPayloadKey(), cbor.getPayloadKey());
+
+        Subscription result = createPropertySubscription("Observations(5)/result");
+        Subscription result2 = createPropertySubscription("Datastreams(1)/Observations(6)/result");
+        Subscription time = createPropertySubscription("Observations(5)/phenomenonTime");
+        assertEquals(result.getPayloadKey(), result2.getPayloadKey());
+        assertNotEquals(result.getPayloadKey(), time.getPayloadKey());
+        assertNotEquals(json.getPayloadKey(), result.getPayloadKey());
+    }
+
+}
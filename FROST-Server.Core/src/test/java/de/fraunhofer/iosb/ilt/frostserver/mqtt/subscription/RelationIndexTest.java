@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ThingBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Collections;
+import java.util.Properties;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests matching of deep subscriptions with the RelationIndex, using only
+ * relations learned from EntityChangedMessages, so no database is needed.
+ *
+ * @author scf
+ */
+public class RelationIndexTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings;
+
+    public RelationIndexTest() {
+        Properties properties = new Properties();
+        properties.setProperty(CoreSettings.TAG_SERVICE_ROOT_URL, "http://example.org");
+        properties.setProperty(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        settings = new CoreSettings(properties);
+    }
+
+    private AbstractSubscription createSubscription(String topic, RelationIndex index) {
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), "", "/" + topic);
+        path.setServiceRootUrl(SERVICE_ROOT);
+        path.compress();
+        AbstractSubscription subscription = new EntitySetSubscription(settings, topic, path, SERVICE_ROOT);
+        subscription.setRelationIndex(index);
+        return subscription;
+    }
+
+    private static Datastream datastream(long id, long thingId) {
+        return new DatastreamBuilder()
+                .setId(new IdLong(id))
+                .setThing(new ThingBuilder().setId(new IdLong(thingId)).build())
+                .build();
+    }
+
+    private static EntityChangedMessage created(Datastream datastream) {
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.CREATE)
+                .setEntity(datastream);
+    }
+
+    @Test
+    public void testSiblingDatastreams() {
+        RelationIndex index = new RelationIndex(settings);
+        index.entityChanged(created(datastream(1, 5)));
+        AbstractSubscription subscription = createSubscription("Datastreams(1)/Thing/Datastreams", index);
+
+        assertTrue(subscription.matches(null, datastream(2, 5), Collections.emptySet()));
+        assertFalse(subscription.matches(null, datastream(3, 6), Collections.emptySet()));
+    }
+
+    @Test
+    public void testDatastreamsOfObservationThing() {
+        RelationIndex index = new RelationIndex(settings);
+        index.entityChanged(created(datastream(2, 5)));
+        Observation observation = new ObservationBuilder()
+                .setId(new IdLong(10))
+                .setDatastream(datastream(2, 5))
+                .build();
+        index.entityChanged(new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.CREATE)
+                .setEntity(observation));
+        AbstractSubscription subscription = createSubscription("Observations(10)/Datastream/Thing/Datastreams", index);
+
+        assertTrue(subscription.matches(null, datastream(1, 5), Collections.emptySet()));
+        assertFalse(subscription.matches(null, datastream(3, 6), Collections.emptySet()));
+
+        // After moving Datastream 2 to Thing 6, the subscription points to a different Thing.
+        index.entityChanged(created(datastream(2, 6)).setEventType(EntityChangedMessage.Type.UPDATE));
+        assertFalse(subscription.matches(null, datastream(1, 5), Collections.emptySet()));
+        assertTrue(subscription.matches(null, datastream(3, 6), Collections.emptySet()));
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.MultiDatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.IdManagerLong;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class SubscriptionIndexTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/v1.0";
+
+    private final CoreSettings settings = new CoreSettings();
+
+    private Subscription createSubscription(String topic) {
+        ResourcePath path = PathParser.parsePath(new IdManagerLong(), "", "/" + topic);
+        path.setServiceRootUrl(SERVICE_ROOT);
+        path.compress();
+        return new EntitySetSubscription(settings, topic, path, SERVICE_ROOT);
+    }
+
+    @Test
+    public void testParentBinding() {
+        Subscription bound = createSubscription("Datastreams(1)/Observations");
+        assertEquals(NavigationProperty.DATASTREAM, bound.getParentProperty());
+        assertEquals(new IdLong(1), bound.getParentId());
+
+        Subscription unbound = createSubscription("Observations");
+        assertNull(unbound.getParentProperty());
+        assertNull(unbound.getParentId());
+    }
+
+    @Test
+    public void testCandidates() {
+        Subscription all = createSubscription("Observations");
+        Subscription ds1 = createSubscription("Datastreams(1)/Observations");
+        Subscription ds2 = createSubscription("Datastreams(2)/Observations");
+        Subscription mds1 = createSubscription("MultiDatastreams(1)/Observations");
+
+        SubscriptionIndex index = new SubscriptionIndex();
+        for (Subscription subscription : Arrays.asList(all, ds1, ds2, mds1)) {
+            assertEquals(1, index.addSubscription(subscription));
+        }
+        assertEquals(2, index.addSubscription(ds1));
+
+        Observation obsDs1 = new ObservationBuilder()
+                .setId(new IdLong(10))
+                .setDatastream(new DatastreamBuilder().setId(new IdLong(1)).build())
+                .build();
+        Observation obsMds1 = new ObservationBuilder()
+                .setId(new IdLong(11))
+                .setMultiDatastream(new MultiDatastreamBuilder().setId(new IdLong(1)).build())
+                .build();
+
+        assertEquals(new HashSet<>(Arrays.asList(all, ds1)), new HashSet<>(index.getCandidates(obsDs1)));
+        assertEquals(new HashSet<>(Arrays.asList(all, mds1)), new HashSet<>(index.getCandidates(obsMds1)));
+        assertTrue(index.getCandidates(new DatastreamBuilder().setId(new IdLong(1)).build()).isEmpty());
+
+        // ds1 has two clients, removing one keeps the subscription.
+        assertEquals(1, index.removeSubscription(ds1));
+        assertEquals(new HashSet<>(Arrays.asList(all, ds1)), new HashSet<>(index.getCandidates(obsDs1)));
+        assertEquals(0, index.removeSubscription(ds1));
+        assertEquals(0, index.removeSubscription(all));
+        assertEquals(Collections.emptyList(), index.getCandidates(obsDs1));
+        assertEquals(-1, index.removeSubscription(all));
+    }
+
+}
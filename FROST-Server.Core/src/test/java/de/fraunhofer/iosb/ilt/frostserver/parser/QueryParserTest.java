@@ -73,6 +73,19 @@ public class QueryParserTest {
         Assert.assertEquals(10, result.getTopOrDefault());
     }
 
+    @Test
+    public void testParseQuery_TopLimitLifted() {
+        Query result = QueryParser.parseQuery("$top=" + Integer.MAX_VALUE);
+        int topMax = ConfigUtils.getDefaultValueInt(CoreSettings.class, CoreSettings.TAG_MAX_TOP);
+        Assert.assertEquals(topMax, result.getTopOrDefault());
+        result.liftTopLimit();
+        Assert.assertEquals(Query.TOP_UNLIMITED, result.getTopOrDefault());
+        result.setTop(Integer.MAX_VALUE);
+        Assert.assertEquals(Query.TOP_UNLIMITED, result.getTopOrDefault());
+        result.setTop(topMax + 10);
+        Assert.assertEquals(topMax + 10, result.getTopOrDefault());
+    }
+
     @Test
     public void testParseQuery_Skip() {
         Query expResult = new Query();
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.query.expression;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.Observation;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInterval;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class EntityExpressionEvaluatorTest {
+
+    private final Observation observation;
+
+    public EntityExpressionEvaluatorTest() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("depth", 5);
+        parameters.put("tag", "north");
+        observation = new ObservationBuilder()
+                .setId(new IdLong(10))
+                .setResult(42)
+                .setPhenomenonTime(TimeInstant.parse("2019-03-15T10:20:30.250Z"))
+                .setValidTime(TimeInterval.parse("2019-03-15T00:00:00Z/2019-03-16T00:00:00Z"))
+                .setParameters(parameters)
+                .setDatastream(new DatastreamBuilder().setId(new IdLong(1)).build())
+                .build();
+    }
+
+    private Boolean evaluate(String filter) {
+        Expression expression = QueryParser.parseQuery("$filter=" + filter).getFilter();
+        return EntityExpressionEvaluator.evaluate(expression, observation);
+    }
+
+    @Test
+    public void testComparisonAndArithmetic() {
+        assertEquals(true, evaluate("result gt 30"));
+        assertEquals(false, evaluate("result lt 30"));
+        assertEquals(true, evaluate("result eq 42.0"));
+        assertEquals(true, evaluate("result add 8 eq 50"));
+        assertEquals(true, evaluate("result sub 2 mul 2 eq 38"));
+        assertEquals(true, evaluate("result div 4 eq 10.5"));
+        assertEquals(true, evaluate("result mod 5 eq 2"));
+        assertEquals(true, evaluate("round(result div 4) eq 11"));
+        assertEquals(true, evaluate("floor(result div 4) eq 10 and ceiling(result div 4) eq 11"));
+        assertEquals(true, evaluate("id eq 10 and Datastream/id eq 1"));
+        assertEquals(false, evaluate("Datastream/id eq 2"));
+        assertEquals(true, evaluate("parameters/depth ge 5 and parameters/tag eq 'north'"));
+    }
+
+    @Test
+    public void testIntegerDivision() {
+        // Integer literals and ids divide like integers in the database.
+        assertEquals(true, evaluate("7 div 2 eq 3 and (0 sub 7) div 2 eq -3"));
+        assertEquals(true, evaluate("id div 4 eq 2"));
+        assertEquals(true, evaluate("(0 sub id) div 4 eq -2"));
+        assertEquals(true, evaluate("(id add 1) div 2 eq 5"));
+        assertEquals(true, evaluate("id div 4.0 eq 2.5"));
+        // The result and JSON properties are doubles in the database.
+        assertEquals(true, evaluate("(result add 2) div 8 eq 5.5"));
+        assertEquals(true, evaluate("parameters/depth div 2 eq 2.5"));
+    }
+
+    @Test
+    public void testNullHandling() {
+        // resultTime is not set, comparisons with it are unknown.
+        assertEquals(false, evaluate("resultTime gt 2019-01-01T00:00:00Z"));
+        assertEquals(false, evaluate("not (resultTime gt 2019-01-01T00:00:00Z)"));
+        assertEquals(true, evaluate("resultTime gt 2019-01-01T00:00:00Z or result eq 42"));
+        assertEquals(false, evaluate("parameters/missing eq 1"));
+        assertEquals(false, evaluate("MultiDatastream/id eq 1"));
+    }
+
+    @Test
+    public void testStrings() {
+        assertEquals(true, evaluate("startswith(parameters/tag, 'no')"));
+        assertEquals(true, evaluate("endswith(parameters/tag, 'th')"));
+        assertEquals(true, evaluate("substringof('ort', parameters/tag)"));
+        assertEquals(true, evaluate("length(parameters/tag) eq 5"));
+        assertEquals(true, evaluate("indexof(parameters/tag, 'rt') eq 3"));
+        assertEquals(true, evaluate("substring(parameters/tag, 2) eq 'orth'"));
+        assertEquals(true, evaluate("substring(parameters/tag, 2, 2) eq 'or'"));
+        assertEquals(true, evaluate("toupper(parameters/tag) eq 'NORTH'"));
+        assertEquals(true, evaluate("tolower(concat('  X', ' ')) eq '  x '"));
+        assertEquals(true, evaluate("trim(concat('  X', ' ')) eq 'X'"));
+    }
+
+    @Test
+    public void testCaseIgnoresDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals(true, evaluate("toupper('title') eq 'TITLE'"));
+            assertEquals(true, evaluate("tolower('TITLE') eq 'title'"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testDates() {
+        assertEquals(true, evaluate("year(phenomenonTime) eq 2019 and month(phenomenonTime) eq 3 and day(phenomenonTime) eq 15"));
+        assertEquals(true, evaluate("hour(phenomenonTime) eq 10 and minute(phenomenonTime) eq 20"));
+        assertEquals(true, evaluate("second(phenomenonTime) eq 30.25"));
+        assertEquals(true, evaluate("fractionalseconds(phenomenonTime) eq 0.25"));
+        assertEquals(true, evaluate("date(phenomenonTime) eq 2019-03-15"));
+        assertEquals(true, evaluate("time(phenomenonTime) lt 11:00:00.000"));
+        assertEquals(true, evaluate("phenomenonTime gt 2019-03-15T10:00:00Z"));
+        assertEquals(true, evaluate("phenomenonTime add duration'PT1H' gt 2019-03-15T11:00:00Z"));
+        assertEquals(true, evaluate("phenomenonTime lt now() and phenomenonTime gt mindatetime()"));
+    }
+
+    @Test
+    public void testTemporal() {
+        assertEquals(true, evaluate("during(phenomenonTime, validTime)"));
+        assertEquals(true, evaluate("overlaps(validTime, phenomenonTime)"));
+        assertEquals(true, evaluate("before(phenomenonTime, 2019-03-16T00:00:00Z)"));
+        assertEquals(false, evaluate("after(phenomenonTime, 2019-03-16T00:00:00Z)"));
+        assertEquals(true, evaluate("starts(validTime, 2019-03-15T00:00:00Z)"));
+        assertEquals(true, evaluate("finishes(validTime, 2019-03-16T00:00:00Z)"));
+        assertEquals(true, evaluate("meets(validTime, 2019-03-16T00:00:00Z/2019-03-17T00:00:00Z)"));
+        assertEquals(true, evaluate("validTime lt 2019-03-16T00:00:00Z"));
+        assertEquals(false, evaluate("validTime gt 2019-03-15T12:00:00Z"));
+    }
+
+    @Test
+    public void testFallback() {
+        // Related entities only have their id loaded.
+        assertNull(evaluate("Datastream/name eq 'Temperature'"));
+        // Navigation to sets can not be evaluated.
+        assertNull(evaluate("Datastream/Observations/id eq 1"));
+        // String ordering depends on the database collation.
+        assertNull(evaluate("parameters/tag gt 'a'"));
+        // Mixed types are left to the database.
+        assertNull(evaluate("parameters/tag eq 5"));
+        assertNull(evaluate("totaloffsetminutes(phenomenonTime) eq 0"));
+        assertNull(evaluate("geo.distance(Datastream/observedArea, geography'POINT(8 49)') lt 1"));
+        // Unknown parts of an or are still resolved when the other part is true.
+        assertEquals(true, evaluate("result eq 42 or geo.length(geography'LINESTRING(7.5 51.5, 7.5 53.5)') gt 1"));
+    }
+
+}
@@ -3,13 +3,25 @@ package de.fraunhofer.iosb.ilt.frostserver.settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigUtils;
 import de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAME_DEFLATE;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAME_FORMAT;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAME_LINGER;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAME_MAX_BYTES;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAME_MAX_MESSAGES;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_FRAMING;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_MAX_IN_FLIGHT;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_MQTT_BROKER;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_PARENT_PARTITIONS;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_PARTITION_BY_TYPE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_QOS_LEVEL;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_RECV_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_RECV_WORKER_COUNT;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_OVERFLOW_POLICY;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_OVERFLOW_TIMEOUT;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_WORKER_COUNT;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SPILL_DIRECTORY;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SPILL_MAX_SIZE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_TOPIC_NAME;
 import java.util.HashSet;
 import java.util.Map;
@@ -105,6 +117,18 @@ public class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_PARTITION_BY_TYPE);
+        tags.add(TAG_PARENT_PARTITIONS);
+        tags.add(TAG_FRAMING);
+        tags.add(TAG_FRAME_FORMAT);
+        tags.add(TAG_FRAME_DEFLATE);
+        tags.add(TAG_FRAME_MAX_MESSAGES);
+        tags.add(TAG_FRAME_MAX_BYTES);
+        tags.add(TAG_FRAME_LINGER);
+        tags.add(TAG_SEND_OVERFLOW_POLICY);
+        tags.add(TAG_SEND_OVERFLOW_TIMEOUT);
+        tags.add(TAG_SPILL_DIRECTORY);
+        tags.add(TAG_SPILL_MAX_SIZE);
         assertTrue(tags.equals(b.configTags()));
 
         // Test configDefaults
@@ -117,6 +141,18 @@ public class ConfigDefaultsTest {
         assertEquals("100", configDefaults.get(TAG_RECV_QUEUE_SIZE));
         assertEquals("2", configDefaults.get(TAG_QOS_LEVEL));
         assertEquals("50", configDefaults.get(TAG_MAX_IN_FLIGHT));
+        assertEquals("false", configDefaults.get(TAG_PARTITION_BY_TYPE));
+        assertEquals("0", configDefaults.get(TAG_PARENT_PARTITIONS));
+        assertEquals("false", configDefaults.get(TAG_FRAMING));
+        assertEquals("smile", configDefaults.get(TAG_FRAME_FORMAT));
+        assertEquals("false", configDefaults.get(TAG_FRAME_DEFLATE));
+        assertEquals("100", configDefaults.get(TAG_FRAME_MAX_MESSAGES));
+        assertEquals("65536", configDefaults.get(TAG_FRAME_MAX_BYTES));
+        assertEquals("5", configDefaults.get(TAG_FRAME_LINGER));
+        assertEquals("DROP_NEWEST", configDefaults.get(TAG_SEND_OVERFLOW_POLICY));
+        assertEquals("1000", configDefaults.get(TAG_SEND_OVERFLOW_TIMEOUT));
+        assertEquals("", configDefaults.get(TAG_SPILL_DIRECTORY));
+        assertEquals("1024", configDefaults.get(TAG_SPILL_MAX_SIZE));
     }
 
     @Test
@@ -177,6 +213,18 @@ public class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_PARTITION_BY_TYPE);
+        tags.add(TAG_PARENT_PARTITIONS);
+        tags.add(TAG_FRAMING);
+        tags.add(TAG_FRAME_FORMAT);
+        tags.add(TAG_FRAME_DEFLATE);
+        tags.add(TAG_FRAME_MAX_MESSAGES);
+        tags.add(TAG_FRAME_MAX_BYTES);
+        tags.add(TAG_FRAME_LINGER);
+        tags.add(TAG_SEND_OVERFLOW_POLICY);
+        tags.add(TAG_SEND_OVERFLOW_TIMEOUT);
+        tags.add(TAG_SPILL_DIRECTORY);
+        tags.add(TAG_SPILL_MAX_SIZE);
         assertTrue(tags.equals(ConfigUtils.getConfigTags(c)));
         // Test configDefaults
         Map<String, String> configDefaults = ConfigUtils.getConfigDefaults(c);
@@ -188,5 +236,17 @@ public class ConfigDefaultsTest {
         assertEquals("100", configDefaults.get(TAG_RECV_QUEUE_SIZE));
         assertEquals("2", configDefaults.get(TAG_QOS_LEVEL));
         assertEquals("50", configDefaults.get(TAG_MAX_IN_FLIGHT));
+        assertEquals("false", configDefaults.get(TAG_PARTITION_BY_TYPE));
+        assertEquals("0", configDefaults.get(TAG_PARENT_PARTITIONS));
+        assertEquals("false", configDefaults.get(TAG_FRAMING));
+        assertEquals("smile", configDefaults.get(TAG_FRAME_FORMAT));
+        assertEquals("false", configDefaults.get(TAG_FRAME_DEFLATE));
+        assertEquals("100", configDefaults.get(TAG_FRAME_MAX_MESSAGES));
+        assertEquals("65536", configDefaults.get(TAG_FRAME_MAX_BYTES));
+        assertEquals("5", configDefaults.get(TAG_FRAME_LINGER));
+        assertEquals("DROP_NEWEST", configDefaults.get(TAG_SEND_OVERFLOW_POLICY));
+        assertEquals("1000", configDefaults.get(TAG_SEND_OVERFLOW_TIMEOUT));
+        assertEquals("", configDefaults.get(TAG_SPILL_DIRECTORY));
+        assertEquals("1024", configDefaults.get(TAG_SPILL_MAX_SIZE));
     }
 }
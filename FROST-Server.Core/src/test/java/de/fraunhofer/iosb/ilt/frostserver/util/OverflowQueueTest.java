@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author scf
+ */
+public class OverflowQueueTest {
+
+    private static final SpillCodec<String> STRING_CODEC = new SpillCodec<String>() {
+        @Override
+        public byte[] encode(String item) throws IOException {
+            return item.getBytes(StringHelper.UTF8);
+        }
+
+        @Override
+        public String decode(byte[] data) throws IOException {
+            return new String(data, StringHelper.UTF8);
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDropNewest() {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(2);
+        OverflowQueue<String> overflow = new OverflowQueue<>("Test-DropNewest", OverflowPolicy.DROP_NEWEST, 0, queue);
+        Assert.assertTrue(overflow.offer("a"));
+        Assert.assertTrue(overflow.offer("b"));
+        Assert.assertFalse(overflow.offer("c"));
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(queue));
+        Assert.assertEquals(1, overflow.getDroppedCount());
+    }
+
+    @Test
+    public void testDropOldest() {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(2);
+        OverflowQueue<String> overflow = new OverflowQueue<>("Test-DropOldest", OverflowPolicy.DROP_OLDEST, 0, queue);
+        overflow.offer("a");
+        overflow.offer("b");
+        Assert.assertFalse(overflow.offer("c"));
+        Assert.assertEquals(Arrays.asList("b", "c"), new ArrayList<>(queue));
+        Assert.assertEquals(1, overflow.getDroppedCount());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+        OverflowQueue<String> overflow = new OverflowQueue<>("Test-Block", OverflowPolicy.BLOCK, 50, queue);
+        overflow.offer("a");
+        Assert.assertFalse(overflow.offer("b"));
+        Assert.assertEquals(1, overflow.getDroppedCount());
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(10);
+                queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        OverflowQueue<String> patient = new OverflowQueue<>("Test-Block2", OverflowPolicy.BLOCK, 5000, queue);
+        Assert.assertTrue(patient.offer("c"));
+        consumer.join();
+        Assert.assertEquals(Arrays.asList("c"), new ArrayList<>(queue));
+    }
+
+    @Test
+    public void testSpillAndReplay() throws InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(2);
+        OverflowQueue<String> overflow = new OverflowQueue<>("Test-Spill", OverflowPolicy.SPILL, 0, queue)
+                .enableSpill(folder.getRoot().getAbsolutePath(), 0, STRING_CODEC);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(overflow.offer("item" + i));
+        }
+        Assert.assertEquals(0, overflow.getDroppedCount());
+        Assert.assertTrue(overflow.getSpilledCount() >= 8);
+
+        List<String> received = new ArrayList<>();
+        while (received.size() < 10) {
+            String item = queue.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("Spilled items not replayed", item);
+            received.add(item);
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("item" + i, received.get(i));
+        }
+        Assert.assertEquals(overflow.getSpilledCount(), overflow.getReplayedCount());
+        overflow.shutdown();
+    }
+
+    @Test
+    public void testSpillSurvivesRestart() throws InterruptedException {
+        BlockingQueue<String> full = new ArrayBlockingQueue<>(1);
+        full.add("blocker");
+        String dir = folder.getRoot().getAbsolutePath();
+        OverflowQueue<String> first = new OverflowQueue<>("Test-Restart", OverflowPolicy.SPILL, 0, full)
+                .enableSpill(dir, 0, STRING_CODEC);
+        first.offer("a");
+        first.offer("b");
+        first.shutdown();
+        Assert.assertEquals(0, first.getReplayedCount());
+
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(10);
+        OverflowQueue<String> second = new OverflowQueue<>("Test-Restart", OverflowPolicy.SPILL, 0, queue)
+                .enableSpill(dir, 0, STRING_CODEC);
+        Assert.assertEquals("a", queue.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("b", queue.poll(5, TimeUnit.SECONDS));
+        second.shutdown();
+    }
+
+    @Test
+    public void testSpillMaxSize() {
+        BlockingQueue<String> full = new ArrayBlockingQueue<>(1);
+        full.add("blocker");
+        // Each record takes 4 bytes for the length and 2 for the item.
+        OverflowQueue<String> overflow = new OverflowQueue<>("Test-SpillMax", OverflowPolicy.SPILL, 0, full)
+                .enableSpill(folder.getRoot().getAbsolutePath(), 12, STRING_CODEC);
+        Assert.assertTrue(overflow.offer("a1"));
+        Assert.assertTrue(overflow.offer("a2"));
+        Assert.assertFalse(overflow.offer("a3"));
+        Assert.assertEquals(2, overflow.getSpilledCount());
+        Assert.assertEquals(1, overflow.getDroppedCount());
+        Assert.assertEquals(2, overflow.getSpillBacklog());
+        overflow.shutdown();
+    }
+
+}
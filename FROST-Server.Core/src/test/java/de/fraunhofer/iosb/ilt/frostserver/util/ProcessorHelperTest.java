@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper.PartitionedProcessors;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class ProcessorHelperTest {
+
+    @Test
+    public void testPartitionedOrder() throws InterruptedException {
+        final int keys = 8;
+        final int perKey = 200;
+        Map<Integer, List<Integer>> seen = new HashMap<>();
+        for (int k = 0; k < keys; k++) {
+            seen.put(k, Collections.synchronizedList(new ArrayList<>()));
+        }
+        PartitionedProcessors<int[]> processors = ProcessorHelper.createPartitionedProcessors(
+                4,
+                keys * perKey,
+                item -> item[0],
+                item -> seen.get(item[0]).add(item[1]),
+                "Test-Order");
+        for (int i = 0; i < perKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                Assert.assertTrue(processors.offer(new int[]{k, i}));
+            }
+        }
+        processors.shutdown(10, TimeUnit.SECONDS);
+        for (int k = 0; k < keys; k++) {
+            List<Integer> values = seen.get(k);
+            Assert.assertEquals(perKey, values.size());
+            for (int i = 0; i < perKey; i++) {
+                Assert.assertEquals("Out of order for key " + k, i, values.get(i).intValue());
+            }
+        }
+        Assert.assertEquals(0, processors.getRejectedCount());
+    }
+
+    @Test
+    public void testPartitionedQueueDepth() throws InterruptedException {
+        CountDownLatch blocker = new CountDownLatch(1);
+        PartitionedProcessors<Integer> processors = ProcessorHelper.createPartitionedProcessors(
+                2,
+                4,
+                item -> item,
+                item -> {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                "Test-Depth");
+        Assert.assertEquals(2, processors.getPartitionCount());
+        Assert.assertEquals(2, processors.getQueueCapacity());
+        // Each partition takes one item to work on, and queues two more.
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (processors.offer(i)) {
+                accepted++;
+            }
+        }
+        Assert.assertTrue(accepted >= 4 && accepted <= 6);
+        Assert.assertEquals(10 - accepted, processors.getRejectedCount());
+        int[] depths = processors.getQueueDepths();
+        Assert.assertEquals(2, depths.length);
+        Assert.assertEquals(depths[0] + depths[1], processors.getTotalQueueDepth());
+        Assert.assertTrue(processors.getTotalQueueDepth() <= 4);
+        blocker.countDown();
+        processors.shutdown(10, TimeUnit.SECONDS);
+        Assert.assertEquals(0, processors.getTotalQueueDepth());
+    }
+
+    @Test
+    public void testBatchSizeAndShutdown() throws InterruptedException {
+        final int count = 1000;
+        final int maxBatch = 30;
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(count);
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocker = new CountDownLatch(1);
+        ExecutorService processors = ProcessorHelper.createBatchProcessors(
+                2,
+                queue,
+                batch -> {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    batchSizes.add(batch.size());
+                    seen.addAll(batch);
+                },
+                maxBatch,
+                1000,
+                "Test-Batch");
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        // Shut down while the consumers are blocked; all items must still be handled.
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            blocker.countDown();
+        }).start();
+        ProcessorHelper.shutdownProcessors(processors, queue, 0, TimeUnit.SECONDS);
+        Assert.assertEquals(count, seen.size());
+        Assert.assertEquals(count, new HashSet<>(seen).size());
+        for (Integer size : batchSizes) {
+            Assert.assertTrue("Batch too large: " + size, size <= maxBatch);
+        }
+    }
+
+    @Test
+    public void testShutdownRemovesQueueDepth() throws IOException {
+        BlockingQueue<Integer> queue = new ArrayBlockingQueue<>(10);
+        ExecutorService processors = ProcessorHelper.createProcessors(1, queue, item -> {
+        }, "Test-Gauge");
+        ExecutorService batchProcessors = ProcessorHelper.createBatchProcessors(1, queue, batch -> {
+        }, 10, 10, "Test-Gauge-Batch");
+        Assert.assertTrue(queueDepthMetrics().contains("\"Test-Gauge\""));
+        Assert.assertTrue(queueDepthMetrics().contains("\"Test-Gauge-Batch\""));
+        ProcessorHelper.shutdownProcessors(processors, queue, 0, TimeUnit.SECONDS);
+        ProcessorHelper.shutdownProcessors(batchProcessors, queue, 0, TimeUnit.SECONDS);
+        Assert.assertFalse(queueDepthMetrics().contains("\"Test-Gauge\""));
+        Assert.assertFalse(queueDepthMetrics().contains("\"Test-Gauge-Batch\""));
+    }
+
+    private static String queueDepthMetrics() throws IOException {
+        StringWriter out = new StringWriter();
+        ProcessorHelper.QUEUE_DEPTH.write(out);
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class RingBufferTest {
+
+    @Test
+    public void testAllReadersSeeAllInOrder() throws InterruptedException {
+        final int writers = 4;
+        final int perWriter = 5000;
+        RingBuffer<int[]> ring = new RingBuffer<>("Test-Ring", 64, 16);
+        List<List<int[]>> seen = new ArrayList<>();
+        AtomicInteger maxBatch = new AtomicInteger();
+        for (int r = 0; r < 2; r++) {
+            List<int[]> list = Collections.synchronizedList(new ArrayList<>());
+            seen.add(list);
+            ring.addReader(batch -> {
+                maxBatch.accumulateAndGet(batch.size(), Math::max);
+                list.addAll(batch);
+            });
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    Assert.assertTrue(ring.publish(new int[]{writer, i}, 10000));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ring.shutdown(10000);
+
+        Assert.assertTrue(maxBatch.get() <= 16);
+        for (List<int[]> list : seen) {
+            Assert.assertEquals(writers * perWriter, list.size());
+            int[] last = new int[writers];
+            for (int w = 0; w < writers; w++) {
+                last[w] = -1;
+            }
+            for (int[] item : list) {
+                Assert.assertEquals("Items of one writer out of order", last[item[0]] + 1, item[1]);
+                last[item[0]] = item[1];
+            }
+        }
+    }
+
+    @Test
+    public void testFullRingTimesOut() throws InterruptedException {
+        RingBuffer<Integer> ring = new RingBuffer<>("Test-Full", 4, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        ring.addReader(batch -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            seen.addAll(batch);
+        });
+        // The reader takes the first item and blocks, the next four fill the ring.
+        Assert.assertTrue(ring.publish(0, 1000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ring.getBacklog() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertTrue(ring.publish(i, 1000));
+        }
+        Assert.assertFalse(ring.publish(5, 20));
+        release.countDown();
+        Assert.assertTrue(ring.publish(6, 5000));
+        ring.shutdown(5000);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 6), seen);
+    }
+
+    @Test
+    public void testHandledItemsAreReleased() throws InterruptedException {
+        RingBuffer<Object> ring = new RingBuffer<>("Test-Release", 16, 4);
+        AtomicInteger handled = new AtomicInteger();
+        ring.addReader(batch -> handled.addAndGet(batch.size()));
+        ring.addReader(batch -> handled.addAndGet(batch.size()));
+        Object item = new Object();
+        WeakReference<Object> reference = new WeakReference<>(item);
+        Assert.assertTrue(ring.publish(item, 1000));
+        item = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reference.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, handled.get());
+        Assert.assertNull("Item still referenced after all readers handled it.", reference.get());
+        ring.shutdown(5000);
+    }
+
+}
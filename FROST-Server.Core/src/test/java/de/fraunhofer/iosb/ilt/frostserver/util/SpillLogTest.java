@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author scf
+ */
+public class SpillLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(int i) {
+        return ("record" + i).getBytes(StringHelper.UTF8);
+    }
+
+    private static String read(SpillLog log) throws IOException {
+        return new String(log.peek(), StringHelper.UTF8);
+    }
+
+    @Test
+    public void testReadPositionSurvivesCrash() throws IOException {
+        File file = new File(folder.getRoot(), "crash.spill");
+        SpillLog first = new SpillLog(file);
+        for (int i = 0; i < 5; i++) {
+            first.append(record(i));
+        }
+        first.remove();
+        first.remove();
+        // Not closed, as after a crash of the process.
+
+        SpillLog second = new SpillLog(file);
+        Assert.assertEquals(3, second.size());
+        Assert.assertEquals("record2", read(second));
+        second.close();
+    }
+
+    @Test
+    public void testTruncateWhenEmpty() throws IOException {
+        File file = new File(folder.getRoot(), "empty.spill");
+        SpillLog log = new SpillLog(file);
+        log.append(record(0));
+        log.append(record(1));
+        log.remove();
+        log.remove();
+        Assert.assertTrue(log.isEmpty());
+        Assert.assertEquals(Long.BYTES, file.length());
+        log.append(record(2));
+        Assert.assertEquals("record2", read(log));
+        log.close();
+
+        SpillLog reopened = new SpillLog(file);
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertEquals("record2", read(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File file = new File(folder.getRoot(), "compact.spill");
+        SpillLog log = new SpillLog(file, 100);
+        int written = 0;
+        int read = 0;
+        // A backlog of ten records, so the log is never empty and truncated.
+        for (int i = 0; i < 10; i++) {
+            log.append(record(written++));
+        }
+        for (int round = 0; round < 200; round++) {
+            log.append(record(written++));
+            Assert.assertEquals("record" + read, read(log));
+            log.remove();
+            read++;
+        }
+        Assert.assertEquals(10, log.size());
+        // Without compaction the file would hold all 210 records.
+        Assert.assertTrue("File not compacted: " + log.fileLength(), log.fileLength() < 3 * log.sizeInBytes());
+        Assert.assertEquals(log.fileLength(), file.length());
+        log.close();
+
+        SpillLog reopened = new SpillLog(file, 100);
+        Assert.assertEquals(written - read, reopened.size());
+        while (!reopened.isEmpty()) {
+            Assert.assertEquals("record" + read, read(reopened));
+            reopened.remove();
+            read++;
+        }
+        Assert.assertEquals(written, read);
+        reopened.close();
+    }
+
+}
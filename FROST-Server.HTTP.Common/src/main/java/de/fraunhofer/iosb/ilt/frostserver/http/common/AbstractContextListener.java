@@ -29,6 +29,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
 import javax.servlet.ServletContext;
@@ -85,12 +86,19 @@ public abstract class AbstractContextListener implements ServletContextListener
             MessageBusFactory.init(coreSettings);
 
             setupAuthFilter(context, coreSettings);
+            setupRequestExecutors(context, coreSettings);
         }
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         LOGGER.info("Context destroyed, shutting down threads...");
+        if (sce != null && sce.getServletContext() != null) {
+            Object executors = sce.getServletContext().getAttribute(RequestExecutors.TAG_REQUEST_EXECUTORS);
+            if (executors instanceof RequestExecutors) {
+                ((RequestExecutors) executors).stop(5, TimeUnit.SECONDS);
+            }
+        }
         MessageBusFactory.getMessageBus().stop();
         try {
             Thread.sleep(5000L);
@@ -101,6 +109,15 @@ public abstract class AbstractContextListener implements ServletContextListener
         LOGGER.info("Context destroyed, done shutting down threads.");
     }
 
+    private void setupRequestExecutors(ServletContext servletContext, CoreSettings coreSettings) {
+        Settings httpSettings = coreSettings.getHttpSettings();
+        if (httpSettings.getBoolean(CoreSettings.TAG_EXECUTOR_ENABLE, CoreSettings.class)) {
+            RequestExecutors executors = new RequestExecutors(httpSettings);
+            executors.registerMetrics();
+            servletContext.setAttribute(RequestExecutors.TAG_REQUEST_EXECUTORS, executors);
+        }
+    }
+
     private void setUpCorsFilter(ServletContext servletContext, CoreSettings coreSettings) {
         Settings httpSettings = coreSettings.getHttpSettings();
         boolean corsEnable = httpSettings.getBoolean(CoreSettings.TAG_CORS_ENABLE, CoreSettings.class);
@@ -109,6 +126,7 @@ public abstract class AbstractContextListener implements ServletContextListener
                 String filterName = "CorsFilter";
 
                 FilterRegistration.Dynamic corsFilter = servletContext.addFilter(filterName, "org.apache.catalina.filters.CorsFilter");
+                corsFilter.setAsyncSupported(true);
                 corsFilter.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/*");
 
                 String allowedOrigins = httpSettings.get(CoreSettings.TAG_CORS_ALLOWED_ORIGINS, CoreSettings.class);
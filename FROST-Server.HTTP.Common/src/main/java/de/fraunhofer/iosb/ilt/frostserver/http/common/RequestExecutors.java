@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_BATCH_QUEUE;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_BATCH_THREADS;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_EXPORT_QUEUE;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_EXPORT_THREADS;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_READ_QUEUE;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_READ_THREADS;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_RETRY_AFTER;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_WRITE_QUEUE;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_WRITE_THREADS;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The bounded thread pools that handle the HTTP requests. Each kind of request
+ * has its own pool, with its own queue, so that slow requests of one kind can
+ * not starve the others. When the queue of a pool is full, new requests for
+ * that pool are rejected, so the client can be told to retry later.
+ *
+ * The metrics of each pool are registered in JMX under
+ * {@value #JMX_DOMAIN}:type=RequestPool,name=&lt;pool&gt;.
+ *
+ * @author scf
+ */
+public class RequestExecutors {
+
+    /**
+     * The name of the ServletContext attribute that holds the executors.
+     */
+    public static final String TAG_REQUEST_EXECUTORS = "RequestExecutors";
+    public static final String JMX_DOMAIN = "de.fraunhofer.iosb.ilt.frostserver";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestExecutors.class);
+
+    /**
+     * The kinds of requests that each get their own pool.
+     */
+    public enum PoolType {
+        READ("read", TAG_EXECUTOR_READ_THREADS, TAG_EXECUTOR_READ_QUEUE),
+        WRITE("write", TAG_EXECUTOR_WRITE_THREADS, TAG_EXECUTOR_WRITE_QUEUE),
+        BATCH("batch", TAG_EXECUTOR_BATCH_THREADS, TAG_EXECUTOR_BATCH_QUEUE),
+        EXPORT("export", TAG_EXECUTOR_EXPORT_THREADS, TAG_EXECUTOR_EXPORT_QUEUE);
+
+        public final String poolName;
+        private final String tagThreads;
+        private final String tagQueue;
+
+        private PoolType(String poolName, String tagThreads, String tagQueue) {
+            this.poolName = poolName;
+            this.tagThreads = tagThreads;
+            this.tagQueue = tagQueue;
+        }
+    }
+
+    private final Map<PoolType, RequestPool> pools = new EnumMap<>(PoolType.class);
+    private final int retryAfter;
+
+    public RequestExecutors(Settings httpSettings) {
+        retryAfter = httpSettings.getInt(TAG_EXECUTOR_RETRY_AFTER, CoreSettings.class);
+        for (PoolType type : PoolType.values()) {
+            int threads = Math.max(1, httpSettings.getInt(type.tagThreads, CoreSettings.class));
+            int queueSize = Math.max(1, httpSettings.getInt(type.tagQueue, CoreSettings.class));
+            pools.put(type, new RequestPool(type.poolName, threads, queueSize));
+        }
+    }
+
+    /**
+     * Registers the metrics of the pools in JMX. Failures are logged, but do
+     * not prevent the pools from working.
+     */
+    public void registerMetrics() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (RequestPool pool : pools.values()) {
+            try {
+                server.registerMBean(pool, pool.objectName());
+            } catch (JMException ex) {
+                LOGGER.warn("Failed to register metrics for request pool {}: {}", pool.name, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Hands the given task to the pool of the given type.
+     *
+     * @param type The type of pool to run the task in.
+     * @param task The task to run.
+     * @return false if the queue of the pool is full, and the task was
+     * rejected.
+     */
+    public boolean execute(PoolType type, Runnable task) {
+        return pools.get(type).execute(task);
+    }
+
+    /**
+     * @param type The type of pool to get.
+     * @return the metrics of the pool of the given type.
+     */
+    public RequestPoolMXBean getPool(PoolType type) {
+        return pools.get(type);
+    }
+
+    /**
+     * @return The number of seconds clients should wait before retrying a
+     * rejected request.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Stops all pools, waiting for running requests to finish, and removes
+     * the metrics from JMX.
+     *
+     * @param timeout The maximum time to wait for each pool.
+     * @param unit The unit of the timeout.
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (RequestPool pool : pools.values()) {
+            pool.executor.shutdown();
+            try {
+                if (server.isRegistered(pool.objectName())) {
+                    server.unregisterMBean(pool.objectName());
+                }
+            } catch (JMException ex) {
+                LOGGER.debug("Failed to unregister metrics for request pool {}", pool.name, ex);
+            }
+        }
+        try {
+            for (RequestPool pool : pools.values()) {
+                if (!pool.executor.awaitTermination(timeout, unit)) {
+                    LOGGER.warn("Request pool {} did not terminate in time.", pool.name);
+                    pool.executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.debug("Rude wakeup?", ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class RequestPool implements RequestPoolMXBean {
+
+        private final String name;
+        private final int queueCapacity;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        public RequestPool(String name, int threads, int queueCapacity) {
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+            executor = new ThreadPoolExecutor(
+                    threads, threads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat("http-" + name + "-%d").build());
+        }
+
+        public boolean execute(Runnable task) {
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException ex) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+        }
+
+        private ObjectName objectName() throws JMException {
+            return new ObjectName(JMX_DOMAIN + ":type=RequestPool,name=" + name);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getThreads() {
+            return executor.getMaximumPoolSize();
+        }
+
+        @Override
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        @Override
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        @Override
+        public long getCompletedCount() {
+            return executor.getCompletedTaskCount();
+        }
+
+        @Override
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+    }
+}
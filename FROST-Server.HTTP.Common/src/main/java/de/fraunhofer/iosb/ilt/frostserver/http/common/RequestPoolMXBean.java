@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+/**
+ * The metrics of one of the request pools of {@link RequestExecutors}, as
+ * exposed over JMX.
+ *
+ * @author scf
+ */
+public interface RequestPoolMXBean {
+
+    /**
+     * @return The name of the pool.
+     */
+    public String getName();
+
+    /**
+     * @return The number of threads that handle requests from this pool.
+     */
+    public int getThreads();
+
+    /**
+     * @return The number of threads that are currently handling a request.
+     */
+    public int getActiveCount();
+
+    /**
+     * @return The number of requests waiting in the queue.
+     */
+    public int getQueueDepth();
+
+    /**
+     * @return The maximum number of requests that can wait in the queue.
+     */
+    public int getQueueCapacity();
+
+    /**
+     * @return The number of requests that were handled.
+     */
+    public long getCompletedCount();
+
+    /**
+     * @return The number of requests that were rejected because the queue
+     * was full.
+     */
+    public long getRejectedCount();
+}
@@ -17,19 +17,30 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.http.common;
 
+import de.fraunhofer.iosb.ilt.frostserver.formatter.CsvResultFormatter;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataFormat;
+import de.fraunhofer.iosb.ilt.frostserver.http.common.RequestExecutors.PoolType;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.BatchProcessor;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.MixedContent;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerTiming;
 import de.fraunhofer.iosb.ilt.frostserver.service.RequestType;
 import de.fraunhofer.iosb.ilt.frostserver.service.Service;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequestBuilder;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_AUTH_PROVIDER;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_AUTH_ROLE_EXPORT;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_AUTH_ROLE_TIMING;
 import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_CORE_SETTINGS;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.stream.Collectors;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebInitParam;
@@ -47,6 +58,7 @@ import org.slf4j.LoggerFactory;
 @WebServlet(
         name = "STA1.0",
         urlPatterns = {"/v1.0", "/v1.0/*"},
+        asyncSupported = true,
         initParams = {
             @WebInitParam(name = "readonly", value = "false")
         }
@@ -60,6 +72,11 @@ public class ServletV1P0 extends HttpServlet {
     private static final Logger LOGGER = LoggerFactory.getLogger(ServletV1P0.class);
     private static final String ENCODING = "UTF-8";
     public static final String JSON_PATCH_CONTENT_TYPE = "application/json-patch+json";
+    /**
+     * The request header that asks for a Server-Timing header in the
+     * response.
+     */
+    public static final String HEADER_DEBUG_TIMING = "X-Debug-Timing";
 
     private void processGetRequest(HttpServletRequest request, HttpServletResponse response) {
         response.setContentType("application/json");
@@ -115,7 +132,7 @@ public class ServletV1P0 extends HttpServlet {
         try (Service service = new Service(coreSettings)) {
             MixedContent multipartMixedData = new MixedContent(false);
             multipartMixedData.parse(request);
-            MixedContent resultContent = BatchProcessor.processMultipartMixed(service, multipartMixedData);
+            MixedContent resultContent = BatchProcessor.processMultipartMixed(service, multipartMixedData, isServerTimingRequested(coreSettings, request));
             sendMixedResponse(resultContent, response);
         }
     }
@@ -156,25 +173,68 @@ public class ServletV1P0 extends HttpServlet {
             pathInfo = request.getPathInfo();
         }
 
-        return new ServiceRequestBuilder(coreSettings.getFormatter())
+        DataFormat responseFormat = DataFormat.fromAcceptHeader(request.getHeader("Accept"));
+        String exportRole = coreSettings.getAuthSettings().get(TAG_AUTH_ROLE_EXPORT, CoreSettings.class);
+        ServiceRequestBuilder builder = new ServiceRequestBuilder(coreSettings.getFormatter(responseFormat))
+                .withUnlimitedExport(request.isUserInRole(exportRole))
+                .withServerTiming(isServerTimingRequested(coreSettings, request))
                 .withRequestType(requestType)
                 .withUrlPath(pathInfo)
                 .withUrlQuery(request.getQueryString() != null
                         ? StringHelper.urlDecode(request.getQueryString())
-                        : null)
-                .withContent(readRequestData(request.getReader()))
-                .build();
+                        : null);
+        DataFormat contentFormat = DataFormat.fromContentType(request.getContentType());
+        if (contentFormat.binary) {
+            builder.withContent(readRequestData(request.getInputStream()), contentFormat);
+        } else {
+            builder.withContent(readRequestData(request.getReader()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Checks if the client asked for a Server-Timing header, and is allowed to
+     * get one. When authentication is enabled, the user must have the timing
+     * role.
+     */
+    private static boolean isServerTimingRequested(CoreSettings coreSettings, HttpServletRequest request) {
+        if (!Boolean.parseBoolean(request.getHeader(HEADER_DEBUG_TIMING))) {
+            return false;
+        }
+        Settings authSettings = coreSettings.getAuthSettings();
+        if (authSettings.get(TAG_AUTH_PROVIDER, CoreSettings.class).isEmpty()) {
+            return true;
+        }
+        return request.isUserInRole(authSettings.get(TAG_AUTH_ROLE_TIMING, CoreSettings.class));
     }
 
     private void sendResponse(ServiceResponse<?> serviceResponse, HttpServletResponse httpResponse) {
         httpResponse.setStatus(serviceResponse.getCode());
         serviceResponse.getHeaders().entrySet().forEach(x -> httpResponse.setHeader(x.getKey(), x.getValue()));
+        if (serviceResponse.getServerTiming() != null) {
+            httpResponse.setHeader(ServerTiming.HEADER, serviceResponse.getServerTiming().toHeaderValue());
+        }
         try {
+            String contentType = serviceResponse.getContentType() == null ? DataFormat.JSON.mimeType : serviceResponse.getContentType();
             if (serviceResponse.getCode() >= 200
+                    && serviceResponse.getCode() < 300
+                    && serviceResponse.getResultWriter() != null) {
+                httpResponse.setContentType(contentType);
+                httpResponse.setCharacterEncoding(ENCODING);
+                serviceResponse.getResultWriter().writeTo(httpResponse.getWriter());
+
+            } else if (serviceResponse.getCode() >= 200
+                    && serviceResponse.getCode() < 300
+                    && serviceResponse.getResultFormattedBinary() != null) {
+                httpResponse.setContentType(contentType);
+                httpResponse.setContentLength(serviceResponse.getResultFormattedBinary().length);
+                httpResponse.getOutputStream().write(serviceResponse.getResultFormattedBinary());
+
+            } else if (serviceResponse.getCode() >= 200
                     && serviceResponse.getCode() < 300
                     && serviceResponse.getResultFormatted() != null
                     && !serviceResponse.getResultFormatted().isEmpty()) {
-                httpResponse.setContentType("application/json");
+                httpResponse.setContentType(contentType);
                 httpResponse.setCharacterEncoding(ENCODING);
                 httpResponse.getWriter().write(serviceResponse.getResultFormatted());
 
@@ -224,6 +284,46 @@ public class ServletV1P0 extends HttpServlet {
 
     @Override
     protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Object executors = request.getServletContext().getAttribute(RequestExecutors.TAG_REQUEST_EXECUTORS);
+        if (!(executors instanceof RequestExecutors) || !request.isAsyncSupported()) {
+            dispatch(request, response);
+            return;
+        }
+        serviceAsync((RequestExecutors) executors, request, response);
+    }
+
+    /**
+     * Hands the request to the request pool for its type, freeing the
+     * container thread. If the pool is full, the client gets a 503 with a
+     * Retry-After header.
+     */
+    private void serviceAsync(RequestExecutors executors, HttpServletRequest request, HttpServletResponse response) {
+        // Pass the request and response, so wrappers added by filters are kept.
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        // The synchronous servlet had no timeout either; long exports must not be cut off.
+        asyncContext.setTimeout(0);
+        boolean accepted = executors.execute(poolTypeFor(request), () -> {
+            try {
+                dispatch(request, response);
+            } catch (Exception exc) {
+                LOGGER.error("", exc);
+                if (!response.isCommitted()) {
+                    sendResponse(new ServiceResponse(500, exc.getMessage()), response);
+                }
+            } finally {
+                asyncContext.complete();
+            }
+        });
+        if (!accepted) {
+            LOGGER.debug("Request pool full, rejecting {} {}", request.getMethod(), request.getRequestURI());
+            ServiceResponse<?> busy = new ServiceResponse<>(503, "Server busy, retry later.");
+            busy.addHeader("Retry-After", Integer.toString(executors.getRetryAfter()));
+            sendResponse(busy, response);
+            asyncContext.complete();
+        }
+    }
+
+    private void dispatch(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         if ("PATCH".equals(request.getMethod())) {
             doPatch(request, response);
             return;
@@ -231,8 +331,63 @@ public class ServletV1P0 extends HttpServlet {
         super.service(request, response);
     }
 
+    /**
+     * Determines which request pool should handle the given request.
+     *
+     * @param request The request to find the pool for.
+     * @return The type of pool that should handle the request.
+     */
+    static PoolType poolTypeFor(HttpServletRequest request) {
+        switch (request.getMethod()) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+                if (isExportQuery(request.getQueryString())) {
+                    return PoolType.EXPORT;
+                }
+                return PoolType.READ;
+
+            case "POST":
+                if ("/$batch".equals(request.getPathInfo())) {
+                    return PoolType.BATCH;
+                }
+                return PoolType.WRITE;
+
+            default:
+                return PoolType.WRITE;
+        }
+    }
+
+    /**
+     * Checks if the query requests one of the streaming export formats.
+     */
+    static boolean isExportQuery(String queryString) {
+        if (StringHelper.isNullOrEmpty(queryString)) {
+            return false;
+        }
+        for (String param : queryString.split("&")) {
+            String[] keyValue = StringHelper.urlDecode(param).split("=", 2);
+            if (keyValue.length == 2
+                    && "$resultFormat".equals(keyValue[0].trim())
+                    && CsvResultFormatter.fromFormatName(keyValue[1].trim()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String readRequestData(BufferedReader reader) {
         return reader.lines().collect(Collectors.joining("\n"));
     }
 
+    private byte[] readRequestData(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+
 }
@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.http.common.multipart;
 
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerTiming;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.service.RequestType;
 import de.fraunhofer.iosb.ilt.frostserver.service.Service;
@@ -25,6 +26,8 @@ import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequestBuilder;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.UrlHelper;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -47,9 +50,10 @@ public class BatchProcessor {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(BatchProcessor.class);
 
-    public static HttpContent processHttpRequest(Service service, HttpContent httpRequest, boolean inChangeSet) {
+    public static HttpContent processHttpRequest(Service service, HttpContent httpRequest, boolean inChangeSet, boolean serverTiming) {
         RequestType type = httpRequest.getRequestType();
         ServiceRequest serviceRequest = new ServiceRequestBuilder(service.getSettings().getFormatter())
+                .withServerTiming(serverTiming)
                 .withRequestType(type)
                 .withUrl(httpRequest.getUrl())
                 .withContent(httpRequest.getData())
@@ -69,16 +73,29 @@ public class BatchProcessor {
             httpResponse.setContentId(httpRequest.getContentId());
         }
 
+        if (serviceResponse.getResultWriter() != null) {
+            serviceResponse.setResultFormatted(writeStreamedResult(serviceResponse));
+        }
         int statusCode = serviceResponse.getCode();
         httpResponse.setStatusLine(Headers.generateStatusLine(statusCode));
 
         Map<String, String> headers = httpResponse.getHttpHeaders();
         serviceResponse.getHeaders().entrySet().forEach(x -> headers.put(x.getKey(), x.getValue()));
+        if (serviceResponse.getServerTiming() != null) {
+            headers.put(ServerTiming.HEADER, serviceResponse.getServerTiming().toHeaderValue());
+        }
 
         String resultFormatted = serviceResponse.getResultFormatted();
+        if (serviceResponse.getResultFormattedBinary() != null) {
+            // Binary results can not be embedded in a multipart/mixed text response.
+            statusCode = HttpStatus.SC_BAD_REQUEST;
+            httpResponse.setStatusLine(Headers.generateStatusLine(statusCode));
+            serviceResponse.setMessage("Binary result formats are not supported in batch requests.");
+        }
         if (statusCode >= 200 && statusCode < 300) {
             if (!StringHelper.isNullOrEmpty(resultFormatted)) {
-                headers.put("Content-Type", "application/json; charset=UTF-8");
+                String contentType = serviceResponse.getContentType() == null ? "application/json" : serviceResponse.getContentType();
+                headers.put("Content-Type", contentType + "; charset=UTF-8");
                 httpResponse.addData(resultFormatted);
             }
         } else {
@@ -91,7 +108,20 @@ public class BatchProcessor {
         return httpResponse;
     }
 
-    public static Content processChangeset(Service service, MixedContent changeset) {
+    private static String writeStreamedResult(ServiceResponse<Object> serviceResponse) {
+        StringWriter writer = new StringWriter();
+        try {
+            serviceResponse.getResultWriter().writeTo(writer);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write result.", ex);
+            serviceResponse.setCode(500);
+            serviceResponse.setMessage("Failed to write result: " + ex.getMessage());
+            return null;
+        }
+        return writer.toString();
+    }
+
+    public static Content processChangeset(Service service, MixedContent changeset, boolean serverTiming) {
         if (changeset.isParseFailed()) {
             HttpContent content = new HttpContent();
             for (String error : changeset.getErrors()) {
@@ -112,7 +142,7 @@ public class BatchProcessor {
                 HttpContent httpContent = (HttpContent) content;
                 httpContent.updateUsingContentIds(contentIds);
 
-                HttpContent httpResponse = processHttpRequest(service, httpContent, true);
+                HttpContent httpResponse = processHttpRequest(service, httpContent, true, serverTiming);
                 if (httpResponse.isExecuteFailed()) {
                     return httpResponse;
                 } else {
@@ -131,18 +161,27 @@ public class BatchProcessor {
         return mixedResponse;
     }
 
-    public static MixedContent processMultipartMixed(Service service, MixedContent multipartMixedData) {
+    /**
+     * Processes all parts of a batch request.
+     *
+     * @param service The service to execute the parts with.
+     * @param multipartMixedData The batch request.
+     * @param serverTiming Flag indicating the responses of the parts should
+     * have a Server-Timing header.
+     * @return The batch response.
+     */
+    public static MixedContent processMultipartMixed(Service service, MixedContent multipartMixedData, boolean serverTiming) {
         MixedContent mixedResponse = new MixedContent(false);
         for (Part part : multipartMixedData.getParts()) {
             LOGGER.debug("Part: {}", part);
             Content content = part.getContent();
             if (content instanceof MixedContent) {
                 MixedContent changset = (MixedContent) content;
-                Content changesetResponse = processChangeset(service, changset);
+                Content changesetResponse = processChangeset(service, changset, serverTiming);
                 mixedResponse.addPart(new Part(false).setContent(changesetResponse));
             } else if (content instanceof HttpContent) {
                 HttpContent httpContent = (HttpContent) content;
-                HttpContent httpResponse = processHttpRequest(service, httpContent, false);
+                HttpContent httpResponse = processHttpRequest(service, httpContent, false, serverTiming);
                 mixedResponse.addPart(new Part(false).setContent(httpResponse));
             } else {
                 LOGGER.warn("Invalid multipart-part type: {}", content.getClass().getName());
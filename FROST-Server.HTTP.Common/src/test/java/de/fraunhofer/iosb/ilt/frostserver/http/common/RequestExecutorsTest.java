@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import de.fraunhofer.iosb.ilt.frostserver.http.common.RequestExecutors.PoolType;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_EXECUTOR_RETRY_AFTER;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class RequestExecutorsTest {
+
+    private RequestExecutors executors;
+    private CountDownLatch release;
+
+    /**
+     * Creates executors with one thread and a queue of one for each pool.
+     */
+    static RequestExecutors createExecutors(int retryAfter) {
+        Properties properties = new Properties();
+        for (PoolType type : PoolType.values()) {
+            properties.setProperty("executor." + type.poolName + ".threads", "1");
+            properties.setProperty("executor." + type.poolName + ".queueSize", "1");
+        }
+        properties.setProperty(TAG_EXECUTOR_RETRY_AFTER, Integer.toString(retryAfter));
+        return new RequestExecutors(new Settings(properties));
+    }
+
+    /**
+     * Occupies the thread and the queue of the given pool, until the given
+     * latch is released.
+     */
+    static void saturate(RequestExecutors executors, PoolType type, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Assert.assertTrue(executors.execute(type, () -> {
+            started.countDown();
+            awaitQuietly(release);
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(executors.execute(type, () -> awaitQuietly(release)));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executors = createExecutors(7);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executors.stop(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testPoolSettings() {
+        Assert.assertEquals(7, executors.getRetryAfter());
+        for (PoolType type : PoolType.values()) {
+            RequestPoolMXBean pool = executors.getPool(type);
+            Assert.assertEquals(type.poolName, pool.getName());
+            Assert.assertEquals(1, pool.getThreads());
+            Assert.assertEquals(1, pool.getQueueCapacity());
+        }
+    }
+
+    @Test
+    public void testTasksRunInTheirOwnPool() throws InterruptedException {
+        for (PoolType type : PoolType.values()) {
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<String> threadName = new AtomicReference<>();
+            Assert.assertTrue(executors.execute(type, () -> {
+                threadName.set(Thread.currentThread().getName());
+                done.countDown();
+            }));
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(threadName.get(), threadName.get().startsWith("http-" + type.poolName + "-"));
+        }
+    }
+
+    @Test
+    public void testRejectWhenSaturated() throws InterruptedException {
+        saturate(executors, PoolType.EXPORT, release);
+        RequestPoolMXBean exportPool = executors.getPool(PoolType.EXPORT);
+        Assert.assertEquals(1, exportPool.getActiveCount());
+        Assert.assertEquals(1, exportPool.getQueueDepth());
+
+        Assert.assertFalse(executors.execute(PoolType.EXPORT, () -> {
+        }));
+        Assert.assertEquals(1, exportPool.getRejectedCount());
+
+        // A saturated pool must not block the other pools.
+        CountDownLatch done = new CountDownLatch(1);
+        Assert.assertTrue(executors.execute(PoolType.READ, done::countDown));
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executors.getPool(PoolType.READ).getRejectedCount());
+
+        // Once the pool drains, it accepts work again.
+        release.countDown();
+        CountDownLatch after = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        boolean accepted = false;
+        while (!accepted && System.currentTimeMillis() < deadline) {
+            accepted = executors.execute(PoolType.EXPORT, after::countDown);
+            if (!accepted) {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertTrue(accepted);
+        Assert.assertTrue(after.await(5, TimeUnit.SECONDS));
+    }
+
+}
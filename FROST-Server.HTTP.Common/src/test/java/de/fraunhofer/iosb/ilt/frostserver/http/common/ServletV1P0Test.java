@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import de.fraunhofer.iosb.ilt.frostserver.http.common.RequestExecutors.PoolType;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class ServletV1P0Test {
+
+    @Test
+    public void testIsExportQuery() {
+        Assert.assertFalse(ServletV1P0.isExportQuery(null));
+        Assert.assertFalse(ServletV1P0.isExportQuery(""));
+        Assert.assertFalse(ServletV1P0.isExportQuery("$top=10"));
+        Assert.assertFalse(ServletV1P0.isExportQuery("$resultFormat=dataArray"));
+        Assert.assertFalse(ServletV1P0.isExportQuery("$filter=name%20eq%20'$resultFormat=csv'"));
+        Assert.assertTrue(ServletV1P0.isExportQuery("$resultFormat=csv"));
+        Assert.assertTrue(ServletV1P0.isExportQuery("$top=1&$resultFormat=csv"));
+        Assert.assertTrue(ServletV1P0.isExportQuery("%24resultFormat=TSV"));
+    }
+
+    @Test
+    public void testPoolTypeFor() {
+        Assert.assertEquals(PoolType.READ, ServletV1P0.poolTypeFor(request("GET", "/Things", null)));
+        Assert.assertEquals(PoolType.READ, ServletV1P0.poolTypeFor(request("GET", "/Things", "$top=10")));
+        Assert.assertEquals(PoolType.EXPORT, ServletV1P0.poolTypeFor(request("GET", "/Observations", "$resultFormat=csv")));
+        Assert.assertEquals(PoolType.EXPORT, ServletV1P0.poolTypeFor(request("HEAD", "/Observations", "$resultFormat=tsv")));
+        Assert.assertEquals(PoolType.READ, ServletV1P0.poolTypeFor(request("OPTIONS", "/Things", null)));
+        Assert.assertEquals(PoolType.BATCH, ServletV1P0.poolTypeFor(request("POST", "/$batch", null)));
+        Assert.assertEquals(PoolType.WRITE, ServletV1P0.poolTypeFor(request("POST", "/Things", null)));
+        Assert.assertEquals(PoolType.WRITE, ServletV1P0.poolTypeFor(request("POST", "/CreateObservations", null)));
+        Assert.assertEquals(PoolType.WRITE, ServletV1P0.poolTypeFor(request("PATCH", "/Things(1)", null)));
+        Assert.assertEquals(PoolType.WRITE, ServletV1P0.poolTypeFor(request("PUT", "/Things(1)", null)));
+        Assert.assertEquals(PoolType.WRITE, ServletV1P0.poolTypeFor(request("DELETE", "/Things(1)", null)));
+    }
+
+    @Test
+    public void testServiceRejectsWhenPoolSaturated() throws InterruptedException, ServletException, IOException {
+        RequestExecutors executors = RequestExecutorsTest.createExecutors(7);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            RequestExecutorsTest.saturate(executors, PoolType.EXPORT, release);
+
+            AtomicBoolean completed = new AtomicBoolean();
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put(RequestExecutors.TAG_REQUEST_EXECUTORS, executors);
+            HttpServletRequest request = request("GET", "/Observations", "$resultFormat=csv", attributes, completed);
+            RecordingResponse recorder = new RecordingResponse();
+
+            new ServletV1P0().service(request, recorder.proxy());
+
+            Assert.assertEquals(503, recorder.status);
+            Assert.assertEquals("7", recorder.headers.get("Retry-After"));
+            Assert.assertTrue(completed.get());
+            Assert.assertEquals(1, executors.getPool(PoolType.EXPORT).getRejectedCount());
+            Assert.assertEquals(0, executors.getPool(PoolType.READ).getRejectedCount());
+        } finally {
+            release.countDown();
+            executors.stop(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static HttpServletRequest request(String method, String pathInfo, String query) {
+        return request(method, pathInfo, query, new HashMap<>(), new AtomicBoolean());
+    }
+
+    private static HttpServletRequest request(String method, String pathInfo, String query, Map<String, Object> attributes, AtomicBoolean completed) {
+        ServletContext context = (ServletContext) Proxy.newProxyInstance(
+                ServletV1P0Test.class.getClassLoader(),
+                new Class<?>[]{ServletContext.class},
+                (proxy, m, args) -> "getAttribute".equals(m.getName()) ? attributes.get((String) args[0]) : null);
+        AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(
+                ServletV1P0Test.class.getClassLoader(),
+                new Class<?>[]{AsyncContext.class},
+                (proxy, m, args) -> {
+                    if ("complete".equals(m.getName())) {
+                        completed.set(true);
+                    }
+                    return null;
+                });
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                ServletV1P0Test.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getMethod":
+                            return method;
+                        case "getPathInfo":
+                            return pathInfo;
+                        case "getRequestURI":
+                            return "/FROST-Server/v1.0" + pathInfo;
+                        case "getQueryString":
+                            return query;
+                        case "getServletContext":
+                            return context;
+                        case "isAsyncSupported":
+                            return true;
+                        case "startAsync":
+                            return asyncContext;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static class RecordingResponse {
+
+        private int status;
+        private final Map<String, String> headers = new HashMap<>();
+        private final StringWriter body = new StringWriter();
+        private final PrintWriter writer = new PrintWriter(body);
+
+        public HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(
+                    ServletV1P0Test.class.getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class},
+                    (proxy, m, args) -> {
+                        switch (m.getName()) {
+                            case "setStatus":
+                                status = (Integer) args[0];
+                                return null;
+                            case "setHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "getWriter":
+                                return writer;
+                            case "isCommitted":
+                                return false;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+}
@@ -17,6 +17,8 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.mqtt.moquette;
 
+import static de.fraunhofer.iosb.ilt.frostserver.mqtt.moquette.MoquetteMqttServer.TAG_AUTH_CACHE;
+import static de.fraunhofer.iosb.ilt.frostserver.mqtt.moquette.MoquetteMqttServer.TAG_AUTH_CACHE_TTL;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_AUTH_ALLOW_ANON_READ;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
@@ -31,11 +33,20 @@ import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.ClassUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Connects Moquette to the configured AuthProvider. Moquette checks the
+ * authorisation on every publish and subscribe, so the role decisions are
+ * cached per client session, until the client disconnects, reconnects with
+ * new credentials, the time-to-live expires, or the AuthProvider flushes its
+ * own cache. The AuthProvider can only reach the cache when it runs in the
+ * same JVM, a separate MQTT server relies on the time-to-live.
  *
  * @author scf
  */
@@ -81,16 +92,23 @@ public class AuthWrapper implements IAuthenticator, IAuthorizator {
     private final boolean anonymousRead;
     private final String roleRead;
     private final String roleCeate;
-    private final String frostClientId;
+    private final boolean cacheDecisions;
+    private final long cacheTtlMillis;
+    /**
+     * The role decisions of each connected client, by clientId.
+     */
+    private final Map<String, SessionDecisions> sessions = new ConcurrentHashMap<>();
 
-    public AuthWrapper(CoreSettings coreSettings, String authProviderClassName, String frostClientId) {
+    public AuthWrapper(CoreSettings coreSettings, String authProviderClassName) {
         LOGGER.info("Initialising authentication.");
-        this.frostClientId = frostClientId;
         Settings authSettings = coreSettings.getAuthSettings();
         anonymousRead = authSettings.getBoolean(TAG_AUTH_ALLOW_ANON_READ, CoreSettings.class);
         Map<AuthUtils.Role, String> roleMapping = AuthUtils.loadRoleMapping(authSettings);
         roleRead = roleMapping.get(AuthUtils.Role.READ);
         roleCeate = roleMapping.get(AuthUtils.Role.CREATE);
+        Settings mqttSettings = coreSettings.getMqttSettings().getCustomSettings();
+        cacheDecisions = mqttSettings.getBoolean(TAG_AUTH_CACHE, MoquetteMqttServer.class);
+        cacheTtlMillis = TimeUnit.SECONDS.toMillis(mqttSettings.getInt(TAG_AUTH_CACHE_TTL, MoquetteMqttServer.class));
 
         AuthProvider tempAuthProvider;
         try {
@@ -108,30 +126,81 @@ public class AuthWrapper implements IAuthenticator, IAuthorizator {
             tempAuthProvider = AUTH_PROVIDER_DENY_ALL;
         }
         authProvider = tempAuthProvider;
+        if (cacheDecisions) {
+            authProvider.addCacheFlushListener(this::flushUser);
+        }
     }
 
     @Override
     public boolean checkValid(String clientId, String username, byte[] password) {
-        if (frostClientId.equalsIgnoreCase(clientId)) {
-            return true;
-        }
+        // New credentials, so the decisions of an earlier session no longer apply.
+        clientDisconnected(clientId);
         return authProvider.isValidUser(clientId, username, new String(password, StringHelper.UTF8));
     }
 
     @Override
     public boolean canWrite(Topic topic, String user, String clientId) {
-        if (frostClientId.equalsIgnoreCase(clientId)) {
-            return true;
-        }
-        return authProvider.userHasRole(clientId, user, roleCeate);
+        return userHasRole(clientId, user, roleCeate);
     }
 
     @Override
     public boolean canRead(Topic topic, String user, String clientId) {
-        if (frostClientId.equalsIgnoreCase(clientId)) {
-            return true;
+        return anonymousRead || userHasRole(clientId, user, roleRead);
+    }
+
+    /**
+     * Forgets the cached decisions for the given client. Called when the
+     * client disconnects or loses its connection.
+     *
+     * @param clientId The id of the client.
+     */
+    public void clientDisconnected(String clientId) {
+        if (clientId != null) {
+            sessions.remove(clientId);
+        }
+    }
+
+    /**
+     * Forgets the cached decisions for all sessions of the given user.
+     *
+     * @param userName The user to forget the decisions for, or null to forget
+     * the decisions of all users.
+     */
+    public void flushUser(String userName) {
+        if (userName == null) {
+            sessions.clear();
+        } else {
+            sessions.values().removeIf(session -> userName.equals(session.user));
+        }
+    }
+
+    private boolean userHasRole(String clientId, String user, String roleName) {
+        if (!cacheDecisions || clientId == null) {
+            return authProvider.userHasRole(clientId, user, roleName);
+        }
+        long now = System.currentTimeMillis();
+        SessionDecisions session = sessions.get(clientId);
+        if (session == null || !session.isValidFor(user, now)) {
+            session = new SessionDecisions(user, cacheTtlMillis > 0 ? now + cacheTtlMillis : Long.MAX_VALUE);
+            sessions.put(clientId, session);
+        }
+        return session.decisions.computeIfAbsent(roleName, r -> authProvider.userHasRole(clientId, user, r));
+    }
+
+    private static class SessionDecisions {
+
+        private final String user;
+        private final long expires;
+        private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+        public SessionDecisions(String user, long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+
+        public boolean isValidFor(String user, long now) {
+            return now < expires && Objects.equals(this.user, user);
         }
-        return anonymousRead || authProvider.userHasRole(clientId, user, roleRead);
     }
 
 }
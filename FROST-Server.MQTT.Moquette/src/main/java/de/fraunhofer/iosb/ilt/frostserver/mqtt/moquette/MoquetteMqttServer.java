@@ -28,12 +28,14 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.MqttSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import io.moquette.BrokerConstants;
 import io.moquette.interception.AbstractInterceptHandler;
 import io.moquette.interception.InterceptHandler;
 import io.moquette.interception.messages.InterceptConnectMessage;
+import io.moquette.interception.messages.InterceptConnectionLostMessage;
 import io.moquette.interception.messages.InterceptDisconnectMessage;
 import io.moquette.interception.messages.InterceptPublishMessage;
 import io.moquette.interception.messages.InterceptSubscribeMessage;
@@ -42,6 +44,10 @@ import io.moquette.server.Server;
 import io.moquette.server.config.IConfig;
 import io.moquette.server.config.MemoryConfig;
 import io.moquette.spi.impl.subscriptions.Subscription;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -52,10 +58,6 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 import javax.swing.event.EventListenerList;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,8 +72,6 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
      */
     @DefaultValueInt(9876)
     public static final String TAG_WEBSOCKET_PORT = "WebsocketPort";
-    @DefaultValueInt(50)
-    public static final String TAG_MAX_IN_FLIGHT = "maxInFlight";
     @DefaultValue("io.moquette.persistence.mapdb.MapDBPersistentStore")
     public static final String STORAGE_CLASS_NAME = BrokerConstants.STORAGE_CLASS_NAME;
     @DefaultValue("")
@@ -84,6 +84,18 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
     public static final String TAG_SSL_PORT = "sslPort";
     @DefaultValueInt(443)
     public static final String TAG_SSL_WEBSOCKET_PORT = "secureWebsocketPort";
+    /**
+     * Cache the authorisation decisions of each client for the duration of
+     * its session.
+     */
+    @DefaultValueBoolean(true)
+    public static final String TAG_AUTH_CACHE = "authCache";
+    /**
+     * The maximum time, in seconds, that authorisation decisions are cached.
+     * 0 means for the entire session.
+     */
+    @DefaultValueInt(300)
+    public static final String TAG_AUTH_CACHE_TTL = "authCacheTtl";
 
     /**
      * The logger for this class.
@@ -91,13 +103,14 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
     private static final Logger LOGGER = LoggerFactory.getLogger(MoquetteMqttServer.class);
 
     private Server mqttBroker;
-    private MqttClient client;
     protected EventListenerList subscriptionListeners = new EventListenerList();
     protected EventListenerList entityCreateListeners = new EventListenerList();
     private CoreSettings settings;
+    private AuthWrapper authWrapper;
     private final Map<String, List<String>> clientSubscriptions = new HashMap<>();
     /**
-     * The MQTT Id used by the FROST server to connect to the MQTT broker.
+     * The Id used by the FROST server when publishing to the broker, and for
+     * the intercept handler.
      */
     private final String frostClientId;
 
@@ -111,23 +124,23 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
     }
 
     @Override
-    public void publish(String topic, byte[] payload, int qos) {
-        if (mqttBroker != null && client != null) {
-            if (!client.isConnected()) {
-                LOGGER.warn("MQTT client is not connected while trying to publish.");
-                try {
-                    client.reconnect();
-                } catch (MqttException ex) {
-                    LOGGER.warn("MQTT client failed to reconnect.");
-                    return;
-                }
-            }
-            try {
-                LOGGER.trace("    FROST -> Moquette on {}", topic);
-                client.publish(topic, payload, qos, false);
-            } catch (MqttException ex) {
-                LOGGER.error("publish on topic '" + topic + "' failed.", ex);
-            }
+    public void publish(String topic, byte[] payload, int qos, boolean retain) {
+        if (mqttBroker == null) {
+            return;
+        }
+        // Published in-process, so no authorisation checks apply and the
+        // intercept handlers are not notified.
+        MqttPublishMessage message = MqttMessageBuilders.publish()
+                .topicName(topic)
+                .retained(retain)
+                .qos(MqttQoS.valueOf(qos))
+                .payload(Unpooled.wrappedBuffer(payload))
+                .build();
+        try {
+            LOGGER.trace("    FROST -> Moquette on {}", topic);
+            mqttBroker.internalPublish(message, frostClientId);
+        } catch (RuntimeException ex) {
+            LOGGER.error("publish on topic '" + topic + "' failed.", ex);
         }
     }
 
@@ -204,26 +217,10 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
             config.setProperty(BrokerConstants.WSS_PORT_PROPERTY_NAME, customSettings.get(TAG_SSL_WEBSOCKET_PORT, getClass()));
         }
 
-        AuthWrapper authWrapper = createAuthWrapper();
+        authWrapper = createAuthWrapper();
 
-        int maxInFlight = customSettings.getInt(TAG_MAX_IN_FLIGHT, getClass());
         try {
             mqttBroker.startServer(config, userHandlers, null, authWrapper, authWrapper);
-            String broker = "tcp://" + mqttSettings.getInternalHost() + ":" + mqttSettings.getPort();
-
-            client = new MqttClient(broker, frostClientId, new MemoryPersistence());
-            MqttConnectOptions connOpts = new MqttConnectOptions();
-            connOpts.setCleanSession(true);
-            connOpts.setAutomaticReconnect(true);
-            connOpts.setKeepAliveInterval(30);
-            connOpts.setConnectionTimeout(30);
-            connOpts.setMaxInflight(maxInFlight);
-            LOGGER.info("paho-client connecting to broker: {}", broker);
-
-            client.connect(connOpts);
-            LOGGER.info("paho-client connected to broker");
-        } catch (MqttException ex) {
-            LOGGER.error("Could not create MQTT Client.", ex);
         } catch (IOException ex) {
             LOGGER.error("Could not create MQTT Server.", ex);
         }
@@ -234,7 +231,7 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
         Settings authSettings = settings.getAuthSettings();
         String authProviderClassName = authSettings.get(CoreSettings.TAG_AUTH_PROVIDER, "");
         if (!Strings.isNullOrEmpty(authProviderClassName)) {
-            return new AuthWrapper(settings, authProviderClassName, frostClientId);
+            return new AuthWrapper(settings, authProviderClassName);
         }
         return null;
     }
@@ -244,9 +241,6 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
         int count = 0;
         for (Subscription sub : mqttBroker.getSubscriptions()) {
             String subClientId = sub.getClientId();
-            if (subClientId.equalsIgnoreCase(frostClientId)) {
-                continue;
-            }
             String topic = sub.getTopicFilter().toString();
             LOGGER.debug("Re-subscribing existing subscription for {} on {}.", subClientId, topic);
             List<String> clientSubList = clientSubscriptions.computeIfAbsent(
@@ -266,25 +260,9 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
 
     @Override
     public void stop() {
-        if (client != null && client.isConnected()) {
-            LOGGER.info("Disconnecting internal MQTT client...");
-            try {
-                client.disconnectForcibly();
-            } catch (MqttException ex) {
-                LOGGER.debug("exception when forcefully disconnecting MQTT client", ex);
-            }
-        }
-        if (client != null) {
-            LOGGER.info("Closing internal MQTT client...");
-            try {
-                client.close();
-            } catch (MqttException ex) {
-                LOGGER.debug("exception when closing the MQTT client", ex);
-            }
-            LOGGER.info("Closing internal MQTT client done.");
-        }
         if (mqttBroker != null) {
             mqttBroker.stopServer();
+            mqttBroker = null;
         }
     }
 
@@ -303,9 +281,6 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
 
         @Override
         public void onPublish(InterceptPublishMessage msg) {
-            if (msg.getClientID().equalsIgnoreCase(frostClientId)) {
-                return;
-            }
             LOGGER.trace("      Moquette -> FROST on {}", msg.getTopicName());
             String payload = msg.getPayload().toString(StringHelper.UTF8);
             fireObservationCreate(new ObservationCreateEvent(this, msg.getTopicName(), payload));
@@ -314,9 +289,6 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
         @Override
         public void onConnect(InterceptConnectMessage msg) {
             final String clientId = msg.getClientID();
-            if (clientId.equalsIgnoreCase(frostClientId)) {
-                return;
-            }
             LOGGER.trace("      Client connected: {}", clientId);
             clientSubscriptions.put(clientId, new ArrayList<>());
         }
@@ -324,23 +296,29 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
         @Override
         public void onDisconnect(InterceptDisconnectMessage msg) {
             final String clientId = msg.getClientID();
-            if (clientId.equalsIgnoreCase(frostClientId)) {
-                return;
-            }
             LOGGER.trace("      Client disconnected: {}", clientId);
             clientSubscriptions.getOrDefault(clientId, new ArrayList<>())
                     .stream().forEach(
                             subscribedTopic -> fireUnsubscribe(new SubscriptionEvent(subscribedTopic))
                     );
             clientSubscriptions.remove(clientId);
+            if (authWrapper != null) {
+                authWrapper.clientDisconnected(clientId);
+            }
         }
 
         @Override
-        public void onSubscribe(InterceptSubscribeMessage msg) {
+        public void onConnectionLost(InterceptConnectionLostMessage msg) {
             final String clientId = msg.getClientID();
-            if (clientId.equalsIgnoreCase(frostClientId)) {
-                return;
+            LOGGER.trace("      Client connection lost: {}", clientId);
+            if (authWrapper != null) {
+                authWrapper.clientDisconnected(clientId);
             }
+        }
+
+        @Override
+        public void onSubscribe(InterceptSubscribeMessage msg) {
+            final String clientId = msg.getClientID();
             final String topicFilter = msg.getTopicFilter();
             LOGGER.trace("      Client {} subscribed to {}", clientId, topicFilter);
             clientSubscriptions.getOrDefault(
@@ -352,9 +330,6 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
         @Override
         public void onUnsubscribe(InterceptUnsubscribeMessage msg) {
             final String clientId = msg.getClientID();
-            if (clientId.equalsIgnoreCase(frostClientId)) {
-                return;
-            }
             final String topicFilter = msg.getTopicFilter();
             LOGGER.trace("      Client {} unsubscribed from {}", clientId, topicFilter);
             clientSubscriptions.getOrDefault(clientId, new ArrayList<>())
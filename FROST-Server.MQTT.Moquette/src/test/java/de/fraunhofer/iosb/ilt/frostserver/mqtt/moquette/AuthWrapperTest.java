@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.moquette;
+
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.AuthProvider;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import io.moquette.spi.impl.subscriptions.Topic;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class AuthWrapperTest {
+
+    private static final String CLIENT_ID = "client-1";
+    private static final String USER = "write";
+    private static final byte[] PASSWORD = "secret".getBytes(StringHelper.UTF8);
+    private static final Topic TOPIC = new Topic("v1.0/Things");
+
+    private Properties properties;
+
+    @Before
+    public void setUp() {
+        CountingAuthProvider.reset();
+        properties = new Properties();
+        properties.setProperty(CoreSettings.TAG_SERVICE_ROOT_URL, "http://example.org");
+        properties.setProperty(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.setProperty(CoreSettings.PREFIX_AUTH + CoreSettings.TAG_AUTH_ALLOW_ANON_READ, "false");
+    }
+
+    private AuthWrapper createWrapper() {
+        return new AuthWrapper(new CoreSettings(properties), CountingAuthProvider.class.getName());
+    }
+
+    @Test
+    public void testCacheHit() {
+        AuthWrapper wrapper = createWrapper();
+        Assert.assertTrue(wrapper.checkValid(CLIENT_ID, USER, PASSWORD));
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertTrue(wrapper.canRead(TOPIC, USER, CLIENT_ID));
+        Assert.assertTrue(wrapper.canRead(TOPIC, USER, CLIENT_ID));
+        // One lookup per role, the repeated checks are served from the cache.
+        Assert.assertEquals(2, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    @Test
+    public void testCacheDisabled() {
+        properties.setProperty(CoreSettings.PREFIX_MQTT + MoquetteMqttServer.TAG_AUTH_CACHE, "false");
+        AuthWrapper wrapper = createWrapper();
+        wrapper.canWrite(TOPIC, USER, CLIENT_ID);
+        wrapper.canWrite(TOPIC, USER, CLIENT_ID);
+        Assert.assertEquals(2, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    @Test
+    public void testClientDisconnected() {
+        AuthWrapper wrapper = createWrapper();
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        CountingAuthProvider.allowed = false;
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        wrapper.clientDisconnected(CLIENT_ID);
+        Assert.assertFalse(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertEquals(2, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    @Test
+    public void testCheckValidRevalidates() {
+        AuthWrapper wrapper = createWrapper();
+        Assert.assertTrue(wrapper.checkValid(CLIENT_ID, USER, PASSWORD));
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        CountingAuthProvider.allowed = false;
+        // A new login of the same client must not reuse the old decisions.
+        Assert.assertFalse(wrapper.checkValid(CLIENT_ID, USER, PASSWORD));
+        Assert.assertFalse(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertEquals(2, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    @Test
+    public void testOtherUserOnSameClient() {
+        AuthWrapper wrapper = createWrapper();
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertTrue(wrapper.canWrite(TOPIC, "other", CLIENT_ID));
+        Assert.assertEquals(2, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    @Test
+    public void testProviderFlush() {
+        AuthWrapper wrapper = createWrapper();
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertTrue(wrapper.canWrite(TOPIC, "other", "client-2"));
+        CountingAuthProvider.allowed = false;
+
+        CountingAuthProvider.flushListener.accept("other");
+        Assert.assertTrue(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertFalse(wrapper.canWrite(TOPIC, "other", "client-2"));
+
+        CountingAuthProvider.flushListener.accept(null);
+        Assert.assertFalse(wrapper.canWrite(TOPIC, USER, CLIENT_ID));
+        Assert.assertEquals(4, CountingAuthProvider.ROLE_CHECKS.get());
+    }
+
+    /**
+     * Counts the role checks, and allows or denies everything. AuthWrapper
+     * creates its own instance, so the state is static.
+     */
+    public static class CountingAuthProvider implements AuthProvider {
+
+        private static final AtomicInteger ROLE_CHECKS = new AtomicInteger();
+        private static volatile boolean allowed;
+        private static volatile Consumer<String> flushListener;
+
+        public static void reset() {
+            ROLE_CHECKS.set(0);
+            allowed = true;
+            flushListener = null;
+        }
+
+        @Override
+        public void init(CoreSettings coreSettings) {
+            // Nothing to initialise.
+        }
+
+        @Override
+        public void addFilter(Object context, CoreSettings coreSettings) {
+            // Not used in MQTT.
+        }
+
+        @Override
+        public boolean isValidUser(String clientId, String username, String password) {
+            return allowed;
+        }
+
+        @Override
+        public boolean userHasRole(String clientId, String userName, String roleName) {
+            ROLE_CHECKS.incrementAndGet();
+            return allowed;
+        }
+
+        @Override
+        public void addCacheFlushListener(Consumer<String> listener) {
+            flushListener = listener;
+        }
+
+        @Override
+        public String checkForUpgrades() {
+            return "";
+        }
+
+        @Override
+        public boolean doUpgrades(Writer out) {
+            return true;
+        }
+    }
+}
@@ -17,9 +17,13 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
 
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Gauge;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Metrics;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -69,6 +73,15 @@ public class ConnectionUtils implements ConfigDefaults {
 
     private static final Map<String, ConnectionSource> EXISTING_POOLS = new HashMap<>();
 
+    private static final Gauge CONNECTIONS_ACTIVE = Metrics.gauge(
+            "db_connections_active",
+            "The number of database connections that are in use.",
+            "pool");
+    private static final Gauge CONNECTIONS_IDLE = Metrics.gauge(
+            "db_connections_idle",
+            "The number of idle database connections in the pool.",
+            "pool");
+
     private ConnectionUtils() {
         // Utility class, should not be instantiated.
     }
@@ -106,6 +119,7 @@ public class ConnectionUtils implements ConfigDefaults {
                     source = setupDataSource(settings);
                 }
                 EXISTING_POOLS.put(name, source);
+                source.registerMetrics(name);
             }
             return source;
         }
@@ -177,6 +191,14 @@ public class ConnectionUtils implements ConfigDefaults {
     private static interface ConnectionSource {
 
         public Connection getConnection() throws SQLException;
+
+        /**
+         * Register the pool gauges for this source, if the source can report
+         * its number of active and idle connections.
+         *
+         * @param name The name of the pool.
+         */
+        public void registerMetrics(String name);
     }
 
     private static class ConnectionSourceDataSource implements ConnectionSource {
@@ -191,6 +213,34 @@ public class ConnectionUtils implements ConfigDefaults {
         public Connection getConnection() throws SQLException {
             return ds.getConnection();
         }
+
+        /**
+         * Container-provided data sources are usually dbcp or tomcat-jdbc
+         * pools, that have getNumActive and getNumIdle methods, but are not on
+         * our class path. These are found by reflection.
+         *
+         * @param name The name of the pool.
+         */
+        @Override
+        public void registerMetrics(String name) {
+            try {
+                Method numActive = ds.getClass().getMethod("getNumActive");
+                Method numIdle = ds.getClass().getMethod("getNumIdle");
+                CONNECTIONS_ACTIVE.labels(name).set(() -> invokeNumber(numActive));
+                CONNECTIONS_IDLE.labels(name).set(() -> invokeNumber(numIdle));
+            } catch (NoSuchMethodException exc) {
+                LOGGER.debug("DataSource {} does not expose its pool size.", ds.getClass().getName());
+            }
+        }
+
+        private double invokeNumber(Method method) {
+            try {
+                return ((Number) method.invoke(ds)).doubleValue();
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException exc) {
+                LOGGER.trace("Failed to read pool size.", exc);
+                return Double.NaN;
+            }
+        }
     }
 
     private static class ConnectionSourceBasicDataSource implements ConnectionSource {
@@ -206,6 +256,12 @@ public class ConnectionUtils implements ConfigDefaults {
             return dataSource.getConnection();
         }
 
+        @Override
+        public void registerMetrics(String name) {
+            CONNECTIONS_ACTIVE.labels(name).set(dataSource::getNumActive);
+            CONNECTIONS_IDLE.labels(name).set(dataSource::getNumIdle);
+        }
+
     }
 
     public static class ConnectionWrapper implements Provider<Connection> {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
+
+import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+
+/**
+ * An expand of a single entity (like the Datastream of an Observation) that
+ * is joined into the select query of the main entity. The fields of the joined
+ * table are selected under unique aliases, so they do not clash with the
+ * fields of the main table.
+ *
+ * @author scf
+ */
+public class ExpandJoin {
+
+    private final Expand expand;
+    private final Field idField;
+    private final Field[] selectFields;
+    private final Field[] recordFields;
+
+    /**
+     *
+     * @param expand The expand that is joined.
+     * @param idField The aliased id field of the joined table, as selected.
+     * @param selectFields The aliased fields of the joined table, as
+     * selected.
+     * @param recordFields The un-aliased fields of the table, in the same
+     * order as the selectFields, as the entity factories expect them.
+     */
+    public ExpandJoin(Expand expand, Field idField, List<Field> selectFields, List<Field> recordFields) {
+        this.expand = expand;
+        this.idField = idField;
+        this.selectFields = selectFields.toArray(new Field[selectFields.size()]);
+        this.recordFields = recordFields.toArray(new Field[recordFields.size()]);
+    }
+
+    public Expand getExpand() {
+        return expand;
+    }
+
+    public NavigationProperty getNavigationProperty() {
+        return expand.getPath().get(0);
+    }
+
+    /**
+     * Copies the fields of the joined entity from the given row into a new
+     * record, that the entity factory of the joined entity type can read.
+     *
+     * @param dslContext The context to create the new record with.
+     * @param row The row of the select query.
+     * @return The record of the joined entity, or null if the row has no
+     * joined entity.
+     */
+    public Record readRecord(DSLContext dslContext, Record row) {
+        if (row.get(idField) == null) {
+            return null;
+        }
+        Record record = dslContext.newRecord(recordFields);
+        for (int i = 0; i < selectFields.length; i++) {
+            record.set(recordFields[i], row.get(selectFields[i]));
+        }
+        return record;
+    }
+
+}
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayWriter;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
@@ -43,6 +44,7 @@ import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityExcepti
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UpgradeFailedException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -50,6 +52,7 @@ import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.function.Consumer;
 import org.jooq.DSLContext;
 import org.jooq.Delete;
 import org.jooq.Record;
@@ -209,6 +212,38 @@ public abstract class PostgresPersistenceManager<J> extends AbstractPersistenceM
         return entity;
     }
 
+    @Override
+    public void stream(ResourcePath path, Query query, Consumer<Entity> consumer) {
+        ResourcePathElement lastElement = path.getLastElement();
+        if (!(lastElement instanceof EntitySetPathElement)) {
+            throw new IllegalArgumentException("Only EntitySets can be streamed.");
+        }
+        QueryBuilder psb = new QueryBuilder(this, settings.getPersistenceSettings(), getPropertyResolver())
+                .forPath(path)
+                .usingQuery(query)
+                .joinExpands(true);
+        ResultBuilder entityCreator = new ResultBuilder(this, path, query, psb);
+        entityCreator.stream((EntitySetPathElement) lastElement, consumer);
+    }
+
+    @Override
+    public boolean fetchDataArray(ResourcePath path, Query query, DataArrayWriter writer) {
+        ResourcePathElement lastElement = path.getLastElement();
+        if (!(lastElement instanceof EntitySetPathElement) || ((EntitySetPathElement) lastElement).getEntityType() != EntityType.OBSERVATION) {
+            return false;
+        }
+        QueryBuilder psb = new QueryBuilder(this, settings.getPersistenceSettings(), getPropertyResolver())
+                .forPath(path)
+                .usingQuery(query);
+        ResultBuilder entityCreator = new ResultBuilder(this, path, query, psb);
+        try {
+            entityCreator.fetchDataArray(writer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return true;
+    }
+
     @Override
     public boolean doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
         EntityFactories<J> ef = getEntityFactories();
@@ -52,9 +52,14 @@ import de.fraunhofer.iosb.ilt.frostserver.query.OrderBy;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
 import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.jooq.AggregateFunction;
 import org.jooq.Condition;
@@ -120,6 +125,8 @@ public class QueryBuilder<J extends Comparable> implements ResourcePathVisitor {
     private boolean forUpdate = false;
     private boolean single = false;
     private boolean parsed = false;
+    private boolean joinExpands = false;
+    private List<ExpandJoin> expandJoins = Collections.emptyList();
 
     private Set<Field> sqlSelectFields;
     private Field<J> sqlMainIdField;
@@ -141,6 +148,11 @@ public class QueryBuilder<J extends Comparable> implements ResourcePathVisitor {
             sqlSelectFields = Collections.emptySet();
         }
 
+        Table<?> selectFrom = sqlFrom;
+        if (joinExpands) {
+            selectFrom = addExpandJoins(selectFrom);
+        }
+
         DSLContext dslContext = pm.getDslContext();
         SelectSelectStep<Record> selectStep;
         if (needsDistinct) {
@@ -149,7 +161,7 @@ public class QueryBuilder<J extends Comparable> implements ResourcePathVisitor {
         } else {
             selectStep = dslContext.select(sqlSelectFields);
         }
-        SelectConditionStep<Record> whereStep = selectStep.from(sqlFrom)
+        SelectConditionStep<Record> whereStep = selectStep.from(selectFrom)
                 .where(sqlWhere);
 
         final List<OrderField> sortFields = getSqlSortFields().getSqlSortFields();
@@ -256,6 +268,31 @@ public class QueryBuilder<J extends Comparable> implements ResourcePathVisitor {
         return this;
     }
 
+    /**
+     * Join the entities of the expands that point to a single entity, like the
+     * Datastream of an Observation, into the select query, so they can be
+     * read from the same rows as the main entities, instead of with a separate
+     * query for each row. Expands of entity sets, expands with a longer path
+     * and expands with a $filter are not joined.
+     *
+     * @param joinExpands Whether to join expands into the select query.
+     * @return this.
+     */
+    public QueryBuilder<J> joinExpands(boolean joinExpands) {
+        this.joinExpands = joinExpands;
+        return this;
+    }
+
+    /**
+     * Get the expands that were joined into the select query. Only filled
+     * after the select query is built.
+     *
+     * @return The expands that were joined into the select query.
+     */
+    public List<ExpandJoin> getExpandJoins() {
+        return expandJoins;
+    }
+
     private void gatherData() {
         if (!parsed) {
             parsed = true;
@@ -312,6 +349,74 @@ public class QueryBuilder<J extends Comparable> implements ResourcePathVisitor {
         }
     }
 
+    private Table<?> addExpandJoins(Table<?> from) {
+        expandJoins = new ArrayList<>();
+        if (staQuery == null) {
+            return from;
+        }
+        for (Expand expand : staQuery.getExpand()) {
+            List<NavigationProperty> expandPath = expand.getPath();
+            Query subQuery = expand.getSubQuery();
+            if (expandPath.size() != 1 || expandPath.get(0).isSet || (subQuery != null && subQuery.getFilter() != null)) {
+                continue;
+            }
+            NavigationProperty navProperty = expandPath.get(0);
+            Collection<Field> fkFields = propertyResolver.getSelectFieldsForProperty(navProperty, mainTable.getTable(), null);
+            if (fkFields == null || fkFields.size() != 1) {
+                continue;
+            }
+            Field<J> fkField = fkFields.iterator().next();
+            StaTable<J> baseTable = tableCollection.tablesByType.get(navProperty.type);
+            String alias = ALIAS_PREFIX + (++aliasNr);
+            StaTable<J> joinedTable = (StaTable<J>) baseTable.as(alias);
+
+            // The keys are the fields as the entity factory reads them, the
+            // values the fields of the aliased table.
+            Map<Field, Field> fields = new LinkedHashMap<>();
+            if (subQuery == null || subQuery.getSelect().isEmpty()) {
+                addExpandFields(
+                        propertyResolver.getSelectFieldsForClass(baseTable, null),
+                        propertyResolver.getSelectFieldsForClass(joinedTable, null),
+                        fields);
+            } else {
+                Set<Property> properties = new HashSet<>(subQuery.getSelect());
+                properties.add(EntityProperty.ID);
+                for (Property property : properties) {
+                    addExpandFields(
+                            propertyResolver.getSelectFieldsForProperty(property, baseTable, null),
+                            propertyResolver.getSelectFieldsForProperty(property, joinedTable, null),
+                            fields);
+                }
+            }
+
+            List<Field> recordFields = new ArrayList<>();
+            List<Field> selectFields = new ArrayList<>();
+            Field idField = null;
+            for (Map.Entry<Field, Field> entry : fields.entrySet()) {
+                Field selectField = entry.getValue().as(alias + "_" + selectFields.size());
+                if (entry.getKey().equals(baseTable.getId())) {
+                    idField = selectField;
+                }
+                recordFields.add(entry.getKey());
+                selectFields.add(selectField);
+            }
+            sqlSelectFields.addAll(selectFields);
+            from = from.leftJoin(joinedTable).on(joinedTable.getId().eq(fkField));
+            expandJoins.add(new ExpandJoin(expand, idField, selectFields, recordFields));
+        }
+        return from;
+    }
+
+    private static void addExpandFields(Collection<Field> baseFields, Collection<Field> joinedFields, Map<Field, Field> target) {
+        if (baseFields == null || joinedFields == null) {
+            return;
+        }
+        Iterator<Field> joined = joinedFields.iterator();
+        for (Field field : baseFields) {
+            target.putIfAbsent(field, joined.next());
+        }
+    }
+
     private void addOrderPropertiesToSelected() {
         sqlSelectFields.addAll(getSqlSortFields().getSqlSortSelectFields());
     }
@@ -18,6 +18,10 @@
 package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayWriter;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Histogram;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.Metrics;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerTiming;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.NavigableElement;
@@ -25,19 +29,24 @@ import de.fraunhofer.iosb.ilt.frostserver.path.CustomPropertyArrayIndex;
 import de.fraunhofer.iosb.ilt.frostserver.path.CustomPropertyPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.frostserver.path.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.frostserver.path.PropertyPathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePathVisitor;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.ObservationFactory;
 import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.UrlHelper;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.jooq.Cursor;
 import org.jooq.Record;
 import org.jooq.Record1;
@@ -59,6 +68,24 @@ public class ResultBuilder implements ResourcePathVisitor {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ResultBuilder.class);
+    /**
+     * The number of rows fetched from the database at a time when streaming.
+     */
+    private static final int STREAM_FETCH_SIZE = 1000;
+    /**
+     * The time until the first results of a query are available, by the
+     * entity type and kind of query.
+     */
+    private static final Histogram QUERY_DURATION = Metrics.histogram(
+            "sql_query_duration_seconds",
+            "The time taken to execute SQL queries, until the first results are available.",
+            Histogram.DURATION_BUCKETS,
+            "entity_type", "query");
+    private static final String QUERY_ENTITY = "entity";
+    private static final String QUERY_SET = "set";
+    private static final String QUERY_STREAM = "stream";
+    private static final String QUERY_DATA_ARRAY = "dataArray";
+    private static final String QUERY_COUNT = "count";
     private final PostgresPersistenceManager pm;
     private final PersistenceSettings persistenceSettings;
     private final ResourcePath path;
@@ -106,7 +133,10 @@ public class ResultBuilder implements ResourcePathVisitor {
 
     @Override
     public void visit(EntityPathElement element) {
-        Result<Record> results = sqlQuery.fetch();
+        Result<Record> results;
+        try (Cursor<Record> cursor = timeQuery(sqlQuery, QUERY_ENTITY)) {
+            results = cursor.fetch();
+        }
         if (results.size() > 1) {
             throw new IllegalStateException("Expecting an element, yet more than 1 result. Got " + results.size() + " results.");
         }
@@ -174,7 +204,13 @@ public class ResultBuilder implements ResourcePathVisitor {
             }
         }
         if (existing == null || !existing.isExportObject()) {
-            child = pm.get(ePath, subQuery);
+            long start = System.nanoTime();
+            ServerTiming.beginNested();
+            try {
+                child = pm.get(ePath, subQuery);
+            } finally {
+                ServerTiming.endNested(ServerTiming.PHASE_EXPAND, start);
+            }
             entity.setProperty(firstNp, child);
         } else if (existing instanceof EntitySet) {
             expandEntitySet((EntitySet) existing, subQuery);
@@ -191,14 +227,19 @@ public class ResultBuilder implements ResourcePathVisitor {
         }
     }
 
-    private <R extends Record> Cursor<R> timeQuery(ResultQuery<R> query) {
+    private <R extends Record> Cursor<R> timeQuery(ResultQuery<R> query, String queryShape) {
         if (persistenceSettings.isTimeoutQueries()) {
             query.queryTimeout(persistenceSettings.getQueryTimeout());
         }
+        Histogram.Child timer = QUERY_DURATION.labels(entityTypeName(), queryShape);
+        long start = System.nanoTime();
+        String phase = QUERY_COUNT.equals(queryShape) ? ServerTiming.PHASE_COUNT : ServerTiming.PHASE_SELECT;
         if (!persistenceSettings.isLogSlowQueries()) {
-            return query.fetchLazy();
+            Cursor<R> result = query.fetchLazy();
+            timer.observeSince(start);
+            ServerTiming.record(phase, start);
+            return result;
         }
-        long start = System.currentTimeMillis();
         Cursor<R> result;
         try {
             result = query.fetchLazy();
@@ -208,17 +249,23 @@ public class ResultBuilder implements ResourcePathVisitor {
             }
             throw new IllegalStateException("Failed to run query: " + exc.getMessage());
         }
-        long end = System.currentTimeMillis();
-        long duration = end - start;
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        timer.observeSince(start);
+        ServerTiming.record(phase, start);
         if (LOGGER.isInfoEnabled() && duration > persistenceSettings.getSlowQueryThreshold()) {
             LOGGER.info("Slow Query executed in {} ms:\n{}", duration, query.getSQL(ParamType.INLINED));
         }
         return result;
     }
 
+    private String entityTypeName() {
+        EntityType type = path.getMainElementType();
+        return type == null ? "none" : type.entityName;
+    }
+
     @Override
     public void visit(EntitySetPathElement element) {
-        try (Cursor<Record> results = timeQuery(sqlQuery)) {
+        try (Cursor<Record> results = timeQuery(sqlQuery, QUERY_SET)) {
             EntityFactory factory;
             factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
             EntitySet<? extends Entity> entitySet = pm.getEntityFactories()
@@ -246,15 +293,108 @@ public class ResultBuilder implements ResourcePathVisitor {
         }
     }
 
+    /**
+     * Passes the entities of the given entity set to the consumer while they
+     * are read from the database cursor, without collecting them in an
+     * EntitySet. The data size limit does not apply, since the entities are
+     * not held in memory. Expanded single entities that are joined into the
+     * query (see {@link QueryBuilder#joinExpands(boolean)}) are read from the
+     * same rows, other expands take extra queries for each row.
+     *
+     * @param element The path element of the entity set.
+     * @param consumer The consumer to pass the entities to.
+     */
+    public void stream(EntitySetPathElement element, Consumer<Entity> consumer) {
+        sqlQuery.fetchSize(STREAM_FETCH_SIZE);
+        try (Cursor<Record> results = timeQuery(sqlQuery, QUERY_STREAM)) {
+            EntityFactory factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
+            List<ExpandJoin> expandJoins = sqlQueryBuilder.getExpandJoins();
+            Query otherExpands = null;
+            if (expandJoins.size() < staQuery.getExpand().size()) {
+                otherExpands = new Query(staQuery.getSettings());
+                otherExpands.getExpand().addAll(staQuery.getExpand());
+                for (ExpandJoin expandJoin : expandJoins) {
+                    otherExpands.getExpand().remove(expandJoin.getExpand());
+                }
+            }
+            int top = staQuery.getTopOrDefault();
+            int count = 0;
+            while (count < top && results.hasNext()) {
+                Record record = results.fetchNext();
+                Entity entity = factory.create(record, staQuery, new DataSize());
+                for (ExpandJoin expandJoin : expandJoins) {
+                    addJoinedExpandToEntity(entity, expandJoin, record);
+                }
+                expandEntity(entity, otherExpands);
+                consumer.accept(entity);
+                count++;
+            }
+        }
+    }
+
+    private void addJoinedExpandToEntity(Entity entity, ExpandJoin expandJoin, Record record) {
+        NavigationProperty navProperty = expandJoin.getNavigationProperty();
+        Record joinedRecord = expandJoin.readRecord(pm.getDslContext(), record);
+        if (joinedRecord == null) {
+            entity.setProperty(navProperty, null);
+            return;
+        }
+        Query subQuery = expandJoin.getExpand().getSubQuery();
+        if (subQuery == null) {
+            subQuery = new Query(staQuery.getSettings());
+        }
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(navProperty.type);
+        Entity child = factory.create(joinedRecord, subQuery, new DataSize());
+        expandEntity(child, subQuery);
+        entity.setProperty(navProperty, child);
+    }
+
+    /**
+     * Writes the Observations of the entity set directly to the given
+     * dataArray writer, without creating Observation entities.
+     *
+     * @param writer The writer to write the Observations to.
+     * @throws IOException If writing fails.
+     */
+    public void fetchDataArray(DataArrayWriter writer) throws IOException {
+        try (Cursor<Record> results = timeQuery(sqlQuery, QUERY_DATA_ARRAY)) {
+            ObservationFactory factory = (ObservationFactory) pm.getEntityFactories().getFactoryFor(EntityType.OBSERVATION);
+            long maxDataSize = pm.getCoreSettings().getDataSizeMax();
+            DataSize size = new DataSize();
+            int top = staQuery.getTopOrDefault();
+            int count = 0;
+            while (count < top && size.getDataSize() <= maxDataSize && results.hasNext()) {
+                factory.writeDataArrayRow(results.fetchNext(), writer, size);
+                count++;
+            }
+
+            if (staQuery.isCountOrDefault()) {
+                writer.setCount(fetchCount());
+            }
+
+            boolean hasMore = results.hasNext();
+            if (count < top && hasMore) {
+                // The loading was aborted, probably due to size constraints.
+                staQuery.setTop(count);
+            }
+            if (hasMore) {
+                writer.setNextLink(UrlHelper.generateNextLink(path, staQuery));
+            }
+        }
+    }
+
     private void fetchAndAddCount(EntitySet<? extends Entity> entitySet) {
         if (staQuery.isCountOrDefault()) {
-            ResultQuery<Record1<Integer>> countQuery = sqlQueryBuilder.buildCount();
-            try (Cursor<Record1<Integer>> countCursor = timeQuery(countQuery)) {
-                Integer count = countCursor
-                        .fetchNext()
-                        .component1();
-                entitySet.setCount(count);
-            }
+            entitySet.setCount(fetchCount());
+        }
+    }
+
+    private long fetchCount() {
+        ResultQuery<Record1<Integer>> countQuery = sqlQueryBuilder.buildCount();
+        try (Cursor<Record1<Integer>> countCursor = timeQuery(countQuery, QUERY_COUNT)) {
+            return countCursor
+                    .fetchNext()
+                    .component1();
         }
     }
 
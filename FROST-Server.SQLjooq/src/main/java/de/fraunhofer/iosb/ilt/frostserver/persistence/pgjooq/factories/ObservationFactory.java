@@ -17,6 +17,9 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DataArrayWriter;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.DefaultResultFormater.VisibleComponents;
 import de.fraunhofer.iosb.ilt.frostserver.model.Datastream;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.model.FeatureOfInterest;
@@ -42,6 +45,7 @@ import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollect
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.Collections;
@@ -49,6 +53,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
@@ -67,15 +75,23 @@ public class ObservationFactory<J> implements EntityFactory<Observation, J> {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ObservationFactory.class);
+    /**
+     * Prints times the same way TimeInstant and TimeInterval do.
+     */
+    private static final DateTimeFormatter TIME_PRINTER = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
 
     private final EntityFactories<J> entityFactories;
     private final AbstractTableObservations<J> table;
     private final TableCollection<J> tableCollection;
+    private final Function<J, Datastream> datastreamCreator;
+    private final Function<J, MultiDatastream> multiDatastreamCreator;
 
     public ObservationFactory(EntityFactories<J> factories, AbstractTableObservations<J> table) {
         this.entityFactories = factories;
         this.table = table;
         this.tableCollection = factories.tableCollection;
+        this.datastreamCreator = factories::datastreamFromId;
+        this.multiDatastreamCreator = factories::multiDatastreamFromId;
     }
 
     @Override
@@ -163,6 +179,199 @@ public class ObservationFactory<J> implements EntityFactory<Observation, J> {
         }
     }
 
+    /**
+     * Adds the Observation in the given record directly to the dataArray
+     * writer, without creating an Observation. Only the visible components
+     * are read from the record. Times are printed straight from the database
+     * values, numeric results are taken from their stored string
+     * representation and json values are copied as they are.
+     *
+     * @param tuple The record to read the Observation from.
+     * @param writer The writer to add the Observation to.
+     * @param dataSize The data size counter to update.
+     * @throws IOException If writing fails.
+     */
+    public void writeDataArrayRow(Record tuple, DataArrayWriter writer, DataSize dataSize) throws IOException {
+        VisibleComponents components = writer.getVisibleComponents();
+        J dsId = getFieldOrNull(tuple, table.getDatastreamId());
+        JsonGenerator gen;
+        if (dsId == null) {
+            gen = writer.startRow(true, getFieldOrNull(tuple, table.getMultiDatastreamId()), multiDatastreamCreator);
+        } else {
+            gen = writer.startRow(false, dsId, datastreamCreator);
+        }
+        if (components.id) {
+            writeId(gen, getFieldOrNull(tuple, table.getId()));
+        }
+        if (components.phenomenonTime) {
+            OffsetDateTime pTimeStart = getFieldOrNull(tuple, table.phenomenonTimeStart);
+            OffsetDateTime pTimeEnd = getFieldOrNull(tuple, table.phenomenonTimeEnd);
+            if (pTimeEnd == null || pTimeEnd.equals(pTimeStart)) {
+                writeInstant(gen, pTimeStart);
+            } else {
+                writeInterval(gen, pTimeStart, pTimeEnd);
+            }
+        }
+        if (components.result) {
+            writeResult(gen, tuple, dataSize);
+        }
+        if (components.resultTime) {
+            writeInstant(gen, getFieldOrNull(tuple, table.resultTime));
+        }
+        if (components.resultQuality) {
+            writeJson(gen, getFieldOrNull(tuple, table.resultQuality), dataSize);
+        }
+        if (components.validTime) {
+            writeInterval(gen, getFieldOrNull(tuple, table.validTimeStart), getFieldOrNull(tuple, table.validTimeEnd));
+        }
+        if (components.parameters) {
+            writeJson(gen, getFieldOrNull(tuple, table.parameters), dataSize);
+        }
+        writer.endRow();
+    }
+
+    private void writeResult(JsonGenerator gen, Record tuple, DataSize dataSize) throws IOException {
+        Short resultTypeOrd = getFieldOrNull(tuple, table.resultType);
+        if (resultTypeOrd == null) {
+            gen.writeNull();
+            return;
+        }
+        switch (ResultType.fromSqlValue(resultTypeOrd)) {
+            case BOOLEAN:
+                Boolean resultBoolean = getFieldOrNull(tuple, table.resultBoolean);
+                if (resultBoolean == null) {
+                    gen.writeNull();
+                } else {
+                    gen.writeBoolean(resultBoolean);
+                }
+                break;
+
+            case NUMBER:
+                String resultString = getFieldOrNull(tuple, table.resultString);
+                if (isJsonNumber(resultString)) {
+                    gen.writeNumber(resultString);
+                } else {
+                    // It was not a Number? Use the double value.
+                    Double resultNumber = getFieldOrNull(tuple, table.resultNumber);
+                    if (resultNumber == null) {
+                        gen.writeNull();
+                    } else {
+                        gen.writeNumber(resultNumber);
+                    }
+                }
+                break;
+
+            case OBJECT_ARRAY:
+                writeJson(gen, getFieldOrNull(tuple, table.resultJson), dataSize);
+                break;
+
+            case STRING:
+                String stringData = getFieldOrNull(tuple, table.resultString);
+                dataSize.increase(stringData == null ? 0 : stringData.length());
+                gen.writeString(stringData);
+                break;
+
+            default:
+                gen.writeNull();
+        }
+    }
+
+    private static void writeId(JsonGenerator gen, Object id) throws IOException {
+        if (id == null) {
+            gen.writeNull();
+        } else if (id instanceof Number) {
+            gen.writeNumber(((Number) id).longValue());
+        } else {
+            gen.writeString(id.toString());
+        }
+    }
+
+    private static void writeJson(JsonGenerator gen, String json, DataSize dataSize) throws IOException {
+        if (json == null) {
+            gen.writeNull();
+            return;
+        }
+        dataSize.increase(json.length());
+        gen.writeRawValue(json);
+    }
+
+    private static void writeInstant(JsonGenerator gen, OffsetDateTime time) throws IOException {
+        if (time == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeString(TIME_PRINTER.print(time.toInstant().toEpochMilli()));
+    }
+
+    /**
+     * Writes the interval, or null if either end is missing, or the end is
+     * before the start.
+     */
+    private static void writeInterval(JsonGenerator gen, OffsetDateTime start, OffsetDateTime end) throws IOException {
+        if (start == null || end == null || end.isBefore(start)) {
+            gen.writeNull();
+            return;
+        }
+        StringBuilder interval = new StringBuilder(49);
+        TIME_PRINTER.printTo(interval, start.toInstant().toEpochMilli());
+        interval.append('/');
+        TIME_PRINTER.printTo(interval, end.toInstant().toEpochMilli());
+        gen.writeString(interval.toString());
+    }
+
+    /**
+     * Checks if the given String is a valid JSON number, so it can be written
+     * to the output as is.
+     */
+    static boolean isJsonNumber(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        int length = value.length();
+        int pos = 0;
+        if (value.charAt(pos) == '-') {
+            pos++;
+        }
+        int digitStart = pos;
+        pos = skipDigits(value, pos);
+        int intDigits = pos - digitStart;
+        if (intDigits == 0 || (intDigits > 1 && value.charAt(digitStart) == '0')) {
+            return false;
+        }
+        if (pos < length && value.charAt(pos) == '.') {
+            int fractionStart = ++pos;
+            pos = skipDigits(value, pos);
+            if (pos == fractionStart) {
+                return false;
+            }
+        }
+        if (pos < length && (value.charAt(pos) == 'e' || value.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < length && (value.charAt(pos) == '+' || value.charAt(pos) == '-')) {
+                pos++;
+            }
+            int exponentStart = pos;
+            pos = skipDigits(value, pos);
+            if (pos == exponentStart) {
+                return false;
+            }
+        }
+        return pos == length;
+    }
+
+    private static int skipDigits(String value, int start) {
+        int pos = start;
+        // Only ASCII digits, Character.isDigit also accepts other scripts.
+        while (pos < value.length() && isAsciiDigit(value.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     @Override
     public boolean insert(PostgresPersistenceManager<J> pm, Observation newObservation) throws NoSuchEntityException, IncompleteEntityException {
         Datastream ds = newObservation.getDatastream();
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import de.fraunhofer.iosb.ilt.statests.util.HTTPMethods;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the synthetic fleet the load test runs against: Things with a
+ * Location and a number of Datastreams each, and a history of Observations
+ * for each Datastream.
+ *
+ * @author scf
+ */
+public class FleetGenerator {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FleetGenerator.class);
+    /**
+     * The time between the historic Observations of a Datastream.
+     */
+    public static final long HISTORY_INTERVAL_MILLIS = 60_000L;
+
+    private static final String[] OBSERVED_PROPERTIES = {"Speed", "Fuel level", "Engine temperature", "Load"};
+
+    private final LoadClient client;
+    private final LoadSettings settings;
+    private final Random random = new Random(42);
+    private final List<Long> thingIds = new ArrayList<>();
+    private final List<Long> datastreamIds = new ArrayList<>();
+    private final AtomicLong loadedObservations = new AtomicLong();
+    private long generateMillis;
+
+    public FleetGenerator(LoadClient client, LoadSettings settings) {
+        this.client = client;
+        this.settings = settings;
+    }
+
+    /**
+     * Creates the fleet, and loads the historic Observations.
+     *
+     * @return this.
+     * @throws IOException If the server could not be reached.
+     * @throws InterruptedException If interrupted while loading.
+     */
+    public FleetGenerator generate() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long sensorId = create("Sensors", "{\"name\":\"Fleet sensor\",\"description\":\"Sensor of the synthetic fleet\","
+                + "\"encodingType\":\"application/pdf\",\"metadata\":\"http://example.org/sensor.pdf\"}");
+        long[] observedPropertyIds = new long[OBSERVED_PROPERTIES.length];
+        for (int i = 0; i < OBSERVED_PROPERTIES.length; i++) {
+            observedPropertyIds[i] = create("ObservedProperties", "{\"name\":\"" + OBSERVED_PROPERTIES[i] + "\","
+                    + "\"description\":\"" + OBSERVED_PROPERTIES[i] + " of the vehicle\","
+                    + "\"definition\":\"http://example.org/" + i + "\"}");
+        }
+        for (int i = 0; i < settings.things; i++) {
+            long thingId = create("Things", Payloads.thing(i, settings.datastreamsPerThing, sensorId, observedPropertyIds, random));
+            thingIds.add(thingId);
+            LoadClient.Response response = client.get("/Things(" + thingId + ")/Datastreams" + LoadClient.query("$select", "id", "$top", "1000"));
+            JSONArray value = new JSONObject(response.body).getJSONArray("value");
+            for (int j = 0; j < value.length(); j++) {
+                datastreamIds.add(value.getJSONObject(j).getLong("@iot.id"));
+            }
+        }
+        LOGGER.info("Created {} Things with {} Datastreams.", thingIds.size(), datastreamIds.size());
+        loadHistory();
+        generateMillis = System.currentTimeMillis() - start;
+        LOGGER.info("Generated fleet with {} Observations in {}s.", loadedObservations.get(), generateMillis / 1000);
+        return this;
+    }
+
+    /**
+     * Loads the historic Observations, using CreateObservations, with the
+     * Datastreams divided over the configured number of clients. The history
+     * of each Datastream ends at the current time.
+     */
+    private void loadHistory() throws InterruptedException {
+        final long perDatastream = settings.observations / Math.max(1, datastreamIds.size());
+        if (perDatastream == 0) {
+            return;
+        }
+        final long historyEnd = System.currentTimeMillis();
+        final long historyStart = historyEnd - perDatastream * HISTORY_INTERVAL_MILLIS;
+        ExecutorService executor = Executors.newFixedThreadPool(settings.threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Long datastreamId : datastreamIds) {
+            futures.add(executor.submit(() -> {
+                loadHistory(datastreamId, historyStart, perDatastream);
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Failed to load the Observation history.", ex.getCause());
+            }
+        }
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void loadHistory(long datastreamId, long historyStart, long count) throws IOException {
+        Random myRandom = new Random(datastreamId);
+        long done = 0;
+        while (done < count) {
+            int chunk = (int) Math.min(settings.preloadChunkSize, count - done);
+            long chunkStart = historyStart + done * HISTORY_INTERVAL_MILLIS;
+            String body = Payloads.dataArray(datastreamId, chunkStart, HISTORY_INTERVAL_MILLIS, chunk, myRandom);
+            LoadClient.Response response = client.postJson("/CreateObservations", body);
+            // Failed rows are reported as "error ..." in the list of self links.
+            if (!response.isSuccess() || response.body.contains("error")) {
+                throw new IOException("Failed to load history: " + response.status + " " + response.body);
+            }
+            done += chunk;
+            long total = loadedObservations.addAndGet(chunk);
+            if (total / 100_000 != (total - chunk) / 100_000) {
+                LOGGER.info("Loaded {} Observations.", total);
+            }
+        }
+    }
+
+    private long create(String entitySet, String body) throws IOException {
+        LoadClient.Response response = client.postJson("/" + entitySet, body);
+        if (response.status != 201 || response.location == null) {
+            throw new IOException("Failed to create " + entitySet + ": " + response.status + " " + response.body);
+        }
+        return ((Number) HTTPMethods.idFromSelfLink(response.location)).longValue();
+    }
+
+    public List<Long> getThingIds() {
+        return thingIds;
+    }
+
+    public List<Long> getDatastreamIds() {
+        return datastreamIds;
+    }
+
+    public long[] getDatastreamIdArray() {
+        long[] result = new long[datastreamIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = datastreamIds.get(i);
+        }
+        return result;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("things", thingIds.size());
+        json.put("datastreams", datastreamIds.size());
+        json.put("observations", loadedObservations.get());
+        json.put("generateSeconds", generateMillis / 1000.0);
+        return json;
+    }
+
+}
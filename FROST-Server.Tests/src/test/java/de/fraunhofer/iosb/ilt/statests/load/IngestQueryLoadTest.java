@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import de.fraunhofer.iosb.ilt.statests.ServerSettings;
+import de.fraunhofer.iosb.ilt.statests.TestSuite;
+import de.fraunhofer.iosb.ilt.statests.util.EntityType;
+import de.fraunhofer.iosb.ilt.statests.util.mqtt.MqttHelper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * End-to-end load test for ingest and queries. It starts the same servers as
+ * the TestSuite, generates a synthetic fleet, and then runs a number of
+ * scenarios, each measuring the sustained throughput and the latency of one
+ * type of request. The results are written to a json report.
+ *
+ * The test only runs when the system property {@value LoadSettings#KEY_ENABLED}
+ * is true, see the loadtest profile. The settings are described in
+ * {@link LoadSettings}.
+ *
+ * @author scf
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class IngestQueryLoadTest {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestQueryLoadTest.class);
+
+    private static LoadSettings settings;
+    private static ServerSettings serverSettings;
+    private static LoadClient client;
+    private static FleetGenerator fleet;
+    private static LoadReport report;
+
+    @BeforeClass
+    public static void setUp() throws IOException, InterruptedException {
+        Assume.assumeTrue("Load test not enabled, set -D" + LoadSettings.KEY_ENABLED + "=true", LoadSettings.isEnabled());
+        LOGGER.info("Setting up.");
+        settings = new LoadSettings();
+        serverSettings = TestSuite.getInstance().getServerSettings();
+        client = new LoadClient(serverSettings.serviceUrl, settings.threads * 2);
+        report = new LoadReport(settings);
+        fleet = new FleetGenerator(client, settings).generate();
+        report.setFleet(fleet);
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        // The fleet is not deleted, deleting millions of Observations takes
+        // longer than throwing away the database container.
+        if (report != null) {
+            File reportFile = new File(settings.reportFile);
+            report.write(reportFile);
+            LOGGER.info("Load test report written to {}", reportFile.getAbsolutePath());
+        }
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void test01PostObservations() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        ScenarioResult result = new LoadRunner("postObservations", settings.threads, settings).run(clientNr -> {
+            Random random = new Random(clientNr);
+            return () -> {
+                long datastreamId = datastreamIds[random.nextInt(datastreamIds.length)];
+                String body = Payloads.observation(datastreamId, Payloads.now(), random.nextGaussian() * 5 + 20);
+                return client.postJson("/Observations", body).status == 201;
+            };
+        });
+        addResult(result.addExtra("observationsPerSecond", result.getThroughput()));
+    }
+
+    @Test
+    public void test02CreateObservations() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        final int rows = settings.dataArraySize;
+        ScenarioResult result = new LoadRunner("createObservations", settings.threads, settings).run(clientNr -> {
+            Random random = new Random(clientNr);
+            return () -> {
+                long datastreamId = datastreamIds[random.nextInt(datastreamIds.length)];
+                // Spread the rows over the last second, so they are at least
+                // 10ms apart, to not collide with other requests.
+                long start = System.currentTimeMillis() - 1000;
+                String body = Payloads.dataArray(datastreamId, start, Math.max(1, 1000 / rows), rows, random);
+                LoadClient.Response response = client.postJson("/CreateObservations", body);
+                return response.status == 201 && !response.body.contains("error");
+            };
+        });
+        addResult(result
+                .addExtra("observationsPerRequest", rows)
+                .addExtra("observationsPerSecond", result.getThroughput() * rows));
+    }
+
+    @Test
+    public void test03Batch() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        final int batchSize = settings.batchSize;
+        ScenarioResult result = new LoadRunner("batch", settings.threads, settings).run(clientNr -> {
+            Random random = new Random(clientNr);
+            return () -> {
+                String body = Payloads.batch(datastreamIds, batchSize, random);
+                LoadClient.Response response = client.post("/$batch", body, Payloads.BATCH_CONTENT_TYPE);
+                return response.status == 200 && Payloads.countBatchStatus(response.body, 201) == batchSize;
+            };
+        });
+        addResult(result
+                .addExtra("observationsPerRequest", batchSize)
+                .addExtra("observationsPerSecond", result.getThroughput() * batchSize));
+    }
+
+    /**
+     * Creates Observations over MQTT. The latency is the time until the
+     * broker acknowledges the publish, the Observations are stored
+     * asynchronously. To see if the server keeps up, the number of stored
+     * Observations is counted after the scenario.
+     */
+    @Test
+    public void test04MqttCreate() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        final AtomicLong published = new AtomicLong();
+        long countBefore = countObservations();
+        ScenarioResult result = new LoadRunner("mqttCreate", settings.threads, settings).run(clientNr -> {
+            Random random = new Random(clientNr);
+            MqttClient mqttClient = connectMqtt("loadtest-create-" + clientNr);
+            return new LoadRunner.Operation() {
+                @Override
+                public boolean execute() throws Exception {
+                    long datastreamId = datastreamIds[random.nextInt(datastreamIds.length)];
+                    String topic = MqttHelper.getTopic(EntityType.DATASTREAM, datastreamId, "Observations");
+                    String body = Payloads.observation(Payloads.now(), random.nextGaussian() * 5 + 20);
+                    mqttClient.publish(topic, body.getBytes(StandardCharsets.UTF_8), settings.mqttQos, false);
+                    published.incrementAndGet();
+                    return true;
+                }
+
+                @Override
+                public void close() throws MqttException {
+                    mqttClient.disconnect();
+                    mqttClient.close();
+                }
+            };
+        });
+        long stored = waitForObservationCount(countBefore, published.get()) - countBefore;
+        addResult(result
+                .addExtra("publishedIncludingWarmup", published.get())
+                .addExtra("storedIncludingWarmup", stored));
+    }
+
+    /**
+     * Posts Observations over HTTP, while a number of MQTT clients are
+     * subscribed to the Datastreams. The latency is the time from the start
+     * of the POST until a subscriber receives the Observation, for each
+     * subscriber.
+     */
+    @Test
+    public void test05MqttFanOut() throws Exception {
+        final long[] allIds = fleet.getDatastreamIdArray();
+        final long[] datastreamIds = new long[Math.min(settings.fanOutDatastreams, allIds.length)];
+        System.arraycopy(allIds, 0, datastreamIds, 0, datastreamIds.length);
+        final LoadRunner runner = new LoadRunner("mqttFanOutPublish", settings.threads, settings);
+
+        List<MqttClient> subscribers = new ArrayList<>();
+        List<LatencyRecorder> deliveries = new ArrayList<>();
+        final int[] subscribersPerDatastream = new int[datastreamIds.length];
+        for (int i = 0; i < settings.subscribers; i++) {
+            final LatencyRecorder recorder = new LatencyRecorder();
+            int dsIndex = i % datastreamIds.length;
+            subscribersPerDatastream[dsIndex]++;
+            MqttClient subscriber = connectMqtt("loadtest-subscriber-" + i);
+            String topic = MqttHelper.getTopic(EntityType.DATASTREAM, datastreamIds[dsIndex], "Observations");
+            subscriber.subscribe(topic, settings.mqttQos, (t, message) -> {
+                long received = System.nanoTime();
+                JSONObject observation = new JSONObject(new String(message.getPayload(), StandardCharsets.UTF_8));
+                long sent = observation.getJSONObject("parameters").getLong(Payloads.PARAM_SENT);
+                if (sent >= runner.getMeasureStartNanos()) {
+                    recorder.record(received - sent);
+                }
+            });
+            subscribers.add(subscriber);
+            deliveries.add(recorder);
+        }
+
+        final LongAdder expected = new LongAdder();
+        ScenarioResult publish = runner.run(clientNr -> {
+            Random random = new Random(clientNr);
+            return () -> {
+                int dsIndex = random.nextInt(datastreamIds.length);
+                long sent = System.nanoTime();
+                boolean success = client.postJson("/Observations", Payloads.timedObservation(datastreamIds[dsIndex], sent)).status == 201;
+                if (success && sent >= runner.getMeasureStartNanos()) {
+                    expected.add(subscribersPerDatastream[dsIndex]);
+                }
+                return success;
+            };
+        });
+        long delivered = waitForDeliveries(deliveries, expected.sum());
+        for (MqttClient subscriber : subscribers) {
+            subscriber.disconnect();
+            subscriber.close();
+        }
+        addResult(publish);
+        ScenarioResult fanOut = new ScenarioResult("mqttFanOut", settings.subscribers, runner.getDurationSeconds(), deliveries);
+        LOGGER.info("{}", fanOut);
+        report.addResult(fanOut
+                .addExtra("subscribers", settings.subscribers)
+                .addExtra("datastreams", datastreamIds.length)
+                .addExtra("expectedDeliveries", expected.sum())
+                .addExtra("lostDeliveries", expected.sum() - delivered));
+    }
+
+    /**
+     * The latest Observation of a Datastream, as shown in a dashboard tile.
+     */
+    @Test
+    public void test06DashboardLatest() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        runQueryScenario("dashboardLatest", random -> "/Datastreams(" + datastreamIds[random.nextInt(datastreamIds.length)] + ")/Observations"
+                + LoadClient.query(
+                        "$top", "1",
+                        "$orderby", "phenomenonTime desc",
+                        "$select", "result,phenomenonTime"));
+    }
+
+    /**
+     * The last hour of a Datastream, as shown in a dashboard chart.
+     */
+    @Test
+    public void test07DashboardWindow() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        runQueryScenario("dashboardWindow", random -> "/Datastreams(" + datastreamIds[random.nextInt(datastreamIds.length)] + ")/Observations"
+                + LoadClient.query(
+                        "$filter", "phenomenonTime gt " + Payloads.now().minusSeconds(3600),
+                        "$orderby", "phenomenonTime asc",
+                        "$top", "1000",
+                        "$select", "result,phenomenonTime"));
+    }
+
+    /**
+     * An overview of the fleet, with the location and the latest Observation
+     * of each Datastream, as shown on a dashboard map.
+     */
+    @Test
+    public void test08DashboardOverview() throws Exception {
+        runQueryScenario("dashboardOverview", random -> "/Things"
+                + LoadClient.query(
+                        "$top", "100",
+                        "$select", "id,name",
+                        "$expand", "Locations($select=location),Datastreams($select=id,name,unitOfMeasurement;"
+                        + "$expand=Observations($top=1;$orderby=phenomenonTime desc;$select=result,phenomenonTime))"));
+    }
+
+    /**
+     * The number of Observations of a Datastream in the last day.
+     */
+    @Test
+    public void test09DashboardCount() throws Exception {
+        final long[] datastreamIds = fleet.getDatastreamIdArray();
+        runQueryScenario("dashboardCount", random -> "/Datastreams(" + datastreamIds[random.nextInt(datastreamIds.length)] + ")/Observations"
+                + LoadClient.query(
+                        "$filter", "phenomenonTime gt " + Payloads.now().minusSeconds(86400),
+                        "$count", "true",
+                        "$top", "1",
+                        "$select", "id"));
+    }
+
+    private static interface QueryGenerator {
+
+        public String next(Random random);
+    }
+
+    private void runQueryScenario(String name, QueryGenerator generator) throws Exception {
+        ScenarioResult result = new LoadRunner(name, settings.threads, settings).run(clientNr -> {
+            Random random = new Random(clientNr);
+            return () -> client.get(generator.next(random)).status == 200;
+        });
+        addResult(result);
+    }
+
+    private void addResult(ScenarioResult result) {
+        report.addResult(result);
+        Assert.assertTrue("Scenario " + result.getName() + " did not complete any operations.", result.getOperations() > 0);
+        Assert.assertTrue("Scenario " + result.getName() + " had an error rate of " + result.getErrorRate(), result.getErrorRate() <= settings.maxErrorRate);
+    }
+
+    private MqttClient connectMqtt(String clientId) throws MqttException {
+        MqttClient mqttClient = new MqttClient(serverSettings.mqttUrl, clientId, new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(1000);
+        mqttClient.connect(options);
+        return mqttClient;
+    }
+
+    private long countObservations() throws IOException {
+        LoadClient.Response response = client.get("/Observations" + LoadClient.query("$top", "1", "$select", "id", "$count", "true"));
+        return new JSONObject(response.body).getLong("@iot.count");
+    }
+
+    /**
+     * Waits until the expected number of Observations is stored, or the count
+     * stops increasing.
+     */
+    private long waitForObservationCount(long before, long added) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + serverSettings.mqttTimeOut;
+        long last = -1;
+        long count = countObservations();
+        while (count < before + added && count != last && System.currentTimeMillis() < deadline) {
+            TimeUnit.SECONDS.sleep(1);
+            last = count;
+            count = countObservations();
+        }
+        return count;
+    }
+
+    /**
+     * Waits until the expected number of messages is delivered, or the
+     * deliveries stop.
+     */
+    private long waitForDeliveries(List<LatencyRecorder> recorders, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + serverSettings.mqttTimeOut;
+        long last = -1;
+        long count = countDeliveries(recorders);
+        while (count < expected && count != last && System.currentTimeMillis() < deadline) {
+            TimeUnit.SECONDS.sleep(1);
+            last = count;
+            count = countDeliveries(recorders);
+        }
+        return count;
+    }
+
+    private static long countDeliveries(List<LatencyRecorder> recorders) {
+        long count = 0;
+        for (LatencyRecorder recorder : recorders) {
+            count += recorder.getCount();
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the latencies of the operations of one client. Each client has its
+ * own recorder, so recording does not add contention between clients. The
+ * recorders of a scenario are merged when the scenario is done.
+ *
+ * @author scf
+ */
+public class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long errors;
+
+    /**
+     * Records the latency of a successful operation.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * Records a failed operation.
+     */
+    public synchronized void recordError() {
+        errors++;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    private synchronized long[] getLatencies() {
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Merges the latencies of the given recorders into one sorted array.
+     *
+     * @param recorders The recorders to merge.
+     * @return The latencies of all recorders, sorted ascending.
+     */
+    public static long[] mergeSorted(List<LatencyRecorder> recorders) {
+        List<long[]> parts = new ArrayList<>();
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            long[] values = recorder.getLatencies();
+            parts.add(values);
+            total += values.length;
+        }
+        long[] merged = new long[total];
+        int pos = 0;
+        for (long[] values : parts) {
+            System.arraycopy(values, 0, merged, pos, values.length);
+            pos += values.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    public static long sumErrors(List<LatencyRecorder> recorders) {
+        long total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.getErrors();
+        }
+        return total;
+    }
+}
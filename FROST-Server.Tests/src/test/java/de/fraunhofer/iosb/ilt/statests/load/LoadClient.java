@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A http client for the load test. Unlike HTTPMethods it keeps connections
+ * open between requests, so the load test measures the server, not the
+ * setting up of connections.
+ *
+ * @author scf
+ */
+public class LoadClient implements AutoCloseable {
+
+    public static class Response {
+
+        public final int status;
+        public final String body;
+        public final String location;
+
+        public Response(int status, String body, String location) {
+            this.status = status;
+            this.body = body;
+            this.location = location;
+        }
+
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private final String serviceUrl;
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * @param serviceUrl The url of the service, including the version.
+     * @param maxConnections The maximum number of concurrent connections.
+     */
+    public LoadClient(String serviceUrl, int maxConnections) {
+        this.serviceUrl = serviceUrl;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .build();
+    }
+
+    /**
+     * Does a GET on the given path, relative to the service url.
+     *
+     * @param pathAndQuery The path and query, with the query encoded.
+     * @return The response.
+     * @throws IOException If the request failed.
+     */
+    public Response get(String pathAndQuery) throws IOException {
+        return execute(new HttpGet(serviceUrl + pathAndQuery));
+    }
+
+    public Response postJson(String path, String body) throws IOException {
+        return post(path, body, ContentType.APPLICATION_JSON);
+    }
+
+    public Response post(String path, String body, ContentType contentType) throws IOException {
+        HttpPost post = new HttpPost(serviceUrl + path);
+        post.setEntity(new StringEntity(body, contentType));
+        return execute(post);
+    }
+
+    private Response execute(HttpRequestBase request) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            // Always read the full body, it is part of the latency.
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            Header location = response.getFirstHeader(HttpHeaders.LOCATION);
+            return new Response(response.getStatusLine().getStatusCode(), body, location == null ? null : location.getValue());
+        }
+    }
+
+    /**
+     * Builds an encoded query string from the given names and values.
+     *
+     * @param namesAndValues The names and values of the query parameters,
+     * alternating.
+     * @return the encoded query, starting with a question mark.
+     */
+    public static String query(String... namesAndValues) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            query.append(i == 0 ? '?' : '&')
+                    .append(namesAndValues[i])
+                    .append('=')
+                    .append(encode(namesAndValues[i + 1]));
+        }
+        return query.toString();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name()).replace("+", "%20");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 not supported?", ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+}
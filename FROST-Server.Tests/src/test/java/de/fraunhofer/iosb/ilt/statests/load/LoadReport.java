@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The machine-readable report of a load test run. Besides the results of the
+ * scenarios it holds the settings, the size of the fleet and the environment,
+ * so reports of different runs and machines can be compared.
+ *
+ * @author scf
+ */
+public class LoadReport {
+
+    private final JSONObject root = new JSONObject();
+    private final JSONArray scenarios = new JSONArray();
+
+    public LoadReport(LoadSettings settings) {
+        root.put("timestamp", Instant.now().toString());
+        root.put("label", settings.label);
+        root.put("environment", environment());
+        root.put("settings", settings.toJson());
+        root.put("scenarios", scenarios);
+    }
+
+    public void setFleet(FleetGenerator fleet) {
+        root.put("fleet", fleet.toJson());
+    }
+
+    public void addResult(ScenarioResult result) {
+        scenarios.put(result.toJson());
+    }
+
+    public void write(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(root.toString(2));
+        }
+    }
+
+    private static JSONObject environment() {
+        Runtime runtime = Runtime.getRuntime();
+        JSONObject json = new JSONObject();
+        json.put("javaVersion", System.getProperty("java.version"));
+        json.put("javaVm", System.getProperty("java.vm.name"));
+        json.put("osName", System.getProperty("os.name"));
+        json.put("osArch", System.getProperty("os.arch"));
+        json.put("availableProcessors", runtime.availableProcessors());
+        json.put("maxMemoryMb", runtime.maxMemory() / (1024 * 1024));
+        return json;
+    }
+
+}
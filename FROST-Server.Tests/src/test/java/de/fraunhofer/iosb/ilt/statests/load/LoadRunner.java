@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs one scenario: a number of clients that each execute their operation in
+ * a closed loop, first for a warm-up period, then for the measured period.
+ *
+ * @author scf
+ */
+public class LoadRunner {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadRunner.class);
+
+    /**
+     * The operation of one client. Each client gets its own instance, so
+     * operations can hold client state, like a connection, without
+     * synchronisation.
+     */
+    public static interface Operation extends AutoCloseable {
+
+        /**
+         * Executes the operation once.
+         *
+         * @return true if the operation succeeded.
+         * @throws Exception if the operation failed.
+         */
+        public boolean execute() throws Exception;
+
+        @Override
+        public default void close() throws Exception {
+            // Nothing to close by default.
+        }
+    }
+
+    public static interface OperationFactory {
+
+        public Operation create(int client) throws Exception;
+    }
+
+    private final String name;
+    private final int clients;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private volatile long measureStartNanos;
+
+    public LoadRunner(String name, int clients, LoadSettings settings) {
+        this.name = name;
+        this.clients = clients;
+        this.warmupSeconds = settings.warmupSeconds;
+        this.durationSeconds = settings.durationSeconds;
+    }
+
+    /**
+     * The value of System.nanoTime() at which the measurement starts, after
+     * the warm-up. Only valid once run has been called.
+     *
+     * @return The start of the measurement, in System.nanoTime().
+     */
+    public long getMeasureStartNanos() {
+        return measureStartNanos;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Runs the scenario and blocks until it is done.
+     *
+     * @param factory The factory for the operations of the clients.
+     * @return The measurements.
+     * @throws Exception if the operations could not be created.
+     */
+    public ScenarioResult run(OperationFactory factory) throws Exception {
+        LOGGER.info("Scenario {}: {} clients, {}s warm-up, {}s measurement.", name, clients, warmupSeconds, durationSeconds);
+        List<Operation> operations = new ArrayList<>();
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            operations.add(factory.create(i));
+            recorders.add(new LatencyRecorder());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        CountDownLatch done = new CountDownLatch(clients);
+        measureStartNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (int i = 0; i < clients; i++) {
+            Operation operation = operations.get(i);
+            LatencyRecorder recorder = recorders.get(i);
+            executor.submit(() -> {
+                try {
+                    runClient(operation, recorder, endNanos);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        executor.shutdown();
+        long timeout = warmupSeconds + durationSeconds + 60L;
+        if (!done.await(timeout, TimeUnit.SECONDS)) {
+            LOGGER.error("Scenario {} did not end in time.", name);
+            executor.shutdownNow();
+        }
+        for (Operation operation : operations) {
+            try {
+                operation.close();
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to close operation.", ex);
+            }
+        }
+        ScenarioResult result = new ScenarioResult(name, clients, durationSeconds, recorders);
+        LOGGER.info("{}", result);
+        return result;
+    }
+
+    private void runClient(Operation operation, LatencyRecorder recorder, long endNanos) {
+        boolean errorLogged = false;
+        long start = System.nanoTime();
+        while (start < endNanos) {
+            boolean success;
+            try {
+                success = operation.execute();
+            } catch (Exception ex) {
+                success = false;
+                if (!errorLogged) {
+                    LOGGER.warn("Operation of scenario {} failed, further errors of this client are only counted.", name, ex);
+                    errorLogged = true;
+                }
+            }
+            long end = System.nanoTime();
+            if (start >= measureStartNanos) {
+                if (success) {
+                    recorder.record(end - start);
+                } else {
+                    recorder.recordError();
+                }
+            }
+            start = end;
+        }
+    }
+
+}
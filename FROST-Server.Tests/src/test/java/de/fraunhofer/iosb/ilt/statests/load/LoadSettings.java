@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import org.json.JSONObject;
+
+/**
+ * The settings of the load test, read from system properties with the prefix
+ * {@value #PREFIX}. They can be set on the maven command line, for instance
+ * {@code -DloadTest.observations=5000000}.
+ *
+ * @author scf
+ */
+public class LoadSettings {
+
+    /**
+     * The system property that enables the load test.
+     */
+    public static final String KEY_ENABLED = "loadTest";
+    public static final String PREFIX = "loadTest.";
+
+    /**
+     * The number of Things in the fleet.
+     */
+    public final int things = getInt("things", 10);
+    /**
+     * The number of Datastreams for each Thing.
+     */
+    public final int datastreamsPerThing = getInt("datastreamsPerThing", 3);
+    /**
+     * The total number of historic Observations loaded before the scenarios
+     * start, spread evenly over the Datastreams.
+     */
+    public final long observations = getLong("observations", 100_000);
+    /**
+     * The number of Observations in each CreateObservations request used to
+     * load the historic Observations.
+     */
+    public final int preloadChunkSize = getInt("preloadChunkSize", 1000);
+    /**
+     * The number of concurrent clients in each scenario.
+     */
+    public final int threads = getInt("threads", 8);
+    /**
+     * The number of seconds each scenario runs before measuring starts.
+     */
+    public final int warmupSeconds = getInt("warmupSeconds", 5);
+    /**
+     * The number of seconds each scenario is measured.
+     */
+    public final int durationSeconds = getInt("durationSeconds", 30);
+    /**
+     * The number of Observations in each CreateObservations request.
+     */
+    public final int dataArraySize = getInt("dataArraySize", 100);
+    /**
+     * The number of Observations in each $batch request.
+     */
+    public final int batchSize = getInt("batchSize", 10);
+    /**
+     * The number of MQTT subscribers in the fan-out scenario.
+     */
+    public final int subscribers = getInt("subscribers", 20);
+    /**
+     * The number of Datastreams the fan-out subscribers are spread over.
+     */
+    public final int fanOutDatastreams = getInt("fanOutDatastreams", 4);
+    /**
+     * The QoS used for MQTT publishing and subscribing.
+     */
+    public final int mqttQos = getInt("mqttQos", 1);
+    /**
+     * The fraction of failed requests above which a scenario fails.
+     */
+    public final double maxErrorRate = getDouble("maxErrorRate", 0.01);
+    /**
+     * The file the report is written to.
+     */
+    public final String reportFile = System.getProperty(PREFIX + "report", "target/loadtest-report.json");
+    /**
+     * A free-form label for the report, for instance the git commit.
+     */
+    public final String label = System.getProperty(PREFIX + "label", "");
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(KEY_ENABLED);
+    }
+
+    public int getDatastreamCount() {
+        return things * datastreamsPerThing;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("things", things);
+        json.put("datastreamsPerThing", datastreamsPerThing);
+        json.put("observations", observations);
+        json.put("preloadChunkSize", preloadChunkSize);
+        json.put("threads", threads);
+        json.put("warmupSeconds", warmupSeconds);
+        json.put("durationSeconds", durationSeconds);
+        json.put("dataArraySize", dataArraySize);
+        json.put("batchSize", batchSize);
+        json.put("subscribers", subscribers);
+        json.put("fanOutDatastreams", fanOutDatastreams);
+        json.put("mqttQos", mqttQos);
+        json.put("maxErrorRate", maxErrorRate);
+        return json;
+    }
+
+    private static int getInt(String name, int deflt) {
+        return Integer.parseInt(System.getProperty(PREFIX + name, Integer.toString(deflt)));
+    }
+
+    private static long getLong(String name, long deflt) {
+        return Long.parseLong(System.getProperty(PREFIX + name, Long.toString(deflt)));
+    }
+
+    private static double getDouble(String name, double deflt) {
+        return Double.parseDouble(System.getProperty(PREFIX + name, Double.toString(deflt)));
+    }
+
+}
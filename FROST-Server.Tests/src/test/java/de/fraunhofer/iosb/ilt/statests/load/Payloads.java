@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Random;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Builds the request bodies for the load test.
+ *
+ * @author scf
+ */
+public class Payloads {
+
+    public static final String BATCH_BOUNDARY = "batch_loadtest";
+    public static final String CHANGESET_BOUNDARY = "changeset_loadtest";
+    public static final ContentType BATCH_CONTENT_TYPE = ContentType.create("multipart/mixed; boundary=" + BATCH_BOUNDARY);
+    /**
+     * The name of the Observation parameter that holds the System.nanoTime()
+     * of the moment the Observation was sent.
+     */
+    public static final String PARAM_SENT = "sent";
+
+    private Payloads() {
+        // Utility class, not to be instantiated.
+    }
+
+    /**
+     * The current time, with millisecond precision, like the server stores
+     * it.
+     *
+     * @return The current time.
+     */
+    public static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
+    /**
+     * A single Observation, to be posted to a Datastream.
+     *
+     * @param time The phenomenonTime.
+     * @param result The result.
+     * @return The json.
+     */
+    public static String observation(Instant time, double result) {
+        return "{\"phenomenonTime\":\"" + time + "\",\"result\":" + formatResult(result) + "}";
+    }
+
+    /**
+     * A single Observation with a Datastream, to be posted to /Observations.
+     *
+     * @param datastreamId The id of the Datastream.
+     * @param time The phenomenonTime.
+     * @param result The result.
+     * @return The json.
+     */
+    public static String observation(long datastreamId, Instant time, double result) {
+        return "{\"phenomenonTime\":\"" + time + "\",\"result\":" + formatResult(result)
+                + ",\"Datastream\":{\"@iot.id\":" + datastreamId + "}}";
+    }
+
+    /**
+     * A single Observation that records when it was sent, for measuring the
+     * delivery latency to MQTT subscribers.
+     *
+     * @param datastreamId The id of the Datastream.
+     * @param sentNanos The System.nanoTime() at sending.
+     * @return The json.
+     */
+    public static String timedObservation(long datastreamId, long sentNanos) {
+        return "{\"phenomenonTime\":\"" + now() + "\",\"result\":1"
+                + ",\"parameters\":{\"" + PARAM_SENT + "\":" + sentNanos + "}"
+                + ",\"Datastream\":{\"@iot.id\":" + datastreamId + "}}";
+    }
+
+    /**
+     * A CreateObservations request for one Datastream, with one Observation
+     * per interval, starting at the given time.
+     *
+     * @param datastreamId The id of the Datastream.
+     * @param start The phenomenonTime of the first Observation.
+     * @param intervalMillis The time between Observations.
+     * @param count The number of Observations.
+     * @param random The source of the results.
+     * @return The json.
+     */
+    public static String dataArray(long datastreamId, long start, long intervalMillis, int count, Random random) {
+        StringBuilder sb = new StringBuilder(count * 48 + 128);
+        sb.append("[{\"Datastream\":{\"@iot.id\":").append(datastreamId).append("},")
+                .append("\"components\":[\"phenomenonTime\",\"result\"],")
+                .append("\"dataArray@iot.count\":").append(count).append(',')
+                .append("\"dataArray\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("[\"").append(Instant.ofEpochMilli(start + i * intervalMillis)).append("\",")
+                    .append(formatResult(random.nextGaussian() * 5 + 20)).append(']');
+        }
+        sb.append("]}]");
+        return sb.toString();
+    }
+
+    /**
+     * A $batch request with one changeset that creates the given number of
+     * Observations.
+     *
+     * @param datastreamIds The Datastreams to create the Observations in, used
+     * round-robin.
+     * @param count The number of Observations.
+     * @param random The source of the results.
+     * @return The multipart body.
+     */
+    public static String batch(long[] datastreamIds, int count, Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("--").append(BATCH_BOUNDARY).append("\r\n")
+                .append("Content-Type: multipart/mixed; boundary=").append(CHANGESET_BOUNDARY).append("\r\n\r\n");
+        Instant now = now();
+        int offset = random.nextInt(datastreamIds.length);
+        for (int i = 0; i < count; i++) {
+            long datastreamId = datastreamIds[(offset + i) % datastreamIds.length];
+            sb.append("--").append(CHANGESET_BOUNDARY).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-Transfer-Encoding: binary\r\n")
+                    .append("Content-ID: ").append(i + 1).append("\r\n\r\n")
+                    .append("POST /v1.0/Datastreams(").append(datastreamId).append(")/Observations HTTP/1.1\r\n")
+                    .append("Content-Type: application/json\r\n\r\n")
+                    .append(observation(now, random.nextGaussian() * 5 + 20)).append("\r\n");
+        }
+        sb.append("--").append(CHANGESET_BOUNDARY).append("--\r\n")
+                .append("--").append(BATCH_BOUNDARY).append("--\r\n");
+        return sb.toString();
+    }
+
+    /**
+     * Counts the parts of a $batch response that have the given status.
+     *
+     * @param response The body of the $batch response.
+     * @param status The status to count.
+     * @return The number of parts with the given status.
+     */
+    public static int countBatchStatus(String response, int status) {
+        String statusLine = ("http/1.1 " + status + " ");
+        String lower = response.toLowerCase(Locale.ROOT);
+        int found = 0;
+        for (int idx = lower.indexOf(statusLine); idx >= 0; idx = lower.indexOf(statusLine, idx + 1)) {
+            found++;
+        }
+        return found;
+    }
+
+    /**
+     * A Thing with a Location and Datastreams, for deep insert. The
+     * ObservedProperties and the Sensor must already exist.
+     *
+     * @param index The number of the Thing, used in names.
+     * @param datastreams The number of Datastreams.
+     * @param sensorId The id of the Sensor of the Datastreams.
+     * @param observedPropertyIds The ids of the ObservedProperties, used
+     * round-robin.
+     * @param random The source of the location.
+     * @return The json.
+     */
+    public static String thing(int index, int datastreams, long sensorId, long[] observedPropertyIds, Random random) {
+        double lon = 8.0 + random.nextDouble();
+        double lat = 49.0 + random.nextDouble();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"name\":\"Vehicle ").append(index).append("\",")
+                .append("\"description\":\"Synthetic fleet vehicle ").append(index).append("\",")
+                .append("\"properties\":{\"fleet\":\"loadtest\",\"index\":").append(index).append("},")
+                .append("\"Locations\":[{\"name\":\"Depot ").append(index).append("\",")
+                .append("\"description\":\"The depot of vehicle ").append(index).append("\",")
+                .append("\"encodingType\":\"application/vnd.geo+json\",")
+                .append("\"location\":{\"type\":\"Point\",\"coordinates\":[")
+                .append(String.format(Locale.ROOT, "%.5f,%.5f", lon, lat)).append("]}}],")
+                .append("\"Datastreams\":[");
+        for (int i = 0; i < datastreams; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"Vehicle ").append(index).append(" sensor ").append(i).append("\",")
+                    .append("\"description\":\"Sensor ").append(i).append(" of vehicle ").append(index).append("\",")
+                    .append("\"observationType\":\"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\",")
+                    .append("\"unitOfMeasurement\":{\"name\":\"unit\",\"symbol\":\"u\",\"definition\":\"http://example.org/unit\"},")
+                    .append("\"Sensor\":{\"@iot.id\":").append(sensorId).append("},")
+                    .append("\"ObservedProperty\":{\"@iot.id\":").append(observedPropertyIds[i % observedPropertyIds.length]).append("}}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static String formatResult(double result) {
+        return String.format(Locale.ROOT, "%.3f", result);
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.statests.load;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * The measurements of one scenario of the load test.
+ *
+ * @author scf
+ */
+public class ScenarioResult {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String name;
+    private final int clients;
+    private final double seconds;
+    private final long[] latencies;
+    private final long errors;
+    private final Map<String, Object> extra = new LinkedHashMap<>();
+
+    /**
+     * Creates the result of a scenario.
+     *
+     * @param name The name of the scenario.
+     * @param clients The number of concurrent clients.
+     * @param seconds The duration of the measurement, in seconds.
+     * @param recorders The recorders of all clients.
+     */
+    public ScenarioResult(String name, int clients, double seconds, List<LatencyRecorder> recorders) {
+        this.name = name;
+        this.clients = clients;
+        this.seconds = seconds;
+        this.latencies = LatencyRecorder.mergeSorted(recorders);
+        this.errors = LatencyRecorder.sumErrors(recorders);
+    }
+
+    /**
+     * Adds a scenario-specific value to the result.
+     *
+     * @param key The name of the value.
+     * @param value The value.
+     * @return this.
+     */
+    public ScenarioResult addExtra(String key, Object value) {
+        extra.put(key, value);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of successful operations.
+     */
+    public long getOperations() {
+        return latencies.length;
+    }
+
+    /**
+     * @return The number of failed operations.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getErrorRate() {
+        long total = getOperations() + errors;
+        return total == 0 ? 0 : (double) errors / total;
+    }
+
+    /**
+     * @return The number of successful operations per second.
+     */
+    public double getThroughput() {
+        return latencies.length / seconds;
+    }
+
+    /**
+     * The latency below which the given fraction of the operations completed.
+     *
+     * @param fraction The fraction, between 0 and 1.
+     * @return The latency in milliseconds, or NaN if there were no operations.
+     */
+    public double getPercentile(double fraction) {
+        if (latencies.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(fraction * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / NANOS_PER_MILLI;
+    }
+
+    public double getMean() {
+        if (latencies.length == 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (long latency : latencies) {
+            sum += latency;
+        }
+        return sum / latencies.length / NANOS_PER_MILLI;
+    }
+
+    public JSONObject toJson() {
+        JSONObject latency = new JSONObject();
+        latency.put("mean", round(getMean()));
+        latency.put("p50", round(getPercentile(0.50)));
+        latency.put("p90", round(getPercentile(0.90)));
+        latency.put("p99", round(getPercentile(0.99)));
+        latency.put("max", round(getPercentile(1.0)));
+
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("clients", clients);
+        json.put("durationSeconds", seconds);
+        json.put("operations", getOperations());
+        json.put("errors", errors);
+        json.put("throughputPerSecond", round(getThroughput()));
+        json.put("latencyMs", latency);
+        for (Map.Entry<String, Object> entry : extra.entrySet()) {
+            json.put(entry.getKey(), entry.getValue());
+        }
+        return json;
+    }
+
+    /**
+     * Rounds to three decimals, and replaces NaN, that json can not express,
+     * with -1.
+     */
+    private static double round(double value) {
+        if (Double.isNaN(value)) {
+            return -1;
+        }
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %d ops, %d errors, %.1f ops/s, p50 %.2f ms, p99 %.2f ms",
+                name, getOperations(), errors, getThroughput(), getPercentile(0.5), getPercentile(0.99));
+    }
+
+}